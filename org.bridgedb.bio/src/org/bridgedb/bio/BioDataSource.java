@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -602,12 +603,23 @@ public class BioDataSource
 		InputStream is = BioDataSource.class.getClassLoader().getResourceAsStream("org/bridgedb/bio/datasources.tsv");
 		try
 		{
-            DataSourceTsv.loadInputStream(is);
-			InternalUtils.readXmlConfig(
+			// read both files first, so other threads only wait for the registration itself
+			DataSourceTsv tsv = new DataSourceTsv();
+			List<String[]> lines = tsv.readLines(is);
+			Map<String, List<String>> aliases = InternalUtils.readXmlAliases(
 					new InputSource(
 							BioDataSource.class.getClassLoader().getResourceAsStream(
 									"org/bridgedb/bio/datasources.xml")));
-			
+			DataSource.startBulkRegistration();
+			try
+			{
+				tsv.loadLines(lines);
+				InternalUtils.registerXmlAliases(aliases);
+			}
+			finally
+			{
+				DataSource.finishBulkRegistration();
+			}
 		}
 		catch (IOException ex)
 		{
@@ -621,7 +633,6 @@ public class BioDataSource
 		{
 			throw new Error(e);
 		}
-		
 	}
 }
 
@@ -22,6 +22,8 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.regex.Pattern;
@@ -54,14 +56,37 @@ public class DataSourceTsv
 	}
 
 	protected void loadAnInputStream(InputStream is) throws IOException {
+		loadLines(readLines(is));
+	}
+
+	/** Reads and splits all lines, without registering anything. */
+	protected List<String[]> readLines(InputStream is) throws IOException {
 		BufferedReader reader = new BufferedReader (
 				new InputStreamReader (is));
+		List<String[]> lines = new ArrayList<String[]>();
+		StringBuilder text = new StringBuilder(datasourcesTsv);
 		String line;
-   		while ((line = reader.readLine()) != null) {
-			datasourcesTsv = datasourcesTsv + line + "\n";
-            		String[] fields = line.split ("\\t");
-            		loadLine(fields);
-        	}		
+		while ((line = reader.readLine()) != null) {
+			text.append(line).append("\n");
+			lines.add(line.split ("\\t"));
+		}
+		datasourcesTsv = text.toString();
+		return lines;
+	}
+
+	/** 
+	 * Registers lines read by {@link #readLines}.
+	 * Other threads see either none or all of the DataSources.
+	 */
+	protected void loadLines(List<String[]> lines) throws IOException {
+		DataSource.startBulkRegistration();
+		try {
+			for (String[] fields : lines) {
+				loadLine(fields);
+			}
+		} finally {
+			DataSource.finishBulkRegistration();
+		}
 	}
 
 	protected void loadLine(String[] fields) throws IOException 
@@ -21,9 +21,11 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import org.bridgedb.DataSource;
 import org.junit.Assert;
@@ -110,4 +112,17 @@ public class DataSourceTsvTest {
     	Assert.assertTrue(wikidata.urlPatternKnown());
     	Assert.assertEquals("Cks", wikidata.getSystemCode());
     }
+
+    @Test
+    public void testReadLinesRegistersNothing() throws Exception {
+        String tsv = "DataSourceTsvTest_ReadLines\tDsTsvRL\thttp://example.com/\n";
+        DataSourceTsv loader = new DataSourceTsv();
+        List<String[]> lines = loader.readLines(new ByteArrayInputStream(tsv.getBytes("UTF-8")));
+        Assert.assertEquals(1, lines.size());
+        Assert.assertFalse(DataSource.systemCodeExists("DsTsvRL"));
+        loader.loadLines(lines);
+        DataSource dataSource = DataSource.getExistingBySystemCode("DsTsvRL");
+        Assert.assertEquals("DataSourceTsvTest_ReadLines", dataSource.getFullName());
+        Assert.assertEquals("http://example.com/", dataSource.getMainUrl());
+    }
 }
@@ -0,0 +1,196 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded pool of read-only JDBC connections for a single SimpleGdb.
+ * <p>
+ * Each pooled connection keeps its own cache of PreparedStatements, so
+ * a statement is prepared at most once per connection and never shared
+ * between threads. A connection is only handed to one thread at a time.
+ * <p>
+ * Connections are created lazily, up to the maximum pool size. When all
+ * connections are in use, borrow() waits until one is returned.
+ */
+final class ConnectionPool
+{
+	/** Name of the connection string argument that sets the pool size. */
+	static final String POOL_SIZE_PARAM = "poolsize";
+
+	/** Pool size used when it is not specified in the connection string. */
+	static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+	/** Time to wait for a free connection before giving up. */
+	private static final long BORROW_TIMEOUT = 60; //seconds
+
+	/**
+	 * A connection together with its cached PreparedStatements.
+	 */
+	static final class PooledConnection
+	{
+		private final Connection con;
+		private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+		private PooledConnection(Connection con)
+		{
+			this.con = con;
+		}
+
+		/**
+		 * @param sql SQL query
+		 * @return the PreparedStatement for this sql, prepared on first use.
+		 * @throws SQLException when the statement could not be prepared
+		 */
+		PreparedStatement prepare(String sql) throws SQLException
+		{
+			PreparedStatement pst = statements.get(sql);
+			if (pst == null)
+			{
+				pst = con.prepareStatement(sql);
+				statements.put (sql, pst);
+			}
+			return pst;
+		}
+
+		/** @return the underlying connection */
+		Connection getConnection()
+		{
+			return con;
+		}
+
+		private void close()
+		{
+			for (PreparedStatement pst : statements.values())
+			{
+				try { pst.close(); } catch (SQLException ignore) {}
+			}
+			statements.clear();
+			try { con.close(); } catch (SQLException ignore) {}
+		}
+	}
+
+	private final String connectionString;
+	private final int maxSize;
+	private final BlockingQueue<PooledConnection> idle;
+	private final List<PooledConnection> all = new ArrayList<PooledConnection>();
+	private volatile boolean closed = false;
+
+	/**
+	 * @param connectionString JDBC connection string used to open new connections
+	 * @param maxSize maximum number of simultaneously open connections, must be at least 1.
+	 */
+	ConnectionPool(String connectionString, int maxSize)
+	{
+		if (maxSize < 1) throw new IllegalArgumentException("Pool size must be at least 1, was " + maxSize);
+		this.connectionString = connectionString;
+		this.maxSize = maxSize;
+		idle = new LinkedBlockingQueue<PooledConnection>(maxSize);
+	}
+
+	/** @return maximum number of connections in this pool */
+	int getMaxSize()
+	{
+		return maxSize;
+	}
+
+	/**
+	 * Get a connection for exclusive use by the calling thread.
+	 * Always pass it back with release() in a finally block.
+	 * @return a pooled connection
+	 * @throws SQLException if a new connection could not be opened,
+	 * 	if no connection became available in time or if the pool was closed.
+	 */
+	PooledConnection borrow() throws SQLException
+	{
+		if (closed) throw new SQLException("Connection pool for " + connectionString + " is closed");
+		PooledConnection result = idle.poll();
+		if (result != null) return result;
+
+		synchronized (all)
+		{
+			if (all.size() < maxSize)
+			{
+				Connection con = DriverManager.getConnection(connectionString);
+				con.setReadOnly(true);
+				result = new PooledConnection(con);
+				all.add (result);
+				return result;
+			}
+		}
+
+		try
+		{
+			result = idle.poll(BORROW_TIMEOUT, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection");
+		}
+		if (result == null) throw new SQLException("Timed out waiting for a free connection to " + connectionString);
+		return result;
+	}
+
+	/**
+	 * Return a connection obtained with borrow().
+	 * If the pool was closed in the mean time, the connection is closed instead.
+	 * @param pc connection to return
+	 */
+	void release(PooledConnection pc)
+	{
+		if (closed)
+		{
+			pc.close();
+			return;
+		}
+		idle.offer(pc);
+		// close() may have run between the check above and the offer.
+		if (closed && idle.remove(pc)) pc.close();
+	}
+
+	/**
+	 * Close all idle connections. Connections that are in use
+	 * are closed as soon as they are released.
+	 */
+	void close()
+	{
+		closed = true;
+		PooledConnection pc;
+		while ((pc = idle.poll()) != null)
+		{
+			pc.close();
+		}
+	}
+
+	/** @return true if close() was called */
+	boolean isClosed()
+	{
+		return closed;
+	}
+}
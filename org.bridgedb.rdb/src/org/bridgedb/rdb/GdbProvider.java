@@ -21,10 +21,17 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bridgedb.BridgeDb;
 import org.bridgedb.IDMapper;
@@ -42,54 +49,330 @@ import org.bridgedb.rdb.impl.ConfigFile;
  * If a database applies to all species (e.g. metabolites), use "*" as species.
  */
 public class GdbProvider {
-	Map<Organism, IDMapperStack> organism2gdb = new HashMap<Organism, IDMapperStack>();
-	List<IDMapper> globalGdbs = new ArrayList<IDMapper>();
+	private final Map<Organism, List<IDMapper>> organism2gdb = new HashMap<Organism, List<IDMapper>>();
+	private final List<IDMapper> globalGdbs = new ArrayList<IDMapper>();
 	
-	public Set<Organism> getOrganisms()
+	/** 
+	 * Mappers read from a configuration file, by config line (organism key, tab, connection string).
+	 * Used by GdbReloader to find what is already connected.
+	 */
+	private final Map<String, IDMapper> configured = new LinkedHashMap<String, IDMapper>();
+	
+	/** Replaced stacks that still have leases out. */
+	private final List<Stacks> draining = new ArrayList<Stacks>();
+	/** Mappers dropped from the configuration, waiting for the stacks that held them to drain. */
+	private final List<Retired> retired = new ArrayList<Retired>();
+	
+	/** 
+	 * Stacks built from the current configuration.
+	 * Replaced as a whole whenever the configuration changes, never modified, 
+	 * so lookups need no locking.
+	 */
+	private volatile Stacks stacks;
+	
+	/**
+	 * Immutable view of the configuration, with a ready built stack per organism 
+	 * and an index from every form of organism name to its stack.
+	 */
+	private static class Stacks
 	{
-		return organism2gdb.keySet();
+		private final Map<Organism, IDMapperStack> byOrganism;
+		private final Map<String, IDMapperStack> byName;
+		private final IDMapperStack global;
+		private final AtomicInteger leases = new AtomicInteger();
+		
+		private Stacks(Map<Organism, List<IDMapper>> organism2gdb, List<IDMapper> globalGdbs, boolean transitive)
+		{
+			global = newStack(globalGdbs, null, transitive);
+			Map<Organism, IDMapperStack> stacks = new HashMap<Organism, IDMapperStack>();
+			for (Organism org : organism2gdb.keySet())
+			{
+				stacks.put(org, newStack(globalGdbs, organism2gdb.get(org), transitive));
+			}
+			byOrganism = Collections.unmodifiableMap(stacks);
+			
+			// Put in reverse order of preference, so that if forms clash 
+			// latin name beats code which beats short name.
+			Map<String, IDMapperStack> names = new HashMap<String, IDMapperStack>();
+			for (Organism org : Organism.values())
+			{
+				names.put(org.shortName(), get(org));
+			}
+			for (Organism org : Organism.values())
+			{
+				names.put(org.code(), get(org));
+			}
+			for (Organism org : Organism.values())
+			{
+				names.put(org.latinName(), get(org));
+			}
+			byName = names;
+		}
+		
+		private IDMapperStack get(Organism organism)
+		{
+			IDMapperStack stack = byOrganism.get(organism);
+			return stack == null ? global : stack;
+		}
+		
+		private static IDMapperStack newStack(List<IDMapper> globalGdbs, List<IDMapper> gdbs, boolean transitive)
+		{
+			IDMapperStack stack = new IDMapperStack();
+			stack.setTransitive(transitive);
+			for (IDMapper globalGdb : globalGdbs)
+			{
+				stack.addIDMapper(globalGdb);
+			}
+			if (gdbs != null)
+			{
+				for (IDMapper gdb : gdbs)
+				{
+					stack.addIDMapper(gdb);
+				}
+			}
+			return stack;
+		}
 	}
 	
-	public void addOrganismGdb(Organism organism, IDMapper gdb) {
-		IDMapperStack l = organism2gdb.get(organism);
-		if(l == null) {
-			organism2gdb.put(organism, l = new IDMapperStack());
-			l.setTransitive(transitive);
-			for (IDMapper globalGdb : globalGdbs)
+	private static class Retired
+	{
+		private final Collection<IDMapper> mappers;
+		private final List<Stacks> waitFor;
+		
+		private Retired(Collection<IDMapper> mappers, List<Stacks> waitFor)
+		{
+			this.mappers = mappers;
+			this.waitFor = waitFor;
+		}
+	}
+	
+	/**
+	 * Gives access to the stacks of one configuration for as long as it is held,
+	 * even if the configuration is changed in the meantime.
+	 * Databases dropped by replaceConfigured are only closed once all leases
+	 * that could see them have been released.
+	 */
+	public class Lease
+	{
+		private final Stacks leased;
+		private final AtomicBoolean released = new AtomicBoolean(false);
+		
+		private Lease(Stacks leased)
+		{
+			this.leased = leased;
+		}
+		
+		/** @see GdbProvider#getStack(Organism) */
+		public IDMapperStack getStack(Organism organism)
+		{
+			return leased.get(organism);
+		}
+		
+		/** @see GdbProvider#getStack(String) */
+		public IDMapperStack getStack(String organismName)
+		{
+			if (organismName == null) return null;
+			return leased.byName.get(organismName);
+		}
+		
+		/**
+		 * Ends the lease. Calling this more than once has no further effect.
+		 */
+		public void release()
+		{
+			if (released.compareAndSet(false, true))
 			{
-				l.addIDMapper(globalGdb);
+				if (leased.leases.decrementAndGet() == 0 && leased != stacks)
+				{
+					closeDrained();
+				}
 			}
 		}
-		l.addIDMapper(gdb);
 	}
 	
-	public void removeOrganismGdb(Organism organism, IDMapperRdb gdb) {
-		IDMapperStack l = organism2gdb.get(organism);
-		if(l != null) {
-			l.removeIDMapper(gdb);
+	/**
+	 * Leases the current configuration. 
+	 * The caller must release the lease when it no longer uses the stacks.
+	 */
+	public Lease acquire()
+	{
+		while (true)
+		{
+			Stacks current = stacks;
+			current.leases.incrementAndGet();
+			// If the configuration changed in between the lease may be on a draining stack, so try again.
+			if (current == stacks)
+			{
+				return new Lease(current);
+			}
+			if (current.leases.decrementAndGet() == 0)
+			{
+				closeDrained();
+			}
 		}
 	}
 	
-	public void addGlobalGdb(IDMapper gdb) {
-		if(!globalGdbs.contains(gdb)) 
+	private void rebuild()
+	{
+		rebuild(Collections.<IDMapper>emptySet());
+	}
+	
+	/**
+	 * Swaps in stacks for the current configuration.
+	 * @param dropped mappers to close once the stacks that are being replaced have drained.
+	 */
+	private void rebuild(Collection<IDMapper> dropped)
+	{
+		Stacks old = stacks;
+		stacks = new Stacks(organism2gdb, globalGdbs, transitive);
+		if (old == null)
 		{
-			globalGdbs.add(gdb);
-			for (Organism org : organism2gdb.keySet())
+			return;
+		}
+		draining.add(old);
+		if (!dropped.isEmpty())
+		{
+			retired.add(new Retired(dropped, new ArrayList<Stacks>(draining)));
+		}
+		closeDrained();
+	}
+	
+	private synchronized void closeDrained()
+	{
+		for (Iterator<Stacks> it = draining.iterator(); it.hasNext(); )
+		{
+			if (it.next().leases.get() == 0)
 			{
-				organism2gdb.get(org).addIDMapper(gdb);
+				it.remove();
+			}
+		}
+		for (Iterator<Retired> it = retired.iterator(); it.hasNext(); )
+		{
+			Retired r = it.next();
+			r.waitFor.retainAll(draining);
+			if (r.waitFor.isEmpty())
+			{
+				it.remove();
+				for (IDMapper mapper : r.mappers)
+				{
+					try
+					{
+						mapper.close();
+					}
+					catch (IDMapperException ex)
+					{
+						System.out.println("Warning: could not close replaced database " + mapper + ": " + ex.getMessage());
+					}
+				}
 			}
 		}
 	}
 	
-	public void removeGlobalGdb(IDMapper gdb) {
-		if (globalGdbs.contains(gdb))
+	/**
+	 * Replaces all databases read from a configuration file in a single swap.
+	 * Databases that are no longer used are closed once the requests that might still 
+	 * be using them have released their leases.
+	 * @param lines mappers by config line (organism key, tab, connection string). 
+	 * 	The key is a latin name or "*" for global databases.
+	 */
+	synchronized void replaceConfigured(Map<String, IDMapper> lines)
+	{
+		Set<IDMapper> dropped = Collections.newSetFromMap(new IdentityHashMap<IDMapper, Boolean>());
+		dropped.addAll(configured.values());
+		for (Map.Entry<String, IDMapper> entry : configured.entrySet())
 		{
-			globalGdbs.remove(gdb);
-			for (Organism org : organism2gdb.keySet())
+			removeConfigured(entry.getKey(), entry.getValue());
+		}
+		configured.clear();
+		for (Map.Entry<String, IDMapper> entry : lines.entrySet())
+		{
+			String key = entry.getKey().substring(0, entry.getKey().indexOf('\t'));
+			IDMapper mapper = entry.getValue();
+			Organism org = Organism.fromLatinName(key);
+			if (org != null)
+			{
+				List<IDMapper> l = organism2gdb.get(org);
+				if(l == null) {
+					organism2gdb.put(org, l = new ArrayList<IDMapper>());
+				}
+				l.add(mapper);
+			}
+			else if (DB_GLOBAL.equalsIgnoreCase(key))
+			{
+				if(!globalGdbs.contains(mapper)) globalGdbs.add(mapper);
+			}
+			else
+			{
+				System.out.println("Unable to parse organism: " + key);
+				continue;
+			}
+			configured.put(entry.getKey(), mapper);
+			dropped.remove(mapper);
+		}
+		rebuild(dropped);
+	}
+	
+	private void removeConfigured(String line, IDMapper mapper)
+	{
+		String key = line.substring(0, line.indexOf('\t'));
+		Organism org = Organism.fromLatinName(key);
+		if (org != null)
+		{
+			List<IDMapper> l = organism2gdb.get(org);
+			if (l != null && l.remove(mapper) && l.isEmpty())
 			{
-				organism2gdb.get(org).removeIDMapper(gdb);
+				organism2gdb.remove(org);
 			}
 		}
+		else
+		{
+			globalGdbs.remove(mapper);
+		}
+	}
+	
+	/** @return copy of the mappers read from a configuration file, by config line. */
+	synchronized Map<String, IDMapper> getConfigured()
+	{
+		return new LinkedHashMap<String, IDMapper>(configured);
+	}
+	
+	public Set<Organism> getOrganisms()
+	{
+		return stacks.byOrganism.keySet();
+	}
+	
+	public synchronized void addOrganismGdb(Organism organism, IDMapper gdb) {
+		List<IDMapper> l = organism2gdb.get(organism);
+		if(l == null) {
+			organism2gdb.put(organism, l = new ArrayList<IDMapper>());
+		}
+		l.add(gdb);
+		rebuild();
+	}
+	
+	public synchronized void removeOrganismGdb(Organism organism, IDMapperRdb gdb) {
+		List<IDMapper> l = organism2gdb.get(organism);
+		if(l != null && l.remove(gdb)) {
+			if (l.isEmpty()) {
+				organism2gdb.remove(organism);
+			}
+			rebuild();
+		}
+	}
+	
+	public synchronized void addGlobalGdb(IDMapper gdb) {
+		if(!globalGdbs.contains(gdb)) 
+		{
+			globalGdbs.add(gdb);
+			rebuild();
+		}
+	}
+	
+	public synchronized void removeGlobalGdb(IDMapper gdb) {
+		if (globalGdbs.remove(gdb))
+		{
+			rebuild();
+		}
 	}
 	
 	/** @deprecated use getStack(organism) instead */
@@ -98,17 +381,25 @@ public class GdbProvider {
 		return getStack(organism).getMappers();
 	}
 	
+	/**
+	 * The returned stack is shared and must not be modified; 
+	 * use the add and remove methods of this class to change the configuration.
+	 * Callers that may run while the configuration is reloaded should use acquire() instead,
+	 * as databases are closed when they are replaced.
+	 * @return stack with the databases for this organism and the global databases.
+	 */
 	public IDMapperStack getStack(Organism organism) {
-		IDMapperStack gdbs = organism2gdb.get(organism);
-		if(gdbs == null) {
-			gdbs = new IDMapperStack();
-			gdbs.setTransitive(transitive);
-			for (IDMapper globalGdb : globalGdbs)
-			{
-				gdbs.addIDMapper(globalGdb);
-			}
-		}
-		return gdbs;
+		return stacks.get(organism);
+	}
+	
+	/**
+	 * As getStack(Organism) but looks the organism up by latin name, code or short name,
+	 * in that order of preference, in a single lookup.
+	 * @return stack for the organism, or null if the name is not a known organism.
+	 */
+	public IDMapperStack getStack(String organismName) {
+		if (organismName == null) return null;
+		return stacks.byName.get(organismName);
 	}
 	
 	static final String DB_GLOBAL = "*";
@@ -118,6 +409,7 @@ public class GdbProvider {
 	public GdbProvider(boolean transitive)
 	{
 		this.transitive = transitive;
+		rebuild();
 	}
 	
 	public static GdbProvider fromConfigFile(File f) throws IDMapperException, IOException, ClassNotFoundException
@@ -125,10 +417,8 @@ public class GdbProvider {
 		return fromConfigFile(f, false);
 	}
 	
-	public static GdbProvider fromConfigFile(File f, boolean transitive) throws IDMapperException, IOException, ClassNotFoundException 
-	{	
-		ConfigFile cf = new ConfigFile(f);	
-		GdbProvider gdbs = new GdbProvider(transitive);
+	static void loadDrivers(ConfigFile cf)
+	{
 		List<String> drivers = cf.getDrivers();
 		
 		// add a few defaults that will always be loaded
@@ -148,22 +438,27 @@ public class GdbProvider {
 				System.out.println ("Warning: driver '" + driver + "'  not in classpath, some features may not be available.");
 			}
 		}
+	}
+	
+	public static GdbProvider fromConfigFile(File f, boolean transitive) throws IDMapperException, IOException, ClassNotFoundException 
+	{	
+		ConfigFile cf = new ConfigFile(f);	
+		GdbProvider gdbs = new GdbProvider(transitive);
+		loadDrivers(cf);
 
+		Map<String, IDMapper> lines = new LinkedHashMap<String, IDMapper>();
 		for (String key : cf.getMappers().keySet())
 		{
 			for (String value : cf.getMappers().get(key))
 			{
-				IDMapper mapper = BridgeDb.connect (value);
-				Organism org = Organism.fromLatinName(key);
-				if(org != null) {
-					gdbs.addOrganismGdb(org, mapper);
-				} else if(DB_GLOBAL.equalsIgnoreCase(key)) {
-					gdbs.addGlobalGdb(mapper);
-				} else {
+				if(Organism.fromLatinName(key) == null && !DB_GLOBAL.equalsIgnoreCase(key)) {
 					System.out.println("Unable to parse organism: " + key);
+					continue;
 				}
+				lines.put(key + "\t" + value, BridgeDb.connect (value));
 			}
 		}
+		gdbs.replaceConfigured(lines);
 
 		return gdbs;
 	}
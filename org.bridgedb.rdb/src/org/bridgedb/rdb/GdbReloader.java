@@ -0,0 +1,296 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.bio.Organism;
+import org.bridgedb.rdb.impl.ConfigFile;
+
+/**
+ * Watches a gene database configuration file, and the database files it refers to,
+ * and reloads a GdbProvider when any of them change.
+ * <p>
+ * A changed or new database is connected in the background and warmed with a sample of
+ * queries before it is swapped into the provider, so requests never wait for a cold database.
+ * Databases that are unchanged stay connected. Replaced databases are closed by the provider
+ * once the requests using them have released their leases.
+ * If a database can not be opened, for example because it is still being copied,
+ * the old one is kept and the reload is tried again on the next check.
+ * <p>
+ * Database files should be replaced by moving the new file into place,
+ * rather than overwriting the open file.
+ */
+public class GdbReloader
+{
+	private final GdbProvider provider;
+	private final File configFile;
+	private final Map<String, Long> modified = new HashMap<String, Long>();
+	private long configModified;
+	private Collection<Xref> warmupSample = new ArrayList<Xref>();
+	private ScheduledExecutorService timer = null;
+
+	/**
+	 * @param provider provider that was read from configFile
+	 * @param configFile configuration file to watch
+	 */
+	public GdbReloader(GdbProvider provider, File configFile)
+	{
+		this.provider = provider;
+		this.configFile = configFile;
+		configModified = configFile.lastModified();
+		for (String line : provider.getConfigured().keySet())
+		{
+			modified.put(line, lastModified(line));
+		}
+	}
+
+	/**
+	 * Set the xrefs that are mapped on each new database before it is put in use.
+	 */
+	public synchronized void setWarmupSample(Collection<Xref> value)
+	{
+		warmupSample = new ArrayList<Xref>(value);
+	}
+
+	/**
+	 * Reads a warm up sample with on each line:
+	 * <pre>
+	 * id[Tab]system code or full name
+	 * </pre>
+	 * Lines with an unknown system are skipped.
+	 */
+	public static List<Xref> readWarmupSample(File f) throws IOException
+	{
+		List<Xref> result = new ArrayList<Xref>();
+		BufferedReader in = new BufferedReader(new FileReader(f));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				String[] cols = line.split("\t");
+				if (cols.length < 2) continue;
+				String system = cols[1].trim();
+				// Only existing systems, so typos are not registered as new DataSources.
+				if (DataSource.fullNameExists(system))
+				{
+					result.add(new Xref(cols[0].trim(), DataSource.getExistingByFullName(system)));
+				}
+				else if (DataSource.systemCodeExists(system))
+				{
+					result.add(new Xref(cols[0].trim(), DataSource.getExistingBySystemCode(system)));
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Start checking for changes in a background thread.
+	 * @param seconds time between checks
+	 */
+	public synchronized void start(long seconds)
+	{
+		if (timer != null) return;
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread (r, "GdbReloader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		timer.scheduleWithFixedDelay(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					reloadIfChanged();
+				}
+				catch (Exception ex)
+				{
+					// Keep watching, the next check may succeed.
+					System.out.println("Warning: reloading " + configFile + " failed: " + ex.getMessage());
+				}
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	public synchronized void stop()
+	{
+		if (timer != null)
+		{
+			timer.shutdownNow();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Reloads the configuration if the configuration file or any of the database files changed.
+	 * @return true if the provider was updated.
+	 */
+	public synchronized boolean reloadIfChanged() throws IOException
+	{
+		Map<String, IDMapper> current = provider.getConfigured();
+		boolean changed = configFile.lastModified() != configModified;
+		for (String line : current.keySet())
+		{
+			if (isModified(line, lastModified(line)))
+			{
+				changed = true;
+			}
+		}
+		if (!changed) return false;
+
+		long newConfigModified = configFile.lastModified();
+		ConfigFile cf = new ConfigFile(configFile);
+		GdbProvider.loadDrivers(cf);
+
+		Map<String, IDMapper> lines = new LinkedHashMap<String, IDMapper>();
+		Map<String, Long> newModified = new HashMap<String, Long>();
+		boolean complete = true;
+		for (String key : cf.getMappers().keySet())
+		{
+			if(Organism.fromLatinName(key) == null && !GdbProvider.DB_GLOBAL.equalsIgnoreCase(key)) {
+				System.out.println("Unable to parse organism: " + key);
+				continue;
+			}
+			for (String value : cf.getMappers().get(key))
+			{
+				String line = key + "\t" + value;
+				long fileModified = lastModified(line);
+				IDMapper mapper = current.get(line);
+				if (mapper == null || isModified(line, fileModified))
+				{
+					IDMapper fresh = null;
+					try
+					{
+						fresh = BridgeDb.connect(value);
+						warmUp(fresh);
+						System.out.println("Reloaded database: " + value);
+						mapper = fresh;
+					}
+					catch (IDMapperException ex)
+					{
+						System.out.println("Warning: could not open " + value + ", keeping the previous database: " + ex.getMessage());
+						close(fresh);
+						complete = false;
+						if (mapper == null) continue;
+						// Keep the old time so the new file is tried again on the next check.
+						Long known = modified.get(line);
+						fileModified = known == null ? -1 : known.longValue();
+					}
+				}
+				lines.put(line, mapper);
+				newModified.put(line, fileModified);
+			}
+		}
+		provider.replaceConfigured(lines);
+		modified.clear();
+		modified.putAll(newModified);
+		// Leave the config file marked as changed so failed databases are tried again.
+		if (complete)
+		{
+			configModified = newConfigModified;
+		}
+		return true;
+	}
+
+	private boolean isModified(String line, long fileModified)
+	{
+		Long known = modified.get(line);
+		return known == null || known.longValue() != fileModified;
+	}
+
+	private static void close(IDMapper mapper)
+	{
+		if (mapper == null) return;
+		try
+		{
+			mapper.close();
+		}
+		catch (IDMapperException ignore)
+		{
+			// The mapper was never used.
+		}
+	}
+
+	private void warmUp(IDMapper mapper) throws IDMapperException
+	{
+		mapper.getCapabilities();
+		if (!warmupSample.isEmpty())
+		{
+			mapper.mapID(warmupSample);
+		}
+	}
+
+	/**
+	 * @return modification time of the file behind a config line, or 0 if it is not a local file.
+	 */
+	private static long lastModified(String line)
+	{
+		File f = localFile(line.substring(line.indexOf('\t') + 1));
+		return f == null ? 0 : f.lastModified();
+	}
+
+	/**
+	 * @param connectionString for example idmapper-pgdb:/data/Hs_Derby.bridge
+	 * @return the file a connection string refers to, or null if it does not refer to a local file.
+	 */
+	static File localFile(String connectionString)
+	{
+		String location = connectionString;
+		if (location.startsWith("idmapper-"))
+		{
+			location = location.substring(location.indexOf(':') + 1);
+		}
+		if (location.startsWith("file:"))
+		{
+			location = location.substring("file:".length());
+		}
+		int query = location.indexOf('?');
+		if (query >= 0)
+		{
+			location = location.substring(0, query);
+		}
+		File f = new File(location);
+		return f.isFile() ? f : null;
+	}
+}
@@ -0,0 +1,541 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.bridgedb.AbstractIDMapperCapabilities;
+import org.bridgedb.AttributeMapper;
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.XrefIterator;
+import org.bridgedb.impl.InternalUtils;
+
+/**
+ * IDMapper for files written by {@link MmapWriter}.
+ * <p>
+ * The file is memory-mapped read-only, so opening it is cheap and
+ * the operating system takes care of paging in the parts that are used.
+ * Lookups are a binary search on the sorted identifiers followed by a walk
+ * over the link table in adjacency form, which gives the same results as
+ * the self-join on the link table done by SimpleGdb.
+ * <p>
+ * The mapped buffer is only read with absolute get methods,
+ * so an instance can be shared by any number of threads without locking.
+ * <p>
+ * Connection string: <code>idmapper-mmap:/data/Hs.bmap</code>
+ */
+public class IDMapperMmap implements IDMapper, AttributeMapper, XrefIterator
+{
+	static
+	{
+		BridgeDb.register ("idmapper-mmap", new Driver());
+	}
+
+	private static final class Driver implements org.bridgedb.Driver
+	{
+		/** private constructor to prevent instantiation. */
+		private Driver() { }
+
+		/** {@inheritDoc} */
+		public IDMapper connect(String location) throws IDMapperException
+		{
+			return new IDMapperMmap(new File(location));
+		}
+	}
+
+	private final File file;
+	private volatile boolean closed = false;
+
+	private final String[] codes;
+	private final DataSource[] dataSources;
+	private final int[] codeStart;
+	private final int[] codeEnd;
+	private final Map<String, Integer> codeIndex = new HashMap<String, Integer>();
+	private final String[] attrNames;
+	private final int nodeCount;
+
+	private final IntBuffer idOffsets;
+	private final ByteBuffer idBytes;
+	private final IntBuffer right2leftOffsets;
+	private final IntBuffer right2left;
+	private final IntBuffer left2rightOffsets;
+	private final IntBuffer left2right;
+	private final IntBuffer attrOffsets;
+	private final IntBuffer attrPairs;
+	private final IntBuffer valueOffsets;
+	private final ByteBuffer valueBytes;
+
+	private final IDMapperCapabilities caps;
+
+	/**
+	 * Map a file into memory.
+	 * @param file file written by MmapWriter
+	 * @throws IDMapperException if the file could not be read or is not in the right format
+	 */
+	public IDMapperMmap(File file) throws IDMapperException
+	{
+		this.file = file;
+		ByteBuffer buf;
+		try
+		{
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try
+			{
+				FileChannel channel = raf.getChannel();
+				if (channel.size() > Integer.MAX_VALUE)
+					throw new IDMapperException("File too large to map: " + file);
+				// the mapping stays valid after the channel is closed
+				buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new IDMapperException("Could not open " + file, ex);
+		}
+
+		byte[] magic = new byte[MmapFormat.MAGIC.length];
+		if (buf.limit() < MmapFormat.HEADER_SIZE) throw new IDMapperException("Not a BridgeDb mmap file: " + file);
+		buf.get(magic);
+		if (!Arrays.equals(magic, MmapFormat.MAGIC)) throw new IDMapperException("Not a BridgeDb mmap file: " + file);
+		int version = buf.getInt();
+		if (version != MmapFormat.VERSION) throw new IDMapperException("Unsupported mmap file version " + version + ": " + file);
+		int[] offsets = new int[MmapFormat.SECTION_COUNT];
+		for (int i = 0; i < offsets.length; ++i) offsets[i] = buf.getInt();
+
+		// small sections are decoded once, on the heap
+		buf.position(offsets[MmapFormat.SECTION_INFO]);
+		Map<String, String> info = new HashMap<String, String>();
+		int infoCount = buf.getInt();
+		for (int i = 0; i < infoCount; ++i)
+		{
+			String key = readString(buf);
+			info.put(key, readString(buf));
+		}
+
+		buf.position(offsets[MmapFormat.SECTION_CODES]);
+		int codeCount = buf.getInt();
+		codes = new String[codeCount];
+		dataSources = new DataSource[codeCount];
+		codeStart = new int[codeCount];
+		codeEnd = new int[codeCount];
+		Set<DataSource> supported = new HashSet<DataSource>();
+		for (int c = 0; c < codeCount; ++c)
+		{
+			codes[c] = readString(buf);
+			codeStart[c] = buf.getInt();
+			codeEnd[c] = buf.getInt();
+			boolean mappable = buf.getInt() != 0;
+			codeIndex.put(codes[c], c);
+			if (DataSource.systemCodeExists(codes[c]))
+			{
+				dataSources[c] = DataSource.getExistingBySystemCode(codes[c]);
+			}
+			else
+			{
+				dataSources[c] = DataSource.register(codes[c], "Unknown data source").asDataSource();
+			}
+			if (mappable) supported.add(dataSources[c]);
+		}
+
+		buf.position(offsets[MmapFormat.SECTION_ATTRNAMES]);
+		attrNames = new String[buf.getInt()];
+		for (int i = 0; i < attrNames.length; ++i) attrNames[i] = readString(buf);
+
+		// large sections are accessed in place
+		nodeCount = buf.getInt(offsets[MmapFormat.SECTION_IDS]);
+		idOffsets = intSlice(buf, offsets[MmapFormat.SECTION_IDS] + 4);
+		idBytes = slice(buf, offsets[MmapFormat.SECTION_IDS] + 4 + 4 * (nodeCount + 1));
+		right2leftOffsets = intSlice(buf, offsets[MmapFormat.SECTION_RIGHT2LEFT]);
+		right2left = intSlice(buf, offsets[MmapFormat.SECTION_RIGHT2LEFT] + 4 * (nodeCount + 1));
+		left2rightOffsets = intSlice(buf, offsets[MmapFormat.SECTION_LEFT2RIGHT]);
+		left2right = intSlice(buf, offsets[MmapFormat.SECTION_LEFT2RIGHT] + 4 * (nodeCount + 1));
+		attrOffsets = intSlice(buf, offsets[MmapFormat.SECTION_ATTRIBUTES]);
+		attrPairs = intSlice(buf, offsets[MmapFormat.SECTION_ATTRIBUTES] + 4 * (nodeCount + 1));
+		int valueCount = buf.getInt(offsets[MmapFormat.SECTION_VALUES]);
+		valueOffsets = intSlice(buf, offsets[MmapFormat.SECTION_VALUES] + 4);
+		valueBytes = slice(buf, offsets[MmapFormat.SECTION_VALUES] + 4 + 4 * (valueCount + 1));
+
+		caps = new AbstractIDMapperCapabilities(supported, true, info) {};
+	}
+
+	private static String readString(ByteBuffer buf)
+	{
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, MmapFormat.UTF8);
+	}
+
+	private static ByteBuffer slice(ByteBuffer buf, int offset)
+	{
+		ByteBuffer dup = buf.duplicate();
+		dup.position(offset);
+		return dup.slice();
+	}
+
+	private static IntBuffer intSlice(ByteBuffer buf, int offset)
+	{
+		return slice(buf, offset).asIntBuffer();
+	}
+
+	private static String decode(IntBuffer offsets, ByteBuffer bytes, int index)
+	{
+		int start = offsets.get(index);
+		byte[] result = new byte[offsets.get(index + 1) - start];
+		for (int i = 0; i < result.length; ++i) result[i] = bytes.get(start + i);
+		return new String(result, MmapFormat.UTF8);
+	}
+
+	/** @return the file this mapper reads from */
+	public File getFile()
+	{
+		return file;
+	}
+
+	private void checkOpen() throws IDMapperException
+	{
+		if (closed) throw new IDMapperException("IDMapperMmap for " + file + " is closed");
+	}
+
+	/** @return the index of the system code of this DataSource, or -1 if it does not occur in the file */
+	private int codeOf(DataSource ds)
+	{
+		if (ds == null || ds.getSystemCode() == null) return -1;
+		Integer result = codeIndex.get(ds.getSystemCode());
+		return result == null ? -1 : result;
+	}
+
+	/** @return the index of the system code of a node */
+	private int codeOf(int node)
+	{
+		int lo = 0;
+		int hi = codeStart.length - 1;
+		while (lo < hi)
+		{
+			int mid = (lo + hi + 1) >>> 1;
+			if (codeStart[mid] <= node) lo = mid; else hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/** @return the node of this Xref, or -1 if it is not in the file */
+	private int lookup(Xref ref)
+	{
+		int code = codeOf(ref.getDataSource());
+		if (code < 0 || ref.getId() == null) return -1;
+		byte[] key = ref.getId().getBytes(MmapFormat.UTF8);
+		int lo = codeStart[code];
+		int hi = codeEnd[code] - 1;
+		while (lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			int cmp = compareId(mid, key);
+			if (cmp < 0) lo = mid + 1;
+			else if (cmp > 0) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/** compare the id of a node with key, as unsigned UTF-8 bytes, without decoding the id. */
+	private int compareId(int node, byte[] key)
+	{
+		int start = idOffsets.get(node);
+		int len = idOffsets.get(node + 1) - start;
+		int common = Math.min(len, key.length);
+		for (int i = 0; i < common; ++i)
+		{
+			int diff = (idBytes.get(start + i) & 0xff) - (key[i] & 0xff);
+			if (diff != 0) return diff;
+		}
+		return len - key.length;
+	}
+
+	private Xref xrefOf(int node)
+	{
+		return new Xref (decode(idOffsets, idBytes, node), dataSources[codeOf(node)]);
+	}
+
+	/** {@inheritDoc} */
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException
+	{
+		checkOpen();
+		Set<Xref> result = new HashSet<Xref>();
+		int node = lookup(ref);
+		if (node < 0) return result;
+
+		boolean[] accept = null;
+		if (tgtDataSources.length > 0)
+		{
+			accept = new boolean[codes.length];
+			for (DataSource ds : tgtDataSources)
+			{
+				int code = codeOf(ds);
+				if (code >= 0) accept[code] = true;
+			}
+		}
+
+		// collected as plain ints and deduplicated by sorting, so no object is made per hit.
+		int[] found = new int[16];
+		int count = 0;
+		for (int i = right2leftOffsets.get(node); i < right2leftOffsets.get(node + 1); ++i)
+		{
+			int left = right2left.get(i);
+			for (int j = left2rightOffsets.get(left); j < left2rightOffsets.get(left + 1); ++j)
+			{
+				int right = left2right.get(j);
+				if (accept == null || accept[codeOf(right)])
+				{
+					if (count == found.length) found = Arrays.copyOf(found, count * 2);
+					found[count++] = right;
+				}
+			}
+		}
+		Arrays.sort(found, 0, count);
+		for (int i = 0; i < count; ++i)
+		{
+			if (i == 0 || found[i] != found[i - 1]) result.add (xrefOf(found[i]));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException
+	{
+		return InternalUtils.mapMultiFromSingle(this, srcXrefs, tgtDataSources);
+	}
+
+	/** {@inheritDoc} */
+	public boolean xrefExists(Xref xref) throws IDMapperException
+	{
+		checkOpen();
+		return lookup(xref) >= 0;
+	}
+
+	/**
+	 * Case-insensitive substring search on identifiers.
+	 * This is a scan over all identifiers in the file.
+	 * {@inheritDoc}
+	 */
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException
+	{
+		checkOpen();
+		Set<Xref> result = new HashSet<Xref>();
+		String query = text.toLowerCase();
+		for (int node = 0; node < nodeCount && (limit == 0 || result.size() < limit); ++node)
+		{
+			String id = decode(idOffsets, idBytes, node);
+			if (id.toLowerCase().contains(query)) result.add (new Xref (id, dataSources[codeOf(node)]));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public IDMapperCapabilities getCapabilities()
+	{
+		return caps;
+	}
+
+	/**
+	 * Marks this mapper as closed. The memory mapping itself
+	 * is released when this object is garbage collected.
+	 */
+	public void close() throws IDMapperException
+	{
+		closed = true;
+	}
+
+	/** {@inheritDoc} */
+	public boolean isConnected()
+	{
+		return !closed;
+	}
+
+	/** @return the index of an attribute name, or -1 if it does not occur in the file */
+	private int attrNameIndex(String attrType)
+	{
+		for (int i = 0; i < attrNames.length; ++i)
+		{
+			if (attrNames[i].equals(attrType)) return i;
+		}
+		return -1;
+	}
+
+	/** {@inheritDoc} */
+	public Set<String> getAttributes(Xref ref, String attrType) throws IDMapperException
+	{
+		checkOpen();
+		Set<String> result = new HashSet<String>();
+		int node = lookup(ref);
+		int name = attrNameIndex(attrType);
+		if (node < 0 || name < 0) return result;
+		for (int i = attrOffsets.get(node); i < attrOffsets.get(node + 1); i += 2)
+		{
+			if (attrPairs.get(i) == name) result.add (decode(valueOffsets, valueBytes, attrPairs.get(i + 1)));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException
+	{
+		checkOpen();
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		int node = lookup(ref);
+		if (node < 0) return result;
+		for (int i = attrOffsets.get(node); i < attrOffsets.get(node + 1); i += 2)
+		{
+			InternalUtils.multiMapPut(result, attrNames[attrPairs.get(i)],
+					decode(valueOffsets, valueBytes, attrPairs.get(i + 1)));
+		}
+		return result;
+	}
+
+	/**
+	 * @return true
+	 */
+	public boolean isFreeAttributeSearchSupported()
+	{
+		return true;
+	}
+
+	/**
+	 * Scan all attributes of the given type for a case-insensitive match.
+	 * When attrType is MATCH_ID, the identifier is matched instead of the value.
+	 * @param query The text to search for
+	 * @param attrType the attribute to look for, e.g. 'Symbol' or 'Description'.
+	 * @param limit The number of results to limit the search to, or 0 for no limit
+	 * @return matching references, with one of their matching attribute values.
+	 * @throws IDMapperException if the mapper was closed
+	 */
+	public Map<Xref, String> freeAttributeSearch (String query, String attrType, int limit) throws IDMapperException
+	{
+		Map<Xref, String> result = new HashMap<Xref, String>();
+		for (Map.Entry<Xref, Set<String>> e : freeAttributeSearchEx(query, attrType, limit).entrySet())
+		{
+			result.put (e.getKey(), e.getValue().iterator().next());
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, Set<String>> freeAttributeSearchEx (String query, String attrType, int limit) throws IDMapperException
+	{
+		checkOpen();
+		Map<Xref, Set<String>> result = new HashMap<Xref, Set<String>>();
+		int name = attrNameIndex(attrType);
+		if (name < 0) return result;
+		String lowerQuery = query.toLowerCase();
+		boolean matchId = MATCH_ID.equals(attrType);
+		for (int node = 0; node < nodeCount && (limit == 0 || result.size() < limit); ++node)
+		{
+			String id = null;
+			for (int i = attrOffsets.get(node); i < attrOffsets.get(node + 1); i += 2)
+			{
+				if (attrPairs.get(i) != name) continue;
+				if (id == null) id = decode(idOffsets, idBytes, node);
+				String value = decode(valueOffsets, valueBytes, attrPairs.get(i + 1));
+				if ((matchId ? id : value).toLowerCase().contains(lowerQuery))
+				{
+					InternalUtils.multiMapPut(result, new Xref (id, dataSources[codeOf(node)]), value);
+				}
+			}
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Set<String> getAttributeSet() throws IDMapperException
+	{
+		checkOpen();
+		return new HashSet<String>(Arrays.asList(attrNames));
+	}
+
+	/** {@inheritDoc} */
+	public Iterable<Xref> getIterator(DataSource ds) throws IDMapperException
+	{
+		checkOpen();
+		int code = codeOf(ds);
+		if (code < 0) return new HashSet<Xref>();
+		return nodeRange(codeStart[code], codeEnd[code]);
+	}
+
+	/** {@inheritDoc} */
+	public Iterable<Xref> getIterator() throws IDMapperException
+	{
+		checkOpen();
+		return nodeRange(0, nodeCount);
+	}
+
+	/** @return an Iterable that decodes the nodes in the range [start, end) lazily */
+	private Iterable<Xref> nodeRange(final int start, final int end)
+	{
+		return new Iterable<Xref>()
+		{
+			public Iterator<Xref> iterator()
+			{
+				return new Iterator<Xref>()
+				{
+					private int next = start;
+
+					public boolean hasNext()
+					{
+						return next < end;
+					}
+
+					public Xref next()
+					{
+						if (next >= end) throw new NoSuchElementException();
+						return xrefOf(next++);
+					}
+
+					public void remove()
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/** @return the file name */
+	@Override public String toString()
+	{
+		return file.toString();
+	}
+}
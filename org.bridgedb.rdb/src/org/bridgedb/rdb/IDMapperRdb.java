@@ -53,8 +53,9 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 		/** {@inheritDoc} */
 		public IDMapper connect(String location) throws IDMapperException 
 		{
-			String url = "jdbc:derby:jar:(" + location + ")database";
-			return SimpleGdbFactory.createInstance(location, url);
+			String[] parts = splitPoolSize(location);
+			String url = "jdbc:derby:jar:(" + parts[0] + ")database";
+			return SimpleGdbFactory.createInstance(parts[0], url, parsePoolSize(parts[1]));
 		}
 	}
 
@@ -66,8 +67,9 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 		/** {@inheritDoc} */
 		public IDMapper connect(String location) throws IDMapperException 
 		{
-			String url = "jdbc:" + location;
-			return SimpleGdbFactory.createInstance(location, url);
+			String[] parts = splitPoolSize(location);
+			String url = "jdbc:" + parts[0];
+			return SimpleGdbFactory.createInstance(parts[0], url, parsePoolSize(parts[1]));
 		}
 	}
 
@@ -82,7 +84,7 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 			try
 			{
 	            Map<String, String> args = 
-	            	InternalUtils.parseLocation(location, "host", "port");
+	            	InternalUtils.parseLocation(location, "host", "port", ConnectionPool.POOL_SIZE_PARAM);
 
 	            if (!args.containsKey("BASE")) 
 	            	throw new IllegalArgumentException("Expected species name in connection string: " + location);
@@ -96,7 +98,8 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 				sysprop.setProperty("derby.stream.error.file", File.createTempFile("derby",".log").toString());
 				
 				String url = "jdbc:derby://" + host + ":" + port + "/" + args.get("BASE");
-				return SimpleGdbFactory.createInstance(location, url);
+				return SimpleGdbFactory.createInstance(location, url, 
+						parsePoolSize(args.get(ConnectionPool.POOL_SIZE_PARAM)));
 			}
 			catch (IOException e)
 			{
@@ -109,6 +112,57 @@ public abstract class IDMapperRdb implements IDMapper, AttributeMapper, XrefIter
 		}
 	}
 	
+	/**
+	 * Split the optional poolsize argument off a connection string, for example
+	 * <code>idmapper-pgdb:/data/Hs_Derby.bridge?poolsize=8</code>.
+	 * Any other arguments are left in place, so that they can be passed on to the JDBC driver.
+	 * @param location connection string without the driver prefix
+	 * @return the connection string without the poolsize argument, and the poolsize value 
+	 * 	or null if it was not specified.
+	 */
+	static String[] splitPoolSize(String location)
+	{
+		int query = location.indexOf('?');
+		if (query < 0) return new String[] { location, null };
+		
+		StringBuilder rest = new StringBuilder();
+		String poolSize = null;
+		for (String arg : location.substring(query + 1).split("&"))
+		{
+			if (arg.startsWith(ConnectionPool.POOL_SIZE_PARAM + "="))
+			{
+				poolSize = arg.substring(ConnectionPool.POOL_SIZE_PARAM.length() + 1);
+			}
+			else
+			{
+				if (rest.length() > 0) rest.append ('&');
+				rest.append (arg);
+			}
+		}
+		String base = location.substring(0, query);
+		return new String[] { rest.length() > 0 ? base + "?" + rest : base, poolSize }; 
+	}
+	
+	/**
+	 * @param value poolsize argument from the connection string, may be null
+	 * @return the pool size, or the default pool size if value was null. 
+	 * @throws IDMapperException if value is not a positive number
+	 */
+	static int parsePoolSize(String value) throws IDMapperException
+	{
+		if (value == null) return ConnectionPool.DEFAULT_POOL_SIZE;
+		try
+		{
+			int result = Integer.parseInt(value);
+			if (result < 1) throw new IDMapperException ("Expected positive " + ConnectionPool.POOL_SIZE_PARAM + ", got " + value);
+			return result;
+		}
+		catch (NumberFormatException ex)
+		{
+			throw new IDMapperException ("Could not parse " + ConnectionPool.POOL_SIZE_PARAM + " '" + value + "'", ex);
+		}
+	}
+
 	/**
 	 * Gets the name of te currently used gene database.
 	 * @return the database name as specified in the connection string
@@ -0,0 +1,66 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.nio.charset.Charset;
+
+/**
+ * Constants describing the binary mapping format read by {@link IDMapperMmap}
+ * and written by {@link MmapWriter}.
+ * <p>
+ * All numbers are big-endian 32 bit ints, strings are an int length
+ * followed by UTF-8 bytes. The file starts with MAGIC, VERSION, and
+ * the offsets of each section, in the order of the SECTION_ constants.
+ * <p>
+ * Nodes are all (system code, id) pairs, sorted by system code and
+ * then by the unsigned UTF-8 bytes of the id, so each system code
+ * covers a contiguous range of node numbers that can be binary searched.
+ * <ul>
+ * <li>INFO: count, then key / value strings, copied from the info table.
+ * <li>CODES: count, then per system code: code string, first node, end node,
+ *   and 1 if the code occurs on the right-hand side of the link table.
+ * <li>ATTRNAMES: count, then attribute name strings.
+ * <li>IDS: node count N, N+1 byte offsets into the id bytes, followed by the id bytes.
+ * <li>RIGHT2LEFT, LEFT2RIGHT: the link table in CSR form: N+1 offsets,
+ *   followed by the target nodes.
+ * <li>ATTRIBUTES: N+1 offsets, followed by pairs of (attribute name, value number).
+ * <li>VALUES: value count V, V+1 byte offsets, followed by the attribute value bytes.
+ * </ul>
+ */
+final class MmapFormat
+{
+	/** private constructor to prevent instantiation. */
+	private MmapFormat() {}
+
+	static final byte[] MAGIC = { 'B', 'D', 'B', 'M', 'M', 'A', 'P', 0 };
+	static final int VERSION = 1;
+
+	static final int SECTION_INFO = 0;
+	static final int SECTION_CODES = 1;
+	static final int SECTION_ATTRNAMES = 2;
+	static final int SECTION_IDS = 3;
+	static final int SECTION_RIGHT2LEFT = 4;
+	static final int SECTION_LEFT2RIGHT = 5;
+	static final int SECTION_ATTRIBUTES = 6;
+	static final int SECTION_VALUES = 7;
+	static final int SECTION_COUNT = 8;
+
+	/** size of magic, version and section table */
+	static final int HEADER_SIZE = MAGIC.length + 4 + 4 * SECTION_COUNT;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+}
@@ -0,0 +1,393 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+
+/**
+ * Converts a SimpleGdb (e.g. a Derby .bridge file) to the
+ * memory-mapped format read by {@link IDMapperMmap}.
+ * <p>
+ * The link and attribute tables are read completely into memory
+ * during conversion, so this needs roughly as much heap as the
+ * database is large. The resulting file must stay below 2 GB,
+ * conversion fails with an IOException if it would be larger.
+ * <p>
+ * Usage from the command line:
+ * <pre>
+ * java org.bridgedb.rdb.MmapWriter Hs_Derby.bridge Hs.bmap
+ * </pre>
+ */
+public final class MmapWriter
+{
+	/** private constructor to prevent instantiation. */
+	private MmapWriter() {}
+
+	/** Orders UTF-8 byte arrays as unsigned bytes, the order used by IDMapperMmap for binary search. */
+	static final Comparator<byte[]> UTF8_ORDER = new Comparator<byte[]>()
+	{
+		public int compare(byte[] a, byte[] b)
+		{
+			int len = Math.min(a.length, b.length);
+			for (int i = 0; i < len; ++i)
+			{
+				int diff = (a[i] & 0xff) - (b[i] & 0xff);
+				if (diff != 0) return diff;
+			}
+			return a.length - b.length;
+		}
+	};
+
+	/** Growable list of ints, to avoid boxing millions of link ends. */
+	private static final class IntList
+	{
+		private int[] data = new int[1024];
+		private int size = 0;
+
+		void add(int value)
+		{
+			if (size == data.length) data = Arrays.copyOf(data, size * 2);
+			data[size++] = value;
+		}
+
+		int get(int i) { return data[i]; }
+		int size() { return size; }
+	}
+
+	/** Collects the distinct (code, id) pairs before node numbers are assigned. */
+	private static final class NodeCollector
+	{
+		private final Map<String, Set<String>> idsByCode = new HashMap<String, Set<String>>();
+		private final Map<String, Map<String, Integer>> numbers = new HashMap<String, Map<String, Integer>>();
+		private final List<String> codes = new ArrayList<String>();
+		private final List<byte[]> ids = new ArrayList<byte[]>();
+		private int[] codeStart;
+
+		void add(String id, String code)
+		{
+			Set<String> set = idsByCode.get(code);
+			if (set == null)
+			{
+				set = new HashSet<String>();
+				idsByCode.put(code, set);
+			}
+			set.add(id);
+		}
+
+		/** sort nodes by code and id and assign node numbers */
+		void number()
+		{
+			codes.addAll(idsByCode.keySet());
+			Collections.sort(codes);
+			codeStart = new int[codes.size() + 1];
+			for (int c = 0; c < codes.size(); ++c)
+			{
+				codeStart[c] = ids.size();
+				TreeMap<byte[], String> sorted = new TreeMap<byte[], String>(UTF8_ORDER);
+				for (String id : idsByCode.get(codes.get(c)))
+				{
+					sorted.put(id.getBytes(MmapFormat.UTF8), id);
+				}
+				Map<String, Integer> byId = new HashMap<String, Integer>();
+				for (Map.Entry<byte[], String> e : sorted.entrySet())
+				{
+					byId.put(e.getValue(), ids.size());
+					ids.add(e.getKey());
+				}
+				numbers.put(codes.get(c), byId);
+			}
+			codeStart[codes.size()] = ids.size();
+			idsByCode.clear();
+		}
+
+		int get(String id, String code)
+		{
+			return numbers.get(code).get(id);
+		}
+	}
+
+	/**
+	 * Command line entry point.
+	 * @param args source .bridge file and destination file
+	 * @throws IDMapperException if the source database could not be read
+	 * @throws IOException if the destination could not be written
+	 */
+	public static void main(String[] args) throws IDMapperException, IOException
+	{
+		if (args.length != 2)
+		{
+			System.err.println("Usage: MmapWriter <source.bridge> <destination>");
+			System.exit(1);
+		}
+		SimpleGdb gdb = SimpleGdbFactory.createInstance(args[0],
+				"jdbc:derby:jar:(" + args[0] + ")database", 1);
+		try
+		{
+			convert(gdb, new File(args[1]));
+		}
+		finally
+		{
+			gdb.close();
+		}
+	}
+
+	/**
+	 * Write the contents of a SimpleGdb to a file in the memory-mapped format.
+	 * Only the link, datanode and attribute tables and the info properties are copied.
+	 * @param gdb database to convert
+	 * @param dest file to write, overwritten if it exists
+	 * @throws IDMapperException if the database could not be read
+	 * @throws IOException if the file could not be written
+	 */
+	public static void convert(SimpleGdb gdb, File dest) throws IDMapperException, IOException
+	{
+		NodeCollector nodes = new NodeCollector();
+		List<String[]> links = new ArrayList<String[]>();
+		List<String[]> attributes = new ArrayList<String[]>();
+		try
+		{
+			Connection con = gdb.getConnection();
+			Statement st = con.createStatement();
+			try
+			{
+				ResultSet rs = st.executeQuery("SELECT id, code FROM datanode");
+				while (rs.next())
+				{
+					nodes.add(rs.getString(1), rs.getString(2));
+				}
+				rs.close();
+				rs = st.executeQuery("SELECT idLeft, codeLeft, idRight, codeRight FROM link");
+				while (rs.next())
+				{
+					String[] link = { rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4) };
+					nodes.add(link[0], link[1]);
+					nodes.add(link[2], link[3]);
+					links.add(link);
+				}
+				rs.close();
+				rs = st.executeQuery("SELECT id, code, attrname, attrvalue FROM attribute");
+				while (rs.next())
+				{
+					String[] attr = { rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4) };
+					if (attr[3] == null) continue;
+					nodes.add(attr[0], attr[1]);
+					attributes.add(attr);
+				}
+				rs.close();
+			}
+			finally
+			{
+				st.close();
+			}
+		}
+		catch (SQLException ex)
+		{
+			throw new IDMapperException(ex);
+		}
+		nodes.number();
+		int nodeCount = nodes.ids.size();
+
+		IntList lefts = new IntList();
+		IntList rights = new IntList();
+		Set<String> rightCodes = new HashSet<String>();
+		for (String[] link : links)
+		{
+			lefts.add(nodes.get(link[0], link[1]));
+			rights.add(nodes.get(link[2], link[3]));
+			rightCodes.add(link[3]);
+		}
+		links = null;
+
+		List<String> attrNames = new ArrayList<String>();
+		Map<String, Integer> attrNameIndex = new HashMap<String, Integer>();
+		List<byte[]> values = new ArrayList<byte[]>();
+		Map<String, Integer> valueIndex = new HashMap<String, Integer>();
+		IntList attrNodes = new IntList();
+		IntList attrPairs = new IntList();
+		for (String[] attr : attributes)
+		{
+			Integer name = attrNameIndex.get(attr[2]);
+			if (name == null)
+			{
+				name = attrNames.size();
+				attrNames.add(attr[2]);
+				attrNameIndex.put(attr[2], name);
+			}
+			Integer value = valueIndex.get(attr[3]);
+			if (value == null)
+			{
+				value = values.size();
+				values.add(attr[3].getBytes(MmapFormat.UTF8));
+				valueIndex.put(attr[3], value);
+			}
+			attrNodes.add(nodes.get(attr[0], attr[1]));
+			attrPairs.add(name);
+			attrPairs.add(value);
+		}
+		attributes = null;
+
+		IDMapperCapabilities caps = gdb.getCapabilities();
+		int[] offsets = new int[MmapFormat.SECTION_COUNT];
+		MmapOutput out = new MmapOutput(dest);
+		try
+		{
+			out.write(MmapFormat.MAGIC);
+			out.writeInt(MmapFormat.VERSION);
+			for (int i = 0; i < MmapFormat.SECTION_COUNT; ++i) out.writeInt(0);
+
+			offsets[MmapFormat.SECTION_INFO] = out.offset();
+			Set<String> keys = caps.getKeys();
+			out.writeInt(keys.size());
+			for (String key : keys)
+			{
+				out.writeString(key);
+				out.writeString(caps.getProperty(key));
+			}
+
+			offsets[MmapFormat.SECTION_CODES] = out.offset();
+			out.writeInt(nodes.codes.size());
+			for (int c = 0; c < nodes.codes.size(); ++c)
+			{
+				out.writeString(nodes.codes.get(c));
+				out.writeInt(nodes.codeStart[c]);
+				out.writeInt(nodes.codeStart[c + 1]);
+				out.writeInt(rightCodes.contains(nodes.codes.get(c)) ? 1 : 0);
+			}
+
+			offsets[MmapFormat.SECTION_ATTRNAMES] = out.offset();
+			out.writeInt(attrNames.size());
+			for (String name : attrNames) out.writeString(name);
+
+			offsets[MmapFormat.SECTION_IDS] = out.offset();
+			out.writeStringTable(nodes.ids);
+
+			offsets[MmapFormat.SECTION_RIGHT2LEFT] = out.offset();
+			out.writeAdjacency(nodeCount, rights, lefts, 1);
+			offsets[MmapFormat.SECTION_LEFT2RIGHT] = out.offset();
+			out.writeAdjacency(nodeCount, lefts, rights, 1);
+			offsets[MmapFormat.SECTION_ATTRIBUTES] = out.offset();
+			out.writeAdjacency(nodeCount, attrNodes, attrPairs, 2);
+
+			offsets[MmapFormat.SECTION_VALUES] = out.offset();
+			out.writeStringTable(values);
+			// fails if the last section went past what the reader can map.
+			out.offset();
+		}
+		finally
+		{
+			out.close();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(dest, "rw");
+		try
+		{
+			raf.seek(MmapFormat.MAGIC.length + 4);
+			for (int offset : offsets) raf.writeInt(offset);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/** DataOutputStream with the string and CSR encodings of the format. */
+	private static final class MmapOutput extends DataOutputStream
+	{
+		MmapOutput(File dest) throws IOException
+		{
+			super(new BufferedOutputStream(new FileOutputStream(dest), 1 << 16));
+		}
+
+		/**
+		 * @return number of bytes written so far.
+		 * @throws IOException once the output reaches 2 GB, 
+		 * 	where size() stops counting and the int offsets of the format would be wrong. 
+		 */
+		int offset() throws IOException
+		{
+			if (written == Integer.MAX_VALUE) 
+				throw new IOException("Output too large, the memory-mapped format is limited to 2 GB");
+			return written;
+		}
+
+		void writeString(String s) throws IOException
+		{
+			byte[] bytes = (s == null ? "" : s).getBytes(MmapFormat.UTF8);
+			writeInt(bytes.length);
+			write(bytes);
+		}
+
+		/** count and offsets followed by the concatenated bytes, padded to a multiple of 4. */
+		void writeStringTable(List<byte[]> strings) throws IOException
+		{
+			long pos = 0;
+			writeInt(strings.size());
+			writeInt(0);
+			for (byte[] s : strings)
+			{
+				pos += s.length;
+				if (pos > Integer.MAX_VALUE) throw new IOException("String table too large");
+				writeInt((int)pos);
+			}
+			for (byte[] s : strings) write(s);
+			while (offset() % 4 != 0) write(0);
+		}
+
+		/**
+		 * Groups values by key and writes them as nodeCount + 1 offsets followed by the values.
+		 * @param width number of consecutive ints in values that belong to one key.
+		 */
+		void writeAdjacency(int nodeCount, IntList keys, IntList values, int width) throws IOException
+		{
+			int[] start = new int[nodeCount + 1];
+			for (int i = 0; i < keys.size(); ++i) start[keys.get(i) + 1] += width;
+			for (int i = 0; i < nodeCount; ++i) start[i + 1] += start[i];
+			int[] sorted = new int[keys.size() * width];
+			int[] fill = Arrays.copyOf(start, nodeCount);
+			for (int i = 0; i < keys.size(); ++i)
+			{
+				int pos = fill[keys.get(i)];
+				for (int j = 0; j < width; ++j) sorted[pos + j] = values.get(i * width + j);
+				fill[keys.get(i)] += width;
+			}
+			for (int s : start) writeInt(s);
+			for (int v : sorted) writeInt(v);
+		}
+	}
+}
@@ -53,39 +53,47 @@ import org.bridgedb.IDMapperException;
 public abstract class SimpleGdb extends IDMapperRdb
 {
 	private final String connectionString;
+	private final ConnectionPool pool;
+
 	/**
-	 * Create IDMapper based on an existing SQL connection.
-	 * @param con Existing SQL Connection.
+	 * Create IDMapper based on a JDBC connection string.
+	 * Connections are opened lazily.
+	 * @param dbName name of the database, as used in the BridgeDb connection string
+	 * @param connectionString JDBC connection string
+	 * @param poolSize maximum number of connections used for concurrent queries
 	 */
-	SimpleGdb(String dbName, String connectionString)
+	SimpleGdb(String dbName, String connectionString, int poolSize)
 	{
 		this.connectionString = connectionString;
 		this.dbName = dbName;
+		this.pool = new ConnectionPool(connectionString, poolSize);
 	}
 
-	private boolean singleConnection = true;
-	private boolean neverCloseConnection = true;
-	
 	/**
 	 * helper class that handles the life cycle of a connection, query and resultset.
 	 * <p>
 	 * The sql for a query is passed in at construction time.
-	 * Before each query, call init(). This will lead to lazy initialization of the
-	 * connection and preparedstatement objects, if necessary. Set the query parameters
-	 * using setString(int, String). Get the resultSet using 
+	 * Before each query, call init(). This will borrow a connection from the 
+	 * connection pool, and get the preparedstatement that is cached for that connection, 
+	 * preparing it if necessary. Set the query parameters
+	 * using setString(int, String). Get the resultSet using executeQuery().
 	 * Do not close the resultset! This will be closed for you when you call cleanup().
 	 * Always call cleanup() in a finally block.
 	 * <p>
 	 * The advantages of using QueryLifeCycle are:
 	 * <ul>
-	 * <li>guarantee to close preparedstatement, resultset and connection if necessary.
-	 * <li>in case of connection pooling, preparedstatement and connection are kept together as long
-	 *   as possible.
+	 * <li>guarantee to close resultset and to return the connection to the pool.
+	 * <li>preparedstatement and connection are kept together, 
+	 *   each statement is prepared only once per connection.
 	 * <li>lazy initialization of prepared statement
 	 * <li>always uses preparedstatement, so safe from SQL injection.
 	 * </ul> 
 	 * <p>
-	 * This class is not static because it needs SimpleGdb.getConnection().
+	 * A QueryLifeCycle may be used by several threads at the same time. The state 
+	 * between init() and cleanup() is kept per thread, 
+	 * so there is no need to synchronize on it. 
+	 * <p>
+	 * This class is not static because it needs the connection pool of SimpleGdb.
 	 */
 	final class QueryLifeCycle
 	{
@@ -99,11 +107,19 @@ public abstract class SimpleGdb extends IDMapperRdb
 			sql = aSql;
 		}
 		
-		private Connection con = null;
-		private ResultSet rs = null;
-		private PreparedStatement pst = null;
+		/** state of a single query execution, owned by one thread. */
+		private final class State
+		{
+			private ConnectionPool.PooledConnection con = null;
+			private PreparedStatement pst = null;
+			private ResultSet rs = null;
+			private boolean inited = false;
+		}
+
 		private final String sql;
-		private boolean inited = false;
+		private final ThreadLocal<State> state = new ThreadLocal<State>() {
+			@Override protected State initialValue() { return new State(); }
+		};
 
 		public static final int QUERY_TIMEOUT = 20; //seconds
 		public static final int NO_LIMIT = 0;
@@ -112,72 +128,75 @@ public abstract class SimpleGdb extends IDMapperRdb
 		public void init(int limit) throws SQLException
 		{
 			init();
-			pst.setQueryTimeout(QUERY_TIMEOUT);			
-			if(limit > NO_LIMIT) 
-			{
-				pst.setMaxRows(limit);
-			}
+			PreparedStatement pst = state.get().pst;
+			pst.setQueryTimeout(QUERY_TIMEOUT);
+			// statements are cached, so always reset the limit of a previous query.
+			pst.setMaxRows(limit > NO_LIMIT ? limit : NO_LIMIT);
 		}
 		
 		/**
-		 * Initialize connection and PreparedStatement lazily.
+		 * Borrow a connection and get its PreparedStatement, which is created lazily.
 		 * <p>
 		 * @throws SQLException when a PreparedStatement could not be created
 		 */
 		public void init() throws SQLException
 		{
-			if (inited) throw new IllegalStateException("Must call cleanup() between two init() calls");
+			State s = state.get();
+			if (s.inited) throw new IllegalStateException("Must call cleanup() between two init() calls");
 			try
 			{
-				if (con == null) con = getConnection();
-				if (pst == null)
-				{
-					pst = con.prepareStatement(sql);
-				}
+				s.con = pool.borrow();
+				s.pst = s.con.prepare(sql);
 			}
-			finally { inited = true; }
+			finally { s.inited = true; }
 		}
 		
 		public void setString (int index, String val) throws SQLException
 		{
-			if (!inited) throw new IllegalStateException("Must call init() before setString()");
-			pst.setString(index, val);
+			State s = state.get();
+			if (!s.inited) throw new IllegalStateException("Must call init() before setString()");
+			s.pst.setString(index, val);
 		}
 		
 		public ResultSet executeQuery() throws SQLException
 		{
-			if (!inited) throw new IllegalStateException("Must call init() before executeQuery()");
-			rs = pst.executeQuery();
-			return rs;
+			State s = state.get();
+			if (!s.inited) throw new IllegalStateException("Must call init() before executeQuery()");
+			s.rs = s.pst.executeQuery();
+			return s.rs;
 		}
 
 		/** 
-		 * Clean up resultset. If keepConnection is false, preparedstatement
-		 * and connection are cached. If keepConnection is true, they are closed as well.
-		 * The later is useful when using connection pooling.
+		 * Clean up resultset and return the connection to the pool. 
+		 * The preparedstatement stays cached with its connection.
 		 * <p>
 		 * Always call this in a finally block! 
 		 * */
 		public void cleanup()
 		{
-			if (!inited) throw new IllegalStateException("Must call init() before cleanup()");
-			inited = false;
-			if (rs != null) try { rs.close(); } catch (SQLException ignore) {}
-			if (neverCloseConnection) return;
-			if (pst != null) try { pst.close(); } catch (SQLException ignore) {}
-			pst = null;
-			if (con != null) try { con.close(); } catch (SQLException ignore) {}
-			con = null;
+			State s = state.get();
+			if (!s.inited) throw new IllegalStateException("Must call init() before cleanup()");
+			s.inited = false;
+			if (s.rs != null) try { s.rs.close(); } catch (SQLException ignore) {}
+			s.rs = null;
+			s.pst = null;
+			if (s.con != null) pool.release(s.con);
+			s.con = null;
 		}
 	}
 
 	private Connection con = null;
 	
+	/**
+	 * Get a connection for ad-hoc queries. This connection is not part of the pool
+	 * used by the IDMapper methods, and each call returns the same object.
+	 * Do not close it.
+	 * @return read-only connection to the database
+	 * @throws SQLException when the connection could not be opened 
+	 */
 	synchronized public Connection getConnection() throws SQLException
 	{
-		// if singleConnection is true, each call to getConnection() will return the same object.
-		// if singleConnection is false, each call to getConneciton() will lead to a new connection object being created.
-		if (!singleConnection || con == null)
+		if (con == null)
 		{
 			con = DriverManager.getConnection(connectionString); 
 			con.setReadOnly(true);
@@ -185,6 +204,12 @@ public abstract class SimpleGdb extends IDMapperRdb
 		return con;
 	}
 	
+	/** @return maximum number of connections used for concurrent queries. */
+	public int getPoolSize()
+	{
+		return pool.getMaxSize();
+	}
+	
 	/**
 	 * The {@link Connection} to the Gene Database.
 	 */
@@ -193,8 +218,7 @@ public abstract class SimpleGdb extends IDMapperRdb
 
 	/** {@inheritDoc} */
 	final public boolean isConnected() { 
-		//return con != null; 
-		return true;
+		return !pool.isClosed();
 	}
 
 	protected final String dbName;
@@ -202,18 +226,28 @@ public abstract class SimpleGdb extends IDMapperRdb
 	/** {@inheritDoc} */
 	@Override final public String getDbName() { return dbName; }
 	
-	/** {@inheritDoc} */
+	/** 
+	 * {@inheritDoc}
+	 * Connections that are in use by running queries are closed when those queries finish. 
+	 */
 	final public void close() throws IDMapperException 
 	{
-//		try
-//		{
-//			con.close();
-//		}
-//		catch (SQLException ex)
-//		{
-//			throw new IDMapperException (ex);
-//		}
-//		con = null;
+		pool.close();
+		synchronized (this)
+		{
+			if (con != null)
+			{
+				try
+				{
+					con.close();
+				}
+				catch (SQLException ex)
+				{
+					throw new IDMapperException (ex);
+				}
+				con = null;
+			}
+		}
 	}
 	
 	public static final int NO_LIMIT = 0;
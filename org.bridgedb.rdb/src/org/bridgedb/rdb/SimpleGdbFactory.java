@@ -44,6 +44,21 @@ public final class SimpleGdbFactory
 	 * @throws IDMapperException on failure
 	*/
 	public static SimpleGdb createInstance(String dbName, String connectionString) throws IDMapperException
+	{
+		return createInstance(dbName, connectionString, ConnectionPool.DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Opens a connection to the Gene Database located in the given file,
+	 * using at most poolSize connections for concurrent queries.
+	 * <p>
+	 * Use this instead of constructor to create an instance of SimpleGdb that matches the schema version.
+	 * @param connectionString a JDBC Connection string 
+	 * @param poolSize maximum number of connections, at least 1.
+	 * @return a new Gdb
+	 * @throws IDMapperException on failure
+	*/
+	public static SimpleGdb createInstance(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
 		if(connectionString == null) throw new NullPointerException();	
 
@@ -83,9 +98,9 @@ public final class SimpleGdbFactory
 		switch (version)
 		{
 		case 2:
-			return new SimpleGdbImpl2(dbName, connectionString);
+			return new SimpleGdbImpl2(dbName, connectionString, poolSize);
 		case 3:
-			return new SimpleGdbImpl3(dbName, connectionString);
+			return new SimpleGdbImpl3(dbName, connectionString, poolSize);
 		//NB add future schema versions here
 		default:
 			throw new IDMapperException ("Unrecognized schema version '" + version + "', please make sure you have the latest " +
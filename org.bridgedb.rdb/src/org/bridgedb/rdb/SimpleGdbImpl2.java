@@ -50,36 +50,34 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 	private String getBpInfo(Xref ref) throws IDMapperException 
 	{
 		final QueryLifeCycle pst = qBackpage;
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-				String result = null;
-				if (r.next())
-				{
-					result = r.getString(1);
-				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException (e); } //Gene not found
-			finally {pst.cleanup(); }
-		}
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			ResultSet r = pst.executeQuery();
+			String result = null;
+			if (r.next())
+			{
+				result = r.getString(1);
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException (e); } //Gene not found
+		finally {pst.cleanup(); }
 	}
 
 	/**
 	 * Opens a connection to the Gene Database located in the given file.
 	 * A new instance of this class is created automatically.
 	 * @param dbName The file containing the Gene Database. 
-	 * @param con An existing SQL Connector.
+	 * @param connectionString JDBC connection string
+	 * @param poolSize maximum number of connections for concurrent queries
 	 * @param props PROP_RECREATE if you want to create a new database (possibly overwriting an existing one) 
 	 * 	or PROP_NONE if you want to connect read-only
 	 * @throws IDMapperException when the database could not be created or connected to
 	 */
-	public SimpleGdbImpl2(String dbName, String connectionString) throws IDMapperException
+	public SimpleGdbImpl2(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
-		super (dbName, connectionString);
+		super (dbName, connectionString, poolSize);
 		
 		if(dbName == null) throw new NullPointerException();		
 		checkSchemaVersion();
@@ -140,22 +138,19 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 			}
 		}
 		
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				pst.setString (3, attrname);
-				ResultSet r = pst.executeQuery();
-				if (r.next())
-				{
-					result.add (r.getString(1));
-				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref + ", Attribute: " + attrname, e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			pst.setString (3, attrname);
+			ResultSet r = pst.executeQuery();
+			if (r.next())
+			{
+				result.add (r.getString(1));
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref + ", Attribute: " + attrname, e); } // Database unavailable
+		finally {pst.cleanup(); }
 	}
 
 	/** {@inheritDoc} */
@@ -181,31 +176,28 @@ class SimpleGdbImpl2 extends SimpleGdbImplCommon
 			}
 		}
 		
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-				if (r.next())
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			ResultSet r = pst.executeQuery();
+			if (r.next())
+			{
+				String key = r.getString(1);
+				String value = r.getString(2);
+				if (result.containsKey (key))
 				{
-					String key = r.getString(1);
-					String value = r.getString(2);
-					if (result.containsKey (key))
-					{
-						result.get(key).add (value);
-					}
-					else
-					{
-						Set<String> valueSet = new HashSet<String>();
-						valueSet.add (value);
-						result.put (key, valueSet);
-					}
+					result.get(key).add (value);
 				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+				else
+				{
+					Set<String> valueSet = new HashSet<String>();
+					valueSet.add (value);
+					result.put (key, valueSet);
+				}
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
+		finally {pst.cleanup(); }
 	}
 }
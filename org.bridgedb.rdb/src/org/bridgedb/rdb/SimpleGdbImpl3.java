@@ -36,14 +36,15 @@ class SimpleGdbImpl3 extends SimpleGdbImplCommon
 	 * Opens a connection to the Gene Database located in the given file.
 	 * A new instance of this class is created automatically.
 	 * @param dbName The file containing the Gene Database. 
-	 * @param con An existing java SQL connection
+	 * @param connectionString JDBC connection string
+	 * @param poolSize maximum number of connections for concurrent queries
 	 * @param props PROP_RECREATE if you want to create a new database (possibly overwriting an existing one) 
 	 * 	or PROP_NONE if you want to connect read-only
 	 * @throws IDMapperException when the database could not be created or connected to
 	 */
-	public SimpleGdbImpl3(String dbName, String connectionString) throws IDMapperException
+	public SimpleGdbImpl3(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
-		super(dbName, connectionString);
+		super(dbName, connectionString, poolSize);
 		checkSchemaVersion();
 	}
 	
@@ -75,22 +76,19 @@ class SimpleGdbImpl3 extends SimpleGdbImplCommon
 	{
 		Set<String> result = new HashSet<String>();
 		final QueryLifeCycle pst = qAttribute;
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				pst.setString (3, attrname);
-				ResultSet r = pst.executeQuery();
-				if (r.next())
-				{
-					result.add (r.getString(1));
-				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException (e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			pst.setString (3, attrname);
+			ResultSet r = pst.executeQuery();
+			if (r.next())
+			{
+				result.add (r.getString(1));
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException (e); } // Database unavailable
+		finally {pst.cleanup(); }
 	}
 
 	/** {@inheritDoc} */
@@ -99,31 +97,28 @@ class SimpleGdbImpl3 extends SimpleGdbImplCommon
 	{
 		Map<String, Set<String>> result = new HashMap<String, Set<String>>();				
 		final QueryLifeCycle pst = qAllAttributes;
-		synchronized (pst)
-		{
-			try {
-				pst.init();
-				pst.setString (1, ref.getId());
-				pst.setString (2, ref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-				while (r.next())
+		try {
+			pst.init();
+			pst.setString (1, ref.getId());
+			pst.setString (2, ref.getDataSource().getSystemCode());
+			ResultSet r = pst.executeQuery();
+			while (r.next())
+			{
+				String key = r.getString(1);
+				String value = r.getString(2);
+				if (result.containsKey (key))
 				{
-					String key = r.getString(1);
-					String value = r.getString(2);
-					if (result.containsKey (key))
-					{
-						result.get(key).add (value);
-					}
-					else
-					{
-						Set<String> valueSet = new HashSet<String>();
-						valueSet.add (value);
-						result.put (key, valueSet);
-					}
+					result.get(key).add (value);
 				}
-				return result;
-			} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
-			finally {pst.cleanup(); }
-		}
+				else
+				{
+					Set<String> valueSet = new HashSet<String>();
+					valueSet.add (value);
+					result.put (key, valueSet);
+				}
+			}
+			return result;
+		} catch	(SQLException e) { throw new IDMapperException ("Xref:" + ref, e); } // Database unavailable
+		finally {pst.cleanup(); }
 	}
 }
@@ -5,6 +5,7 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -16,6 +17,7 @@ import org.bridgedb.DataSource;
 import org.bridgedb.IDMapperCapabilities;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.Xref;
+import org.bridgedb.XrefInterner;
 import org.bridgedb.impl.InternalUtils;
 
 /**
@@ -23,9 +25,9 @@ import org.bridgedb.impl.InternalUtils;
  */
 public abstract class SimpleGdbImplCommon extends SimpleGdb
 {
-	SimpleGdbImplCommon(String dbName, String connectionString) throws IDMapperException
+	SimpleGdbImplCommon(String dbName, String connectionString, int poolSize) throws IDMapperException
 	{
-		super(dbName, connectionString);
+		super(dbName, connectionString, poolSize);
 		caps = new SimpleGdbCapabilities();
 	}
 
@@ -60,6 +62,12 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 			"ON src.idLeft = dest.idLeft and src.codeLeft = dest.codeLeft " +
 			"WHERE src.idRight = ? AND src.codeRight = ? AND dest.codeRight = ?"
 		);
+	final SimpleGdb.QueryLifeCycle qCrossRefsBatch = new SimpleGdb.QueryLifeCycle (
+			crossRefsBatchSql(false)
+		);
+	final SimpleGdb.QueryLifeCycle qCrossRefsBatchWithCode = new SimpleGdb.QueryLifeCycle (
+			crossRefsBatchSql(true)
+		);
 	final SimpleGdb.QueryLifeCycle qRefsByAttribute = new SimpleGdb.QueryLifeCycle (
 			"SELECT datanode.id, datanode.code FROM datanode " +
 			" LEFT JOIN attribute ON attribute.code = datanode.code AND attribute.id = datanode.id " +
@@ -89,26 +97,24 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	{
 		if (xref.getDataSource() == null) return false;
 		final QueryLifeCycle pst = qXrefExists;
-		synchronized (pst) {
-			try 
-			{
-				pst.init();
-				pst.setString(1, xref.getId());
-				pst.setString(2, xref.getDataSource().getSystemCode());
-				ResultSet r = pst.executeQuery();
-	
-				while(r.next()) 
-				{
-					return true;
-				}
-			} 
-			catch (SQLException e) 
+		try 
+		{
+			pst.init();
+			pst.setString(1, xref.getId());
+			pst.setString(2, xref.getDataSource().getSystemCode());
+			ResultSet r = pst.executeQuery();
+
+			while(r.next()) 
 			{
-				throw new IDMapperException (e);
+				return true;
 			}
-			finally {pst.cleanup(); }
-			return false;
+		} 
+		catch (SQLException e) 
+		{
+			throw new IDMapperException (e);
 		}
+		finally {pst.cleanup(); }
+		return false;
 	}
 
 	/**
@@ -120,30 +126,29 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	{
 		Map<String, String> result = new HashMap<String, String>();
 		final QueryLifeCycle pst = qInfo;
-		synchronized (pst) {
-			try
+		try
+		{
+			pst.init();
+			ResultSet rs = pst.executeQuery();
+			
+			if (rs.next())
 			{
-				pst.init();
-				ResultSet rs = pst.executeQuery();
-				
-				if (rs.next())
+				ResultSetMetaData rsmd = rs.getMetaData();
+				for (int i = 1; i <= rsmd.getColumnCount(); ++i)
 				{
-					ResultSetMetaData rsmd = rs.getMetaData();
-					for (int i = 1; i <= rsmd.getColumnCount(); ++i)
-					{
-						String key = rsmd.getColumnName(i);
-						String val = rs.getString(i);
-						result.put (key, val);
-					}
+					String key = rsmd.getColumnName(i);
+					String val = rs.getString(i);
+					result.put (key, val);
 				}
 			}
-			catch (SQLException ex)
-			{
-				throw new IDMapperException (ex);
-			}
-			
-			return result;
 		}
+		catch (SQLException ex)
+		{
+			throw new IDMapperException (ex);
+		}
+		finally {pst.cleanup(); }
+		
+		return result;
 	}
 
 
@@ -154,34 +159,117 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 		Set<Xref> refs = new HashSet<Xref>();
 		
 		if (idc.getDataSource() == null) return refs;
-		synchronized (pst) {
-			try
+		try
+		{
+			pst.init();
+			pst.setString(1, idc.getId());
+			pst.setString(2, idc.getDataSource().getSystemCode());
+			if (resultDs.length == 1) pst.setString(3, resultDs[0].getSystemCode());			
+			
+			Set<DataSource> dsFilter = new HashSet<DataSource>(Arrays.asList(resultDs));
+
+			XrefInterner interner = new XrefInterner();
+			ResultSet rs = pst.executeQuery();
+			while (rs.next())
 			{
-				pst.init();
-				pst.setString(1, idc.getId());
-				pst.setString(2, idc.getDataSource().getSystemCode());
-				if (resultDs.length == 1) pst.setString(3, resultDs[0].getSystemCode());			
-				
-				Set<DataSource> dsFilter = new HashSet<DataSource>(Arrays.asList(resultDs));
+				DataSource ds = interner.getDataSource(rs.getString(2));
+				if (resultDs.length == 0 || dsFilter.contains(ds))
+				{
+					refs.add (interner.intern(rs.getString(1), ds));
+				}
+			}
+		}
+		catch (SQLException e)
+		{
+			throw new IDMapperException (e);
+		}
+		finally {pst.cleanup(); }
+	
+		return refs;
+	}
+
+	/**
+	 * Number of identifiers that are looked up with a single query by mapID(Collection, ...).
+	 * Shorter lists are padded, so that there is only one PreparedStatement per query type.
+	 */
+	static final int BATCH_SIZE = 100;
+	
+	/**
+	 * @param withCode if true, the query has an extra parameter to filter on the target system code
+	 * @return self-join of the link table for BATCH_SIZE source ids of a single system code.
+	 */
+	private static String crossRefsBatchSql(boolean withCode)
+	{
+		StringBuilder sql = new StringBuilder(
+			"SELECT src.idRight, dest.idRight, dest.codeRight FROM link AS src JOIN link AS dest " +
+			"ON src.idLeft = dest.idLeft and src.codeLeft = dest.codeLeft " +
+			"WHERE src.codeRight = ? AND src.idRight IN (?");
+		for (int i = 1; i < BATCH_SIZE; i++)
+		{
+			sql.append (", ?");
+		}
+		sql.append (")");
+		if (withCode) sql.append (" AND dest.codeRight = ?");
+		return sql.toString();
+	}
 	
-				ResultSet rs = pst.executeQuery();
-				while (rs.next())
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The source Xrefs are grouped by DataSource, and each group is
+	 * looked up in chunks of BATCH_SIZE identifiers per query.
+	 */
+	@Override
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException 
+	{
+		final QueryLifeCycle pst = tgtDataSources.length != 1 ? qCrossRefsBatch : qCrossRefsBatchWithCode;
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		Set<DataSource> dsFilter = new HashSet<DataSource>(Arrays.asList(tgtDataSources));
+		// targets are often shared between sources, e.g. many probes for one gene
+		XrefInterner interner = new XrefInterner();
+
+		for (Map.Entry<DataSource, Set<Xref>> group : InternalUtils.groupByDataSource(srcXrefs).entrySet())
+		{
+			if (group.getKey() == null) continue;
+			String code = group.getKey().getSystemCode();
+			
+			List<Xref> refs = new ArrayList<Xref>(group.getValue());
+			for (int start = 0; start < refs.size(); start += BATCH_SIZE)
+			{
+				List<Xref> chunk = refs.subList(start, Math.min(start + BATCH_SIZE, refs.size()));
+				Map<String, Xref> byId = new HashMap<String, Xref>();
+				for (Xref ref : chunk) byId.put (ref.getId(), ref);
+				
+				try
 				{
-					DataSource ds = DataSource.getExistingBySystemCode(rs.getString(2));
-					if (resultDs.length == 0 || dsFilter.contains(ds))
+					pst.init();
+					pst.setString(1, code);
+					for (int i = 0; i < BATCH_SIZE; i++)
 					{
-						refs.add (new Xref (rs.getString(1), ds));
+						// pad with the last id, duplicates in the IN list are harmless 
+						pst.setString(i + 2, chunk.get(Math.min(i, chunk.size() - 1)).getId());
+					}
+					if (tgtDataSources.length == 1) pst.setString(BATCH_SIZE + 2, tgtDataSources[0].getSystemCode());
+					
+					ResultSet rs = pst.executeQuery();
+					while (rs.next())
+					{
+						Xref src = byId.get(rs.getString(1));
+						DataSource ds = interner.getDataSource(rs.getString(3));
+						if (src != null && (tgtDataSources.length == 0 || dsFilter.contains(ds)))
+						{
+							InternalUtils.multiMapPut(result, src, interner.intern(rs.getString(2), ds));
+						}
 					}
 				}
+				catch (SQLException e)
+				{
+					throw new IDMapperException (e);
+				}
+				finally {pst.cleanup(); }
 			}
-			catch (SQLException e)
-			{
-				throw new IDMapperException (e);
-			}
-			finally {pst.cleanup(); }
-		
-			return refs;
 		}
+		return result;
 	}
 
 	/** {@inheritDoc} */
@@ -190,23 +278,21 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 		List<Xref> refs = new ArrayList<Xref>();
 
 		final QueryLifeCycle pst = qRefsByAttribute;
-		synchronized (pst) { 
-			try {
-				pst.init();
-				pst.setString(1, attrName);
-				pst.setString(2, attrValue);
-				ResultSet r = pst.executeQuery();
-				while(r.next()) {
-					Xref ref = new Xref(r.getString(1), DataSource.getExistingBySystemCode(r.getString(2)));
-					refs.add(ref);
-				}
-			} catch(SQLException e) {
-				throw new IDMapperException (e);
+		try {
+			pst.init();
+			pst.setString(1, attrName);
+			pst.setString(2, attrValue);
+			ResultSet r = pst.executeQuery();
+			while(r.next()) {
+				Xref ref = new Xref(r.getString(1), DataSource.getExistingBySystemCode(r.getString(2)));
+				refs.add(ref);
 			}
-			finally {pst.cleanup(); }
-	//		Logger.log.trace("End fetching cross references by attribute");
-			return refs;
+		} catch(SQLException e) {
+			throw new IDMapperException (e);
 		}
+		finally {pst.cleanup(); }
+//		Logger.log.trace("End fetching cross references by attribute");
+		return refs;
 	}
 
 	/** {@inheritDoc} */
@@ -214,25 +300,23 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	{		
 		Set<Xref> result = new HashSet<Xref>();
 		final QueryLifeCycle pst = qFreeSearch;
-		synchronized (pst) { 
-			try {
-				pst.init(limit);
-				pst.setString(1, "%" + text.toLowerCase() + "%");
-				ResultSet r = pst.executeQuery();
-				while(r.next()) {
-					String id = r.getString(1);
-					DataSource ds = DataSource.getExistingBySystemCode(r.getString(2));
-					Xref ref = new Xref (id, ds);
-					result.add (ref);
-				}			
-			} 
-			catch (SQLException e) 
-			{
-				throw new IDMapperException(e);
-			}
-			finally {pst.cleanup(); }
-			return result;
+		try {
+			pst.init(limit);
+			pst.setString(1, "%" + text.toLowerCase() + "%");
+			ResultSet r = pst.executeQuery();
+			while(r.next()) {
+				String id = r.getString(1);
+				DataSource ds = DataSource.getExistingBySystemCode(r.getString(2));
+				Xref ref = new Xref (id, ds);
+				result.add (ref);
+			}			
+		} 
+		catch (SQLException e) 
+		{
+			throw new IDMapperException(e);
 		}
+		finally {pst.cleanup(); }
+		return result;
 	}
 
 	/**
@@ -243,29 +327,27 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	{
 		Set<DataSource> result = new HashSet<DataSource>();
 		final QueryLifeCycle pst = qDatasources;
-		synchronized (pst) { 
-			try
-	    	{
-	    	 	pst.init();
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next()) {
-	    	 		String syscode = rs.getString(1);
-	    	 		if (DataSource.systemCodeExists(syscode)) {
-	    	 			DataSource ds = DataSource.getExistingBySystemCode(syscode);
-		    	 		result.add (ds);
-	    	 		} else {
-	    	 			DataSource ds = DataSource.register(syscode, "Unknown data source").asDataSource();
-	    	 			result.add (ds);
-	    	 		}
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return result;
-		}
+		try
+    	{
+    	 	pst.init();
+    	 	ResultSet rs = pst.executeQuery();
+    	 	while (rs.next()) {
+    	 		String syscode = rs.getString(1);
+    	 		if (DataSource.systemCodeExists(syscode)) {
+    	 			DataSource ds = DataSource.getExistingBySystemCode(syscode);
+	    	 		result.add (ds);
+    	 		} else {
+    	 			DataSource ds = DataSource.register(syscode, "Unknown data source").asDataSource();
+    	 			result.add (ds);
+    	 		}
+    	 	}
+    	}
+    	catch (SQLException ignore)
+    	{
+    		throw new IDMapperException(ignore);
+    	}
+		finally {pst.cleanup(); }
+    	return result;
 	}
 
 	private final IDMapperCapabilities caps;
@@ -311,26 +393,24 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 		Map<Xref, String> result = new HashMap<Xref, String>();
 		final QueryLifeCycle pst = (MATCH_ID.equals (attrType)) ? 
 				qIdSearchWithAttributes : qAttributeSearch;
-		synchronized (pst) { 
-			try {
-				pst.init(limit);
-				pst.setString(1, attrType);
-				pst.setString(2, "%" + query.toLowerCase() + "%");
-				ResultSet r = pst.executeQuery();
-	
-				while(r.next()) 
-				{
-					String id = r.getString("id");
-					String code = r.getString("code");
-					String symbol = r.getString("attrValue");
-					result.put(new Xref (id, DataSource.getExistingBySystemCode(code)), symbol);
-				}
-			} catch (SQLException e) {
-				throw new IDMapperException (e);
+		try {
+			pst.init(limit);
+			pst.setString(1, attrType);
+			pst.setString(2, "%" + query.toLowerCase() + "%");
+			ResultSet r = pst.executeQuery();
+
+			while(r.next()) 
+			{
+				String id = r.getString("id");
+				String code = r.getString("code");
+				String symbol = r.getString("attrValue");
+				result.put(new Xref (id, DataSource.getExistingBySystemCode(code)), symbol);
 			}
-			finally {pst.cleanup(); }
-			return result;
+		} catch (SQLException e) {
+			throw new IDMapperException (e);
 		}
+		finally {pst.cleanup(); }
+		return result;
 	}
 	
 	public Map<Xref, Set<String>> freeAttributeSearchEx (String query, String attrType, int limit) throws IDMapperException
@@ -338,27 +418,25 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 		Map<Xref, Set<String>> result = new HashMap<Xref, Set<String>>();
 		final QueryLifeCycle pst = (MATCH_ID.equals (attrType)) ? 
 				qIdSearchWithAttributes : qAttributeSearch;
-		synchronized (pst) { 
-			try {
-				pst.init(limit);
-				pst.setString(1, attrType);
-				pst.setString(2, "%" + query.toLowerCase() + "%");
-				ResultSet r = pst.executeQuery();
-	
-				while(r.next()) 
-				{
-					String id = r.getString("id");
-					String code = r.getString("code");
-					String symbol = r.getString("attrValue");
-					Xref ref = new Xref (id, DataSource.getExistingBySystemCode(code));
-					InternalUtils.multiMapPut(result, ref, symbol);
-				}
-			} catch (SQLException e) {
-				throw new IDMapperException (e);
+		try {
+			pst.init(limit);
+			pst.setString(1, attrType);
+			pst.setString(2, "%" + query.toLowerCase() + "%");
+			ResultSet r = pst.executeQuery();
+
+			while(r.next()) 
+			{
+				String id = r.getString("id");
+				String code = r.getString("code");
+				String symbol = r.getString("attrValue");
+				Xref ref = new Xref (id, DataSource.getExistingBySystemCode(code));
+				InternalUtils.multiMapPut(result, ref, symbol);
 			}
-			finally { pst.cleanup(); }
-			return result;
+		} catch (SQLException e) {
+			throw new IDMapperException (e);
 		}
+		finally { pst.cleanup(); }
+		return result;
 	}
 
 	/** {@inheritDoc} */
@@ -366,69 +444,63 @@ public abstract class SimpleGdbImplCommon extends SimpleGdb
 	{
 		Set<String> result = new HashSet<String>();
 		final QueryLifeCycle pst = qAttributesSet;
-		synchronized (pst) { 
-	    	try
-	    	{
-	    	 	pst.init();
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		result.add (rs.getString(1));
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return result;
-		}
+    	try
+    	{
+    	 	pst.init();
+    	 	ResultSet rs = pst.executeQuery();
+    	 	while (rs.next())
+    	 	{
+    	 		result.add (rs.getString(1));
+    	 	}
+    	}
+    	catch (SQLException ignore)
+    	{
+    		throw new IDMapperException(ignore);
+    	}
+		finally {pst.cleanup(); }
+    	return result;
 	}
 
 	@Override
 	public Iterable<Xref> getIterator() throws IDMapperException {
 		Set<Xref> xrefs = new HashSet<Xref>();
 		final QueryLifeCycle pst = qAllXrefs;
-		synchronized (pst) { 
-	    	try
-	    	{
-	    	 	pst.init();
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		xrefs.add(new Xref(rs.getString(1), DataSource.getExistingBySystemCode(rs.getString(2))));
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return xrefs;
-		}		
+    	try
+    	{
+    	 	pst.init();
+    	 	ResultSet rs = pst.executeQuery();
+    	 	while (rs.next())
+    	 	{
+    	 		xrefs.add(new Xref(rs.getString(1), DataSource.getExistingBySystemCode(rs.getString(2))));
+    	 	}
+    	}
+    	catch (SQLException ignore)
+    	{
+    		throw new IDMapperException(ignore);
+    	}
+		finally {pst.cleanup(); }
+    	return xrefs;
 	}
 	
 	@Override
 	public Iterable<Xref> getIterator(DataSource ds) throws IDMapperException {
 		Set<Xref> xrefs = new HashSet<Xref>();
 		final QueryLifeCycle pst = qAllXrefsByDatasource;
-		synchronized (pst) { 
-	    	try
-	    	{
-	    	 	pst.init();
-	    	 	pst.setString(1, ds.getSystemCode());
-	    	 	ResultSet rs = pst.executeQuery();
-	    	 	while (rs.next())
-	    	 	{
-	    	 		xrefs.add(new Xref(rs.getString(1), ds));
-	    	 	}
-	    	}
-	    	catch (SQLException ignore)
-	    	{
-	    		throw new IDMapperException(ignore);
-	    	}
-			finally {pst.cleanup(); }
-	    	return xrefs;
-		}
+    	try
+    	{
+    	 	pst.init();
+    	 	pst.setString(1, ds.getSystemCode());
+    	 	ResultSet rs = pst.executeQuery();
+    	 	while (rs.next())
+    	 	{
+    	 		xrefs.add(new Xref(rs.getString(1), ds));
+    	 	}
+    	}
+    	catch (SQLException ignore)
+    	{
+    		throw new IDMapperException(ignore);
+    	}
+		finally {pst.cleanup(); }
+    	return xrefs;
 	}
 }
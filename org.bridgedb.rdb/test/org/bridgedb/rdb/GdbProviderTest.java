@@ -0,0 +1,145 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperStack;
+import org.bridgedb.Xref;
+import org.bridgedb.bio.Organism;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GdbProviderTest {
+
+	private static IDMapper dummyMapper() {
+		return dummyMapper(new HashSet<Object>());
+	}
+
+	/** @param closed collects the mappers that have been closed */
+	private static IDMapper dummyMapper(final Set<Object> closed) {
+		return (IDMapper)Proxy.newProxyInstance(IDMapper.class.getClassLoader(),
+				new Class[] { IDMapper.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("equals")) return proxy == args[0];
+						if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+						if (method.getName().equals("close")) closed.add(proxy);
+						return null;
+					}
+				});
+	}
+
+	@Test
+	public void testStacksCachedUntilChanged() {
+		GdbProvider provider = new GdbProvider();
+		IDMapper global = dummyMapper();
+		IDMapper human = dummyMapper();
+		provider.addGlobalGdb(global);
+		provider.addOrganismGdb(Organism.HomoSapiens, human);
+
+		IDMapperStack stack = provider.getStack(Organism.HomoSapiens);
+		Assert.assertSame(stack, provider.getStack(Organism.HomoSapiens));
+		Assert.assertEquals(2, stack.getSize());
+
+		// Organisms without a database of their own share the global stack
+		IDMapperStack rat = provider.getStack(Organism.RattusNorvegicus);
+		Assert.assertSame(rat, provider.getStack(Organism.MusMusculus));
+		Assert.assertEquals(1, rat.getSize());
+
+		provider.addOrganismGdb(Organism.HomoSapiens, dummyMapper());
+		Assert.assertNotSame(stack, provider.getStack(Organism.HomoSapiens));
+		Assert.assertEquals(3, provider.getStack(Organism.HomoSapiens).getSize());
+		// Stacks already handed out are not changed
+		Assert.assertEquals(2, stack.getSize());
+	}
+
+	@Test
+	public void testNameIndex() {
+		GdbProvider provider = new GdbProvider();
+		provider.addOrganismGdb(Organism.HomoSapiens, dummyMapper());
+		IDMapperStack stack = provider.getStack(Organism.HomoSapiens);
+		Assert.assertSame(stack, provider.getStack(Organism.HomoSapiens.latinName()));
+		Assert.assertSame(stack, provider.getStack(Organism.HomoSapiens.code()));
+		Assert.assertSame(stack, provider.getStack(Organism.HomoSapiens.shortName()));
+		Assert.assertEquals(0, provider.getStack(Organism.MusMusculus.shortName()).getSize());
+		Assert.assertNull(provider.getStack("Not an organism"));
+		Assert.assertNull(provider.getStack((String)null));
+	}
+
+	@Test
+	public void testReplacedClosedWhenDrained() {
+		Set<Object> closed = new HashSet<Object>();
+		GdbProvider provider = new GdbProvider();
+		IDMapper old = dummyMapper(closed);
+		IDMapper kept = dummyMapper(closed);
+		Map<String, IDMapper> lines = new LinkedHashMap<String, IDMapper>();
+		lines.put("Homo sapiens\tidmapper-pgdb:old.bridge", old);
+		lines.put("*\tidmapper-pgdb:metabolites.bridge", kept);
+		provider.replaceConfigured(lines);
+
+		GdbProvider.Lease first = provider.acquire();
+		GdbProvider.Lease second = provider.acquire();
+		Assert.assertEquals(2, first.getStack("Human").getSize());
+
+		IDMapper fresh = dummyMapper(closed);
+		lines.remove("Homo sapiens\tidmapper-pgdb:old.bridge");
+		lines.put("Homo sapiens\tidmapper-pgdb:new.bridge", fresh);
+		provider.replaceConfigured(lines);
+
+		// Requests that started before the swap keep their databases
+		Assert.assertTrue(first.getStack("Human").getMappers().contains(old));
+		Assert.assertTrue(provider.getStack("Human").getMappers().contains(fresh));
+		Assert.assertFalse(provider.getStack("Human").getMappers().contains(old));
+		Assert.assertTrue(closed.isEmpty());
+
+		first.release();
+		first.release();
+		Assert.assertTrue(closed.isEmpty());
+		second.release();
+		Assert.assertEquals(1, closed.size());
+		Assert.assertTrue(closed.contains(old));
+	}
+
+	@Test
+	public void testWarmupSampleSkipsUnknownSystems() throws Exception {
+		DataSource.register("WuT", "Warm up test");
+		File f = File.createTempFile("warmup", ".txt");
+		try {
+			Writer writer = new FileWriter(f);
+			writer.write("1\tWuT\n2\tWarm up test\n3\tWuTypo\nno system\n");
+			writer.close();
+			List<Xref> sample = GdbReloader.readWarmupSample(f);
+			Assert.assertEquals(2, sample.size());
+			Assert.assertEquals("WuT", sample.get(1).getDataSource().getSystemCode());
+			Assert.assertFalse(DataSource.systemCodeExists("WuTypo"));
+		} finally {
+			f.delete();
+		}
+	}
+}
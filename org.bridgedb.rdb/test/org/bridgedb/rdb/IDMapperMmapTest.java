@@ -0,0 +1,144 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import buildsystem.Measure;
+
+/**
+ * Converts the SimpleGdbTest database to the mmap format and
+ * checks that IDMapperMmap gives the same answers as SimpleGdb.
+ */
+public class IDMapperMmapTest
+{
+	static final String CONNECTION_STRING = "jdbc:derby:memory:mmaptest";
+
+	private static SimpleGdb gdb;
+	private static IDMapperMmap mmap;
+	private static File file;
+
+	@BeforeClass
+	public static void convertDatabase() throws SQLException, IDMapperException, IOException, ClassNotFoundException
+	{
+		SimpleGdbTest.fillDatabase(CONNECTION_STRING);
+		gdb = SimpleGdbFactory.createInstance("mmaptest", CONNECTION_STRING, 1);
+		file = File.createTempFile("mmaptest", ".bmap");
+		MmapWriter.convert(gdb, file);
+
+		Class.forName("org.bridgedb.rdb.IDMapperMmap");
+		IDMapper mapper = BridgeDb.connect("idmapper-mmap:" + file.getAbsolutePath());
+		Assert.assertTrue (mapper instanceof IDMapperMmap);
+		mmap = (IDMapperMmap)mapper;
+	}
+
+	@AfterClass
+	public static void cleanup() throws IDMapperException
+	{
+		if (gdb != null) gdb.close();
+		if (mmap != null) mmap.close();
+		if (file != null) file.delete();
+	}
+
+	@Test
+	public void testSameAsSimpleGdb() throws IDMapperException
+	{
+		for (int i = 0; i < SimpleGdbTest.GENE_COUNT; i += 7)
+		{
+			for (Xref ref : SimpleGdbTest.xrefsOfGene(i))
+			{
+				Assert.assertEquals (gdb.mapID(ref), mmap.mapID(ref));
+				Assert.assertEquals (gdb.mapID(ref, SimpleGdbTest.AFFY), mmap.mapID(ref, SimpleGdbTest.AFFY));
+				Assert.assertEquals (gdb.mapID(ref, SimpleGdbTest.GENE, SimpleGdbTest.ENTREZ),
+						mmap.mapID(ref, SimpleGdbTest.GENE, SimpleGdbTest.ENTREZ));
+				Assert.assertEquals (gdb.getAttributes(ref), mmap.getAttributes(ref));
+				Assert.assertTrue (mmap.xrefExists(ref));
+			}
+		}
+
+		Xref unknown = new Xref ("unknown_at", SimpleGdbTest.AFFY);
+		Assert.assertTrue (mmap.mapID(unknown).isEmpty());
+		Assert.assertFalse (mmap.xrefExists(unknown));
+		Assert.assertFalse (mmap.xrefExists(new Xref ("G7", SimpleGdbTest.AFFY)));
+		Assert.assertTrue (mmap.mapID(new Xref ("G7", null)).isEmpty());
+
+		Assert.assertEquals (Collections.singleton("SYM7"), mmap.getAttributes(new Xref ("G7", SimpleGdbTest.GENE), "Symbol"));
+		Assert.assertEquals (gdb.getAttributeSet(), mmap.getAttributeSet());
+		Assert.assertEquals (gdb.getCapabilities().getSupportedSrcDataSources(),
+				mmap.getCapabilities().getSupportedSrcDataSources());
+		Assert.assertEquals (gdb.getCapabilities().getProperty("SCHEMAVERSION"),
+				mmap.getCapabilities().getProperty("SCHEMAVERSION"));
+	}
+
+	@Test
+	public void testSearchAndIterate() throws IDMapperException
+	{
+		Assert.assertEquals (gdb.freeSearch("7_AT", 0), mmap.freeSearch("7_AT", 0));
+		Assert.assertEquals (3, mmap.freeSearch("7_at", 3).size());
+
+		Map<Xref, String> found = mmap.freeAttributeSearch("sym12", "Symbol", 0);
+		Assert.assertEquals (gdb.freeAttributeSearch("sym12", "Symbol", 0), found);
+		Assert.assertEquals ("SYM12", found.get(new Xref ("G12", SimpleGdbTest.GENE)));
+
+		Set<Xref> all = new HashSet<Xref>();
+		for (Xref ref : mmap.getIterator()) all.add (ref);
+		Assert.assertEquals (3 * SimpleGdbTest.GENE_COUNT, all.size());
+
+		Set<Xref> affy = new HashSet<Xref>();
+		for (Xref ref : mmap.getIterator(SimpleGdbTest.AFFY)) affy.add (ref);
+		Set<Xref> expected = new HashSet<Xref>();
+		for (Xref ref : gdb.getIterator(SimpleGdbTest.AFFY)) expected.add (ref);
+		Assert.assertEquals (expected, affy);
+	}
+
+	@Test
+	public void testTiming() throws IDMapperException
+	{
+		Measure measure = new Measure("bridgedb_timing.txt");
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < SimpleGdbTest.GENE_COUNT; i++)
+		{
+			gdb.mapID(new Xref (i + "_at", SimpleGdbTest.AFFY), SimpleGdbTest.ENTREZ);
+		}
+		long delta = System.currentTimeMillis() - start;
+		measure.add ("timing::SimpleGdb mapID " + SimpleGdbTest.GENE_COUNT + " xrefs", "" + delta, "msec");
+
+		start = System.currentTimeMillis();
+		for (int i = 0; i < SimpleGdbTest.GENE_COUNT; i++)
+		{
+			Set<Xref> result = mmap.mapID(new Xref (i + "_at", SimpleGdbTest.AFFY), SimpleGdbTest.ENTREZ);
+			Assert.assertEquals (Collections.singleton(new Xref ("" + (1000 + i), SimpleGdbTest.ENTREZ)), result);
+		}
+		delta = System.currentTimeMillis() - start;
+		measure.add ("timing::IDMapperMmap mapID " + SimpleGdbTest.GENE_COUNT + " xrefs", "" + delta, "msec");
+	}
+}
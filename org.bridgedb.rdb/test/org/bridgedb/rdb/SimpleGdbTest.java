@@ -0,0 +1,247 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.rdb;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.impl.InternalUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import buildsystem.Measure;
+
+/**
+ * Tests SimpleGdb against a small schema v3 database held in Derby's in-memory store.
+ */
+public class SimpleGdbTest
+{
+	static final String CONNECTION_STRING = "jdbc:derby:memory:simplegdbtest";
+	static final int GENE_COUNT = 500;
+
+	static DataSource GENE;
+	static DataSource ENTREZ;
+	static DataSource AFFY;
+
+	private static SimpleGdb gdb;
+
+	@BeforeClass
+	public static void createDatabase() throws SQLException, IDMapperException
+	{
+		fillDatabase(CONNECTION_STRING);
+		gdb = SimpleGdbFactory.createInstance("simplegdbtest", CONNECTION_STRING, 4);
+	}
+
+	/**
+	 * Create the test data source and a schema v3 database with GENE_COUNT genes.
+	 * @param connectionString JDBC connection string of a database that does not exist yet
+	 */
+	static void fillDatabase(String connectionString) throws SQLException
+	{
+		GENE = DataSource.register("TsG", "Test genes").asDataSource();
+		ENTREZ = DataSource.register("TsL", "Test entrez").asDataSource();
+		AFFY = DataSource.register("TsX", "Test affy").asDataSource();
+
+		Connection con = DriverManager.getConnection(connectionString + ";create=true");
+		Statement sh = con.createStatement();
+		sh.execute("CREATE TABLE info (schemaversion INTEGER PRIMARY KEY)");
+		sh.execute("INSERT INTO info VALUES (3)");
+		sh.execute("CREATE TABLE link (idLeft VARCHAR(50) NOT NULL, codeLeft VARCHAR(50) NOT NULL, " +
+				"idRight VARCHAR(50) NOT NULL, codeRight VARCHAR(50) NOT NULL, bridge VARCHAR(50), " +
+				"PRIMARY KEY (idLeft, codeLeft, idRight, codeRight))");
+		sh.execute("CREATE TABLE datanode (id VARCHAR(50), code VARCHAR(50), PRIMARY KEY (id, code))");
+		sh.execute("CREATE TABLE attribute (id VARCHAR(50), code VARCHAR(50), " +
+				"attrname VARCHAR(50), attrvalue VARCHAR(255))");
+		sh.execute("CREATE INDEX i_idRight ON link(idRight)");
+		sh.close();
+
+		PreparedStatement pstNode = con.prepareStatement("INSERT INTO datanode (id, code) VALUES (?, ?)");
+		PreparedStatement pstLink = con.prepareStatement(
+				"INSERT INTO link (idLeft, codeLeft, idRight, codeRight) VALUES (?, ?, ?, ?)");
+		PreparedStatement pstAttr = con.prepareStatement(
+				"INSERT INTO attribute (attrname, attrvalue, id, code) VALUES (?, ?, ?, ?)");
+		for (int i = 0; i < GENE_COUNT; i++)
+		{
+			for (Xref ref : xrefsOfGene(i))
+			{
+				pstNode.setString(1, ref.getId());
+				pstNode.setString(2, ref.getDataSource().getSystemCode());
+				pstNode.addBatch();
+				pstLink.setString(1, "G" + i);
+				pstLink.setString(2, GENE.getSystemCode());
+				pstLink.setString(3, ref.getId());
+				pstLink.setString(4, ref.getDataSource().getSystemCode());
+				pstLink.addBatch();
+			}
+			pstAttr.setString(1, "Symbol");
+			pstAttr.setString(2, "SYM" + i);
+			pstAttr.setString(3, "G" + i);
+			pstAttr.setString(4, GENE.getSystemCode());
+			pstAttr.addBatch();
+		}
+		pstNode.executeBatch();
+		pstLink.executeBatch();
+		pstAttr.executeBatch();
+		con.close();
+	}
+
+	@AfterClass
+	public static void closeDatabase() throws IDMapperException
+	{
+		if (gdb != null) gdb.close();
+	}
+
+	/** @return the xrefs that are linked to gene i: the gene itself, an entrez id and an affy probe. */
+	static List<Xref> xrefsOfGene(int i)
+	{
+		List<Xref> result = new ArrayList<Xref>();
+		result.add (new Xref ("G" + i, GENE));
+		result.add (new Xref ("" + (1000 + i), ENTREZ));
+		result.add (new Xref (i + "_at", AFFY));
+		return result;
+	}
+
+	@Test
+	public void testMapID() throws IDMapperException
+	{
+		Set<Xref> result = gdb.mapID(new Xref ("1007", ENTREZ));
+		Assert.assertEquals (3, result.size());
+		Assert.assertTrue (result.contains(new Xref ("7_at", AFFY)));
+
+		result = gdb.mapID(new Xref ("1007", ENTREZ), AFFY);
+		Assert.assertEquals (Collections.singleton(new Xref ("7_at", AFFY)), result);
+
+		Assert.assertTrue (gdb.xrefExists(new Xref ("G7", GENE)));
+		Assert.assertFalse (gdb.xrefExists(new Xref ("G7", AFFY)));
+		Assert.assertEquals (Collections.singleton("SYM7"), gdb.getAttributes(new Xref ("G7", GENE), "Symbol"));
+	}
+
+	@Test
+	public void testMapIDBatch() throws IDMapperException
+	{
+		Set<Xref> src = new HashSet<Xref>();
+		for (int i = 0; i < GENE_COUNT; i += 3)
+		{
+			src.add (new Xref (i + "_at", AFFY));
+			src.add (new Xref ("" + (1000 + i), ENTREZ));
+		}
+		src.add (new Xref ("unknown_at", AFFY));
+		src.add (new Xref ("nosource", null));
+
+		Assert.assertEquals (InternalUtils.mapMultiFromSingle(gdb, src), gdb.mapID(src));
+		Assert.assertEquals (InternalUtils.mapMultiFromSingle(gdb, src, GENE), gdb.mapID(src, GENE));
+		Assert.assertEquals (InternalUtils.mapMultiFromSingle(gdb, src, GENE, ENTREZ), gdb.mapID(src, GENE, ENTREZ));
+		
+		Map<Xref, Set<Xref>> result = gdb.mapID(src, ENTREZ);
+		Assert.assertEquals (Collections.singleton(new Xref ("1003", ENTREZ)), result.get(new Xref ("3_at", AFFY)));
+		Assert.assertFalse (result.containsKey(new Xref ("unknown_at", AFFY)));
+	}
+
+	/**
+	 * Compare the batched mapID(Collection, ...) with one query per Xref.
+	 */
+	@Test
+	public void testMapIDBatchTiming() throws IDMapperException
+	{
+		Measure measure = new Measure("bridgedb_timing.txt");
+		Set<Xref> src = new HashSet<Xref>();
+		for (int i = 0; i < GENE_COUNT; i++)
+		{
+			src.add (new Xref (i + "_at", AFFY));
+		}
+		
+		long start = System.currentTimeMillis();
+		Map<Xref, Set<Xref>> single = InternalUtils.mapMultiFromSingle(gdb, src, ENTREZ);
+		long delta = System.currentTimeMillis() - start;
+		measure.add ("timing::SimpleGdb mapID " + GENE_COUNT + " xrefs one at a time", "" + delta, "msec");
+
+		start = System.currentTimeMillis();
+		Map<Xref, Set<Xref>> batch = gdb.mapID(src, ENTREZ);
+		delta = System.currentTimeMillis() - start;
+		measure.add ("timing::SimpleGdb mapID " + GENE_COUNT + " xrefs batched", "" + delta, "msec");
+		
+		Assert.assertEquals (single, batch);
+		Assert.assertEquals (GENE_COUNT, batch.size());
+	}
+
+	@Test
+	public void testConcurrentQueries() throws Exception
+	{
+		Assert.assertEquals (4, gdb.getPoolSize());
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 8; t++)
+		{
+			final int offset = t;
+			Thread thread = new Thread() {
+				@Override public void run()
+				{
+					try
+					{
+						for (int i = offset; i < GENE_COUNT; i += 8)
+						{
+							Set<Xref> result = gdb.mapID(new Xref (i + "_at", AFFY), ENTREZ);
+							Assert.assertEquals (Collections.singleton(new Xref ("" + (1000 + i), ENTREZ)), result);
+							Map<String, Set<String>> attrs = gdb.getAttributes(new Xref ("G" + i, GENE));
+							Assert.assertEquals (Collections.singleton("SYM" + i), attrs.get("Symbol"));
+						}
+					}
+					catch (Throwable ex)
+					{
+						errors.add (ex);
+					}
+				}
+			};
+			threads.add (thread);
+			thread.start();
+		}
+		for (Thread thread : threads) thread.join();
+		Assert.assertEquals (Collections.emptyList(), errors);
+	}
+
+	@Test
+	public void testSplitPoolSize() throws IDMapperException
+	{
+		String[] parts = IDMapperRdb.splitPoolSize("/data/Hs_Derby.bridge");
+		Assert.assertEquals ("/data/Hs_Derby.bridge", parts[0]);
+		Assert.assertNull (parts[1]);
+
+		parts = IDMapperRdb.splitPoolSize("/data/Hs_Derby.bridge?poolsize=8");
+		Assert.assertEquals ("/data/Hs_Derby.bridge", parts[0]);
+		Assert.assertEquals (8, IDMapperRdb.parsePoolSize(parts[1]));
+
+		parts = IDMapperRdb.splitPoolSize("mysql://localhost/gdb?user=x&poolsize=2&password=y");
+		Assert.assertEquals ("mysql://localhost/gdb?user=x&password=y", parts[0]);
+		Assert.assertEquals ("2", parts[1]);
+
+		Assert.assertEquals (ConnectionPool.DEFAULT_POOL_SIZE, IDMapperRdb.parsePoolSize(null));
+	}
+}
@@ -0,0 +1,315 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.GdbProvider;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.representation.WriterRepresentation;
+import org.restlet.resource.Post;
+import org.restlet.resource.ResourceException;
+
+/**
+ * Resource that maps many xrefs in one request.
+ * <p>
+ * The body is either tab delimited text with an identifier and a system (code or full name) on each line,
+ * or a JSON list such as <code>[{"id":"1234","system":"L"}, ...]</code>.
+ * <p>
+ * The result is tab delimited text with a line per mapping: source id, source system as posted,
+ * target id and target datasource full name.
+ * The xrefs are mapped BATCH_SIZE at a time and each batch is written as soon as it is mapped,
+ * so the response is streamed rather than built up in memory.
+ */
+public class BatchXrefs extends IDMapperResource {
+	private static final int BATCH_SIZE = 1000;
+	DataSource[] targetDs;
+
+	protected void doInit() throws ResourceException {
+		super.doInit();
+		//Optional and may be repeated
+		String[] targetDsNames = getQuery().getValuesArray(IDMapperService.PAR_TARGET_SYSTEM);
+		targetDs = new DataSource[targetDsNames.length];
+		for (int i = 0; i < targetDsNames.length; i++) {
+			targetDs[i] = parseExistingDataSource(targetDsNames[i]);
+			if(targetDs[i] == null) {
+				throw new ResourceException(Status.CLIENT_ERROR_BAD_REQUEST, "Unknown datasource: " + targetDsNames[i]);
+			}
+		}
+	}
+
+	@Post
+	public Representation mapXrefs(Representation entity) {
+		final List<String> systems = new ArrayList<String>();
+		final List<Xref> xrefs = new ArrayList<Xref>();
+		try {
+			if (entity == null) {
+				throw new IllegalArgumentException("No xrefs posted");
+			}
+			if (MediaType.APPLICATION_JSON.equals(entity.getMediaType(), true)) {
+				List<String[]> pairs = new JsonPairReader(entity.getText()).readPairs();
+				for (String[] pair : pairs) {
+					addXref(pair[0], pair[1], xrefs, systems);
+				}
+			} else {
+				readTsv(entity, xrefs, systems);
+			}
+		} catch(IllegalArgumentException e) {
+			setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+			return new StringRepresentation(e.getMessage());
+		} catch(Exception e) {
+			e.printStackTrace();
+			setStatus(Status.SERVER_ERROR_INTERNAL);
+			return new StringRepresentation(e.getMessage());
+		}
+
+		final IDMapper mapper = getIDMappers();
+		//The response is written after this resource is released so it keeps the databases open itself
+		final GdbProvider.Lease lease = detachLease();
+		return new WriterRepresentation(MediaType.TEXT_PLAIN) {
+			@Override
+			public void write(Writer writer) throws IOException {
+				try {
+					writeMappings(writer);
+				} finally {
+					lease.release();
+				}
+			}
+			
+			@Override
+			public void release() {
+				lease.release();
+				super.release();
+			}
+			
+			private void writeMappings(Writer writer) throws IOException {
+				for (int start = 0; start < xrefs.size(); start += BATCH_SIZE) {
+					List<Xref> batch = xrefs.subList(start, Math.min(start + BATCH_SIZE, xrefs.size()));
+					Map<Xref, Set<Xref>> results;
+					try {
+						results = mapper.mapID(batch, targetDs);
+					} catch (IDMapperException e) {
+						//The status has already been sent so all that can be done is to stop the response.
+						e.printStackTrace();
+						throw new IOException("Error mapping xrefs: " + e.getMessage());
+					}
+					for (int i = 0; i < batch.size(); i++) {
+						Xref source = batch.get(i);
+						Set<Xref> targets = results.get(source);
+						if (targets == null) continue;
+						for(Xref x : targets) {
+							writer.write(source.getId());
+							writer.write("\t");
+							writer.write(systems.get(start + i));
+							writer.write("\t");
+							writer.write(x.getId());
+							writer.write("\t");
+							writer.write(x.getDataSource().getFullName());
+							writer.write("\n");
+						}
+					}
+					writer.flush();
+				}
+			}
+		};
+	}
+
+	private void readTsv(Representation entity, List<Xref> xrefs, List<String> systems) throws IOException {
+		BufferedReader reader = new BufferedReader(entity.getReader());
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().length() == 0) continue;
+				String[] cols = line.split("\t");
+				if (cols.length < 2) {
+					throw new IllegalArgumentException("Expected id<tab>system but found: " + line);
+				}
+				addXref(cols[0], cols[1].trim(), xrefs, systems);
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void addXref(String id, String dsName, List<Xref> xrefs, List<String> systems) {
+		//Unknown names must not be registered, as a large body could fill the registry.
+		DataSource dataSource = parseExistingDataSource(dsName);
+		if(dataSource == null) {
+			throw new IllegalArgumentException("Unknown datasource: " + dsName);
+		}
+		xrefs.add(new Xref(id, dataSource));
+		systems.add(dsName);
+	}
+
+	/**
+	 * Reads a JSON list of objects with string "id" and "system" members.
+	 * Other members are skipped. Only as much JSON as needed for that is understood.
+	 */
+	static class JsonPairReader {
+		private final String text;
+		private int pos = 0;
+
+		JsonPairReader(String text) {
+			this.text = text == null ? "" : text;
+		}
+
+		List<String[]> readPairs() {
+			List<String[]> pairs = new ArrayList<String[]>();
+			expect('[');
+			if (peek() == ']') {
+				pos++;
+			} else {
+				while (true) {
+					pairs.add(readPair());
+					char c = next();
+					if (c == ']') break;
+					if (c != ',') throw error("Expected , or ]");
+				}
+			}
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+			if (pos < text.length()) throw error("Unexpected text after ]");
+			return pairs;
+		}
+
+		private String[] readPair() {
+			String id = null;
+			String system = null;
+			expect('{');
+			if (peek() == '}') {
+				pos++;
+			} else {
+				while (true) {
+					String key = readString();
+					expect(':');
+					if ("id".equals(key)) {
+						id = readString();
+					} else if ("system".equals(key)) {
+						system = readString();
+					} else {
+						skipValue();
+					}
+					char c = next();
+					if (c == '}') break;
+					if (c != ',') throw error("Expected , or }");
+				}
+			}
+			if (id == null || system == null) {
+				throw error("Each entry needs an id and a system");
+			}
+			return new String[] { id, system };
+		}
+
+		private String readString() {
+			expect('"');
+			StringBuilder result = new StringBuilder();
+			while (pos < text.length()) {
+				char c = text.charAt(pos++);
+				if (c == '"') return result.toString();
+				if (c == '\\') {
+					if (pos >= text.length()) break;
+					char e = text.charAt(pos++);
+					switch (e) {
+						case 'n': result.append('\n'); break;
+						case 't': result.append('\t'); break;
+						case 'r': result.append('\r'); break;
+						case 'b': result.append('\b'); break;
+						case 'f': result.append('\f'); break;
+						case 'u':
+							if (pos + 4 > text.length()) throw error("Bad unicode escape");
+							try {
+								result.append((char)Integer.parseInt(text.substring(pos, pos + 4), 16));
+							} catch (NumberFormatException ex) {
+								throw error("Bad unicode escape");
+							}
+							pos += 4;
+							break;
+						default: result.append(e);
+					}
+				} else {
+					result.append(c);
+				}
+			}
+			throw error("Unterminated string");
+		}
+
+		/** Skips a value of any type, including nested objects and arrays. */
+		private void skipValue() {
+			char c = peek();
+			if (c == '"') {
+				readString();
+			} else if (c == '{' || c == '[') {
+				char close = c == '{' ? '}' : ']';
+				pos++;
+				if (peek() == close) {
+					pos++;
+					return;
+				}
+				while (true) {
+					if (close == '}') {
+						readString();
+						expect(':');
+					}
+					skipValue();
+					char n = next();
+					if (n == close) return;
+					if (n != ',') throw error("Expected , or " + close);
+				}
+			} else {
+				//number, true, false or null
+				int start = pos;
+				while (pos < text.length() 
+						&& (Character.isLetterOrDigit(text.charAt(pos)) || "+-.".indexOf(text.charAt(pos)) >= 0)) {
+					pos++;
+				}
+				if (pos == start) throw error("Unexpected " + c);
+			}
+		}
+
+		private void expect(char expected) {
+			if (next() != expected) throw error("Expected " + expected);
+		}
+
+		private char next() {
+			char c = peek();
+			pos++;
+			return c;
+		}
+
+		private char peek() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+			if (pos >= text.length()) throw error("Unexpected end of JSON");
+			return text.charAt(pos);
+		}
+
+		private IllegalArgumentException error(String message) {
+			return new IllegalArgumentException(message + " at character " + pos + " of posted JSON");
+		}
+	}
+}
@@ -21,7 +21,6 @@ import java.net.URLDecoder;
 
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapperStack;
-import org.bridgedb.bio.Organism;
 import org.bridgedb.rdb.GdbProvider;
 import org.restlet.resource.ResourceException;
 import org.restlet.resource.ServerResource;
@@ -33,6 +32,7 @@ import org.restlet.resource.ServerResource;
 public class IDMapperResource extends ServerResource {
 	private IDMapperStack mappers;
 	private String orgName;
+	private GdbProvider.Lease lease;
 	
 	protected DataSource parseDataSource(String dsName) {
 		if(dsName == null) return null;
@@ -46,6 +46,22 @@ public class IDMapperResource extends ServerResource {
 		return ds;
 	}
 	
+	/**
+	 * As parseDataSource but never registers a new DataSource,
+	 * for input that may hold many unknown names.
+	 * @return null if no DataSource is known with this full name or system code.
+	 */
+	protected DataSource parseExistingDataSource(String dsName) {
+		if(dsName == null) return null;
+		if(DataSource.fullNameExists(dsName)) {
+			return DataSource.getExistingByFullName(dsName);
+		}
+		if(DataSource.systemCodeExists(dsName)) {
+			return DataSource.getExistingBySystemCode(dsName);
+		}
+		return null;
+	}
+	
 	@Override
 	protected void doInit() throws ResourceException {
 		try {
@@ -54,10 +70,36 @@ public class IDMapperResource extends ServerResource {
 		);
 		initIDMappers();
 		} catch(UnsupportedEncodingException e) {
+			releaseLease();
 			throw new ResourceException(e);
+		} catch(RuntimeException e) {
+			releaseLease();
+			throw e;
+		}
+	}
+	
+	@Override
+	protected void doRelease() throws ResourceException {
+		releaseLease();
+	}
+	
+	private void releaseLease() {
+		if (lease != null) {
+			lease.release();
+			lease = null;
 		}
 	}
 	
+	/**
+	 * Takes over the lease on the databases, for a response that is written after
+	 * this resource has been released. The caller must release the returned lease.
+	 */
+	protected GdbProvider.Lease detachLease() {
+		GdbProvider.Lease result = lease;
+		lease = null;
+		return result;
+	}
+	
 	/**
 	 * Decode the parameter from the url to remove %20 etc.
 	 */
@@ -66,17 +108,12 @@ public class IDMapperResource extends ServerResource {
 	}
 	
 	private void initIDMappers() {
-		Organism org = Organism.fromLatinName(orgName);
-		if(org == null) { //Fallback on code
-			org = Organism.fromCode(orgName);
-		}
-		if(org == null) { //Fallback on shortname
-			org = Organism.fromShortName(orgName);
-		}
-		if(org == null) {
+		// Hold on to this configuration until the request is done, so a reload does not close it
+		lease = getGdbProvider().acquire();
+		mappers = lease.getStack(orgName);
+		if(mappers == null) {
 			throw new IllegalArgumentException("Unknown organism: " + orgName + "<p><font size='+1'><i>Double check the spelling. We are expecting an entry like: Human</i></font></p>");
 		}
-		mappers = getGdbProvider().getStack(org);
 		if (mappers.getSize() == 0)
 		{
 			throw new IllegalArgumentException("No database found for: " + orgName +"<p><font size='+1'><i>Verify that the database is supported and properly referenced in gdb.config.</i></font></p>");
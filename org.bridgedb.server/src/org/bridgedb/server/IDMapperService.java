@@ -24,6 +24,7 @@ import org.bridgedb.IDMapperCapabilities;
 import org.bridgedb.IDMapperException;
 import org.bridgedb.bio.DataSourceTsv;
 import org.bridgedb.rdb.GdbProvider;
+import org.bridgedb.rdb.GdbReloader;
 import org.restlet.Application;
 import org.restlet.Restlet;
 import org.restlet.routing.Redirector;
@@ -48,6 +49,9 @@ public class IDMapperService extends Application {
 
 	public final File configFile;
 	private boolean transitive;
+	private int reloadSeconds = 0;
+	private File warmupFile = null;
+	private GdbReloader reloader = null;
 
 	public IDMapperService(File aConfigFile, boolean transitive)
 	{
@@ -69,6 +73,25 @@ public class IDMapperService extends Application {
 		}
 	}
 
+	/**
+	 * Check the config file and the databases it refers to for changes every so many seconds,
+	 * and reload them without restarting. 0, the default, switches reloading off.
+	 * Must be set before the service is started.
+	 */
+	public void setReloadSeconds(int value)
+	{
+		reloadSeconds = value;
+	}
+
+	/**
+	 * File with id[Tab]system lines that are mapped on reloaded databases before they are put in use.
+	 * Must be set before the service is started.
+	 */
+	public void setWarmupFile(File value)
+	{
+		warmupFile = value;
+	}
+
 	/**
 	 * URL pattern to redirect to home page.<BR>
 	 * 
@@ -97,6 +120,17 @@ public class IDMapperService extends Application {
 	public static final String URL_XREFS = "/{" + PAR_ORGANISM + "}/xrefs/{" + PAR_SYSTEM + "}/{" + 
 		PAR_ID + "}";
 
+	/**
+	 * URL pattern for mapping many xrefs in one request.<BR>
+	 * POST tab delimited id and system lines, or a JSON list of {"id":..,"system":..} objects, to
+	 * <code>
+	 * /{organism}/xrefsBatch[?dataSource={dsName}[&dataSource={dsName}...]]
+	 * </code>
+	 * @see BatchXrefs
+	 * @see IDMapper#mapID(java.util.Collection, org.bridgedb.DataSource...)
+	 */
+	public static final String URL_XREFS_BATCH = "/{" + PAR_ORGANISM + "}/xrefsBatch";
+
 	/**
 	 * URL pattern for searching xrefs.<BR>
 	 * <code>
@@ -234,6 +268,14 @@ public class IDMapperService extends Application {
 		connectGdbs();
 	}
 
+	public synchronized void stop() throws Exception {
+		if (reloader != null) {
+			reloader.stop();
+			reloader = null;
+		}
+		super.stop();
+	}
+
 	public Restlet createRoot() {
 		Router router = new Router(getContext());
 		
@@ -257,6 +299,9 @@ public class IDMapperService extends Application {
 		//in the attributes
 		xrefsRoute.extractQuery(PAR_TARGET_SYSTEM, PAR_TARGET_SYSTEM, true);
 
+		//dataSource may be repeated so BatchXrefs reads the query itself
+		router.attach(URL_XREFS_BATCH, BatchXrefs.class);
+
 		Route searchRoute = router.attach( URL_SEARCH, FreeSearch.class );
 		searchRoute.extractQuery( PAR_TARGET_LIMIT, PAR_TARGET_LIMIT, true );
 		
@@ -307,5 +352,13 @@ public class IDMapperService extends Application {
 			gdbFile = new File(gdbconf[0]);
 		}
 		gdbProvider = GdbProvider.fromConfigFile(gdbFile, transitive);
+		if (reloadSeconds > 0) {
+			reloader = new GdbReloader(gdbProvider, gdbFile);
+			if (warmupFile != null) {
+				reloader.setWarmupSample(GdbReloader.readWarmupSample(warmupFile));
+			}
+			reloader.start(reloadSeconds);
+			System.out.println ("Checking " + gdbFile + " for changes every " + reloadSeconds + " seconds");
+		}
 	}
 }
@@ -40,10 +40,22 @@ public class Server
 	}
 
 	public void run(int port, File configFile, boolean transitive)
+	{
+		run(port, configFile, transitive, 0, null);
+	}
+
+	/**
+	 * @param reloadSeconds time between checks for changed databases, or 0 to never reload
+	 * @param warmupFile sample of id[Tab]system queries run on reloaded databases, may be null
+	 */
+	public void run(int port, File configFile, boolean transitive, int reloadSeconds, File warmupFile)
 	{
 		component = new Component();
 		component.getServers().add(Protocol.HTTP, port);
-		component.getDefaultHost().attach(new IDMapperService(configFile, transitive));		
+		IDMapperService service = new IDMapperService(configFile, transitive);
+		service.setReloadSeconds(reloadSeconds);
+		service.setWarmupFile(warmupFile);
+		component.getDefaultHost().attach(service);		
 		try {
 			System.out.println ("Starting server on port " + port);
 			component.start();
@@ -67,6 +79,8 @@ public class Server
 		int port = 8183; // default port
 		boolean transitive = false;
 		File configFile = null;
+		int reloadSeconds = 0;
+		File warmupFile = null;
 		
 		Options options = new Options();
 		options.addOption(OptionBuilder.withArgName("port")
@@ -78,6 +92,14 @@ public class Server
 				.hasArg()
 				.withDescription("Override configuration file (default: gdb.config)")
 				.create("f"));
+		options.addOption(OptionBuilder.withArgName("seconds")
+				.hasArg()
+				.withDescription("Reload changed databases, checking every so many seconds (default: never)")
+				.create("r"));
+		options.addOption(OptionBuilder.withArgName("file")
+				.hasArg()
+				.withDescription("Queries (id<tab>system per line) to warm up reloaded databases with")
+				.create("w"));
 		options.addOption("h", false, "Print help and quit");
 		CommandLineParser parser = new PosixParser();
 		try
@@ -94,6 +116,8 @@ public class Server
 			if (line.hasOption("p")) port = Integer.parseInt(line.getOptionValue("p"));
 			if (line.hasOption("f")) configFile = new File (line.getOptionValue("f"));
 			if (line.hasOption("t")) transitive = true; 
+			if (line.hasOption("r")) reloadSeconds = Integer.parseInt(line.getOptionValue("r"));
+			if (line.hasOption("w")) warmupFile = new File (line.getOptionValue("w"));
 				
 		}
 		catch (Exception e)
@@ -106,6 +130,6 @@ public class Server
 		
 		Server server = new Server();
 				
-		server.run (port, configFile, transitive);
+		server.run (port, configFile, transitive, reloadSeconds, warmupFile);
 	}
 }
@@ -0,0 +1,96 @@
+//BridgeDb,
+//An abstraction layer for identifier mapping services, both local and online.
+//Copyright 2006-2009 BridgeDb developers
+//
+//Licensed under the Apache License, Version 2.0 (the "License");
+//you may not use this file except in compliance with the License.
+//You may obtain a copy of the License at
+//
+//http://www.apache.org/licenses/LICENSE-2.0
+//
+//Unless required by applicable law or agreed to in writing, software
+//distributed under the License is distributed on an "AS IS" BASIS,
+//WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//See the License for the specific language governing permissions and
+//limitations under the License.
+//
+package org.bridgedb.server;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the JSON reader used by BatchXrefs, no server or database is needed.
+ */
+public class JsonPairReaderTest {
+
+	private static List<String[]> read(String json) {
+		return new BatchXrefs.JsonPairReader(json).readPairs();
+	}
+
+	private static void assertInvalid(String json) {
+		try {
+			read(json);
+			Assert.fail("Expected " + json + " to be rejected");
+		} catch (IllegalArgumentException expected) {
+			//expected
+		}
+	}
+
+	@Test
+	public void testPairs() {
+		List<String[]> pairs = read(" [ {\"id\" : \"1234\", \"system\":\"L\"},\n{\"system\":\"Ensembl\",\"id\":\"ENSG1\"} ] ");
+		Assert.assertEquals(2, pairs.size());
+		Assert.assertArrayEquals(new String[] { "1234", "L" }, pairs.get(0));
+		Assert.assertArrayEquals(new String[] { "ENSG1", "Ensembl" }, pairs.get(1));
+	}
+
+	@Test
+	public void testEscapes() {
+		List<String[]> pairs = read("[{\"id\":\"a\\\"b\\\\c\\/d\\n\\t\\u0041\",\"system\":\"L\"}]");
+		Assert.assertEquals("a\"b\\c/d\n\tA", pairs.get(0)[0]);
+		assertInvalid("[{\"id\":\"\\u12\",\"system\":\"L\"}]");
+		assertInvalid("[{\"id\":\"\\u12zz\",\"system\":\"L\"}]");
+	}
+
+	@Test
+	public void testEmptyArray() {
+		Assert.assertTrue(read("[]").isEmpty());
+		Assert.assertTrue(read(" [ \n ] ").isEmpty());
+	}
+
+	@Test
+	public void testOtherMembersSkipped() {
+		List<String[]> pairs = read("[{\"id\":\"1\",\"score\":-1.5e3,\"ok\":true,\"none\":null,"
+				+ "\"extra\":{\"a\":[1,{\"b\":\"]\"}],\"c\":[]},\"system\":\"L\"}]");
+		Assert.assertEquals(1, pairs.size());
+		Assert.assertArrayEquals(new String[] { "1", "L" }, pairs.get(0));
+	}
+
+	@Test
+	public void testNestedArraysRejected() {
+		assertInvalid("[[{\"id\":\"1\",\"system\":\"L\"}]]");
+		assertInvalid("[{\"id\":[\"1\"],\"system\":\"L\"}]");
+	}
+
+	@Test
+	public void testTruncated() {
+		assertInvalid("");
+		assertInvalid("[");
+		assertInvalid("[{\"id\":\"1\"");
+		assertInvalid("[{\"id\":\"1\",\"system\":\"L\"}");
+		assertInvalid("[{\"id\":\"1\",\"system\":\"L");
+		assertInvalid("[{\"id\":\"1\",\"system\":\"L\\");
+		assertInvalid("[{\"id\":\"1\",\"system\":\"L\",\"extra\":{\"a\":[1,");
+	}
+
+	@Test
+	public void testInvalid() {
+		assertInvalid("{\"id\":\"1\",\"system\":\"L\"}");
+		assertInvalid("[{\"id\":\"1\"}]");
+		assertInvalid("[{\"id\":\"1\",\"system\":\"L\"}] trailing");
+		assertInvalid("[{\"id\":\"1\",\"system\":\"L\"};");
+	}
+}
@@ -77,6 +77,11 @@ public class MySQLAccess implements SQLAccess{
             info.put("user", username);
             info.put("password", password);
             info.put("protocol", "tcp");
+            //Prepare statements on the server so queries are parsed once per connection not once per call.
+            info.put("useServerPrepStmts", "true");
+            info.put("cachePrepStmts", "true");
+            info.put("prepStmtCacheSize", "250");
+            info.put("prepStmtCacheSqlLimit", "2048");
 
             Connection conn = DriverManager.getConnection(dbUrl, info);
             return conn;
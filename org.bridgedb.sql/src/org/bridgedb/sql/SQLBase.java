@@ -39,12 +39,18 @@ public class SQLBase {
     protected SQLAccess sqlAccess;
     protected Connection possibleOpenConnection;
     private final boolean supportsIsValid;
+    /**
+     * Connections for read queries which may run in parallel. 
+     * Writes and transactions use possibleOpenConnection.
+     */
+    protected final SQLConnectionPool connectionPool;
     
     private static final Logger logger = Logger.getLogger(SQLBase.class);
 
     public SQLBase() throws BridgeDBException{
        this.sqlAccess = SqlFactory.createTheSQLAccess();
        this.supportsIsValid = SqlFactory.supportsIsValid();
+       this.connectionPool = SqlFactory.createConnectionPool(sqlAccess);
    }
         	
 	private void checkConnection() throws BridgeDBException, SQLException {
@@ -59,6 +65,7 @@ public class SQLBase {
 	}
 
     public void closeConnection() { 
+        connectionPool.closeIdle();
         if (this.possibleOpenConnection != null){
             try {
                 this.possibleOpenConnection.close();
@@ -84,6 +91,43 @@ public class SQLBase {
         }
     }
     
+    /**
+     * Returns the PreparedStatement for this sql kept by a pooled connection.
+     * <p>
+     * The caller has sole use of the statement and its connection until it closes the statement,
+     *     which returns the connection to the pool but keeps the statement open for the next borrower.
+     * <p>
+     * Use only for read queries, from a small fixed set of sql, that do not depend on other statements
+     *     (such as SELECT @@identity) or on an open transaction, as they run on a different connection.
+     * 
+     * @param sql With ? placeholders for all values that change between calls.
+     * @return An open PreparedStatement which must be closed.
+     * @throws BridgeDBException 
+     */
+    protected final PreparedStatement getCachedPreparedStatement(String sql) throws BridgeDBException {
+        return connectionPool.getCachedStatement(sql);
+    }
+
+    /**
+     * Prepares the sql on a pooled connection.
+     * <p>
+     * As getCachedPreparedStatement but for sql that varies, so the statement is closed when the connection is returned.
+     * 
+     * @param sql
+     * @return An open PreparedStatement which must be closed.
+     * @throws BridgeDBException 
+     */
+    protected final PreparedStatement createPooledPreparedStatement(String sql) throws BridgeDBException {
+        return connectionPool.prepareStatement(sql);
+    }
+
+    /**
+     * @return The pool used for read queries, for example to report its statistics.
+     */
+    public final SQLConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
     public final PreparedStatement createPreparedStatement(String sql) throws BridgeDBException {
     	try {
     		checkConnection();
@@ -0,0 +1,214 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.sql;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.apache.log4j.Logger;
+import org.bridgedb.utils.BridgeDBException;
+
+/**
+ * Spools mapping rows to a local tab separated file and pushes them to MySQL with LOAD DATA LOCAL INFILE.
+ * <p>
+ * Rows are written in the escaping MySQL uses by default for LOAD DATA
+ *    so ids holding tabs, new lines or backslashes are loaded unchanged.
+ * <p>
+ * One spool file is used per block.
+ *    It is deleted once loaded so the disk used is bounded by the block size not the linkset size.
+ *
+ * @author Christian
+ */
+class SQLBulkLoader {
+
+    private final String table;
+    private final String[] columns;
+    private File spool = null;
+    private Writer writer = null;
+    private int spooled = 0;
+    private long loaded = 0;
+    private long loadMillis = 0;
+    private final long startTime;
+
+    private static final Logger logger = Logger.getLogger(SQLBulkLoader.class);
+
+    SQLBulkLoader(String table, String... columns){
+        this.table = table;
+        this.columns = columns;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Adds a (sourceId, targetId, mappingSetId) row to the current spool file.
+     */
+    void addRow(String sourceId, String targetId, int mappingSetId) throws BridgeDBException{
+        try {
+            if (writer == null){
+                spool = File.createTempFile("bridgedbLoad", ".tsv");
+                spool.deleteOnExit();
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spool), "UTF-8"), 1 << 16);
+            }
+            writer.write(escape(sourceId));
+            writer.write('\t');
+            writer.write(escape(targetId));
+            writer.write('\t');
+            writer.write(Integer.toString(mappingSetId));
+            writer.write('\n');
+            spooled++;
+        } catch (IOException ex) {
+            throw new BridgeDBException ("Error spooling link to " + spool, ex,
+            		String.format("%s %s %s", sourceId, targetId, mappingSetId));
+        }
+    }
+
+    /**
+     * @return Number of rows written to the spool file but not yet loaded.
+     */
+    int getSpooled(){
+        return spooled;
+    }
+
+    /**
+     * @return Number of rows loaded into the database so far.
+     */
+    long getLoaded(){
+        return loaded;
+    }
+
+    /**
+     * @return Average number of rows loaded per second since this loader was created.
+     */
+    long getRowsPerSecond(){
+        long millis = System.currentTimeMillis() - startTime;
+        if (millis <= 0){
+            return loaded;
+        }
+        return loaded * 1000 / millis;
+    }
+
+    /**
+     * Loads the rows spooled so far and removes the spool file.
+     * @param statement Statement on the connection to load with. Not closed by this method.
+     * @return Number of rows the database reported as loaded.
+     * @throws BridgeDBException
+     */
+    int load(Statement statement) throws BridgeDBException{
+        if (writer == null){
+            return 0;
+        }
+        String query = loadQuery();
+        long start = System.currentTimeMillis();
+        try {
+            writer.close();
+            int count = statement.executeUpdate(query);
+            loaded += count;
+            loadMillis += System.currentTimeMillis() - start;
+            if (count != spooled){
+                logger.warn("Spooled " + spooled + " rows but database loaded " + count);
+            }
+            logger.info("Loaded " + loaded + " links at " + getRowsPerSecond() + " rows/sec ("
+                    + (loadMillis / 1000) + " sec in LOAD DATA)");
+            return count;
+        } catch (IOException ex) {
+            throw new BridgeDBException ("Error closing spool file " + spool, ex);
+        } catch (SQLException ex) {
+            throw new BridgeDBException ("Error bulk loading links ", ex, query);
+        } finally {
+            discard();
+        }
+    }
+
+    /**
+     * Removes any spool file without loading it.
+     */
+    void discard(){
+        if (writer != null){
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                //Only the file is lost which is being deleted anyway.
+            }
+            writer = null;
+        }
+        if (spool != null && !spool.delete()){
+            logger.warn("Unable to delete spool file " + spool);
+        }
+        spool = null;
+        spooled = 0;
+    }
+
+    private String loadQuery(){
+        //MySQL accepts forward slashes on all platforms which saves escaping Windows paths.
+        String path = spool.getAbsolutePath().replace('\\', '/').replace("'", "\\'");
+        StringBuilder query = new StringBuilder("LOAD DATA LOCAL INFILE '");
+        query.append(path);
+        query.append("' INTO TABLE ");
+        query.append(table);
+        query.append(" CHARACTER SET utf8");
+        query.append(" FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (");
+        for (int i = 0; i < columns.length; i++){
+            if (i > 0){
+                query.append(", ");
+            }
+            query.append(columns[i]);
+        }
+        query.append(")");
+        return query.toString();
+    }
+
+    /**
+     * Escapes a field the way LOAD DATA expects with its default ESCAPED BY '\\'.
+     */
+    static String escape(String field){
+        StringBuilder result = null;
+        for (int i = 0; i < field.length(); i++){
+            char c = field.charAt(i);
+            String replacement;
+            switch (c){
+                case '\\': replacement = "\\\\"; break;
+                case '\t': replacement = "\\t"; break;
+                case '\n': replacement = "\\n"; break;
+                case '\r': replacement = "\\r"; break;
+                case '\0': replacement = "\\0"; break;
+                default: replacement = null;
+            }
+            if (replacement != null && result == null){
+                result = new StringBuilder(field.length() + 8);
+                result.append(field, 0, i);
+            }
+            if (result != null){
+                if (replacement == null){
+                    result.append(c);
+                } else {
+                    result.append(replacement);
+                }
+            }
+        }
+        if (result == null){
+            return field;
+        }
+        return result.toString();
+    }
+}
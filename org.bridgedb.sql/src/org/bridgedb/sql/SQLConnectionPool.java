@@ -0,0 +1,464 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.bridgedb.utils.BridgeDBException;
+
+/**
+ * A bounded pool of Connections obtained from a SQLAccess.
+ * <p>
+ * Statements are handed out rather than Connections.
+ * Closing the statement returns its Connection to the pool,
+ *     so callers only need to do what they already do with unpooled statements.
+ * <p>
+ * Each pooled Connection keeps its own PreparedStatements by sql,
+ *     so a cached statement is prepared once per Connection and never shared between threads.
+ * <p>
+ * A Connection is checked with isValid when it is borrowed,
+ *     if it has not been checked for validationInterval milliseconds.
+ * Connections borrowed for longer than leakThreshold milliseconds are logged,
+ *     with the stack of the code that borrowed them, the next time any Connection is borrowed.
+ *     As this records a stack trace on every borrow it is meant for debugging and is best left off.
+ *
+ * @author Christian
+ */
+public class SQLConnectionPool {
+
+    private static final int VALIDATION_TIMEOUT = 2;
+
+    private final SQLAccess sqlAccess;
+    private final int maxSize;
+    private final long validationInterval;
+    private final long borrowTimeout;
+    private final long leakThreshold;
+    private final boolean supportsIsValid;
+
+    private final Semaphore available;
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+    private final Set<PooledConnection> inUse = new HashSet<PooledConnection>();
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong invalidCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong leakCount = new AtomicLong();
+    private int maxInUse = 0;
+    //Raised by closeIdle so Connections opened before it are closed when returned.
+    private int generation = 0;
+
+    private static final Logger logger = Logger.getLogger(SQLConnectionPool.class);
+
+    private static final class PooledConnection {
+        private final Connection connection;
+        private final int generation;
+        private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+        private long lastValidated;
+        private long borrowedAt;
+        private Throwable borrowedBy;
+        private boolean leakReported;
+
+        private PooledConnection(Connection connection, int generation){
+            this.connection = connection;
+            this.generation = generation;
+            this.lastValidated = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param sqlAccess Source of new Connections.
+     * @param maxSize Maximum number of Connections open at the same time.
+     * @param validationInterval Milliseconds a Connection may be idle before it is checked on borrow.
+     * @param borrowTimeout Milliseconds to wait for a Connection before giving up.
+     * @param leakThreshold Milliseconds a Connection may be borrowed before it is reported as a possible leak.
+     *    0 or less switches leak detection off.
+     */
+    public SQLConnectionPool(SQLAccess sqlAccess, int maxSize, long validationInterval, long borrowTimeout,
+            long leakThreshold){
+        if (maxSize < 1){
+            throw new IllegalArgumentException("maxSize must be at least 1 but was " + maxSize);
+        }
+        this.sqlAccess = sqlAccess;
+        this.maxSize = maxSize;
+        this.validationInterval = validationInterval;
+        this.borrowTimeout = borrowTimeout;
+        this.leakThreshold = leakThreshold;
+        this.supportsIsValid = SqlFactory.supportsIsValid();
+        this.available = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Borrows a Connection and prepares the sql on it.
+     * <p>
+     * The statement must be closed, which closes it and returns the Connection to the pool.
+     * @param sql
+     * @return A PreparedStatement owned by the caller until closed.
+     * @throws BridgeDBException If no Connection becomes available within borrowTimeout.
+     */
+    public PreparedStatement prepareStatement(String sql) throws BridgeDBException {
+        PooledConnection pooled = borrow();
+        try {
+            PreparedStatement statement = pooled.connection.prepareStatement(sql);
+            return wrap(pooled, statement, false);
+        } catch (SQLException ex) {
+            release(pooled, true);
+            throw new BridgeDBException ("Error creating a new prepared statement " + sql, ex);
+        } catch (RuntimeException ex) {
+            release(pooled, true);
+            throw ex;
+        }
+    }
+
+    /**
+     * Borrows a Connection and returns the PreparedStatement it keeps for this sql, preparing it the first time.
+     * <p>
+     * The statement must be closed, which returns the Connection to the pool
+     *     but keeps the statement open for the next borrower of that Connection.
+     * <p>
+     * Only use this for sql that comes from a small fixed set of queries, as each distinct sql is kept.
+     * @param sql
+     * @return A PreparedStatement owned by the caller until closed.
+     * @throws BridgeDBException If no Connection becomes available within borrowTimeout.
+     */
+    public PreparedStatement getCachedStatement(String sql) throws BridgeDBException {
+        PooledConnection pooled = borrow();
+        try {
+            PreparedStatement statement = pooled.statements.get(sql);
+            if (statement == null || statement.isClosed()){
+                statement = pooled.connection.prepareStatement(sql);
+                pooled.statements.put(sql, statement);
+            }
+            return wrap(pooled, statement, true);
+        } catch (SQLException ex) {
+            release(pooled, true);
+            throw new BridgeDBException ("Error creating a new prepared statement " + sql, ex);
+        } catch (RuntimeException ex) {
+            release(pooled, true);
+            throw ex;
+        }
+    }
+
+    private PooledConnection borrow() throws BridgeDBException {
+        long start = System.nanoTime();
+        try {
+            if (!available.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)){
+                timeoutCount.incrementAndGet();
+                throw new BridgeDBException("Timed out after " + borrowTimeout + " ms waiting for a SQL connection. "
+                        + getStatistics());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BridgeDBException("Interrupted while waiting for a SQL connection.", ex);
+        }
+        waitNanos.addAndGet(System.nanoTime() - start);
+        borrowCount.incrementAndGet();
+        reportLeaks();
+        try {
+            PooledConnection pooled = takeValidIdle();
+            if (pooled == null){
+                int current;
+                synchronized (this){
+                    current = generation;
+                }
+                pooled = new PooledConnection(sqlAccess.getConnection(), current);
+                createdCount.incrementAndGet();
+            }
+            synchronized (this){
+                pooled.borrowedAt = System.currentTimeMillis();
+                pooled.borrowedBy = leakThreshold > 0 ? new Throwable("Connection borrowed here") : null;
+                pooled.leakReported = false;
+                inUse.add(pooled);
+                if (inUse.size() > maxInUse){
+                    maxInUse = inUse.size();
+                }
+            }
+            return pooled;
+        } catch (BridgeDBException ex) {
+            available.release();
+            throw ex;
+        } catch (RuntimeException ex) {
+            available.release();
+            throw ex;
+        }
+    }
+
+    private PooledConnection takeValidIdle() {
+        while (true){
+            PooledConnection pooled;
+            synchronized (this){
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null){
+                return null;
+            }
+            if (isValid(pooled)){
+                return pooled;
+            }
+            invalidCount.incrementAndGet();
+            closeQuietly(pooled);
+        }
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            if (pooled.connection.isClosed()){
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (supportsIsValid && now - pooled.lastValidated > validationInterval){
+                if (!pooled.connection.isValid(VALIDATION_TIMEOUT)){
+                    return false;
+                }
+                pooled.lastValidated = now;
+            }
+            return true;
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled, boolean broken) {
+        boolean keep;
+        synchronized (this){
+            inUse.remove(pooled);
+            pooled.borrowedBy = null;
+            keep = !broken && pooled.generation == generation;
+            if (keep){
+                //Most recently used first so idle connections beyond the load can time out on the server.
+                idle.addFirst(pooled);
+            }
+        }
+        if (!keep){
+            closeQuietly(pooled);
+        }
+        available.release();
+    }
+
+    private void reportLeaks() {
+        if (leakThreshold <= 0){
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this){
+            for (PooledConnection pooled:inUse){
+                if (!pooled.leakReported && pooled.borrowedBy != null && now - pooled.borrowedAt > leakThreshold){
+                    pooled.leakReported = true;
+                    leakCount.incrementAndGet();
+                    logger.warn("SQL connection borrowed " + (now - pooled.borrowedAt)
+                            + " ms ago has not been returned. Possible leak.", pooled.borrowedBy);
+                }
+            }
+        }
+    }
+
+    private void closeQuietly(PooledConnection pooled) {
+        for (PreparedStatement statement:pooled.statements.values()){
+            try {
+                statement.close();
+            } catch (SQLException ex) {
+                logger.error("Error closing statement", ex);
+            }
+        }
+        pooled.statements.clear();
+        try {
+            pooled.connection.close();
+        } catch (SQLException ex) {
+            logger.error("Error closing connection", ex);
+        }
+    }
+
+    /**
+     * Closes all idle Connections.
+     * <p>
+     * Connections still borrowed are closed when they are returned rather than put back in the pool.
+     * The pool stays usable and later borrows open new Connections as needed.
+     */
+    public void closeIdle() {
+        ArrayDeque<PooledConnection> toClose;
+        synchronized (this){
+            generation++;
+            toClose = new ArrayDeque<PooledConnection>(idle);
+            idle.clear();
+        }
+        for (PooledConnection pooled:toClose){
+            closeQuietly(pooled);
+        }
+    }
+
+    private PreparedStatement wrap(PooledConnection pooled, PreparedStatement statement, boolean cached) {
+        return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class[]{PreparedStatement.class}, new PooledStatementHandler(pooled, statement, cached));
+    }
+
+    /**
+     * Passes all calls through to the statement except close, which returns the Connection,
+     *     and only closes the statement if it is not cached.
+     */
+    private final class PooledStatementHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final PreparedStatement statement;
+        private final boolean cached;
+        private boolean released = false;
+
+        private PooledStatementHandler(PooledConnection pooled, PreparedStatement statement, boolean cached){
+            this.pooled = pooled;
+            this.statement = statement;
+            this.cached = cached;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close") && method.getParameterTypes().length == 0){
+                close();
+                return null;
+            }
+            if (name.equals("isClosed") && method.getParameterTypes().length == 0){
+                return released || statement.isClosed();
+            }
+            if (name.equals("equals") && args != null && args.length == 1){
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode") && args == null){
+                return System.identityHashCode(proxy);
+            }
+            if (released){
+                throw new SQLException("Statement has already been closed");
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+
+        private synchronized void close() {
+            if (released){
+                return;
+            }
+            released = true;
+            boolean broken = false;
+            try {
+                if (cached){
+                    statement.clearParameters();
+                } else {
+                    statement.close();
+                }
+            } catch (SQLException ex) {
+                broken = true;
+            }
+            release(pooled, broken);
+        }
+    }
+
+    /**
+     * @return Maximum number of Connections open at the same time.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return Number of Connections currently borrowed.
+     */
+    public synchronized int getInUse() {
+        return inUse.size();
+    }
+
+    /**
+     * @return Number of open Connections waiting to be borrowed.
+     */
+    public synchronized int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * @return Highest number of Connections borrowed at the same time.
+     */
+    public synchronized int getMaxInUse() {
+        return maxInUse;
+    }
+
+    /**
+     * @return Number of times a Connection has been borrowed.
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return Number of Connections opened.
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return Number of idle Connections dropped because they were no longer valid.
+     */
+    public long getInvalidCount() {
+        return invalidCount.get();
+    }
+
+    /**
+     * @return Number of borrows that gave up waiting for a Connection.
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * @return Number of Connections reported as possible leaks.
+     */
+    public long getLeakCount() {
+        return leakCount.get();
+    }
+
+    /**
+     * @return Total milliseconds spent waiting for a Connection to become available.
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+    }
+
+    public String getStatistics() {
+        return "SQL connection pool: in use " + getInUse() + " of " + maxSize + ", idle " + getIdle()
+                + ", max in use " + getMaxInUse() + ", borrowed " + getBorrowCount()
+                + ", created " + getCreatedCount() + ", invalid " + getInvalidCount()
+                + ", timeouts " + getTimeoutCount() + ", leaks " + getLeakCount()
+                + ", waited " + getTotalWaitMillis() + " ms";
+    }
+}
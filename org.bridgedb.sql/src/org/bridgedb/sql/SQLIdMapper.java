@@ -19,10 +19,12 @@
 //
 package org.bridgedb.sql;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -65,6 +67,11 @@ public class SQLIdMapper extends SQLListener implements IDMapper, IDMapperCapabi
      */
     protected final CodeMapper codeMapper;
     
+    /**
+     * mapID sql by number of target sysCodes.
+     */
+    private final HashMap<Integer, String> mapIdQueries = new HashMap<Integer, String>();
+    
     private static final Logger logger = Logger.getLogger(SQLIdMapper.class);
 
     public SQLIdMapper(boolean dropTables, CodeMapper codeMapper) throws BridgeDBException{
@@ -94,41 +101,22 @@ public class SQLIdMapper extends SQLListener implements IDMapper, IDMapperCapabi
     }
 
     private Set<IdSysCodePair> mapID(IdSysCodePair ref, String... tgtSysCodes) throws BridgeDBException {
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT ");
-            query.append(TARGET_ID_COLUMN_NAME);
-                query.append(", ");
-            query.append(TARGET_DATASOURCE_COLUMN_NAME);
-        query.append(" FROM ");
-            query.append(MAPPING_TABLE_NAME);
-                query.append(", ");
-            query.append(MAPPING_SET_TABLE_NAME);
-        appendMappingJoinMapping(query);
-        appendSourceIdSysCodePair(query, ref);
-        if (tgtSysCodes != null &&tgtSysCodes.length > 0){    
-            query.append(" AND ( ");
-            query.append(TARGET_DATASOURCE_COLUMN_NAME);
-            query.append(" = '");
-            query.append(tgtSysCodes[0]);
-            query.append("' ");
-            for (int i = 1; i < tgtSysCodes.length; i++){
-                query.append(" OR ");
-                query.append(TARGET_DATASOURCE_COLUMN_NAME);
-                query.append(" = '");
-                query.append(tgtSysCodes[i]);
-                query.append("'");
-            }
-            query.append(")");
-        }
-        Statement statement = this.createStatement();
+        PreparedStatement statement = getCachedPreparedStatement(mapIdQuery(tgtSysCodes.length));
+        Set<IdSysCodePair> results;
         ResultSet rs = null;
         try {
-            rs = statement.executeQuery(query.toString());
+            statement.setString(1, ref.getId());
+            statement.setString(2, ref.getSysCode());
+            for (int i = 0; i < tgtSysCodes.length; i++){
+                statement.setString(i + 3, tgtSysCodes[i]);
+            }
+            rs = statement.executeQuery();
+            results = resultSetToIdSysCodePairSet(rs);
         } catch (SQLException ex) {
+            throw new BridgeDBException("Unable to run query. " + statement, ex);
+        } finally {
             close(statement, rs);
-            throw new BridgeDBException("Unable to run query. " + query, ex);
-        }     
-        Set<IdSysCodePair> results = resultSetToIdSysCodePairSet(rs);
+        }
         if (tgtSysCodes.length == 0){
            results.add(ref); 
         } else {
@@ -158,10 +146,46 @@ public class SQLIdMapper extends SQLListener implements IDMapper, IDMapperCapabi
                 logger.debug("Mapped " + ref + " to " + results.size() + " results");
             }
         }
-        close(statement, rs);
         return results;
     }
 
+    /**
+     * The mapID query with a placeholder for the source id and sysCode and one for each target sysCode.
+     * <p>
+     * Only the number of target sysCodes changes the sql, so there is one cached statement per number of targets.
+     * @param targetCount Number of target sysCodes, 0 for all targets.
+     */
+    private String mapIdQuery(int targetCount){
+        synchronized (mapIdQueries) {
+            String result = mapIdQueries.get(targetCount);
+            if (result == null){
+                StringBuilder query = new StringBuilder();
+                query.append("SELECT ");
+                    query.append(TARGET_ID_COLUMN_NAME);
+                        query.append(", ");
+                    query.append(TARGET_DATASOURCE_COLUMN_NAME);
+                query.append(" FROM ");
+                    query.append(MAPPING_TABLE_NAME);
+                        query.append(", ");
+                    query.append(MAPPING_SET_TABLE_NAME);
+                appendMappingJoinMapping(query);
+                appendSourceIdSysCodePair(query);
+                if (targetCount > 0){    
+                    query.append(" AND ");
+                    query.append(TARGET_DATASOURCE_COLUMN_NAME);
+                    query.append(" IN (?");
+                    for (int i = 1; i < targetCount; i++){
+                        query.append(", ?");
+                    }
+                    query.append(")");
+                }
+                result = query.toString();
+                mapIdQueries.put(targetCount, result);
+            }
+            return result;
+        }
+    }
+
  	/**
 	 * Get all cross-references for the given entity, restricting the
 	 * result to contain only references from the given set of data sources.
@@ -187,40 +211,6 @@ public class SQLIdMapper extends SQLListener implements IDMapper, IDMapperCapabi
         return toXrefs(pairs);
     }
 
-    private Set<IdSysCodePair> mapID(IdSysCodePair ref, String tgtSysCode) throws BridgeDBException {
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT ");
-            query.append(TARGET_ID_COLUMN_NAME);
-                query.append(", ");
-            query.append(TARGET_DATASOURCE_COLUMN_NAME);
-        query.append(" FROM ");
-            query.append(MAPPING_TABLE_NAME);
-                query.append(", ");
-            query.append(MAPPING_SET_TABLE_NAME);
-        appendMappingJoinMapping(query);
-        appendSourceIdSysCodePair(query, ref);
-        query.append(" AND ");
-            query.append(TARGET_DATASOURCE_COLUMN_NAME);
-            query.append(" = '");
-            query.append(tgtSysCode);
-            query.append("' ");
-
-        Statement statement = this.createStatement();
-        ResultSet rs = null;
-        try {
-            rs = statement.executeQuery(query.toString());
-        } catch (SQLException ex) {
-            close(statement, rs);
-            throw new BridgeDBException("Unable to run query. " + query, ex);
-        }    
-        Set<IdSysCodePair> pairs = resultSetToIdSysCodePairSet(rs);
-        if (ref.getSysCode().equals(tgtSysCode)){
-            pairs.add(ref);
-        }
-        close(statement, rs);
-        return pairs;
-    }
-
     @Override
     public boolean xrefExists(Xref xref) throws BridgeDBException {
         IdSysCodePair ref = toIdSysCodePair(xref);
@@ -231,36 +221,39 @@ public class SQLIdMapper extends SQLListener implements IDMapper, IDMapperCapabi
    }
 
    protected boolean IdSysCodePairExists(IdSysCodePair ref) throws BridgeDBException {
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT ");
-        appendTopConditions(query, 0, 1); 
-        query.append(TARGET_ID_COLUMN_NAME);
-        query.append(" FROM ");
-        query.append(MAPPING_TABLE_NAME);
-        query.append(", ");
-        query.append(MAPPING_SET_TABLE_NAME);
-        query.append(" WHERE ");
-        query.append(MAPPING_SET_ID_COLUMN_NAME);
-        query.append(" = ");
-        query.append(MAPPING_SET_DOT_ID_COLUMN_NAME);
-        appendSourceIdSysCodePair(query, ref);
-        appendLimitConditions(query,0, 1);
-        Statement statement = this.createStatement();
+        PreparedStatement statement = getCachedPreparedStatement(existsQuery());
         ResultSet rs = null;
         try {
-            rs = statement.executeQuery(query.toString());
+            statement.setString(1, ref.getId());
+            statement.setString(2, ref.getSysCode());
+            rs = statement.executeQuery();
             boolean result = rs.next();
             if (logger.isDebugEnabled()){
                 logger.debug(ref + " exists = " + result);
             }
-            close(statement, rs);
             return result;
         } catch (SQLException ex) {
+            throw new BridgeDBException("Unable to run query. " + statement, ex);
+        } finally {
             close(statement, rs);
-            throw new BridgeDBException("Unable to run query. " + query, ex);
-        }    
+        }
    }
 
+    private String existsQuery(){
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT ");
+        appendTopConditions(query, 0, 1); 
+        query.append(TARGET_ID_COLUMN_NAME);
+        query.append(" FROM ");
+        query.append(MAPPING_TABLE_NAME);
+        query.append(", ");
+        query.append(MAPPING_SET_TABLE_NAME);
+        appendMappingJoinMapping(query);
+        appendSourceIdSysCodePair(query);
+        appendLimitConditions(query,0, 1);
+        return query.toString();
+    }
+
     @Override
     public Set<Xref> freeSearch(String text, int limit) throws BridgeDBException {
         StringBuilder query = new StringBuilder();
@@ -277,29 +270,27 @@ public class SQLIdMapper extends SQLListener implements IDMapper, IDMapperCapabi
         query.append(MAPPING_TABLE_NAME);
         query.append(", ");
         query.append(MAPPING_SET_TABLE_NAME);
-        query.append(" WHERE ");
-        query.append(MAPPING_SET_ID_COLUMN_NAME);
-        query.append(" = ");
-        query.append(MAPPING_SET_DOT_ID_COLUMN_NAME);
+        appendMappingJoinMapping(query);
         query.append(" AND ");
         query.append(SOURCE_ID_COLUMN_NAME);
-        query.append(" = '");
-            query.append(text);
-            query.append("' ");
+        query.append(" = ?");
         appendLimitConditions(query,0, limit);
-        Statement statement = this.createStatement();
+        //The limit is part of the sql so these are not cached.
+        PreparedStatement statement = createPooledPreparedStatement(query.toString());
         ResultSet rs = null;
+        Set<IdSysCodePair> pairs;
         try {
-            rs = statement.executeQuery(query.toString());
+            statement.setString(1, text);
+            rs = statement.executeQuery();
+            pairs = resultSetToIdSysCodePairSet(rs);
         } catch (SQLException ex) {
-            close(statement, rs);
             throw new BridgeDBException("Unable to run query. " + query, ex);
-        }    
-        Set<IdSysCodePair> pairs = resultSetToIdSysCodePairSet(rs);
+        } finally {
+            close(statement, rs);
+        }
         if (logger.isDebugEnabled()){
             logger.debug("Freesearch for " + text + " gave " + pairs.size() + " results");
         }
-        close(statement, rs);
         return toXrefs(pairs);
     }
 
@@ -403,19 +394,17 @@ public class SQLIdMapper extends SQLListener implements IDMapper, IDMapperCapabi
         query.append(MAPPING_SET_TABLE_NAME);
         query.append(" WHERE ");
         query.append(SOURCE_DATASOURCE_COLUMN_NAME);
-        query.append(" = '");
-            query.append(getDataSourceKey(src));
-            query.append("' ");        
+        query.append(" = ?");
         query.append(" AND ");
         query.append(TARGET_DATASOURCE_COLUMN_NAME);
-        query.append(" = '");
-            query.append(getDataSourceKey(tgt));
-            query.append("' ");        
+        query.append(" = ?");
         
-        Statement statement = this.createStatement();
+        PreparedStatement statement = createPreparedStatement(query.toString());
         ResultSet rs = null;
         try {
-            rs = statement.executeQuery(query.toString());
+            statement.setString(1, getDataSourceKey(src));
+            statement.setString(2, getDataSourceKey(tgt));
+            rs = statement.executeQuery();
             boolean result = rs.next();
             if (logger.isDebugEnabled()){
                 logger.debug("isMappingSupported " + src + " to " + tgt + " is " + result);
@@ -432,12 +421,13 @@ public class SQLIdMapper extends SQLListener implements IDMapper, IDMapperCapabi
     public String getProperty(String key) {
         String query = "SELECT DISTINCT " + PROPERTY_COLUMN_NAME 
                 + " FROM " + PROPERTIES_TABLE_NAME 
-                + " WHERE " + KEY_COLUMN_NAME + " = '" + key + "'";
-        Statement statement = null;
+                + " WHERE " + KEY_COLUMN_NAME + " = ?";
+        PreparedStatement statement = null;
         ResultSet rs = null;
         try {
-            statement = this.createStatement();
-            rs = statement.executeQuery(query);
+            statement = createPreparedStatement(query);
+            statement.setString(1, key);
+            rs = statement.executeQuery();
             if (rs.next()){
                 String result = rs.getString("property");
                 if (logger.isDebugEnabled()){
@@ -502,38 +492,17 @@ public class SQLIdMapper extends SQLListener implements IDMapper, IDMapperCapabi
 
     /**
      * Add a condition to the query that only mappings with a specific source IdSysCodePair should be used.
+     * <p>
+     * Adds two placeholders, which must be set to the id and then the sysCode.
      * @param query Query to add to.
-     * @param ref IdSysCodePair that forms the base of the condition.
      */
-    protected final void appendSourceIdSysCodePair(StringBuilder query, IdSysCodePair ref){
+    protected final void appendSourceIdSysCodePair(StringBuilder query){
         query.append(" AND ");
             query.append(SOURCE_ID_COLUMN_NAME);
-            query.append(" = '");
-            query.append(ref.getId());
-            query.append("' ");
-        query.append(" AND ");
-            query.append(SOURCE_DATASOURCE_COLUMN_NAME);
-            query.append(" = '");
-            query.append(ref.getSysCode());
-            query.append("' ");        
-    }
-    
-    /**
-     * Add a condition to the query that only mappings with a specific source Xref should be used.
-     * @param query Query to add to.
-     * @param ref Xref that forms the base of the condition.
-     */
-    protected final void appendSourceXref(StringBuilder query, String id, String sysCode){
+            query.append(" = ?");
         query.append(" AND ");
-            query.append(SOURCE_ID_COLUMN_NAME);
-            query.append(" = '");
-            query.append(id);
-            query.append("' ");
-       query.append(" AND ");
             query.append(SOURCE_DATASOURCE_COLUMN_NAME);
-            query.append(" = '");
-            query.append(sysCode);
-            query.append("' ");        
+            query.append(" = ?");
     }
     
     /**
@@ -542,10 +511,20 @@ public class SQLIdMapper extends SQLListener implements IDMapper, IDMapperCapabi
      */
     final Set<IdSysCodePair> resultSetToIdSysCodePairSet(ResultSet rs) throws BridgeDBException {
         HashSet<IdSysCodePair> results = new HashSet<IdSysCodePair>();
+        //There are only a few distinct sysCodes so share one String per code rather than one per row.
+        HashMap<String, String> sysCodes = new HashMap<String, String>();
         try {
+            int idColumn = rs.findColumn(TARGET_ID_COLUMN_NAME);
+            int sysCodeColumn = rs.findColumn(TARGET_DATASOURCE_COLUMN_NAME);
             while (rs.next()){
-                String id = rs.getString(TARGET_ID_COLUMN_NAME);
-                String sysCode = rs.getString(TARGET_DATASOURCE_COLUMN_NAME);
+                String id = rs.getString(idColumn);
+                String sysCode = rs.getString(sysCodeColumn);
+                String shared = sysCodes.get(sysCode);
+                if (shared == null){
+                    sysCodes.put(sysCode, sysCode);
+                } else {
+                    sysCode = shared;
+                }
                 IdSysCodePair pair = new IdSysCodePair(id, sysCode);
                 results.add(pair);
             }
@@ -39,7 +39,7 @@ import org.bridgedb.utils.BridgeDBException;
  */
 public class SQLListener extends SQLBase implements MappingListener{
 
-    public static final int SQL_COMPAT_VERSION = 28;
+    public static final int SQL_COMPAT_VERSION = 29;
   
     //Maximumn size in database
     protected static final int SYSCODE_LENGTH = 100;
@@ -53,6 +53,8 @@ public class SQLListener extends SQLBase implements MappingListener{
     private static final int KEY_LENGTH= 100; 
     private static final int PROPERTY_LENGTH = 100;
     private static final int MAX_BLOCK_SIZE = 10000;
+    //Rows spooled to disk before each LOAD DATA call when bulk loading.
+    private static final int BULK_BLOCK_SIZE = 1000000;
     protected static final int MAPPING_URI_LENGTH = 200;
     
     //static final String DATASOURCE_TABLE_NAME = "DataSource";
@@ -86,6 +88,8 @@ public class SQLListener extends SQLBase implements MappingListener{
     private int insertCount = 0;
     private int doubleCount = 0;  
     private PreparedStatement insertQuery;
+    private final boolean bulkLoad;
+    private SQLBulkLoader bulkLoader = null;
     protected final String autoIncrement;
 
     //Must be private so subclasses can have their own query.
@@ -109,6 +113,7 @@ public class SQLListener extends SQLBase implements MappingListener{
         } else {
             blockSize = 1;
         }
+        bulkLoad = SqlFactory.useBulkLoad();
         //Starting with a block will cause a new query to start.
         blockCount = blockSize ;
         insertCount = 0;
@@ -116,7 +121,7 @@ public class SQLListener extends SQLBase implements MappingListener{
     }
         
     @Override
-    public int registerMappingSet(DataSource source, DataSource target, boolean symetric) throws BridgeDBException {
+    public synchronized int registerMappingSet(DataSource source, DataSource target, boolean symetric) throws BridgeDBException {
         int forwardId = registerMappingSet(source, target);
         if (symetric){
             int symetricId = registerMappingSet(target, source);
@@ -195,8 +200,16 @@ public class SQLListener extends SQLBase implements MappingListener{
     }
 
     @Override
-    public void closeInput() throws BridgeDBException {
+    public synchronized void closeInput() throws BridgeDBException {
         runInsert();
+        if (bulkLoader != null){
+            runBulkLoad();
+            logger.info("Bulk loaded " + bulkLoader.getLoaded() + " links at " 
+                    + bulkLoader.getRowsPerSecond() + " rows/sec");
+            bulkLoader = null;
+            //Rebuilds the indexes in one pass rather than row by row.
+            alterKeys("ENABLE");
+        }
         try {
         	if (insertQuery != null) {
         		commitTransaction();
@@ -230,8 +243,11 @@ public class SQLListener extends SQLBase implements MappingListener{
         logger.debug("Closed input");
     }
     
+    /**
+     * Synchronized so several loader threads can share the single batched writer.
+     */
     @Override
-    public void insertLink(String sourceId, String targetId, int mappingSet, boolean symetric) throws BridgeDBException {
+    public synchronized void insertLink(String sourceId, String targetId, int mappingSet, boolean symetric) throws BridgeDBException {
         insertLink(sourceId, targetId, mappingSet);
         if (symetric){
             insertLink(targetId, sourceId, mappingSet + 1);
@@ -244,6 +260,10 @@ public class SQLListener extends SQLBase implements MappingListener{
      * May store link updates in a StringBuilder to make one large call rather than many small calls.
      */
     private void insertLink(String sourceId, String targetId, int mappingSetId) throws BridgeDBException{
+        if (bulkLoad){
+            bulkInsertLink(sourceId, targetId, mappingSetId);
+            return;
+        }
         if (insertQuery == null) {
         	this.startTransaction();
 	    	StringBuilder sql = new StringBuilder("INSERT INTO ");
@@ -299,6 +319,58 @@ public class SQLListener extends SQLBase implements MappingListener{
         blockCount = 0;
     }
     
+    /**
+     * One way insertion of a link by spooling it to a local file for LOAD DATA LOCAL INFILE.
+     * <p>
+     * Indexes on the mapping table are switched off with the first link and rebuilt by closeInput.
+     */
+    private void bulkInsertLink(String sourceId, String targetId, int mappingSetId) throws BridgeDBException{
+        if (bulkLoader == null){
+            alterKeys("DISABLE");
+            bulkLoader = new SQLBulkLoader(MAPPING_TABLE_NAME, 
+                    SOURCE_ID_COLUMN_NAME, TARGET_ID_COLUMN_NAME, MAPPING_SET_ID_COLUMN_NAME);
+        }
+        bulkLoader.addRow(sourceId, targetId, mappingSetId);
+        if (bulkLoader.getSpooled() >= BULK_BLOCK_SIZE){
+            runBulkLoad();
+        }
+    }
+    
+    /**
+     * Pushes the links spooled so far into the mapping table.
+     * @throws BridgeDBException 
+     */
+    private void runBulkLoad() throws BridgeDBException{
+        Statement statement = createStatement();
+        try {
+            insertCount += bulkLoader.load(statement);
+        } finally {
+            close(statement, null);
+        }
+    }
+
+    /**
+     * Switches the non unique indexes of the mapping table off or back on.
+     * <p>
+     * MyISAM then builds the indexes in one sort at the end of the load.
+     * Engines such as InnoDB ignore the request with a warning, so this is always safe to call.
+     * @param action Either "DISABLE" or "ENABLE"
+     * @throws BridgeDBException 
+     */
+    private void alterKeys(String action) throws BridgeDBException{
+        Statement statement = createStatement();
+        String query = "ALTER TABLE " + MAPPING_TABLE_NAME + " " + action + " KEYS";
+        try {
+            long start = System.currentTimeMillis();
+            statement.execute(query);
+            logger.info(query + " took " + (System.currentTimeMillis() - start) + " ms");
+        } catch (SQLException ex) {
+            throw new BridgeDBException ("Error changing indexes ", ex, query);
+        } finally {
+            close(statement, null);
+        }
+    }
+
      /**
 	 * Excecutes several SQL statements to drop the tables 
 	 * @throws BridgeDBException 
@@ -46,6 +46,17 @@ public class SqlFactory extends ConfigReader{
     public static final String TEST_SQL_USER_PROPERTY = "TestSqlUser";
     public static final String TEST_SQL_PASSWORD_PROPERTY = "TestSqlPassword";
     public static final String MYSQL_ENGINE_PROPERTY = "mysql.engine";
+    public static final String SQL_POOL_SIZE_PROPERTY = "SqlPoolSize";
+    public static final String SQL_POOL_VALIDATION_INTERVAL_PROPERTY = "SqlPoolValidationInterval";
+    public static final String SQL_POOL_BORROW_TIMEOUT_PROPERTY = "SqlPoolBorrowTimeout";
+    public static final String SQL_POOL_LEAK_THRESHOLD_PROPERTY = "SqlPoolLeakThreshold";
+    public static final String SQL_BULK_LOAD_PROPERTY = "SqlBulkLoad";
+    
+    private static final int DEFAULT_POOL_SIZE = 10;
+    private static final long DEFAULT_POOL_VALIDATION_INTERVAL = 30000;
+    private static final long DEFAULT_POOL_BORROW_TIMEOUT = 30000;
+    //Off by default as detection captures a stack trace on every borrow.
+    private static final long DEFAULT_POOL_LEAK_THRESHOLD = 0;
     
             
     //TODO get from properties
@@ -88,6 +99,39 @@ public class SqlFactory extends ConfigReader{
         return sqlAccess;
     }
 
+    /**
+     * Creates a pool of connections from the sqlAccess, 
+     *     sized and timed by the SqlPool properties found in the config file.
+     * <p>
+     * SqlPoolSize: maximum number of connections (default 10).
+     * SqlPoolValidationInterval: milliseconds an idle connection is trusted without checking (default 30000).
+     * SqlPoolBorrowTimeout: milliseconds to wait for a free connection (default 30000).
+     * SqlPoolLeakThreshold: milliseconds after which a borrowed connection is logged as a possible leak, 
+     *    0 to switch off (default 0). Only for debugging as each borrow then records its stack trace.
+     * @param sqlAccess
+     * @return 
+     * @throws BridgeDBException 
+     */
+    public static SQLConnectionPool createConnectionPool(SQLAccess sqlAccess) throws BridgeDBException {
+        int size = (int)longProperty(SQL_POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE);
+        return new SQLConnectionPool(sqlAccess, size, 
+                longProperty(SQL_POOL_VALIDATION_INTERVAL_PROPERTY, DEFAULT_POOL_VALIDATION_INTERVAL),
+                longProperty(SQL_POOL_BORROW_TIMEOUT_PROPERTY, DEFAULT_POOL_BORROW_TIMEOUT),
+                longProperty(SQL_POOL_LEAK_THRESHOLD_PROPERTY, DEFAULT_POOL_LEAK_THRESHOLD));
+    }
+
+    private static long longProperty(String name, long defaultValue) throws BridgeDBException{
+        String result = getProperties().getProperty(name);
+        if (result == null || result.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(result.trim());
+        } catch (NumberFormatException ex) {
+            throw new BridgeDBException("Property " + name + " should be a whole number but was " + result, ex);
+        }
+    }
+
     public static void setUseMySQL(boolean forceMySQL){
         useMySQL = forceMySQL;
     }
@@ -222,6 +266,24 @@ public class SqlFactory extends ConfigReader{
         }        
     }
 
+    /**
+     * Checks if links should be loaded with LOAD DATA LOCAL INFILE rather than batched inserts.
+     * <p>
+     * Only MySQL supports this so other databases always use the batched inserts.
+     * @return True if SqlBulkLoad is set to true in the config file and MySQL is in use.
+     * @throws BridgeDBException 
+     */
+    static boolean useBulkLoad() throws BridgeDBException {
+        if (!useMySQL){
+            return false;
+        }
+        String result = getProperties().getProperty(SQL_BULK_LOAD_PROPERTY);
+        if (result == null) {
+            return false;
+        }
+        return Boolean.parseBoolean(result.trim());
+    }
+
     static boolean supportsLimit() {
         if (useMySQL){
             return true;
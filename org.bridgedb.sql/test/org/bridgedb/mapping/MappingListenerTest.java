@@ -21,8 +21,12 @@ package org.bridgedb.mapping;
 
 import java.util.HashSet;
 import java.util.Set;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
 import org.bridgedb.utils.BridgeDBException;
 import org.bridgedb.utils.IDMapperTest;
+import static org.junit.Assert.*;
+import org.junit.Test;
 
 /**
  * Extends the IDMapper Tests with a method to load the test data before running the tests.
@@ -63,4 +67,13 @@ public abstract class MappingListenerTest extends IDMapperTest{
         listener.closeInput();
     }
 
+    @Test
+    public void testIdWithQuotes() throws IDMapperException{
+        report("IdWithQuotes");
+        Xref quoted = new Xref("O'Neil \"1\"", DataSource1);
+        assertFalse(idMapper.xrefExists(quoted));
+        assertTrue(idMapper.mapID(quoted, DataSource2).isEmpty());
+        assertTrue(idMapper.freeSearch(quoted.getId(), 10).isEmpty());
+    }
+
 }
@@ -0,0 +1,101 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.sql;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the spool file the bulk loader hands to LOAD DATA without needing a database.
+ *
+ * @author Christian
+ */
+public class SQLBulkLoaderTest {
+
+    /**
+     * Stands in for MySQL by reading the spool file named in the LOAD DATA query.
+     */
+    private static class SpoolReader implements InvocationHandler {
+        private final List<String> lines = new ArrayList<String>();
+        private String query;
+        private File file;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("executeUpdate")){
+                query = (String)args[0];
+                int start = query.indexOf('\'') + 1;
+                file = new File(query.substring(start, query.indexOf('\'', start)));
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                try {
+                    String line = reader.readLine();
+                    while (line != null){
+                        lines.add(line);
+                        line = reader.readLine();
+                    }
+                } finally {
+                    reader.close();
+                }
+                return lines.size();
+            }
+            return null;
+        }
+    }
+
+    @Test
+    public void testEscape() {
+        assertEquals("abc", SQLBulkLoader.escape("abc"));
+        assertEquals("a\\tb", SQLBulkLoader.escape("a\tb"));
+        assertEquals("a\\nb\\r", SQLBulkLoader.escape("a\nb\r"));
+        assertEquals("a\\\\b", SQLBulkLoader.escape("a\\b"));
+        assertEquals("\\\\N", SQLBulkLoader.escape("\\N"));
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        SQLBulkLoader loader = new SQLBulkLoader("mapping", "sourceId", "targetId", "mappingSetId");
+        loader.addRow("123", "abc", 1);
+        loader.addRow("it's", "x\ty", 2);
+        assertEquals(2, loader.getSpooled());
+        SpoolReader reader = new SpoolReader();
+        Statement statement = (Statement)Proxy.newProxyInstance(Statement.class.getClassLoader(),
+                new Class[]{Statement.class}, reader);
+        assertEquals(2, loader.load(statement));
+        assertTrue(reader.query.startsWith("LOAD DATA LOCAL INFILE"));
+        assertTrue(reader.query.endsWith("(sourceId, targetId, mappingSetId)"));
+        assertEquals("123\tabc\t1", reader.lines.get(0));
+        assertEquals("it's\tx\\ty\t2", reader.lines.get(1));
+        assertFalse(reader.file.exists());
+        assertEquals(0, loader.getSpooled());
+        assertEquals(2, loader.getLoaded());
+        //Nothing spooled so nothing to load
+        assertEquals(0, loader.load(statement));
+    }
+}
@@ -0,0 +1,192 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bridgedb.utils.BridgeDBException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the pool with stand in Connections so no database is needed.
+ *
+ * @author Christian
+ */
+public class SQLConnectionPoolTest {
+
+    private static final String SQL = "SELECT 1";
+
+    /**
+     * Hands out Connections that prepare statements which only know if they have been closed.
+     */
+    private static class FakeAccess implements SQLAccess {
+        private final AtomicInteger connections = new AtomicInteger();
+        private final AtomicInteger prepared = new AtomicInteger();
+
+        @Override
+        public Connection getConnection() throws BridgeDBException {
+            connections.incrementAndGet();
+            return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class[]{Connection.class}, new ClosableHandler(){
+                @Override
+                Object other(Method method, Object[] args) {
+                    if (method.getName().equals("prepareStatement")){
+                        prepared.incrementAndGet();
+                        return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                                new Class[]{PreparedStatement.class}, new ClosableHandler());
+                    }
+                    if (method.getName().equals("isValid")){
+                        return true;
+                    }
+                    return null;
+                }
+            });
+        }
+    }
+
+    private static class ClosableHandler implements InvocationHandler {
+        private boolean closed = false;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("close")){
+                closed = true;
+                return null;
+            }
+            if (method.getName().equals("isClosed")){
+                return closed;
+            }
+            if (method.getName().equals("hashCode")){
+                return System.identityHashCode(proxy);
+            }
+            if (method.getName().equals("equals")){
+                return proxy == args[0];
+            }
+            return other(method, args);
+        }
+
+        Object other(Method method, Object[] args) {
+            return null;
+        }
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        FakeAccess access = new FakeAccess();
+        SQLConnectionPool pool = new SQLConnectionPool(access, 2, 1000, 1000, 0);
+        for (int i = 0; i < 5; i++){
+            PreparedStatement statement = pool.getCachedStatement(SQL);
+            assertEquals(1, pool.getInUse());
+            statement.close();
+            assertTrue(statement.isClosed());
+            assertEquals(0, pool.getInUse());
+        }
+        assertEquals(1, access.connections.get());
+        assertEquals(1, access.prepared.get());
+        assertEquals(5, pool.getBorrowCount());
+        assertEquals(1, pool.getIdle());
+    }
+
+    @Test
+    public void testUncachedStatementsAreClosed() throws Exception {
+        FakeAccess access = new FakeAccess();
+        SQLConnectionPool pool = new SQLConnectionPool(access, 2, 1000, 1000, 0);
+        pool.prepareStatement(SQL).close();
+        pool.prepareStatement(SQL).close();
+        assertEquals(1, access.connections.get());
+        assertEquals(2, access.prepared.get());
+    }
+
+    @Test
+    public void testBounded() throws Exception {
+        FakeAccess access = new FakeAccess();
+        SQLConnectionPool pool = new SQLConnectionPool(access, 2, 1000, 50, 0);
+        PreparedStatement first = pool.getCachedStatement(SQL);
+        PreparedStatement second = pool.getCachedStatement(SQL);
+        assertEquals(2, pool.getInUse());
+        try {
+            pool.getCachedStatement(SQL);
+            fail("Pool should be exhausted");
+        } catch (BridgeDBException ex) {
+            //expected
+        }
+        assertEquals(1, pool.getTimeoutCount());
+        first.close();
+        //Closing twice must not return the connection twice.
+        first.close();
+        PreparedStatement third = pool.getCachedStatement(SQL);
+        assertEquals(2, pool.getInUse());
+        second.close();
+        third.close();
+        assertEquals(2, access.connections.get());
+        assertEquals(2, pool.getMaxInUse());
+    }
+
+    @Test
+    public void testClosedStatementRejectsCalls() throws Exception {
+        SQLConnectionPool pool = new SQLConnectionPool(new FakeAccess(), 1, 1000, 1000, 0);
+        PreparedStatement statement = pool.getCachedStatement(SQL);
+        statement.close();
+        try {
+            statement.setString(1, "test");
+            fail("Statement was already returned");
+        } catch (java.sql.SQLException ex) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        SQLConnectionPool pool = new SQLConnectionPool(new FakeAccess(), 2, 1000, 1000, 1);
+        PreparedStatement leaked = pool.getCachedStatement(SQL);
+        Thread.sleep(10);
+        pool.getCachedStatement(SQL).close();
+        assertEquals(1, pool.getLeakCount());
+        //Only reported once
+        pool.getCachedStatement(SQL).close();
+        assertEquals(1, pool.getLeakCount());
+        leaked.close();
+    }
+
+    @Test
+    public void testCloseIdleClosesBorrowedOnReturn() throws Exception {
+        FakeAccess access = new FakeAccess();
+        SQLConnectionPool pool = new SQLConnectionPool(access, 2, 1000, 1000, 0);
+        pool.getCachedStatement(SQL).close();
+        PreparedStatement borrowed = pool.getCachedStatement(SQL);
+        PreparedStatement second = pool.getCachedStatement(SQL);
+        second.close();
+        assertEquals(1, pool.getIdle());
+        pool.closeIdle();
+        assertEquals(0, pool.getIdle());
+        borrowed.close();
+        assertEquals(0, pool.getIdle());
+        assertEquals(0, pool.getInUse());
+        //Still usable with a new Connection
+        pool.getCachedStatement(SQL).close();
+        assertEquals(3, access.connections.get());
+        assertEquals(1, pool.getIdle());
+    }
+}
@@ -21,6 +21,7 @@ package org.bridgedb.uri.api;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.bridgedb.DataSource;
 import org.bridgedb.IDMapper;
@@ -157,11 +158,46 @@ public interface UriMapper extends IDMapper{
 	 * Set when no cross references could be found. This method does not return null.
 	 * @throws IDMapperException if the mapping service is (temporarily) unavailable 
      */
-    public Set<String> mapUri(Xref sourceXref, String lensUri, String graph, Collection<String> tgtUriPatterns) 
+    public Set<String> mapUri(Xref sourceXref, String lensUri, String graph, Collection<String> tgtUriPatterns)
             throws BridgeDBException;
 
     /**
-     * 
+     * Get all cross-references for a set of entities, restricting the
+     * result to contain only references from the given Lens and set of data sources.
+     * <p>
+     * Gives the same results as calling mapID for each sourceXref
+     * but allows the implementation to look up all the sources together.
+     *
+     * @param sourceXrefs the entities to map.
+     * @param lensUri @see Class java docs.
+     * @param tgtDataSources @see Class java docs.
+     * @return A map from each sourceXref to the Set of its cross references.
+     *    Source Xrefs without any cross references are not included. This method does not return null.
+     * @throws BridgeDBException if the mapping service is (temporarily) unavailable
+     */
+    public Map<Xref, Set<Xref>> mapID(Collection<Xref> sourceXrefs, String lensUri, Collection<DataSource> tgtDataSources)
+            throws BridgeDBException;
+
+    /**
+     * Get all Uris mapped to each of the given Uris, restricting the
+     * result to contain only references which match the given UriPatterns and Lens.
+     * <p>
+     * Gives the same results as calling mapUri for each sourceUri
+     * but allows the implementation to look up all the sources together.
+     *
+     * @param sourceUris the Uris to map.
+     * @param lensUri @see Class java docs.
+     * @param graph  @see Class java docs.
+     * @param tgtUriPatterns @see Class java docs.
+     * @return A map from each sourceUri to the Set of Uris it maps to.
+     *    Source Uris without any results are not included. This method does not return null.
+     * @throws BridgeDBException if the mapping service is (temporarily) unavailable
+     */
+    public Map<String, Set<String>> mapUri(Collection<String> sourceUris, String lensUri, String graph,
+            Collection<String> tgtUriPatterns) throws BridgeDBException;
+
+    /**
+     *
      * @param sourceUri
      * @param lensUri
      * @param graph
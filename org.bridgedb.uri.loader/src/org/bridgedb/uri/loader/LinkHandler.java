@@ -46,6 +46,8 @@ public class LinkHandler extends RDFHandlerBase{
     protected final UriListener uriListener;
 
     protected int mappingSet;
+    private LinkPipeline pipeline = null;
+    private boolean closeInputAtEnd = true;
     
     static final Logger logger = Logger.getLogger(LinkHandler.class);
 
@@ -66,6 +68,24 @@ public class LinkHandler extends RDFHandlerBase{
         this.symetric = symetric;
     }
 
+    /**
+     * Sends the links to a pipeline of worker threads rather than directly to the listener.
+     * <p>
+     * endRDF waits for the pipeline to finish before closing the input.
+     * @param pipeline the pipeline to use or null to insert directly
+     */
+    public void setPipeline(LinkPipeline pipeline){
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Allows closeInput to be left to the caller when several files are loaded into the same listener.
+     * @param closeInputAtEnd if false endRDF will not call closeInput.
+     */
+    public void setCloseInputAtEnd(boolean closeInputAtEnd){
+        this.closeInputAtEnd = closeInputAtEnd;
+    }
+
     @Override
     public void handleStatement(Statement st) throws RDFHandlerException {
         if (st.getPredicate().equals(linkPredicate)) {
@@ -78,7 +98,12 @@ public class LinkHandler extends RDFHandlerBase{
     public void endRDF() throws RDFHandlerException{
         super.endRDF();
         try {
-            uriListener.closeInput();
+            if (pipeline != null){
+                pipeline.finish();
+            }
+            if (closeInputAtEnd){
+                uriListener.closeInput();
+            }
         } catch (BridgeDBException ex) {
             throw new RDFHandlerException("Error endingRDF ", ex);
         }
@@ -96,7 +121,11 @@ public class LinkHandler extends RDFHandlerBase{
         String sourceUri = subject.stringValue();
         String targetUri = object.stringValue();
         try {
-            uriListener.insertUriMapping(sourceUri, targetUri, mappingSet, symetric);
+            if (pipeline == null){
+                uriListener.insertUriMapping(sourceUri, targetUri, mappingSet, symetric);
+            } else {
+                pipeline.add(sourceUri, targetUri, mappingSet, symetric);
+            }
         } catch (BridgeDBException ex) {
             throw new RDFHandlerException("Error inserting statement " + st, ex);
         }
@@ -0,0 +1,233 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.uri.loader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.apache.log4j.Logger;
+import org.bridgedb.uri.tools.UriListener;
+import org.bridgedb.utils.BridgeDBException;
+
+/**
+ * Hands links from the parser thread to worker threads which pass them to the UriListener.
+ * <p>
+ * The parser fills chunks of links which are placed on a bounded queue,
+ *     so a slow database blocks the parser rather than filling memory.
+ * <p>
+ * Each worker strips the prefix and postfix and checks the regex of its links (in UriListener.insertUriMapping)
+ *     while the listener's synchronized insertLink funnels the resulting ids into its single batched writer.
+ * <p>
+ * The first error stops the pipeline. It is rethrown to the parser by the next add or by finish.
+ *
+ * @author Christian
+ */
+public class LinkPipeline {
+
+    private static final int CHUNK_SIZE = 1000;
+    //Chunks waiting per worker before the parser is blocked.
+    private static final int QUEUE_CHUNKS_PER_WORKER = 4;
+    private static final Chunk END = new Chunk(0, false);
+
+    private final UriListener uriListener;
+    private final BlockingQueue<Chunk> queue;
+    private final List<Thread> workers;
+    private Chunk current = null;
+    private volatile BridgeDBException failure = null;
+    private boolean finished = false;
+
+    static final Logger logger = Logger.getLogger(LinkPipeline.class);
+
+    /**
+     * Links of a single mappingSet, stored as parallel lists to avoid an object per link.
+     */
+    private static class Chunk {
+        private final int mappingSet;
+        private final boolean symetric;
+        private final List<String> sourceUris = new ArrayList<String>(CHUNK_SIZE);
+        private final List<String> targetUris = new ArrayList<String>(CHUNK_SIZE);
+
+        private Chunk(int mappingSet, boolean symetric){
+            this.mappingSet = mappingSet;
+            this.symetric = symetric;
+        }
+    }
+
+    /**
+     * Starts the worker threads.
+     * @param uriListener Listener to pass the links to. Its insertUriMapping must be thread safe.
+     * @param workerCount Number of threads validating and inserting links.
+     * @param name Used to name the threads, typically the file being loaded.
+     */
+    public LinkPipeline(UriListener uriListener, int workerCount, String name){
+        this.uriListener = uriListener;
+        this.queue = new ArrayBlockingQueue<Chunk>(workerCount * QUEUE_CHUNKS_PER_WORKER);
+        this.workers = new ArrayList<Thread>(workerCount);
+        for (int i = 0; i < workerCount; i++){
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "LinkPipeline " + name + " " + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a link for insertion.
+     * <p>
+     * Only to be called by the single parser thread.
+     * @throws BridgeDBException If an earlier link failed.
+     */
+    public void add(String sourceUri, String targetUri, int mappingSet, boolean symetric) throws BridgeDBException{
+        checkFailure();
+        if (current != null && (current.mappingSet != mappingSet || current.symetric != symetric)){
+            put(current);
+            current = null;
+        }
+        if (current == null){
+            current = new Chunk(mappingSet, symetric);
+        }
+        current.sourceUris.add(sourceUri);
+        current.targetUris.add(targetUri);
+        if (current.sourceUris.size() >= CHUNK_SIZE){
+            put(current);
+            current = null;
+        }
+    }
+
+    /**
+     * Queues any remaining links and waits for the workers to insert them.
+     * <p>
+     * Does not call closeInput, which remains the caller's responsibility.
+     * @throws BridgeDBException If any link failed.
+     */
+    public void finish() throws BridgeDBException{
+        if (finished){
+            checkFailure();
+            return;
+        }
+        finished = true;
+        try {
+            if (current != null && failure == null){
+                put(current);
+            }
+            current = null;
+        } finally {
+            stop();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stops the workers without waiting for queued links. Used when the parser itself fails.
+     */
+    public void abort(){
+        if (finished){
+            return;
+        }
+        if (failure == null){
+            failure = new BridgeDBException("Pipeline aborted");
+        }
+        queue.clear();
+        finished = true;
+        stop();
+    }
+
+    private void stop(){
+        boolean interrupted = false;
+        for (int i = 0; i < workers.size(); i++){
+            while (true){
+                try {
+                    queue.put(END);
+                    break;
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        for (Thread worker:workers){
+            while (worker.isAlive()){
+                try {
+                    worker.join();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void put(Chunk chunk) throws BridgeDBException{
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BridgeDBException("Interrupted while queuing links", ex);
+        }
+    }
+
+    private void checkFailure() throws BridgeDBException{
+        if (failure != null){
+            throw failure;
+        }
+    }
+
+    private void work(){
+        while (true){
+            Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException ex) {
+                fail(new BridgeDBException("Link worker interrupted", ex));
+                return;
+            }
+            if (chunk == END){
+                return;
+            }
+            //After a failure keep taking chunks so the parser is never left blocked on a full queue.
+            if (failure == null){
+                try {
+                    for (int i = 0; i < chunk.sourceUris.size(); i++){
+                        uriListener.insertUriMapping(chunk.sourceUris.get(i), chunk.targetUris.get(i),
+                                chunk.mappingSet, chunk.symetric);
+                    }
+                } catch (BridgeDBException ex) {
+                    fail(ex);
+                } catch (RuntimeException ex) {
+                    fail(new BridgeDBException("Error inserting links", ex));
+                }
+            }
+        }
+    }
+
+    private synchronized void fail(BridgeDBException ex){
+        if (failure == null){
+            logger.error("Error inserting links", ex);
+            failure = ex;
+        }
+    }
+}
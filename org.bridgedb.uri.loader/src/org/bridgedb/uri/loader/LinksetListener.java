@@ -20,49 +20,161 @@
 package org.bridgedb.uri.loader;
 
 import java.io.File;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.log4j.Logger;
 import org.bridgedb.uri.tools.UriListener;
 import org.bridgedb.utils.BridgeDBException;
-import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.rio.RDFHandler;
 
+/**
+ * Loads linksets into a UriListener.
+ * <p>
+ * The parser runs on the calling thread and hands the links to a LinkPipeline,
+ *     so parsing, URI validation and the database writes overlap.
+ * Several files can be loaded at once, each into its own mappingSet, using parse(List...).
+ */
 public class LinksetListener {
     
     private final UriListener uriListener;
+    private final int workerCount;
     private boolean SYMETRIC = true; 
     
+    /**
+     * Default number of validation workers per file. 
+     * Leaves one core for the parser but more than a few just queue on the database writer.
+     */
+    public static final int DEFAULT_WORKER_COUNT = 
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    
     public LinksetListener(UriListener uriListener){
+        this(uriListener, DEFAULT_WORKER_COUNT);
+    }
+    
+    /**
+     * @param uriListener listener to load into
+     * @param workerCount Number of validation workers per file, or 0 to insert on the parser thread.
+     */
+    public LinksetListener(UriListener uriListener, int workerCount){
         this.uriListener = uriListener;
+        this.workerCount = workerCount;
     }
     
     static final Logger logger = Logger.getLogger(LinksetListener.class);
     
     public int parse(File file, URI linkPredicate, String justification, boolean symetric) throws BridgeDBException{
+        return parse(file, linkPredicate, justification, symetric, true);
+    }
+    
+    private int parse(File file, URI linkPredicate, String justification, boolean symetric, boolean closeInput) 
+            throws BridgeDBException{
         URI mappingUri = RdfParser.fileToURL(file);
         LinksetHandler handler = new LinksetHandler(uriListener, linkPredicate, justification, mappingUri, symetric); 
-        RdfParser parser = getParser(handler);
-        parser.parse(mappingUri.stringValue(), file);
+        handler.setCloseInputAtEnd(closeInput);
+        LinkPipeline pipeline = createPipeline(handler, file.getName());
+        try {
+            RdfParser parser = getParser(handler);
+            parser.parse(mappingUri.stringValue(), file);
+        } finally {
+            abort(pipeline);
+        }
         return handler.getMappingsetId();
     }
     
     public int parse(File file, URI mappingSource, URI linkPredicate, String justification, 
             Boolean symetric) throws BridgeDBException{
         LinksetHandler handler = new LinksetHandler(uriListener, linkPredicate, justification, mappingSource, symetric);
-        RdfParser parser = getParser(handler);
-        parser.parse(mappingSource.stringValue(), file);
+        LinkPipeline pipeline = createPipeline(handler, file.getName());
+        try {
+            RdfParser parser = getParser(handler);
+            parser.parse(mappingSource.stringValue(), file);
+        } finally {
+            abort(pipeline);
+        }
         return handler.getMappingsetId();
     }
     
     public int parse(String uri, URI  mappingSource, URI linkPredicate, String justification, boolean symetric) 
             throws BridgeDBException{
         LinksetHandler handler = new LinksetHandler(uriListener, linkPredicate, justification, mappingSource, symetric);
-        RdfParser parser = getParser(handler);
-        parser.parse(uri);
+        LinkPipeline pipeline = createPipeline(handler, uri);
+        try {
+            RdfParser parser = getParser(handler);
+            parser.parse(uri);
+        } finally {
+            abort(pipeline);
+        }
         return handler.getMappingsetId();
     }
 
+    /**
+     * Loads several linkset files at the same time, each into its own mappingSet.
+     * <p>
+     * closeInput is called once after all the files are loaded, 
+     *    so the link counts and transitive closures are only updated once.
+     * @param files Files to load
+     * @param fileThreads Maximum number of files parsed at the same time.
+     * @return The mappingSet ids in the same order as the files.
+     * @throws BridgeDBException If any file fails to load. closeInput is then not called.
+     */
+    public List<Integer> parse(List<File> files, final URI linkPredicate, final String justification, 
+            final boolean symetric, int fileThreads) throws BridgeDBException{
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(fileThreads, files.size())));
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        try {
+            for (final File file:files){
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws BridgeDBException {
+                        return parse(file, linkPredicate, justification, symetric, false);
+                    }
+                }));
+            }
+            List<Integer> results = new ArrayList<Integer>();
+            for (int i = 0; i < futures.size(); i++){
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof BridgeDBException){
+                        throw (BridgeDBException)ex.getCause();
+                    }
+                    throw new BridgeDBException("Error loading " + files.get(i), ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new BridgeDBException("Interrupted loading " + files.get(i), ex);
+                }
+            }
+            uriListener.closeInput();
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private LinkPipeline createPipeline(LinkHandler handler, String name){
+        if (workerCount <= 0){
+            return null;
+        }
+        LinkPipeline pipeline = new LinkPipeline(uriListener, workerCount, name);
+        handler.setPipeline(pipeline);
+        return pipeline;
+    }
+    
+    /**
+     * Makes sure the workers are stopped if the parser failed before endRDF.
+     */
+    private void abort(LinkPipeline pipeline){
+        if (pipeline != null){
+            pipeline.abort();
+        }
+    }
+
     protected RdfParser getParser(RDFHandler handler){
        return new RdfParser(handler);
     }
@@ -21,11 +21,14 @@ package org.bridgedb.uri.loader;
 
 import info.aduna.lang.FileFormat;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.zip.GZIPInputStream;
 import org.apache.log4j.Logger;
 import org.bridgedb.uri.loader.transative.TransativeConfig;
 import org.bridgedb.utils.BridgeDBException;
@@ -57,9 +60,13 @@ public class RdfParser {
     
     public void parse(String baseURI, File file, String rdfFormatName) throws BridgeDBException{
         logger.info("Parsing: " + file.getAbsolutePath());
-        FileReader reader = null;
+        Reader reader = null;
         try {
-            reader = new FileReader(file);
+            InputStream stream = new FileInputStream(file);
+            if (file.getName().endsWith(".gz")){
+                stream = new GZIPInputStream(stream, 1 << 16);
+            }
+            reader = new InputStreamReader(stream);
             RDFParser parser = getParser(file.getName(), rdfFormatName);
             parser.setRDFHandler(handler);
             parser.setParseErrorListener(new LinksetParserErrorListener());
@@ -161,7 +168,8 @@ public class RdfParser {
                 //added bridgeDB/OPS specific extension here if required.           
                 logger.warn("OpenRDF does not know the RDF Format for " + address);
                 logger.warn("Using the default format " + DEFAULT_PARSER);
-                return DEFAULT_PARSER;
+                //A new instance as parsers hold state and several files may be parsed at once.
+                return new TurtleParser();
             }
             format = (RDFFormat)fileFormat;
         } else {
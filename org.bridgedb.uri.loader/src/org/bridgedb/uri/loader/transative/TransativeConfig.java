@@ -33,6 +33,10 @@ public class TransativeConfig extends ConfigReader{
     public static final String TRANSATIVE_DIRECTORY_PROPERTY = "TransitiveDirectory";
     public static final String TRANSATIVE_BASE_URI = "TransitiveBaseUri";
     public static final String TEST_DIRECTORY_PROPERTY = "TestDirectory";
+    public static final String TRANSATIVE_PARTITIONS_PROPERTY = "TransitivePartitions";
+    public static final String TRANSATIVE_COMPRESS_PROPERTY = "TransitiveCompress";
+    
+    private static final int DEFAULT_PARTITIONS = 4;
  
     private static final Logger logger = Logger.getLogger(TransativeConfig.class);
     private static File testDir = null;
@@ -52,6 +56,36 @@ public class TransativeConfig extends ConfigReader{
         return getProperties().getProperty(TRANSATIVE_BASE_URI);
     }
 
+    /**
+     * Number of parts the transitive join is split into, each run on its own connection in parallel.
+     * @return Value of TransitivePartitions or 4 if not set.
+     * @throws BridgeDBException 
+     */
+    public static int getTransitivePartitions() throws BridgeDBException{
+        String value = getProperties().getProperty(TRANSATIVE_PARTITIONS_PROPERTY);
+        if (value == null || value.trim().isEmpty()){
+            return DEFAULT_PARTITIONS;
+        }
+        try {
+            int partitions = Integer.parseInt(value.trim());
+            if (partitions < 1){
+                throw new BridgeDBException(TRANSATIVE_PARTITIONS_PROPERTY + " must be at least 1 but was " + value);
+            }
+            return partitions;
+        } catch (NumberFormatException ex) {
+            throw new BridgeDBException(TRANSATIVE_PARTITIONS_PROPERTY + " should be a whole number but was " + value, ex);
+        }
+    }
+
+    /**
+     * @return True if TransitiveCompress is set to true in which case transitive files are written gzipped.
+     * @throws BridgeDBException 
+     */
+    public static boolean compressTransitives() throws BridgeDBException{
+        String value = getProperties().getProperty(TRANSATIVE_COMPRESS_PROPERTY);
+        return value != null && Boolean.parseBoolean(value.trim());
+    }
+
     private static File getTestDirectory() throws BridgeDBException {
         if (testDir == null){
             testDir = getDirectory(TEST_DIRECTORY_PROPERTY, "TestDirectory");
@@ -110,6 +144,7 @@ public class TransativeConfig extends ConfigReader{
     private static void checkOkToDelete(File file) throws BridgeDBException {
         String name = file.getName();
         if (name.endsWith(".ttl")) return ;
+        if (name.endsWith(".ttl.gz")) return ;
         if (name.endsWith(".n3")) return ;
         if (name.endsWith(".xml")) return ;
         if (name.endsWith(".txt")) return ;
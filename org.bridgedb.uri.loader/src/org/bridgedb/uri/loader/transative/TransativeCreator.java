@@ -5,11 +5,23 @@
 package org.bridgedb.uri.loader.transative;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
 import org.apache.log4j.Logger;
 import org.bridgedb.DataSource;
 import org.bridgedb.rdf.UriPattern;
@@ -21,19 +33,25 @@ import org.bridgedb.sql.predicate.LoosePredicateMaker;
 import org.bridgedb.statistics.DataSetInfo;
 import org.bridgedb.statistics.MappingSetInfo;
 import org.bridgedb.uri.api.UriMapper;
+import org.bridgedb.uri.loader.RdfParser;
 import org.bridgedb.uri.tools.RegexUriPattern;
 import org.bridgedb.utils.BridgeDBException;
 import org.bridgedb.utils.Reporter;
-import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
-import org.openrdf.model.impl.StatementImpl;
 import org.openrdf.model.impl.URIImpl;
 import org.openrdf.rio.RDFHandlerException;
 import org.openrdf.rio.RDFWriter;
 import org.openrdf.rio.turtle.TurtleWriter;
 
 /**
- *
+ * Creates the transitive linkset from two mappingSets where the target of the left is the source of the right.
+ * <p>
+ * The join is split into TransitivePartitions parts by a hash of the middle id.
+ * Each part is streamed from its own connection in parallel.
+ * <p>
+ * The links can either be written to a file, as N-Triples lines after any Turtle header, 
+ *     or inserted into a SQLUriMapper once the join has finished, without building or parsing any RDF.
+ * 
  * @author Christian
  */
 public class TransativeCreator {
@@ -49,9 +67,18 @@ public class TransativeCreator {
     private final boolean reflexive;
     
     private static URI GENERATE_PREDICATE = null;
+    //Links handed from a partition to the output at a time.
+    private static final int CHUNK_SIZE = 1000;
 
     static final Logger logger = Logger.getLogger(TransativeCreator.class);
     
+    /**
+     * Receives the links found by the partitions. Must be thread safe.
+     */
+    private interface LinkSink {
+        void write(String[] sourceIds, String[] targetIds, int count) throws BridgeDBException;
+    }
+    
     public static File doTransativeIfPossible(MappingSetInfo left, MappingSetInfo right) throws BridgeDBException, IOException {
         TransativeCreator creator = new TransativeCreator(left, right);
         return creator.generateOutputFileIfPossible();
@@ -65,6 +92,19 @@ public class TransativeCreator {
         return doTransativeIfPossible(left, right);
     }
     
+    /**
+     * Creates the transitive and loads it directly into the existing SQLUriMapper.
+     * @return Id of the new mappingSet or null if the join found no links.
+     */
+    public static Integer loadTransativeIfPossible(int leftId, int rightId) 
+            throws BridgeDBException, IOException {
+        SQLUriMapper mapper = SQLUriMapper.getExisting();
+        MappingSetInfo left = mapper.getMappingSetInfo(leftId);
+        MappingSetInfo right = mapper.getMappingSetInfo(rightId);
+        TransativeCreator creator = new TransativeCreator(left, right);
+        return creator.loadIfPossible(mapper);
+    }
+    
     protected TransativeCreator(MappingSetInfo left, MappingSetInfo right) 
             throws BridgeDBException, IOException{
         if (sqlAccess == null){
@@ -87,18 +127,40 @@ public class TransativeCreator {
     }
     
     public File generateOutputFileIfPossible() throws BridgeDBException, IOException{
+        File outputFile = getOutputFile();
+        Reporter.println("Writing transative to " + outputFile.getAbsolutePath());
+        OutputStream stream = new FileOutputStream(outputFile);
+        if (TransativeConfig.compressTransitives()){
+            stream = new GZIPOutputStream(stream, 1 << 16);
+        }
+        //Default charset to match the FileReader used by RdfParser
+        final Writer writer = new OutputStreamWriter(stream);
         try {
-            File parent = TransativeConfig.getTransativeDirectory();
-            File outputFile = new File(parent, getid());
-            Reporter.println("Writing transative to " + outputFile.getAbsolutePath());
-            FileWriter writer = new FileWriter(outputFile);
             RDFWriter rdfWriter = new TurtleWriter(writer);
             rdfWriter.startRDF();
             writeHeader(rdfWriter);
-            boolean result = getSQL(rdfWriter);
+            //Only closes the last header statement. The links are written as N-Triples which is also valid Turtle.
             rdfWriter.endRDF();
-            writer.flush();
-            writer.close();
+            final String predicateString = " <" + predicate.stringValue() + "> ";
+            boolean result = runJoin(new LinkSink() {
+                @Override
+                public void write(String[] sourceIds, String[] targetIds, int count) throws BridgeDBException {
+                    StringBuilder lines = new StringBuilder(count * 128);
+                    for (int i = 0; i < count; i++){
+                        appendUri(lines, sourceRegexUriPattern, sourceIds[i]);
+                        lines.append(predicateString);
+                        appendUri(lines, targetRegexUriPattern, targetIds[i]);
+                        lines.append(" .\n");
+                    }
+                    try {
+                        synchronized (writer){
+                            writer.write(lines.toString());
+                        }
+                    } catch (IOException ex) {
+                        throw new BridgeDBException("Error writing transitive links ", ex);
+                    }
+                }
+            });
             if (result){
                 return outputFile;
             } else {
@@ -106,6 +168,63 @@ public class TransativeCreator {
             }
         } catch (RDFHandlerException ex) {
             throw new BridgeDBException("Error writing to RDF ", ex);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Inserts the transitive links straight into the listener rather than writing and parsing a file.
+     * <p>
+     * The join is first spooled to a temporary file, so nothing is inserted 
+     *     while the partitions still have their streaming queries open on the mapping table.
+     * The mappingSet is then registered, with the URI the file would have had as its source, 
+     *     the links inserted and closeInput called.
+     * If an insert fails the links inserted so far are still closed out, so counts and closures stay consistent,
+     *     before the exception is passed on.
+     * @return Id of the new mappingSet or null if the join found no links.
+     */
+    public Integer loadIfPossible(SQLUriMapper listener) throws BridgeDBException, IOException{
+        URI mappingSource = RdfParser.fileToURL(getOutputFile());
+        String backwardJustification = OpsJustificationMaker.getInstance().getInverse(justification);
+        boolean symetric = backwardJustification != null;
+        final TransativeLinkSpool spool = new TransativeLinkSpool(TransativeConfig.getTransativeDirectory());
+        try {
+            boolean result = runJoin(new LinkSink() {
+                @Override
+                public void write(String[] sourceIds, String[] targetIds, int count) throws BridgeDBException {
+                    spool.write(sourceIds, targetIds, count);
+                }
+            });
+            spool.finishWriting();
+            if (!result){
+                return null;
+            }
+            int mappingSetId;
+            if (symetric){
+                mappingSetId = listener.registerMappingSet(sourceRegexUriPattern, predicate.stringValue(), 
+                    justification, backwardJustification, targetRegexUriPattern, mappingSource);
+            } else {
+                mappingSetId = listener.registerMappingSet(sourceRegexUriPattern, predicate.stringValue(), 
+                    justification, targetRegexUriPattern, mappingSource, false);
+            }
+            try {
+                while (spool.next()){
+                    listener.insertLink(spool.getSourceId(), spool.getTargetId(), mappingSetId, symetric);
+                }
+            } catch (BridgeDBException ex) {
+                logger.error("Error loading transitive " + mappingSetId + " which will only hold some of its links", ex);
+                try {
+                    listener.closeInput();
+                } catch (BridgeDBException closeEx) {
+                    logger.error("Error closing partly loaded transitive " + mappingSetId, closeEx);
+                }
+                throw ex;
+            }
+            listener.closeInput();
+            return mappingSetId;
+        } finally {
+            spool.delete();
         }
     }
 
@@ -113,56 +232,147 @@ public class TransativeCreator {
         return "Transitive" + leftInfo.getStringId() + "and" + rightInfo.getStringId() + ".ttl";
     }
     
-    private boolean getSQL(RDFWriter rdfwriter) throws BridgeDBException, IOException, RDFHandlerException {
-        boolean found = false;
-         StringBuilder query = new StringBuilder(
+    private File getOutputFile() throws BridgeDBException{
+        File parent = TransativeConfig.getTransativeDirectory();
+        String name = getid();
+        if (TransativeConfig.compressTransitives()){
+            name = name + ".gz";
+        }
+        return new File(parent, name);
+    }
+    
+    /**
+     * Runs the partitions of the join in parallel passing the links found to the sink.
+     * @return True if at least one link was found.
+     */
+    private boolean runJoin(final LinkSink sink) throws BridgeDBException {
+        final int partitions = TransativeConfig.getTransitivePartitions();
+        ExecutorService executor = Executors.newFixedThreadPool(partitions);
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (int i = 0; i < partitions; i++){
+                final int partition = i;
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws BridgeDBException {
+                        return runPartition(sink, partitions, partition);
+                    }
+                }));
+            }
+            long found = 0;
+            for (Future<Long> future:futures){
+                try {
+                    found += future.get();
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof BridgeDBException){
+                        throw (BridgeDBException)ex.getCause();
+                    }
+                    throw new BridgeDBException("Error creating transitive ", ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new BridgeDBException("Interrupted creating transitive ", ex);
+                }
+            }
+            logger.info("Found " + found + " transitive links from " + leftInfo.getIntId() + " and " + rightInfo.getIntId());
+            return found > 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private String getSQL(int partitions) {
+        StringBuilder query = new StringBuilder(
                 "SELECT mapping1.sourceId, mapping2.targetId ");
         query.append("FROM mapping as mapping1, mapping as mapping2 ");
         query.append("WHERE mapping1.targetId = mapping2.sourceId ");
-        query.append("AND mapping1.mappingSetId = ");
-            query.append(leftInfo.getIntId());
-            query.append(" ");
-        query.append("AND mapping2.mappingSetId = ");
-            query.append(rightInfo.getIntId());
-            query.append(" ");
+        query.append("AND mapping1.mappingSetId = ? ");
+        query.append("AND mapping2.mappingSetId = ? ");
+        if (partitions > 1){
+            query.append("AND MOD(CRC32(mapping1.targetId), ?) = ? ");
+        }
+        return query.toString();
+    }
+    
+    /**
+     * Streams one partition of the join to the sink.
+     * @return Number of links found.
+     */
+    private long runPartition(LinkSink sink, int partitions, int partition) throws BridgeDBException {
+        String query = getSQL(partitions);
         Connection connection = sqlAccess.getConnection();
-        java.sql.Statement statement;
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+        long found = 0;
         try {
-            statement = connection.createStatement(java.sql.ResultSet.TYPE_FORWARD_ONLY,
-                    java.sql.ResultSet.CONCUR_READ_ONLY);
+            statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            //Makes MySQL stream the rows rather than reading the whole result into memory.
             statement.setFetchSize(Integer.MIN_VALUE);
-        } catch (SQLException ex) {
-           throw new BridgeDBException("Unable to get statement. ", ex);
-        }
-        try {
-            logger.info("Running " + query.toString());
-            ResultSet rs = statement.executeQuery(query.toString());
-            logger.info("processing results");
+            statement.setInt(1, leftInfo.getIntId());
+            statement.setInt(2, rightInfo.getIntId());
+            if (partitions > 1){
+                statement.setInt(3, partitions);
+                statement.setInt(4, partition);
+            }
+            logger.info("Running partition " + partition + " of " + query);
+            rs = statement.executeQuery();
+            String[] sourceIds = new String[CHUNK_SIZE];
+            String[] targetIds = new String[CHUNK_SIZE];
+            int count = 0;
             while (rs.next()){
-                String sourceId = rs.getString("mapping1.sourceId");
-                String targetId = rs.getString("mapping2.targetId");
+                String sourceId = rs.getString(1);
+                String targetId = rs.getString(2);
                 if (reflexive && sourceId.equals(targetId)){
                     //do nothing as same uri;
                 } else {
-                    String sourceUri = sourceRegexUriPattern.getUri(sourceId);
-                    URI sourceURI = new URIImpl(sourceUri);
-                    String targetUri = targetRegexUriPattern.getUri(targetId);
-                    URI targetURI = new URIImpl(targetUri);
-                    Statement statment = new StatementImpl(sourceURI, predicate, targetURI);
-                    rdfwriter.handleStatement(statment);
-                    found = true;
+                    sourceIds[count] = sourceId;
+                    targetIds[count] = targetId;
+                    count++;
+                    if (count == CHUNK_SIZE){
+                        sink.write(sourceIds, targetIds, count);
+                        found += count;
+                        count = 0;
+                    }
                 }
             }
+            if (count > 0){
+                sink.write(sourceIds, targetIds, count);
+                found += count;
+            }
+            return found;
         } catch (SQLException ex) {
-            ex.printStackTrace();
             throw new BridgeDBException("Unable to run query. " + query, ex);
+        } finally {
+            try {
+                if (rs != null){
+                    rs.close();
+                }
+                if (statement != null){
+                    statement.close();
+                }
+                connection.close();
+            } catch (SQLException ex) {
+                logger.warn("Error closing MYSQL connection", ex);
+            }
         }
-        try {
-            connection.close();
-        } catch (SQLException ex) {
-            throw new BridgeDBException("Error closing MYSQL connection", ex);
+    }
+    
+    /**
+     * Appends the URI in N-Triples form, escaping any characters in the id not allowed in an IRI.
+     */
+    static void appendUri(StringBuilder builder, RegexUriPattern pattern, String id){
+        builder.append('<');
+        builder.append(pattern.getPrefix());
+        for (int i = 0; i < id.length(); i++){
+            char c = id.charAt(i);
+            if (c <= 0x20 || c == '<' || c == '>' || c == '"' || c == '{' || c == '}' || c == '|' 
+                    || c == '^' || c == '`' || c == '\\'){
+                builder.append(String.format("\\u%04X", (int)c));
+            } else {
+                builder.append(c);
+            }
         }
-        return found;
+        builder.append(pattern.getPostfix());
+        builder.append('>');
     }
     
     private UriPattern getUriPattern(DataSetInfo info) throws BridgeDBException {
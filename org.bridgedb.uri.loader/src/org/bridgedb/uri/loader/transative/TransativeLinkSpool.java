@@ -0,0 +1,153 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.uri.loader.transative;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.apache.log4j.Logger;
+import org.bridgedb.utils.BridgeDBException;
+
+/**
+ * Holds the links found by the transitive join in a temporary file until the join has finished.
+ * <p>
+ * The links can then be inserted once all the partitions have closed their streaming queries,
+ *    as an insert into the mapping table (or the ALTER TABLE of a bulk load) can wait on those readers
+ *    while they wait on the insert.
+ * <p>
+ * Writing is thread safe so all partitions can share one spool. 
+ * Reading is done by a single thread after finishWriting.
+ * 
+ * @author Christian
+ */
+public class TransativeLinkSpool {
+    
+    private final File file;
+    private DataOutputStream output;
+    private DataInputStream input = null;
+    private long count = 0;
+    private long read = 0;
+    private String sourceId;
+    private String targetId;
+
+    static final Logger logger = Logger.getLogger(TransativeLinkSpool.class);
+
+    /**
+     * @param directory Where to put the temporary file
+     */
+    public TransativeLinkSpool(File directory) throws BridgeDBException{
+        try {
+            file = File.createTempFile("transitive", ".links", directory);
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        } catch (IOException ex) {
+            throw new BridgeDBException("Unable to create transitive spool file in " + directory, ex);
+        }
+    }
+    
+    public synchronized void write(String[] sourceIds, String[] targetIds, int length) throws BridgeDBException{
+        if (output == null){
+            throw new BridgeDBException("Transitive spool " + file + " already closed for writing");
+        }
+        try {
+            for (int i = 0; i < length; i++){
+                output.writeUTF(sourceIds[i]);
+                output.writeUTF(targetIds[i]);
+            }
+            count += length;
+        } catch (IOException ex) {
+            throw new BridgeDBException("Error writing transitive spool file " + file, ex);
+        }
+    }
+    
+    /**
+     * @return Number of links written so far.
+     */
+    public synchronized long getCount(){
+        return count;
+    }
+    
+    /**
+     * Closes the file for writing and opens it for reading from the first link.
+     */
+    public synchronized void finishWriting() throws BridgeDBException{
+        try {
+            output.close();
+            output = null;
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        } catch (IOException ex) {
+            throw new BridgeDBException("Error closing transitive spool file " + file, ex);
+        }
+    }
+    
+    /**
+     * Moves to the next link.
+     * @return False if all the links have been read.
+     */
+    public boolean next() throws BridgeDBException{
+        if (input == null){
+            throw new BridgeDBException("Transitive spool " + file + " not finished writing");
+        }
+        if (read >= count){
+            return false;
+        }
+        try {
+            sourceId = input.readUTF();
+            targetId = input.readUTF();
+            read++;
+            return true;
+        } catch (IOException ex) {
+            throw new BridgeDBException("Error reading transitive spool file " + file, ex);
+        }
+    }
+    
+    public String getSourceId(){
+        return sourceId;
+    }
+
+    public String getTargetId(){
+        return targetId;
+    }
+    
+    /**
+     * Closes and removes the temporary file. Safe to call more than once.
+     */
+    public synchronized void delete(){
+        try {
+            if (output != null){
+                output.close();
+                output = null;
+            }
+            if (input != null){
+                input.close();
+                input = null;
+            }
+        } catch (IOException ex) {
+            logger.warn("Error closing transitive spool file " + file, ex);
+        }
+        if (file.exists() && !file.delete()){
+            logger.warn("Unable to delete transitive spool file " + file);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.loader;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.bridgedb.uri.loader.LinkPipeline;
+import org.bridgedb.uri.tools.UriListener;
+import org.bridgedb.utils.BridgeDBException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Runs the pipeline against a stand in UriListener so no database is needed.
+ *
+ * @author Christian
+ */
+public class LinkPipelineTest {
+
+    private static class Recorder implements InvocationHandler {
+        private final Set<String> links = Collections.synchronizedSet(new HashSet<String>());
+        private final String failOn;
+
+        private Recorder(String failOn){
+            this.failOn = failOn;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("insertUriMapping")){
+                if (args[0].equals(failOn)){
+                    throw new BridgeDBException("Test failure on " + failOn);
+                }
+                links.add(args[0] + " " + args[1] + " " + args[2] + " " + args[3]);
+            }
+            return null;
+        }
+    }
+
+    private UriListener listener(Recorder recorder){
+        return (UriListener)Proxy.newProxyInstance(UriListener.class.getClassLoader(),
+                new Class[]{UriListener.class}, recorder);
+    }
+
+    @Test
+    public void testAllLinksInserted() throws Exception {
+        Recorder recorder = new Recorder(null);
+        LinkPipeline pipeline = new LinkPipeline(listener(recorder), 3, "test");
+        for (int i = 0; i < 2500; i++){
+            pipeline.add("s" + i, "t" + i, i < 1200 ? 1 : 3, i < 1200);
+        }
+        pipeline.finish();
+        assertEquals(2500, recorder.links.size());
+        assertTrue(recorder.links.contains("s0 t0 1 true"));
+        assertTrue(recorder.links.contains("s2499 t2499 3 false"));
+    }
+
+    @Test
+    public void testFailureReported() throws Exception {
+        Recorder recorder = new Recorder("s10");
+        LinkPipeline pipeline = new LinkPipeline(listener(recorder), 2, "test");
+        try {
+            for (int i = 0; i < 100000; i++){
+                pipeline.add("s" + i, "t" + i, 1, true);
+            }
+            pipeline.finish();
+            fail("Failure should have been reported");
+        } catch (BridgeDBException ex) {
+            assertTrue(ex.getMessage().contains("s10"));
+        }
+        //Stopping again is harmless
+        pipeline.abort();
+    }
+}
@@ -101,6 +101,9 @@ public class TransativeCreatorTest {
         File transative = TransativeCreator.doTransativeIfPossible(1, 3);
         loadFile(transative.getAbsolutePath(), Lens.getDefaultJustifictaionString());
         File transative2 = TransativeCreator.doTransativeIfPossible(4, 2);
+        Integer direct = TransativeCreator.loadTransativeIfPossible(1, 3);
+        assertNotNull(direct);
+        assertThat(uriListener.getMappingSetInfo(direct).getNumberOfLinks(), greaterThanOrEqualTo(3));
         //assertTrue(transative.exists());
         //loadFile(transative, MAIN_JUSTIFCATION);
     }
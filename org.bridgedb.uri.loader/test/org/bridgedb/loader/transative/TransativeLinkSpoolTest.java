@@ -0,0 +1,72 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.loader.transative;
+
+import java.io.File;
+import org.bridgedb.uri.loader.transative.TransativeLinkSpool;
+import org.bridgedb.utils.BridgeDBException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * The direct transitive load only inserts from the spool once the join has finished,
+ * so the spool must give back every link written, from all partitions, with any id.
+ * No database is needed.
+ *
+ * @author Christian
+ */
+public class TransativeLinkSpoolTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        TransativeLinkSpool spool = new TransativeLinkSpool(directory);
+        try {
+            spool.write(new String[]{"a", "b\tc\nd", "\u00e9"}, new String[]{"1", "2", "3"}, 3);
+            spool.write(new String[]{"e", "unused"}, new String[]{"4", "unused"}, 1);
+            assertEquals(4, spool.getCount());
+            spool.finishWriting();
+            assertTrue(spool.next());
+            assertEquals("a", spool.getSourceId());
+            assertEquals("1", spool.getTargetId());
+            assertTrue(spool.next());
+            assertEquals("b\tc\nd", spool.getSourceId());
+            assertTrue(spool.next());
+            assertEquals("\u00e9", spool.getSourceId());
+            assertTrue(spool.next());
+            assertEquals("e", spool.getSourceId());
+            assertEquals("4", spool.getTargetId());
+            assertFalse(spool.next());
+        } finally {
+            spool.delete();
+        }
+    }
+
+    @Test (expected=BridgeDBException.class)
+    public void testNoWriteAfterFinished() throws Exception {
+        TransativeLinkSpool spool = new TransativeLinkSpool(new File(System.getProperty("java.io.tmpdir")));
+        try {
+            spool.finishWriting();
+            spool.write(new String[]{"a"}, new String[]{"1"}, 1);
+        } finally {
+            spool.delete();
+        }
+    }
+}
@@ -26,12 +26,17 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.apache.log4j.Logger;
@@ -51,6 +56,7 @@ import org.bridgedb.sql.transative.ClaimedMapping;
 import org.bridgedb.sql.transative.DirectMapping;
 import org.bridgedb.sql.transative.MappingsHandlers;
 import org.bridgedb.sql.transative.SelfMapping;
+import org.bridgedb.sql.transative.TransitiveMapping;
 import org.bridgedb.statistics.DataSetInfo;
 import org.bridgedb.statistics.MappingSetInfo;
 import org.bridgedb.statistics.OverallStatistics;
@@ -62,8 +68,10 @@ import org.bridgedb.uri.api.UriMapper;
 import org.bridgedb.uri.lens.Lens;
 import org.bridgedb.uri.lens.LensTools;
 import org.bridgedb.uri.tools.GraphResolver;
+import org.bridgedb.uri.tools.LinkStatistics;
 import org.bridgedb.uri.tools.RegexUriPattern;
 import org.bridgedb.uri.tools.UriListener;
+import org.bridgedb.uri.tools.UriPatternTrie;
 import org.bridgedb.utils.BridgeDBException;
 import org.openrdf.model.Resource;
 
@@ -83,9 +91,13 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
     protected static final int PREDICATE_LENGTH = 100;
     private static final int PREFIX_LENGTH = 400;
     private static final int REGEX_LENGTH = 400;
+    private static final int LENS_LENGTH = 100;
+    private static final int PATH_LENGTH = 2000;
 
     private static final String MIMETYPE_TABLE_NAME = "mimeType";
     private static final String URI_TABLE_NAME = "uri";
+    private static final String CLOSURE_TABLE_NAME = "transitiveClosure";
+    private static final String CLOSURE_MAPPING_SET_TABLE_NAME = "transitiveClosureMappingSet";
 
     private static final String CREATED_BY_COLUMN_NAME = "createdBy";
     private static final String CREATED_ON_COLUMN_NAME = "createdOn";
@@ -103,6 +115,8 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
     private static final String MIMETYPE_COLUMN_NAME = "mimetype";
     private static final String NAME_COLUMN_NAME = "name";
     private static final String REGEX_COLUMN_NAME = "regex";
+    private static final String LENS_COLUMN_NAME = "lens";
+    private static final String PATH_COLUMN_NAME = "path";
 
     private static final boolean INCLUDE_XREF_RESULTS = true;
     private static final boolean EXCLUDE_XREF_RESULTS = false;
@@ -113,8 +127,26 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
 
     //Queuries as String saved for speed
     private final HashMap<String, String> directMappingQueries = new HashMap<String, String>();
-    private final String uriToIdSysCodePairQuery = "SELECT * FROM " + URI_TABLE_NAME + " WHERE ? LIKE CONCAT(" 
-            + PREFIX_COLUMN_NAME + ",'%'," + POSTFIX_COLUMN_NAME + ")";
+    private final HashMap<String, String> batchDirectMappingQueries = new HashMap<String, String>();
+
+    /**
+     * Number of source ids looked up by one query during transitive mapping.
+     * 
+     * Shorter lists are padded with a repeated id so there is only one query per lens.
+     */
+    static final int TRANSITIVE_BATCH_SIZE = 100;
+
+    /**
+     * Number of queries run to find direct mappings. 
+     */
+    private final AtomicLong directMappingRoundTrips = new AtomicLong();
+
+    /**
+     * In memory copy of the uri table used to convert uris without a query.
+     * 
+     * Filled by registerUriPattern so always holds the same patterns as the uri table.
+     */
+    private final UriPatternTrie uriPatternTrie = new UriPatternTrie();
 
     /**
      * Stores the Pattern for the source of each mappingSet it is currently loading.
@@ -123,8 +155,9 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
      * Used to quickly check the URIs and extract the ids in insertUriMappings
      * 
      * Not used during the map functions.
+     * Concurrent as linksets may be loaded in parallel.
      */
-    protected final HashMap<Integer, RegexUriPattern> subjectUriPatterns;
+    protected final Map<Integer, RegexUriPattern> subjectUriPatterns;
     /**
      * Stores the Pattern for the source of each mappingSet it is currently loading.
      * 
@@ -132,8 +165,9 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
      * Used to quickly check the URIs and extract the ids in insertUriMappings
      * 
      * Not used during the map functions.
+     * Concurrent as linksets may be loaded in parallel.
      */
-    protected final HashMap<Integer, RegexUriPattern> targetUriPatterns;
+    protected final Map<Integer, RegexUriPattern> targetUriPatterns;
     private boolean processingRawLinkset = true;
 
     //Currently there is only one of each of these but could be lens dependent
@@ -141,6 +175,26 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
     private final JustificationMaker justificationMaker;
     private String registerMappingQuery = null;
 
+    /**
+     * Lenses whose transitive mappings are read from the closure table.
+     */
+    private final Set<String> materializedLenses = Collections.synchronizedSet(new HashSet<String>());
+    /**
+     * Set while mappings are being loaded, until closeInput has brought the closure table up to date.
+     */
+    private volatile boolean closureStale = false;
+    /**
+     * Details of each mappingSet needed to rebuild the mappings read from the closure table.
+     */
+    private final HashMap<Integer, DirectMapping> mappingSetDetails = new HashMap<Integer, DirectMapping>();
+    /**
+     * Counts for each mappingSet collected as its links are inserted.
+     * 
+     * Written to the mappingSet table by closeInput so no count query over the mapping table is needed.
+     * Guarded by the insertLink lock.
+     */
+    private final HashMap<Integer, LinkStatistics> linkStatistics = new HashMap<Integer, LinkStatistics>();
+
     private static final Logger logger = Logger.getLogger(SQLUriMapper.class);
 
     public static SQLUriMapper getExisting() throws BridgeDBException {
@@ -173,13 +227,14 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         for (RegexUriPattern pattern : patterns) {
             this.registerUriPattern(pattern);
         }
-        subjectUriPatterns = new HashMap<Integer, RegexUriPattern>();
-        targetUriPatterns = new HashMap<Integer, RegexUriPattern>();
+        subjectUriPatterns = new ConcurrentHashMap<Integer, RegexUriPattern>();
+        targetUriPatterns = new ConcurrentHashMap<Integer, RegexUriPattern>();
         LensTools.init(this);
         LoosePredicateMaker.init();
         predicateMaker = LoosePredicateMaker.getInstance();
         OpsJustificationMaker.init();
         justificationMaker = OpsJustificationMaker.getInstance();
+        loadMaterializedLenses();
     }
 
     @Override
@@ -187,6 +242,8 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         super.dropSQLTables();
         dropTable(URI_TABLE_NAME);
         dropTable(MIMETYPE_TABLE_NAME);
+        dropTable(CLOSURE_TABLE_NAME);
+        dropTable(CLOSURE_MAPPING_SET_TABLE_NAME);
     }
 
     @Override
@@ -206,6 +263,21 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
                     + "     " + POSTFIX_COLUMN_NAME + " VARCHAR(" + POSTFIX_LENGTH + ") NOT NULL, "
                     + "     mimeType VARCHAR(" + MIMETYPE_LENGTH + ") NOT NULL "
                     + "  ) " + SqlFactory.engineSetting());
+            sh.execute("CREATE TABLE " + CLOSURE_TABLE_NAME
+                    + "  (  " + LENS_COLUMN_NAME + " VARCHAR(" + LENS_LENGTH + ") NOT NULL, "
+                    + "     " + SOURCE_ID_COLUMN_NAME + " VARCHAR(" + ID_LENGTH + ") NOT NULL, "
+                    + "     " + SOURCE_DATASOURCE_COLUMN_NAME + " VARCHAR(" + SYSCODE_LENGTH + ") NOT NULL, "
+                    + "     " + TARGET_ID_COLUMN_NAME + " VARCHAR(" + ID_LENGTH + ") NOT NULL, "
+                    + "     " + TARGET_DATASOURCE_COLUMN_NAME + " VARCHAR(" + SYSCODE_LENGTH + ") NOT NULL, "
+                    + "     " + PREDICATE_COLUMN_NAME + " VARCHAR(" + PREDICATE_LENGTH + "), "
+                    + "     " + JUSTIFICATION_COLUMN_NAME + " VARCHAR(" + JUSTIFICATION_LENGTH + "), "
+                    + "     " + PATH_COLUMN_NAME + " VARCHAR(" + PATH_LENGTH + ") NOT NULL, "
+                    + "     INDEX `closureFind` (" + LENS_COLUMN_NAME + ", " + SOURCE_ID_COLUMN_NAME + ") "
+                    + "  ) " + SqlFactory.engineSetting());
+            sh.execute("CREATE TABLE " + CLOSURE_MAPPING_SET_TABLE_NAME
+                    + "  (  " + LENS_COLUMN_NAME + " VARCHAR(" + LENS_LENGTH + ") NOT NULL, "
+                    + "     " + MAPPING_SET_ID_COLUMN_NAME + " INT NOT NULL "
+                    + "  ) " + SqlFactory.engineSetting());
         } catch (SQLException e) {
             throw new BridgeDBException("Error creating the tables ", e);
         } finally {
@@ -380,100 +452,9 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         return codeMapper.toXref(pair);
     }
 
-    private IdSysCodePair getValidPair(String uri, String sysCode, String prefix, String postfix, String regex) {
-        String id = uri.substring(prefix.length(), uri.length() - postfix.length());
-        if (regex == null) {
-            return new IdSysCodePair(id, sysCode);
-        } else {
-            Pattern pattern = Pattern.compile(regex);
-            Matcher matcher = pattern.matcher(id);
-            if (matcher.matches()) {
-                return new IdSysCodePair(id, sysCode);
-            }
-        }
-        return null;
-    }
-    
     @Override
     public IdSysCodePair toIdSysCodePair(String uri) throws BridgeDBException {
-        if (uri == null || uri.isEmpty()) {
-            return null;
-        }
-
-        PreparedStatement statement = this.createPreparedStatement(uriToIdSysCodePairQuery);
-        ResultSet rs = null;
-        try {
-            statement.setString(1, uri);
-            rs = statement.executeQuery();
-        } catch (SQLException ex) {
-            close(statement, rs);
-            throw new BridgeDBException("Unable to run query. " + statement, ex);
-        }
-        try {
-            IdSysCodePair result = null;
-            String oldPrefix = "";
-            String oldPostfix = "";
-            while (rs.next()) {
-                String sysCode = rs.getString(DATASOURCE_COLUMN_NAME);
-                String prefix = rs.getString(PREFIX_COLUMN_NAME);
-                String postfix = rs.getString(POSTFIX_COLUMN_NAME);
-                String regex = rs.getString(REGEX_COLUMN_NAME);
-                if (result == null){
-                    result = this.getValidPair(uri, sysCode, prefix, postfix, regex);
-                    if (result != null) {
-                        oldPrefix = prefix;
-                        oldPostfix = postfix;
-                    }                    
-                } else {
-                    //take the one with the longest prefix
-                    if (oldPrefix.length() <= prefix.length()) {
-                        IdSysCodePair second = this.getValidPair(uri, sysCode, prefix, postfix, regex);
-                        if (second != null) {
-                            result = second;
-                            oldPrefix = prefix;
-                        }
-                    //otherwise the one with the shorter prefix
-                    } else if (oldPrefix.length() > prefix.length()) {
-                    //Take the one with the longer postfix
-                    } else if (oldPostfix.length() < postfix.length()){
-                        IdSysCodePair second = this.getValidPair(uri, sysCode, prefix, postfix, regex);
-                        if (second != null) {
-                            result = second;
-                            oldPrefix = prefix;
-                        }
-                    } else {
-                        //same prefix so for multiple DataSources 
-                        //So we will take the one define in the BIO module first, then one defined in RDF
-                        //Ignoring the duplicates from the miriam registry.
-                        //Know dulicate prefixes of this type include
-                        //http://www.kegg.jp/entry/
-                        //http://www.ebi.ac.uk/ontology-lookup/?termId=
-                        //http://www.gramene.org/db/ontology/search?id=
-                        //http://stke.sciencemag.org/cgi/cm/stkecm;
-                        //http://purl.uniprot.org/uniprot/
-                        //http://antirrhinum.net/cgi-bin/ace/generic/tree/DragonDB?name=
-                        //http://www.uniprot.org/uniprot/
-                        //http://www.ncbi.nlm.nih.gov/nucest/
-                        //http://arabidopsis.org/servlets/TairObject?accession=
-                        //http://www.ncbi.nlm.nih.gov/entrez/viewer.fcgi?val=
-                        //https://www.proteomicsdb.org/#human/proteinDetails/
-                        //http://www.ebi.ac.uk/pdbe-srv/pdbechem/chemicalCompound/show/
-                        if (DataSourceMetaDataProvidor.compare(result.getSysCode(), sysCode) >= 0) { 
-                            IdSysCodePair second = this.getValidPair(uri, sysCode, prefix, postfix, regex);
-                            if (second != null) {
-                                result = second;
-                                oldPrefix = prefix;
-                            }
-                        }
-                    }
-                }
-            }
-            return result;
-        } catch (SQLException ex) {
-            throw new BridgeDBException("Error getting IdSysCodePair using. " + statement, ex);
-        } finally {
-            close(statement, rs);
-        }
+        return uriPatternTrie.toIdSysCodePair(uri);
     }
 
     @Override
@@ -481,54 +462,33 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         if (uri == null || uri.isEmpty()) {
             return null;
         }
-        PreparedStatement statement = this.createPreparedStatement(uriToIdSysCodePairQuery);
-        ResultSet rs = null;
-        try {
-            statement.setString(1, uri);
-            rs = statement.executeQuery();
-        } catch (SQLException ex) {
-            close(statement, rs);
-            throw new BridgeDBException("Unable to run query. " + statement, ex);
-        }
         RegexUriPattern result = null;
-        try {
-            while (rs.next()) {
-                String prefix = rs.getString(PREFIX_COLUMN_NAME);
-                String postfix = rs.getString(POSTFIX_COLUMN_NAME);
-                String regex = rs.getString(REGEX_COLUMN_NAME);
-                String sysCode = rs.getString(DATASOURCE_COLUMN_NAME);
-                if (regex == null) {
-                    return RegexUriPattern.factory(prefix, postfix, sysCode);
-                }
-                Pattern regexPattern = Pattern.compile(regex);
-                String id = uri.substring(prefix.length(), uri.lastIndexOf(postfix));
-                Matcher matcher = regexPattern.matcher(id);
-                if (matcher.matches()) {
-                    if (result != null) {
-                        if (DataSourceMetaDataProvidor.compare(result.getSysCode(), sysCode) > 0) {
-                            //ystem.out.println("ignoring possible " + result.getSysCode());
-                            result = RegexUriPattern.factory(prefix, postfix, sysCode, regexPattern);
-                        } else if (DataSourceMetaDataProvidor.compare(result.getSysCode(), sysCode) == 0) {
-                            RegexUriPattern second = RegexUriPattern.factory(prefix, postfix, sysCode, regexPattern);
-                            throw new BridgeDBException("Uri " + uri + " maps to two different regex patterns "
-                                    + result + " and " + second);
-                            //} else {
-                            //ystem.out.println("ignoring possible " + sysCode);
-                        } //if > 0 do nothing as first answer is better
-                    } else {
-                        result = RegexUriPattern.factory(prefix, postfix, sysCode, regexPattern);
-                    }
+        for (RegexUriPattern candidate:uriPatternTrie.getCandidates(uri)) {
+            String prefix = candidate.getPrefix();
+            String postfix = candidate.getPostfix();
+            Pattern regexPattern = candidate.getRegex();
+            String sysCode = candidate.getSysCode();
+            if (regexPattern == null) {
+                return candidate;
+            }
+            String id = uri.substring(prefix.length(), uri.length() - postfix.length());
+            Matcher matcher = regexPattern.matcher(id);
+            if (matcher.matches()) {
+                if (result != null) {
+                    if (DataSourceMetaDataProvidor.compare(result.getSysCode(), sysCode) > 0) {
+                        result = candidate;
+                    } else if (DataSourceMetaDataProvidor.compare(result.getSysCode(), sysCode) == 0) {
+                        throw new BridgeDBException("Uri " + uri + " maps to two different regex patterns "
+                                + result + " and " + candidate);
+                    } //if < 0 do nothing as first answer is better
+                } else {
+                    result = candidate;
                 }
             }
-            return result;
-        } catch (SQLException ex) {
-            throw new BridgeDBException("Unable to get uriSpace. " + statement, ex);
-        } finally {
-            close(statement, rs);
         }
+        return result;
     }
 
-    //@Override 
     public List<Mapping> getSampleMapping() throws BridgeDBException {
         String query = "SELECT * FROM " + MAPPING_TABLE_NAME + ", " + MAPPING_SET_TABLE_NAME 
             + " WHERE " + MAPPING_TABLE_NAME + "." + MAPPING_SET_ID_COLUMN_NAME 
@@ -794,6 +754,7 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         postfix = insertEscpaeCharacters(postfix);
         checkExistingUriPatterns(uriPattern);
         registerUriPattern(prefix, postfix, code, regex);
+        uriPatternTrie.add(uriPattern);
     }
 
     private void registerUriPattern(String prefix, String postfix, String code, Pattern regex) throws BridgeDBException {
@@ -822,8 +783,11 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         }
     }
     
+    /**
+     * Synchronized as the symmetric mappingSet must get the next id and @@identity needs the same connection.
+     */
     @Override
-    public int registerMappingSet(RegexUriPattern sourceUriPattern, String predicate, String justification,
+    public synchronized int registerMappingSet(RegexUriPattern sourceUriPattern, String predicate, String justification,
             RegexUriPattern targetUriPattern, Resource mappingSource, boolean symetric) throws BridgeDBException {
         checkUriPattern(sourceUriPattern);
         checkUriPattern(targetUriPattern);
@@ -840,7 +804,7 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
     }
 
     @Override
-    public int registerMappingSet(RegexUriPattern sourceUriPattern, String predicate, String forwardJustification, String backwardJustification,
+    public synchronized int registerMappingSet(RegexUriPattern sourceUriPattern, String predicate, String forwardJustification, String backwardJustification,
             RegexUriPattern targetUriPattern, Resource mappingSource) throws BridgeDBException {
         if (forwardJustification.equals(backwardJustification)){
             return registerMappingSet(sourceUriPattern, predicate, forwardJustification, targetUriPattern, mappingSource, true);
@@ -899,8 +863,11 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
             statement.setString(4, getDataSourceKey(target));
             statement.setString(5, mappingSource.stringValue());
             statement.setInt(6, symmetric);
+            closureStale = true;
             statement.executeUpdate();
             int autoinc = getAutoInc();
+            //So a mappingSet without links is given counts of zero rather than needing a count query.
+            linkStatistics.put(autoinc, new LinkStatistics());
             logger.info("Registered new Mapping " + autoinc + " from " + getDataSourceKey(source) + " to " + getDataSourceKey(target));
             return autoinc;
         } catch (SQLException ex) {
@@ -1027,12 +994,34 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         }
     }
 
+    /**
+     * Records the link in the statistics of its mappingSet(s) before inserting it.
+     */
+    @Override
+    public synchronized void insertLink(String sourceId, String targetId, int mappingSet, boolean symetric) throws BridgeDBException {
+        addLinkStatistics(sourceId, targetId, mappingSet);
+        if (symetric){
+            addLinkStatistics(targetId, sourceId, mappingSet + 1);
+        }
+        super.insertLink(sourceId, targetId, mappingSet, symetric);
+    }
+
+    private void addLinkStatistics(String sourceId, String targetId, int mappingSet){
+        LinkStatistics statistics = linkStatistics.get(mappingSet);
+        if (statistics == null){
+            statistics = new LinkStatistics();
+            linkStatistics.put(mappingSet, statistics);
+        }
+        statistics.add(sourceId, targetId);
+    }
+
     @Override
-    public void closeInput() throws BridgeDBException {
+    public synchronized void closeInput() throws BridgeDBException {
         super.closeInput();
         countLinks();
         subjectUriPatterns.clear();
         targetUriPatterns.clear();
+        refreshTransitiveClosures();
     }
 
     private DataSetInfo findDataSetInfo(String sysCode) throws BridgeDBException {
@@ -1234,33 +1223,45 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
     }
 
     private Set<String> toUris(IdSysCodePair ref) throws BridgeDBException {
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT " + PREFIX_COLUMN_NAME + ", " + POSTFIX_COLUMN_NAME);
-        query.append(" FROM ");
-        query.append(URI_TABLE_NAME);
-        query.append(" WHERE ");
-        query.append(DATASOURCE_COLUMN_NAME);
-        query.append(" = '");
-        query.append(ref.getSysCode());
-        query.append("' ");
-        Statement statement = this.createStatement();
-        ResultSet rs = null;
-        try {
-            rs = statement.executeQuery(query.toString());
-        } catch (SQLException ex) {
-            close(statement, rs);
-            throw new BridgeDBException("Unable to run query. " + query, ex);
+        return toUris(ref, new HashMap<String, Set<RegexUriPattern>>());
+    }
+
+    /**
+     * Converts a pair to all its uris, using and filling a cache of the patterns by sysCode
+     * so that the patterns of each sysCode are only read once per call.
+     */
+    private Set<String> toUris(IdSysCodePair ref, Map<String, Set<RegexUriPattern>> patternCache) 
+            throws BridgeDBException {
+        Set<RegexUriPattern> patterns = patternCache.get(ref.getSysCode());
+        if (patterns == null) {
+            patterns = getRegexUriPatterns(ref.getSysCode());
+            patternCache.put(ref.getSysCode(), patterns);
         }
         HashSet<String> results = new HashSet<String>();
+        for (RegexUriPattern pattern:patterns){
+            results.add(pattern.getUri(ref.getId()));
+        }
+        return results;
+    }
+
+    private static final String URI_PATTERNS_BY_SYSCODE_QUERY = "SELECT " + PREFIX_COLUMN_NAME + ", " + POSTFIX_COLUMN_NAME
+            + " FROM " + URI_TABLE_NAME
+            + " WHERE " + DATASOURCE_COLUMN_NAME + " = ?";
+
+    private Set<RegexUriPattern> getRegexUriPatterns(String sysCode) throws BridgeDBException {
+        PreparedStatement statement = getCachedPreparedStatement(URI_PATTERNS_BY_SYSCODE_QUERY);
+        ResultSet rs = null;
+        HashSet<RegexUriPattern> results = new HashSet<RegexUriPattern>();
         try {
+            statement.setString(1, sysCode);
+            rs = statement.executeQuery();
             while (rs.next()) {
                 String prefix = rs.getString(PREFIX_COLUMN_NAME);
                 String postfix = rs.getString(POSTFIX_COLUMN_NAME);
-                String uri = prefix + ref.getId() + postfix;
-                results.add(uri);
+                results.add(RegexUriPattern.factory(prefix, postfix, sysCode));
             }
         } catch (SQLException ex) {
-            throw new BridgeDBException("Unable to parse results.", ex);
+            throw new BridgeDBException("Unable to run query. " + URI_PATTERNS_BY_SYSCODE_QUERY, ex);
         } finally {
             close(statement, rs);
         }
@@ -1268,6 +1269,7 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
     }
 
     private void clearUriPatterns() throws BridgeDBException {
+        uriPatternTrie.clear();
         String update = "DELETE FROM " + URI_TABLE_NAME;
         Statement statement = null;
         try {
@@ -1344,6 +1346,10 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
 
     @Override
     public void recover() throws BridgeDBException {
+        //Ids of the deleted mappingSets will be reused.
+        synchronized (this) {
+            linkStatistics.clear();
+        }
         int max = getMaxCounted();
         deleteUncounted(MAPPING_TABLE_NAME, MAPPING_SET_ID_COLUMN_NAME, max);
         deleteUncounted(MAPPING_SET_TABLE_NAME, ID_COLUMN_NAME, max);
@@ -1386,15 +1392,441 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         }
     }
 
+    // **** Transitive closure Methods
+
     /**
-     * Updates the count variable for each Mapping Sets.
+     * Computes the transitive mappings of every source in the mapping table for this lens
+     * and stores them in the closure table.
+     * 
+     * From then on getTransitiveMappings for this lens is a single indexed lookup.
+     * closeInput keeps the closure up to date, only recomputing the sources that the new mappingSets can reach.
+     * 
+     * The closure assumes linksets are loaded in both directions, as the loader does by default.
+     * 
+     * @param lensId Lens to store the transitive mappings for. Typically the Default or All lens.
+     * @throws BridgeDBException 
+     */
+    public void materializeTransitiveClosure(String lensId) throws BridgeDBException {
+        String id = LensTools.byId(lensId).getId();
+        materializedLenses.remove(id);
+        deleteClosure(id);
+        List<Integer> mappingSetIds = getCountedMappingSetIds();
+        Set<IdSysCodePair> sources = getSourcePairs(null);
+        logger.info("Computing transitive closure of lens " + id + " for " + sources.size() + " sources");
+        writeClosure(id, sources, new HashMap<IdSysCodePair, Set<ClaimedMapping>>());
+        recordClosureMappingSets(id, mappingSetIds, true);
+        materializedLenses.add(id);
+    }
+
+    /**
+     * Stops using and removes the stored transitive mappings for this lens.
+     * @param lensId
+     * @throws BridgeDBException 
+     */
+    public void dropTransitiveClosure(String lensId) throws BridgeDBException {
+        String id = LensTools.byId(lensId).getId();
+        materializedLenses.remove(id);
+        deleteClosure(id);
+    }
+
+    /**
+     * @param lensId
+     * @return True if getTransitiveMappings for this lens currently reads the closure table.
+     * @throws BridgeDBException 
+     */
+    public boolean isTransitiveClosureMaterialized(String lensId) throws BridgeDBException {
+        return !closureStale && materializedLenses.contains(LensTools.byId(lensId).getId());
+    }
+
+    private void refreshTransitiveClosures() throws BridgeDBException {
+        synchronized (mappingSetDetails) {
+            mappingSetDetails.clear();
+        }
+        List<String> lensIds;
+        synchronized (materializedLenses) {
+            lensIds = new ArrayList<String>(materializedLenses);
+        }
+        for (String lensId : lensIds) {
+            refreshTransitiveClosure(lensId);
+        }
+        closureStale = false;
+    }
+
+    /**
+     * Brings the closure of one lens up to date with the mappingSets loaded since it was computed.
+     * 
+     * The sources that may have new transitive mappings are the sources of the new mappingSets
+     * and the sources that can reach those, which (with symmetric linksets) are the targets of their new closure.
+     */
+    private void refreshTransitiveClosure(String lensId) throws BridgeDBException {
+        Set<Integer> included = getClosureMappingSetIds(lensId);
+        List<Integer> current = getCountedMappingSetIds();
+        if (!current.containsAll(included)) {
+            //mappingSets have been removed so the existing closure can not be trusted.
+            materializeTransitiveClosure(lensId);
+            return;
+        }
+        List<Integer> added = new ArrayList<Integer>(current);
+        added.removeAll(included);
+        if (added.isEmpty()) {
+            return;
+        }
+        Lens lens = LensTools.byId(lensId);
+        Map<IdSysCodePair, Set<ClaimedMapping>> computed = new HashMap<IdSysCodePair, Set<ClaimedMapping>>();
+        Set<IdSysCodePair> affected = new HashSet<IdSysCodePair>();
+        for (IdSysCodePair source : getSourcePairs(added)) {
+            affected.add(source);
+            if (lens.getAllowedMiddleSysCodes().contains(source.getSysCode())) {
+                Set<ClaimedMapping> mappings = computeTransitiveMappings(source, lensId);
+                computed.put(source, mappings);
+                for (ClaimedMapping mapping : mappings) {
+                    affected.add(mapping.getTargetPair());
+                }
+            }
+        }
+        logger.info("Updating transitive closure of lens " + lensId + " for " + affected.size() 
+                + " sources affected by " + added.size() + " new mappingSets");
+        deleteClosure(lensId, affected);
+        writeClosure(lensId, affected, computed);
+        recordClosureMappingSets(lensId, added, false);
+    }
+
+    private void loadMaterializedLenses() throws BridgeDBException {
+        String query = "SELECT DISTINCT " + LENS_COLUMN_NAME + " FROM " + CLOSURE_MAPPING_SET_TABLE_NAME;
+        Statement statement = this.createStatement();
+        ResultSet rs = null;
+        try {
+            rs = statement.executeQuery(query);
+            while (rs.next()) {
+                materializedLenses.add(rs.getString(LENS_COLUMN_NAME));
+            }
+        } catch (SQLException ex) {
+            throw new BridgeDBException("Unable to run query. " + query, ex);
+        } finally {
+            close(statement, rs);
+        }
+    }
+
+    private List<Integer> getCountedMappingSetIds() throws BridgeDBException {
+        String query = "SELECT " + ID_COLUMN_NAME + " FROM " + MAPPING_SET_TABLE_NAME 
+                + " WHERE " + MAPPING_LINK_COUNT_COLUMN_NAME + " IS NOT NULL";
+        return readIds(query, ID_COLUMN_NAME);
+    }
+
+    private Set<Integer> getClosureMappingSetIds(String lensId) throws BridgeDBException {
+        String query = "SELECT " + MAPPING_SET_ID_COLUMN_NAME + " FROM " + CLOSURE_MAPPING_SET_TABLE_NAME 
+                + " WHERE " + LENS_COLUMN_NAME + " = '" + insertEscpaeCharacters(lensId) + "'"
+                + " AND " + MAPPING_SET_ID_COLUMN_NAME + " <> 0";
+        return new HashSet<Integer>(readIds(query, MAPPING_SET_ID_COLUMN_NAME));
+    }
+
+    private List<Integer> readIds(String query, String columnName) throws BridgeDBException {
+        Statement statement = this.createStatement();
+        ResultSet rs = null;
+        try {
+            rs = statement.executeQuery(query);
+            List<Integer> results = new ArrayList<Integer>();
+            while (rs.next()) {
+                results.add(rs.getInt(columnName));
+            }
+            return results;
+        } catch (SQLException ex) {
+            throw new BridgeDBException("Unable to run query. " + query, ex);
+        } finally {
+            close(statement, rs);
+        }
+    }
+
+    /**
+     * @param mappingSetIds MappingSets to get the sources of or null for all mappingSets
+     * @return Every distinct source of a mapping in these mappingSets.
+     */
+    private Set<IdSysCodePair> getSourcePairs(Collection<Integer> mappingSetIds) throws BridgeDBException {
+        StringBuilder query = new StringBuilder("SELECT DISTINCT ");
+        query.append(SOURCE_ID_COLUMN_NAME).append(", ").append(SOURCE_DATASOURCE_COLUMN_NAME);
+        query.append(" FROM ").append(MAPPING_TABLE_NAME).append(", ").append(MAPPING_SET_TABLE_NAME);
+        query.append(" WHERE ").append(MAPPING_SET_ID_COLUMN_NAME).append(" = ").append(MAPPING_SET_DOT_ID_COLUMN_NAME);
+        if (mappingSetIds != null) {
+            query.append(" AND ").append(MAPPING_SET_ID_COLUMN_NAME).append(" IN (");
+            boolean first = true;
+            for (Integer mappingSetId : mappingSetIds) {
+                if (!first) {
+                    query.append(", ");
+                }
+                query.append(mappingSetId);
+                first = false;
+            }
+            query.append(")");
+        }
+        Statement statement = this.createStatement();
+        ResultSet rs = null;
+        try {
+            rs = statement.executeQuery(query.toString());
+            Set<IdSysCodePair> results = new HashSet<IdSysCodePair>();
+            while (rs.next()) {
+                results.add(new IdSysCodePair(rs.getString(SOURCE_ID_COLUMN_NAME), rs.getString(SOURCE_DATASOURCE_COLUMN_NAME)));
+            }
+            return results;
+        } catch (SQLException ex) {
+            throw new BridgeDBException("Unable to run query. " + query, ex);
+        } finally {
+            close(statement, rs);
+        }
+    }
+
+    private void deleteClosure(String lensId) throws BridgeDBException {
+        String escaped = insertEscpaeCharacters(lensId);
+        Statement statement = createStatement();
+        try {
+            statement.executeUpdate("DELETE FROM " + CLOSURE_TABLE_NAME + " WHERE " + LENS_COLUMN_NAME + " = '" + escaped + "'");
+            statement.executeUpdate("DELETE FROM " + CLOSURE_MAPPING_SET_TABLE_NAME + " WHERE " + LENS_COLUMN_NAME + " = '" + escaped + "'");
+        } catch (SQLException ex) {
+            throw new BridgeDBException("Error deleting transitive closure of " + lensId, ex);
+        } finally {
+            close(statement, null);
+        }
+    }
+
+    private void deleteClosure(String lensId, Set<IdSysCodePair> sources) throws BridgeDBException {
+        PreparedStatement statement = createPreparedStatement("DELETE FROM " + CLOSURE_TABLE_NAME 
+                + " WHERE " + LENS_COLUMN_NAME + " = ? AND " + SOURCE_ID_COLUMN_NAME + " = ? AND " 
+                + SOURCE_DATASOURCE_COLUMN_NAME + " = ?");
+        try {
+            for (IdSysCodePair source : sources) {
+                statement.setString(1, lensId);
+                statement.setString(2, source.getId());
+                statement.setString(3, source.getSysCode());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } catch (SQLException ex) {
+            throw new BridgeDBException("Error deleting transitive closure of " + lensId, ex);
+        } finally {
+            close(statement, null);
+        }
+    }
+
+    private void writeClosure(String lensId, Set<IdSysCodePair> sources, Map<IdSysCodePair, Set<ClaimedMapping>> computed) 
+            throws BridgeDBException {
+        PreparedStatement statement = createPreparedStatement("INSERT INTO " + CLOSURE_TABLE_NAME + " (" 
+                + LENS_COLUMN_NAME + ", " + SOURCE_ID_COLUMN_NAME + ", " + SOURCE_DATASOURCE_COLUMN_NAME + ", " 
+                + TARGET_ID_COLUMN_NAME + ", " + TARGET_DATASOURCE_COLUMN_NAME + ", " 
+                + PREDICATE_COLUMN_NAME + ", " + JUSTIFICATION_COLUMN_NAME + ", " + PATH_COLUMN_NAME 
+                + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        try {
+            int batched = 0;
+            for (IdSysCodePair source : sources) {
+                Set<ClaimedMapping> mappings = computed.get(source);
+                if (mappings == null) {
+                    mappings = computeTransitiveMappings(source, lensId);
+                }
+                for (ClaimedMapping mapping : mappings) {
+                    String path = closurePath(mapping);
+                    if (path.length() > PATH_LENGTH) {
+                        throw new BridgeDBException("Path length ( " + path.length() + ") is too long for " + mapping);
+                    }
+                    statement.setString(1, lensId);
+                    statement.setString(2, source.getId());
+                    statement.setString(3, source.getSysCode());
+                    statement.setString(4, mapping.getTargetId());
+                    statement.setString(5, mapping.getTargetSysCode());
+                    statement.setString(6, mapping.getPredicate());
+                    statement.setString(7, mapping.getJustification());
+                    statement.setString(8, path);
+                    statement.addBatch();
+                    batched++;
+                    if (batched == TRANSITIVE_BATCH_SIZE) {
+                        statement.executeBatch();
+                        batched = 0;
+                    }
+                }
+            }
+            if (batched > 0) {
+                statement.executeBatch();
+            }
+        } catch (SQLException ex) {
+            throw new BridgeDBException("Error writing transitive closure of " + lensId, ex);
+        } finally {
+            close(statement, null);
+        }
+    }
+
+    /**
+     * @param firstRecord If true an extra row with mappingSetId 0 is added 
+     *    so the lens is known to be materialized even if there are no mappingSets yet.
+     */
+    private void recordClosureMappingSets(String lensId, List<Integer> mappingSetIds, boolean firstRecord) 
+            throws BridgeDBException {
+        PreparedStatement statement = createPreparedStatement("INSERT INTO " + CLOSURE_MAPPING_SET_TABLE_NAME 
+                + " (" + LENS_COLUMN_NAME + ", " + MAPPING_SET_ID_COLUMN_NAME + ") VALUES (?, ?)");
+        try {
+            for (Integer mappingSetId : mappingSetIds) {
+                statement.setString(1, lensId);
+                statement.setInt(2, mappingSetId);
+                statement.addBatch();
+            }
+            if (firstRecord) {
+                statement.setString(1, lensId);
+                statement.setInt(2, 0);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        } catch (SQLException ex) {
+            throw new BridgeDBException("Error recording transitive closure of " + lensId, ex);
+        } finally {
+            close(statement, null);
+        }
+    }
+
+    /**
+     * Encodes the hops of a mapping as its mappingSet ids separated by the intermediate ids and sysCodes.
+     * Ie "mappingSetId" for a direct mapping and 
+     * "mappingSetId\tmiddleId\tmiddleSysCode\tmappingSetId" for a transitive via one middle.
+     */
+    private String closurePath(ClaimedMapping mapping) {
+        if (!mapping.isTransitive()) {
+            return mapping.getMappingSetId();
+        }
+        StringBuilder path = new StringBuilder();
+        List<Mapping> vias = mapping.getViaMappings();
+        for (int i = 0; i < vias.size(); i++) {
+            ClaimedMapping via = (ClaimedMapping)vias.get(i);
+            if (i > 0) {
+                path.append('\t');
+            }
+            path.append(via.getMappingSetId());
+            if (i < vias.size() - 1) {
+                path.append('\t').append(via.getTargetId()).append('\t').append(via.getTargetSysCode());
+            }
+        }
+        return path.toString();
+    }
+
+    private Map<IdSysCodePair, Set<ClaimedMapping>> readTransitiveClosure(List<IdSysCodePair> sourceRefs, String lensId) 
+            throws BridgeDBException {
+        Map<IdSysCodePair, Set<ClaimedMapping>> results = new HashMap<IdSysCodePair, Set<ClaimedMapping>>();
+        for (IdSysCodePair sourceRef:sourceRefs) {
+            results.put(sourceRef, new HashSet<ClaimedMapping>());
+        }
+        if (sourceRefs.isEmpty()) {
+            return results;
+        }
+        StringBuilder query = new StringBuilder("SELECT " + SOURCE_ID_COLUMN_NAME + ", " + SOURCE_DATASOURCE_COLUMN_NAME + ", " 
+                + TARGET_ID_COLUMN_NAME + ", " + TARGET_DATASOURCE_COLUMN_NAME + ", " + PATH_COLUMN_NAME 
+                + " FROM " + CLOSURE_TABLE_NAME 
+                + " WHERE " + LENS_COLUMN_NAME + " = ? AND " + SOURCE_ID_COLUMN_NAME + " IN (?");
+        for (int i = 1; i < TRANSITIVE_BATCH_SIZE; i++) {
+            query.append(", ?");
+        }
+        query.append(")");
+        PreparedStatement statement = getCachedPreparedStatement(query.toString());
+        try {
+            statement.setString(1, lensId);
+            for (int start = 0; start < sourceRefs.size(); start += TRANSITIVE_BATCH_SIZE) {
+                List<IdSysCodePair> chunk = sourceRefs.subList(start, Math.min(start + TRANSITIVE_BATCH_SIZE, sourceRefs.size()));
+                for (int i = 0; i < TRANSITIVE_BATCH_SIZE; i++) {
+                    //pad with the first id which does not change the results
+                    IdSysCodePair ref = i < chunk.size() ? chunk.get(i) : chunk.get(0);
+                    statement.setString(i + 2, ref.getId());
+                }
+                directMappingRoundTrips.incrementAndGet();
+                ResultSet rs = null;
+                try {
+                    rs = statement.executeQuery();
+                    while (rs.next()) {
+                        IdSysCodePair sourceRef = new IdSysCodePair(rs.getString(SOURCE_ID_COLUMN_NAME), 
+                                rs.getString(SOURCE_DATASOURCE_COLUMN_NAME));
+                        Set<ClaimedMapping> mappings = results.get(sourceRef);
+                        if (mappings == null) {
+                            //Same id but a different sysCode
+                            continue;
+                        }
+                        IdSysCodePair targetRef = new IdSysCodePair(rs.getString(TARGET_ID_COLUMN_NAME), 
+                                rs.getString(TARGET_DATASOURCE_COLUMN_NAME));
+                        mappings.add(rebuildMapping(sourceRef, targetRef, rs.getString(PATH_COLUMN_NAME), lensId));
+                    }
+                } finally {
+                    close(null, rs);
+                }
+            }
+            return results;
+        } catch (SQLException ex) {
+            throw new BridgeDBException("Error reading transitive closure " + statement, ex);
+        } finally {
+            close(statement, null);
+        }
+    }
+
+    private ClaimedMapping rebuildMapping(IdSysCodePair sourceRef, IdSysCodePair targetRef, String path, String lensId) 
+            throws BridgeDBException {
+        String[] parts = path.split("\t");
+        ClaimedMapping result = null;
+        IdSysCodePair from = sourceRef;
+        for (int i = 0; i < parts.length; i += 3) {
+            IdSysCodePair to;
+            if (i + 2 < parts.length) {
+                to = new IdSysCodePair(parts[i + 1], parts[i + 2]);
+            } else {
+                to = targetRef;
+            }
+            DirectMapping direct = toDirectMapping(from, to, Integer.parseInt(parts[i]), lensId);
+            if (result == null) {
+                result = direct;
+            } else {
+                String predicate = predicateMaker.possibleCombine(result.getPredicate(), direct.getPredicate());
+                String justification = justificationMaker.possibleCombine(result.getJustification(), direct.getJustification());
+                result = new TransitiveMapping(result, direct, predicate, justification);
+            }
+            from = to;
+        }
+        return result;
+    }
+
+    private DirectMapping toDirectMapping(IdSysCodePair sourceRef, IdSysCodePair targetRef, int mappingSetId, String lensId) 
+            throws BridgeDBException {
+        DirectMapping details;
+        synchronized (mappingSetDetails) {
+            details = mappingSetDetails.get(mappingSetId);
+            if (details == null) {
+                loadMappingSetDetails();
+                details = mappingSetDetails.get(mappingSetId);
+                if (details == null) {
+                    throw new BridgeDBException("No mappingSet known with id " + mappingSetId);
+                }
+            }
+        }
+        return new DirectMapping(sourceRef, targetRef, mappingSetId, 0, details.getPredicate(), 
+                details.getJustification(), null, details.getMappingSource(), lensId);
+    }
+
+    private void loadMappingSetDetails() throws BridgeDBException {
+        String query = "SELECT " + ID_COLUMN_NAME + ", " + PREDICATE_COLUMN_NAME + ", " + JUSTIFICATION_COLUMN_NAME 
+                + ", " + MAPPING_SOURCE_COLUMN_NAME + " FROM " + MAPPING_SET_TABLE_NAME;
+        Statement statement = this.createStatement();
+        ResultSet rs = null;
+        try {
+            rs = statement.executeQuery(query);
+            while (rs.next()) {
+                int mappingSetId = rs.getInt(ID_COLUMN_NAME);
+                mappingSetDetails.put(mappingSetId, new DirectMapping(null, null, mappingSetId, 0, 
+                        rs.getString(PREDICATE_COLUMN_NAME), rs.getString(JUSTIFICATION_COLUMN_NAME), 
+                        null, rs.getString(MAPPING_SOURCE_COLUMN_NAME), null));
+            }
+        } catch (SQLException ex) {
+            throw new BridgeDBException("Unable to run query. " + query, ex);
+        } finally {
+            close(statement, rs);
+        }
+    }
+
+    /**
+     * Writes the counts collected while loading to the mappingSet table.
      * <p>
-     * This allows the counts of the mappings in each Mapping Set to be quickly
-     * returned.
-     *
-     * @throws BridgeDBException
+     * Any mappingSet still without counts, for example one loaded by an older version, 
+     *     is then counted with a query over the mapping table.
      */
     private void countLinks() throws BridgeDBException {
+        writeLinkStatistics();
         logger.debug("Updating link counts. Please Wait!");
         Statement countStatement = this.createStatement();
         String query = ("select " + ID_COLUMN_NAME
@@ -1417,6 +1849,41 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         }
     }
 
+    private void writeLinkStatistics() throws BridgeDBException {
+        if (linkStatistics.isEmpty()) {
+            return;
+        }
+        StringBuilder update = new StringBuilder("UPDATE ");
+        update.append(MAPPING_SET_TABLE_NAME);
+        update.append(" SET ");
+        update.append(MAPPING_SOURCE_COUNT_COLUMN_NAME);
+        update.append(" = ?, ");
+        update.append(MAPPING_TARGET_COUNT_COLUMN_NAME);
+        update.append(" = ?, ");
+        update.append(MAPPING_LINK_COUNT_COLUMN_NAME);
+        update.append(" = ? WHERE ");
+        update.append(ID_COLUMN_NAME);
+        update.append(" = ?");
+        PreparedStatement statement = createPreparedStatement(update.toString());
+        try {
+            for (Map.Entry<Integer, LinkStatistics> entry : linkStatistics.entrySet()) {
+                LinkStatistics statistics = entry.getValue();
+                statement.setLong(1, statistics.getSources());
+                statement.setLong(2, statistics.getTargets());
+                statement.setLong(3, statistics.getLinks());
+                statement.setInt(4, entry.getKey());
+                statement.addBatch();
+                logger.debug("MappingSet " + entry.getKey() + " has " + statistics.getLinks() + " links");
+            }
+            statement.executeBatch();
+            linkStatistics.clear();
+        } catch (SQLException ex) {
+            throw new BridgeDBException("Unable to run update. " + update, ex);
+        } finally {
+            close(statement, null);
+        }
+    }
+
     /**
      * Updates the count variable for each Mapping Sets.
      * <p>
@@ -1576,6 +2043,7 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
             Set<DirectMapping> results = new HashSet<DirectMapping>();
             statement.setString(1, sourceRef.getId());
             statement.setString(2, sourceRef.getSysCode());
+            directMappingRoundTrips.incrementAndGet();
             rs = statement.executeQuery();
             while (rs.next()) {
                 String id = rs.getString(TARGET_ID_COLUMN_NAME);
@@ -1617,6 +2085,104 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
             + " AND " + SOURCE_ID_COLUMN_NAME + " = ? "
             + " AND " + SOURCE_DATASOURCE_COLUMN_NAME + " = ?";
 
+    /**
+     * Finds the direct mappings of several pairs with one query per TRANSITIVE_BATCH_SIZE ids.
+     * 
+     * The query selects on the id only, which is indexed, 
+     * so rows for the same id in other DataSources are dropped here.
+     * 
+     * @param sourceRefs pairs to look up
+     * @param statement as created by batchDirectQuery
+     * @param lensId
+     * @return The mappings of each source pair that has any.
+     */
+    private Map<IdSysCodePair, Set<DirectMapping>> getDirectMappings(List<IdSysCodePair> sourceRefs, 
+            PreparedStatement statement, String lensId) throws BridgeDBException {
+        Map<IdSysCodePair, Set<DirectMapping>> results = new HashMap<IdSysCodePair, Set<DirectMapping>>();
+        for (int start = 0; start < sourceRefs.size(); start += TRANSITIVE_BATCH_SIZE) {
+            List<IdSysCodePair> chunk = sourceRefs.subList(start, Math.min(start + TRANSITIVE_BATCH_SIZE, sourceRefs.size()));
+            Set<IdSysCodePair> wanted = new HashSet<IdSysCodePair>(chunk);
+            ResultSet rs = null;
+            try {
+                for (int i = 0; i < TRANSITIVE_BATCH_SIZE; i++) {
+                    //pad with the first id which does not change the results
+                    IdSysCodePair ref = i < chunk.size() ? chunk.get(i) : chunk.get(0);
+                    statement.setString(i + 1, ref.getId());
+                }
+                directMappingRoundTrips.incrementAndGet();
+                rs = statement.executeQuery();
+                while (rs.next()) {
+                    IdSysCodePair sourceRef = new IdSysCodePair(rs.getString(SOURCE_ID_COLUMN_NAME), 
+                            rs.getString(SOURCE_DATASOURCE_COLUMN_NAME));
+                    if (!wanted.contains(sourceRef)) {
+                        continue;
+                    }
+                    IdSysCodePair targetRef = new IdSysCodePair(rs.getString(TARGET_ID_COLUMN_NAME), 
+                            rs.getString(TARGET_DATASOURCE_COLUMN_NAME));
+                    Integer mappingSetId = rs.getInt(MAPPING_SET_ID_COLUMN_NAME);
+                    Integer symmetric = rs.getInt(SYMMETRIC_COLUMN_NAME);
+                    String predicate = rs.getString(PREDICATE_COLUMN_NAME);
+                    String justification = rs.getString(JUSTIFICATION_COLUMN_NAME);
+                    String mappingSource = rs.getString(MAPPING_SOURCE_COLUMN_NAME);
+                    DirectMapping mapping = new DirectMapping(sourceRef, targetRef, mappingSetId, symmetric, predicate, 
+                            justification, null, mappingSource, lensId);
+                    Set<DirectMapping> mappings = results.get(sourceRef);
+                    if (mappings == null) {
+                        mappings = new HashSet<DirectMapping>();
+                        results.put(sourceRef, mappings);
+                    }
+                    mappings.add(mapping);
+                }
+            } catch (SQLException ex) {
+                close(statement, rs);
+                throw new BridgeDBException("Error running query " + statement, ex);
+            } finally {
+                close(null, rs);
+            }
+        }
+        return results;
+    }
+
+    private static final String BATCH_DIRECT_MAPPING_QUERY
+            = "SELECT "
+            + SOURCE_ID_COLUMN_NAME + ", "
+            + SOURCE_DATASOURCE_COLUMN_NAME + ", "
+            + TARGET_ID_COLUMN_NAME + ", "
+            + TARGET_DATASOURCE_COLUMN_NAME + ", "
+            + MAPPING_SET_ID_COLUMN_NAME + ", "
+            + PREDICATE_COLUMN_NAME + ", "
+            + JUSTIFICATION_COLUMN_NAME + ", "
+            + MAPPING_RESOURCE_COLUMN_NAME + ", "
+            + MAPPING_SOURCE_COLUMN_NAME + ", "
+            + SYMMETRIC_COLUMN_NAME
+            + " FROM " + MAPPING_TABLE_NAME + ", " + MAPPING_SET_TABLE_NAME
+            + " WHERE " + MAPPING_SET_ID_COLUMN_NAME + " = " + MAPPING_SET_DOT_ID_COLUMN_NAME
+            + " AND " + SOURCE_ID_COLUMN_NAME + " IN (";
+
+    private String batchDirectQuery(String lensId) throws BridgeDBException {
+        String result = batchDirectMappingQueries.get(lensId);
+        if (result == null) {
+            StringBuilder query = new StringBuilder(BATCH_DIRECT_MAPPING_QUERY);
+            query.append("?");
+            for (int i = 1; i < TRANSITIVE_BATCH_SIZE; i++) {
+                query.append(", ?");
+            }
+            query.append(")");
+            query.append(lensClause(lensId));
+            result = query.toString();
+            batchDirectMappingQueries.put(lensId, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of queries run so far to find direct mappings, 
+     *     either for getDirectMappings or for each level of getTransitiveMappings.
+     */
+    public long getDirectMappingRoundTrips() {
+        return directMappingRoundTrips.get();
+    }
+
     private String lensClause(String lensId) throws BridgeDBException {
         StringBuilder query = new StringBuilder();
         if (lensId == null) {
@@ -1650,7 +2216,7 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
     public Set<DirectMapping> getDirectMappings(IdSysCodePair sourceRef, String lensId) throws BridgeDBException {
         PreparedStatement statement = null;
         try {
-            statement = createPreparedStatement(directQuery(lensId));
+            statement = getCachedPreparedStatement(directQuery(lensId));
             Set<DirectMapping> results = getDirectMappings(sourceRef, statement, lensId);
             return results;
         } catch (BridgeDBException ex) {
@@ -1661,24 +2227,105 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
     }
 
     public Set<ClaimedMapping> getTransitiveMappings(IdSysCodePair sourceRef, String lensId) throws BridgeDBException {
+        Set<ClaimedMapping> results = 
+                getTransitiveMappings(Collections.singletonList(sourceRef), lensId).get(sourceRef);
+        if (results == null) {
+            return new HashSet<ClaimedMapping>();
+        }
+        return results;
+    }
+
+    /**
+     * Finds the transitive mappings of several sources together.
+     * 
+     * Each level of the breadth first search is looked up for all the sources at once,
+     *    so the number of queries depends on the number of sources divided by TRANSITIVE_BATCH_SIZE
+     *    times the depth of the search, rather than on the number of sources times the depth.
+     * 
+     * @param sourceRefs
+     * @param lensId
+     * @return The mappings of each source, including those with no mappings.
+     * @throws BridgeDBException 
+     */
+    public Map<IdSysCodePair, Set<ClaimedMapping>> getTransitiveMappings(Collection<IdSysCodePair> sourceRefs, 
+            String lensId) throws BridgeDBException {
+        if (lensId == null || lensId.isEmpty()){
+            lensId = Lens.DEFAULT_LENS_NAME;
+        }
+        List<IdSysCodePair> uniqueRefs = new ArrayList<IdSysCodePair>(new LinkedHashSet<IdSysCodePair>(sourceRefs));
+        if (!closureStale && !materializedLenses.isEmpty()){
+            String materializedId = LensTools.byId(lensId).getId();
+            if (materializedLenses.contains(materializedId)){
+                return readTransitiveClosure(uniqueRefs, materializedId);
+            }
+        }
+        return computeTransitiveMappings(uniqueRefs, lensId);
+    }
+
+    private Set<ClaimedMapping> computeTransitiveMappings(IdSysCodePair sourceRef, String lensId) throws BridgeDBException {
+        return computeTransitiveMappings(Collections.singletonList(sourceRef), lensId).get(sourceRef);
+    }
+
+    private Map<IdSysCodePair, Set<ClaimedMapping>> computeTransitiveMappings(List<IdSysCodePair> sourceRefs, 
+            String lensId) throws BridgeDBException {
+        Map<IdSysCodePair, Set<ClaimedMapping>> results = new HashMap<IdSysCodePair, Set<ClaimedMapping>>();
+        if (sourceRefs.isEmpty()) {
+            return results;
+        }
         PreparedStatement statement = null;
         try {
-            if (lensId == null || lensId.isEmpty()){
-                lensId = Lens.DEFAULT_LENS_NAME;
-            }
             Lens lens = LensTools.byId(lensId);
-            statement = createPreparedStatement(directQuery(lensId));
-            MappingsHandlers mappingsHandler = new MappingsHandlers(sourceRef, predicateMaker, justificationMaker);
-            Set<DirectMapping> direct = getDirectMappings(sourceRef, statement, lensId);
-            mappingsHandler.addMappings(direct);
-            while (mappingsHandler.moreToCheck()) {
-                ClaimedMapping toCheck = mappingsHandler.nextToCheck();
-                if (lens.getAllowedMiddleSysCodes().contains(toCheck.getTargetSysCode())){
-                    Set<DirectMapping> transitives = getDirectMappings(toCheck.getTargetPair(), statement, lensId);
-                    mappingsHandler.addMappings(toCheck, transitives);
+            Set<String> allowedMiddleSysCodes = lens.getAllowedMiddleSysCodes();
+            statement = getCachedPreparedStatement(batchDirectQuery(lensId));
+            List<MappingsHandlers> handlers = new ArrayList<MappingsHandlers>();
+            Map<IdSysCodePair, Set<DirectMapping>> found = getDirectMappings(sourceRefs, statement, lensId);
+            for (IdSysCodePair sourceRef:sourceRefs) {
+                MappingsHandlers mappingsHandler = new MappingsHandlers(sourceRef, predicateMaker, justificationMaker);
+                if (found.containsKey(sourceRef)) {
+                    mappingsHandler.addMappings(found.get(sourceRef));
+                }
+                handlers.add(mappingsHandler);
+            }
+            //Breadth first, looking up all the targets of one level of every source with a single query.
+            List<MappingsHandlers> active = handlers;
+            while (!active.isEmpty()) {
+                List<MappingsHandlers> nextActive = new ArrayList<MappingsHandlers>();
+                Map<MappingsHandlers, List<ClaimedMapping>> levels = new HashMap<MappingsHandlers, List<ClaimedMapping>>();
+                Set<IdSysCodePair> middles = new LinkedHashSet<IdSysCodePair>();
+                for (MappingsHandlers mappingsHandler:active) {
+                    if (!mappingsHandler.moreToCheck()) {
+                        continue;
+                    }
+                    List<ClaimedMapping> level = new ArrayList<ClaimedMapping>();
+                    for (ClaimedMapping toCheck : mappingsHandler.nextLevelToCheck()) {
+                        if (allowedMiddleSysCodes.contains(toCheck.getTargetSysCode())){
+                            level.add(toCheck);
+                            middles.add(toCheck.getTargetPair());
+                        }
+                    }
+                    if (!level.isEmpty()) {
+                        levels.put(mappingsHandler, level);
+                        nextActive.add(mappingsHandler);
+                    }
+                }
+                if (middles.isEmpty()) {
+                    break;
+                }
+                found = getDirectMappings(new ArrayList<IdSysCodePair>(middles), statement, lensId);
+                for (MappingsHandlers mappingsHandler:nextActive) {
+                    for (ClaimedMapping toCheck : levels.get(mappingsHandler)) {
+                        Set<DirectMapping> transitives = found.get(toCheck.getTargetPair());
+                        if (transitives != null) {
+                            mappingsHandler.addMappings(toCheck, transitives);
+                        }
+                    }
                 }
+                active = nextActive;
+            }
+            for (int i = 0; i < sourceRefs.size(); i++) {
+                results.put(sourceRefs.get(i), handlers.get(i).getMappings());
             }
-            return mappingsHandler.getMappings();
+            return results;
         } catch (BridgeDBException ex) {
             throw ex;
         } finally {
@@ -1745,9 +2392,17 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
      */
 
     private Set<String> filterAndExtractTargetUris(Set<ClaimedMapping> mappings, IdSysCodePair sourceRef, Set<RegexUriPattern> targetUriPatterns) throws BridgeDBException {
+        return filterAndExtractTargetUris(mappings, sourceRef, targetUriPatterns, 
+                new HashMap<String, Set<RegexUriPattern>>());
+    }
+
+    private Set<String> filterAndExtractTargetUris(Set<ClaimedMapping> mappings, IdSysCodePair sourceRef, 
+            Set<RegexUriPattern> targetUriPatterns, Map<String, Set<RegexUriPattern>> patternCache) 
+            throws BridgeDBException {
         if (targetUriPatterns == null || targetUriPatterns.isEmpty()){
-            mappings.add(new SelfMapping(sourceRef));
-            return convertToTargetUris(mappings);
+            Set<ClaimedMapping> withSelf = new HashSet<ClaimedMapping>(mappings);
+            withSelf.add(new SelfMapping(sourceRef));
+            return convertToTargetUris(withSelf, patternCache);
         }
         HashSet<String> results = new HashSet<String>();
         for (RegexUriPattern targetUriPattern : targetUriPatterns) {
@@ -1776,10 +2431,17 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
      */
     private Set<ClaimedMapping> filterAndAddUris(Set<ClaimedMapping> mappings, String sourceUri, IdSysCodePair sourceRef, 
             Set<RegexUriPattern> targetUriPatterns) throws BridgeDBException {
+        return filterAndAddUris(mappings, sourceUri, sourceRef, targetUriPatterns, 
+                new HashMap<String, Set<RegexUriPattern>>());
+    }
+
+    private Set<ClaimedMapping> filterAndAddUris(Set<ClaimedMapping> mappings, String sourceUri, IdSysCodePair sourceRef, 
+            Set<RegexUriPattern> targetUriPatterns, Map<String, Set<RegexUriPattern>> patternCache) 
+            throws BridgeDBException {
         if (targetUriPatterns == null || targetUriPatterns.isEmpty()){
             mappings.add(new SelfMapping(sourceUri, sourceRef));
             this.addSourceUri(mappings, sourceUri);
-            this.addTargetURIs(mappings);
+            this.addTargetURIs(mappings, patternCache);
             return mappings;
         }
         HashSet<ClaimedMapping> results = new HashSet<ClaimedMapping>();
@@ -1810,10 +2472,11 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         return results;
     }
 
-    private Set<String> convertToTargetUris(Set<ClaimedMapping> mappings) throws BridgeDBException {
+    private Set<String> convertToTargetUris(Set<ClaimedMapping> mappings, Map<String, Set<RegexUriPattern>> patternCache) 
+            throws BridgeDBException {
         HashSet<String> results = new HashSet<String>();
         for (ClaimedMapping mapping : mappings) {
-            results.addAll(toUris(mapping.getTargetPair()));
+            results.addAll(toUris(mapping.getTargetPair(), patternCache));
         }
         return results;
     }
@@ -1849,14 +2512,14 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         }
     }
 
-    private void addTargetURIs(ClaimedMapping mapping) throws BridgeDBException {
-        Set<String> URIs = toUris(mapping.getTargetPair());
-        mapping.addTargetUris(URIs);
+    private void addTargetURIs(Set<ClaimedMapping> mappings) throws BridgeDBException {
+        addTargetURIs(mappings, new HashMap<String, Set<RegexUriPattern>>());
     }
 
-    private void addTargetURIs(Set<ClaimedMapping> mappings) throws BridgeDBException {
+    private void addTargetURIs(Set<ClaimedMapping> mappings, Map<String, Set<RegexUriPattern>> patternCache) 
+            throws BridgeDBException {
         for (ClaimedMapping mapping : mappings) {
-            SQLUriMapper.this.addTargetURIs(mapping);
+            mapping.addTargetUris(toUris(mapping.getTargetPair(), patternCache));
         }
     }
  
@@ -1919,6 +2582,77 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         return this.convertToXref(filteredMappings);
     }
 
+    @Override
+    public Map<String, Set<String>> mapUri(Collection<String> sourceUris, String lensUri, String graph, 
+            Collection<String> tgtUriPatterns) throws BridgeDBException {
+        Map<String, Set<String>> results = new HashMap<String, Set<String>>();
+        if (sourceUris == null) {
+            return results;
+        }
+        Map<String, IdSysCodePair> sourceRefs = toIdSysCodePairs(sourceUris);
+        Set<RegexUriPattern> targetUriPatterns = findRegexPatternsWithNulls(graph, tgtUriPatterns);
+        Map<IdSysCodePair, Set<ClaimedMapping>> mappings = getTransitiveMappings(sourceRefs.values(), lensUri);
+        Map<String, Set<RegexUriPattern>> patternCache = new HashMap<String, Set<RegexUriPattern>>();
+        for (String sourceUri:sourceUris) {
+            Set<String> targets;
+            String scrubbed = scrubUri(sourceUri);
+            IdSysCodePair sourceRef = sourceRefs.get(scrubbed);
+            if (sourceRef == null) {
+                targets = mapUnkownUri(scrubbed, graph, tgtUriPatterns);
+            } else {
+                targets = filterAndExtractTargetUris(mappings.get(sourceRef), sourceRef, targetUriPatterns, patternCache);
+            }
+            if (!targets.isEmpty()) {
+                results.put(sourceUri, targets);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<Xref, Set<Xref>> mapID(Collection<Xref> sourceXrefs, String lensId, 
+            Collection<DataSource> tgtDataSources) throws BridgeDBException {
+        Map<Xref, Set<Xref>> results = new HashMap<Xref, Set<Xref>>();
+        if (sourceXrefs == null) {
+            return results;
+        }
+        Map<Xref, IdSysCodePair> sourceRefs = new LinkedHashMap<Xref, IdSysCodePair>();
+        for (Xref sourceXref:sourceXrefs) {
+            IdSysCodePair sourceRef = toIdSysCodePair(sourceXref);
+            if (sourceRef != null) {
+                sourceRefs.put(sourceXref, sourceRef);
+            }
+        }
+        Map<IdSysCodePair, Set<ClaimedMapping>> mappings = getTransitiveMappings(sourceRefs.values(), lensId);
+        for (Map.Entry<Xref, IdSysCodePair> entry:sourceRefs.entrySet()) {
+            IdSysCodePair sourceRef = entry.getValue();
+            Set<ClaimedMapping> filteredMappings = filterByDataSource(mappings.get(sourceRef), sourceRef, tgtDataSources);
+            Set<Xref> targets = convertToXref(filteredMappings);
+            if (!targets.isEmpty()) {
+                results.put(entry.getKey(), targets);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Scrubs and converts the uris in one pass over the UriPatternTrie.
+     * @return Pairs by scrubbed uri, for the uris that match a known pattern.
+     */
+    private Map<String, IdSysCodePair> toIdSysCodePairs(Collection<String> sourceUris) throws BridgeDBException {
+        Map<String, IdSysCodePair> results = new LinkedHashMap<String, IdSysCodePair>();
+        for (String sourceUri:sourceUris) {
+            String scrubbed = scrubUri(sourceUri);
+            if (scrubbed != null && !results.containsKey(scrubbed)) {
+                IdSysCodePair sourceRef = toIdSysCodePair(scrubbed);
+                if (sourceRef != null) {
+                    results.put(scrubbed, sourceRef);
+                }
+            }
+        }
+        return results;
+    }
+
     private Set<Mapping> toSuperSet(Set<? extends Mapping> mappings){
         return new HashSet<Mapping>(mappings);
     }
@@ -1972,24 +2706,35 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         return toSuperSet(filteredMappings);
     }
 
-    private Set<ClaimedMapping> mapFullClaimed(Collection<String> sourceUris, String lensId, 
-            Boolean includeXrefResults, //Boolean allRoutes, Boolean showVias, 
-            String graph, Collection<String> tgtUriPatterns) throws BridgeDBException {
-        Set<ClaimedMapping> results = new HashSet<ClaimedMapping>();
-        for (String sourceUri:sourceUris){
-            results.addAll(mapFullInner(sourceUri, lensId, includeXrefResults,  
-                    graph, tgtUriPatterns));
-        }
-        return results;
-    }
-    
-    private Set<Mapping> mapFull(Collection<String> sourceUris, String lensId, 
+    /**
+     * Same results as calling mapFullInner for each source, 
+     *     but with the transitive mappings of all the sources found together.
+     * @param includeUnknown If true sources that do not match any pattern may map to themselves as mapFull does.
+     */
+    private Set<Mapping> mapFullClaimed(Collection<String> sourceUris, String lensId, 
             Boolean includeXrefResults, //Boolean allRoutes, Boolean showVias, 
-            String graph, Collection<String> tgtUriPatterns) throws BridgeDBException {
+            String graph, Collection<String> tgtUriPatterns, boolean includeUnknown) throws BridgeDBException {
         Set<Mapping> results = new HashSet<Mapping>();
+        Map<String, IdSysCodePair> sourceRefs = toIdSysCodePairs(sourceUris);
+        Set<RegexUriPattern> targetUriPatterns = findRegexPatternsWithNulls(graph, tgtUriPatterns);
+        Map<IdSysCodePair, Set<ClaimedMapping>> mappings = getTransitiveMappings(sourceRefs.values(), lensId);
+        Map<String, Set<RegexUriPattern>> patternCache = new HashMap<String, Set<RegexUriPattern>>();
         for (String sourceUri:sourceUris){
-            results.addAll(mapFull(sourceUri, lensId, includeXrefResults,  
-                    graph, tgtUriPatterns));
+            IdSysCodePair sourceRef = sourceRefs.get(scrubUri(sourceUri));
+            if (sourceRef == null) {
+                if (includeUnknown) {
+                    results.addAll(mappingUnkownUri(sourceUri, graph, tgtUriPatterns));
+                }
+                continue;
+            }
+            //Copy as the same pair may be shared by several sourceUris
+            Set<ClaimedMapping> sourceMappings = new HashSet<ClaimedMapping>(mappings.get(sourceRef));
+            Set<ClaimedMapping> filteredMappings = 
+                    filterAndAddUris(sourceMappings, sourceUri, sourceRef, targetUriPatterns, patternCache);
+            if (includeXrefResults != null && includeXrefResults){
+                addXrefs(filteredMappings);
+            }
+            results.addAll(filteredMappings);
         }
         return results;
     }
@@ -2042,7 +2787,10 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
      */
     public MappingsBySysCodeId mapUriBySysCodeId(Collection<String> sourceUris, String lensUri, String graph, Collection<String> tgtUriPatterns)
             throws BridgeDBException {
-        Set<ClaimedMapping> mappings = mapFullClaimed(sourceUris, lensUri, false, graph, tgtUriPatterns);
+        Set<ClaimedMapping> mappings = new HashSet<ClaimedMapping>();
+        for (Mapping mapping:mapFullClaimed(sourceUris, lensUri, false, graph, tgtUriPatterns, false)){
+            mappings.add((ClaimedMapping)mapping);
+        }
         return toMappingsBySetCodeId(mappings);
     }
 
@@ -2052,7 +2800,7 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
      */
     public MappingsBySet mapBySet(Collection<String> sourceUris, String lensUri, String graph, Collection<String> tgtUriPatterns)
             throws BridgeDBException {
-        Set<Mapping> mappings = mapFull(sourceUris, lensUri, false, graph, tgtUriPatterns);
+        Set<Mapping> mappings = mapFullClaimed(sourceUris, lensUri, false, graph, tgtUriPatterns, true);
         return new MappingsBySet(lensUri, mappings);
     }
     
@@ -2068,6 +2816,17 @@ public class SQLUriMapper extends SQLIdMapper implements UriMapper, UriListener
         return mapID(sourceXref, Lens.ALL_LENS_NAME, targetDataSources);
     }
 
+    @Override
+    public Map<Xref, Set<Xref>> mapID(Collection<Xref> sourceXrefs, DataSource... tgtDataSources) throws BridgeDBException {
+        Set<DataSource> targetDataSources = new HashSet<DataSource>();
+        if (tgtDataSources != null){
+            for (DataSource tgtDataSource:tgtDataSources){
+                targetDataSources.add(tgtDataSource);
+            }
+        }
+        return mapID(sourceXrefs, Lens.ALL_LENS_NAME, targetDataSources);
+    }
+
     protected int getSymmetric(int mappingSetId) throws BridgeDBException{
         String query = "SELECT "
             + SYMMETRIC_COLUMN_NAME
@@ -20,7 +20,9 @@
 package org.bridgedb.sql.transative;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import org.bridgedb.pairs.IdSysCodePair;
 import org.bridgedb.sql.justification.JustificationMaker;
@@ -74,6 +76,21 @@ public class MappingsHandlers {
         return toCheck.pop();
     }
 
+    /**
+     * Removes all the mappings still to be checked.
+     * 
+     * These form the next level of a breadth first search, 
+     * so all their targets can be looked up together.
+     * Mappings added while handling this level will be returned by the next call.
+     * 
+     * @return Mappings to check, possibly empty.
+     */
+    public final List<ClaimedMapping> nextLevelToCheck() {
+        List<ClaimedMapping> level = new ArrayList<ClaimedMapping>(toCheck);
+        toCheck.clear();
+        return level;
+    }
+
     public final void addMapping(ClaimedMapping previous, DirectMapping newMapping) throws BridgeDBException {   
         IdSysCodePair targetRef = newMapping.getTargetPair();
         if (checkedPairs.contains(targetRef)){
@@ -0,0 +1,115 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.uri.tools;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Estimates the number of distinct Strings added using a HyperLogLog sketch.
+ *
+ * Until SPARSE_LIMIT distinct values have been seen their hashes are kept exactly,
+ * so small sets, which are most mapping sets, get exact counts.
+ * After that 2^14 one byte registers are used which gives a standard error of about 0.8%
+ * in 16KB however many values are added.
+ *
+ * Not thread safe.
+ *
+ * @author Christian
+ */
+public class HyperLogLog {
+
+    private static final int PRECISION = 14;
+    private static final int REGISTER_COUNT = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+    static final int SPARSE_LIMIT = 2048;
+
+    private Set<Long> sparse = new HashSet<Long>();
+    private byte[] registers = null;
+
+    public void add(String value){
+        add(hash(value));
+    }
+
+    private void add(long hash){
+        if (registers == null){
+            sparse.add(hash);
+            if (sparse.size() > SPARSE_LIMIT){
+                registers = new byte[REGISTER_COUNT];
+                for (long old:sparse){
+                    addToRegisters(old);
+                }
+                sparse = null;
+            }
+        } else {
+            addToRegisters(hash);
+        }
+    }
+
+    private void addToRegisters(long hash){
+        int index = (int)(hash >>> (64 - PRECISION));
+        //The sentinel bit stops the rank going past the bits left after the index.
+        long rest = (hash << PRECISION) | (1L << (PRECISION - 1));
+        byte rank = (byte)(Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index]){
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * @return Estimated number of distinct values added.
+     */
+    public long estimate(){
+        if (registers == null){
+            return sparse.size();
+        }
+        double sum = 0;
+        int zeros = 0;
+        for (byte register:registers){
+            sum += 1.0 / (1L << register);
+            if (register == 0){
+                zeros++;
+            }
+        }
+        double estimate = ALPHA * REGISTER_COUNT * REGISTER_COUNT / sum;
+        //Linear counting is more accurate while many registers are still empty.
+        if (estimate <= 2.5 * REGISTER_COUNT && zeros > 0){
+            estimate = REGISTER_COUNT * Math.log((double)REGISTER_COUNT / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * 64 bit FNV-1a followed by the MurmurHash3 finaliser to spread the bits.
+     */
+    static long hash(String value){
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++){
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
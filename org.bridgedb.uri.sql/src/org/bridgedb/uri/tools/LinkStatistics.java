@@ -0,0 +1,54 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.uri.tools;
+
+/**
+ * Counts of a single mappingSet collected while its links are inserted.
+ *
+ * The number of links is exact. Distinct sources and targets are HyperLogLog estimates.
+ *
+ * Not thread safe.
+ *
+ * @author Christian
+ */
+public class LinkStatistics {
+
+    private long links = 0;
+    private final HyperLogLog sources = new HyperLogLog();
+    private final HyperLogLog targets = new HyperLogLog();
+
+    public void add(String sourceId, String targetId){
+        links++;
+        sources.add(sourceId);
+        targets.add(targetId);
+    }
+
+    public long getLinks(){
+        return links;
+    }
+
+    public long getSources(){
+        return sources.estimate();
+    }
+
+    public long getTargets(){
+        return targets.estimate();
+    }
+}
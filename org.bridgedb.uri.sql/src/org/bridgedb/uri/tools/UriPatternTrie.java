@@ -0,0 +1,237 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.uri.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.bridgedb.pairs.IdSysCodePair;
+import org.bridgedb.rdf.DataSourceMetaDataProvidor;
+import org.bridgedb.utils.BridgeDBException;
+
+/**
+ * In memory index of RegexUriPatterns by prefix.
+ *
+ * Finds the patterns that match a URI by walking the URI one character at a time,
+ * so the cost depends on the length of the URI and not on the number of patterns.
+ *
+ * Lookups do not lock. Adding a pattern replaces the affected arrays rather than changing them,
+ * so a lookup running at the same time sees either the old or the new pattern.
+ *
+ * @author Christian
+ */
+public class UriPatternTrie {
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final RegexUriPattern[] NO_PATTERNS = new RegexUriPattern[0];
+
+    private static final class Node {
+        private final char key;
+        //sorted by key
+        private volatile Node[] children = NO_CHILDREN;
+        //patterns whose prefix ends at this node in the order they where added.
+        private volatile RegexUriPattern[] patterns = NO_PATTERNS;
+
+        private Node(char key){
+            this.key = key;
+        }
+
+        private Node child(char c){
+            Node[] local = children;
+            int low = 0;
+            int high = local.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char midKey = local[mid].key;
+                if (midKey < c) {
+                    low = mid + 1;
+                } else if (midKey > c) {
+                    high = mid - 1;
+                } else {
+                    return local[mid];
+                }
+            }
+            return null;
+        }
+
+        private Node addChild(char c){
+            Node[] local = children;
+            int index = 0;
+            while (index < local.length && local[index].key < c){
+                index++;
+            }
+            Node[] copy = new Node[local.length + 1];
+            System.arraycopy(local, 0, copy, 0, index);
+            System.arraycopy(local, index, copy, index + 1, local.length - index);
+            Node result = new Node(c);
+            copy[index] = result;
+            children = copy;
+            return result;
+        }
+    }
+
+    private final Node root = new Node('\0');
+    private int size = 0;
+
+    /**
+     * Adds a pattern unless an equal one was already added.
+     * @param pattern
+     */
+    public synchronized void add(RegexUriPattern pattern){
+        String prefix = pattern.getPrefix();
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++){
+            char c = prefix.charAt(i);
+            Node next = node.child(c);
+            if (next == null){
+                next = node.addChild(c);
+            }
+            node = next;
+        }
+        RegexUriPattern[] local = node.patterns;
+        for (RegexUriPattern existing:local){
+            if (existing.equals(pattern)){
+                return;
+            }
+        }
+        RegexUriPattern[] copy = new RegexUriPattern[local.length + 1];
+        System.arraycopy(local, 0, copy, 0, local.length);
+        copy[local.length] = pattern;
+        node.patterns = copy;
+        size++;
+    }
+
+    /**
+     * Removes all patterns.
+     */
+    public synchronized void clear(){
+        root.children = NO_CHILDREN;
+        size = 0;
+    }
+
+    /**
+     * @return Number of patterns added.
+     */
+    public synchronized int size(){
+        return size;
+    }
+
+    /**
+     * Finds all the patterns with a prefix and postfix that fit around the uri without overlapping.
+     * 
+     * This is the same test as the SQL uri LIKE CONCAT(prefix, '%', postfix).
+     *
+     * The regex is not checked.
+     *
+     * @param uri
+     * @return Patterns with the longest prefix first,
+     *    with patterns with the same prefix in the order they where added.
+     */
+    public List<RegexUriPattern> getCandidates(String uri){
+        ArrayList<RegexUriPattern> results = new ArrayList<RegexUriPattern>();
+        if (uri == null){
+            return results;
+        }
+        List<RegexUriPattern[]> levels = matchingLevels(uri);
+        for (int i = levels.size() - 1; i >= 0; i--){
+            for (RegexUriPattern pattern:levels.get(i)){
+                if (fits(uri, pattern)){
+                    results.add(pattern);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Converts a uri into an id and sysCode.
+     *
+     * If more than one pattern matches the one with the longest prefix is used.
+     * Of those with equal prefix the one with the longest postfix.
+     * Then the one from the best source according to DataSourceMetaDataProvidor.compare
+     * and finally the one added last.
+     *
+     * @param uri
+     * @return IdSysCodePair or null if no pattern matches.
+     * @throws BridgeDBException if the DataSourceMetaDataProvidor of a sysCode is unknown.
+     */
+    public IdSysCodePair toIdSysCodePair(String uri) throws BridgeDBException{
+        if (uri == null || uri.isEmpty()) {
+            return null;
+        }
+        List<RegexUriPattern[]> levels = matchingLevels(uri);
+        for (int i = levels.size() - 1; i >= 0; i--){
+            RegexUriPattern best = null;
+            String bestId = null;
+            for (RegexUriPattern pattern:levels.get(i)){
+                if (!fits(uri, pattern)){
+                    continue;
+                }
+                if (best != null){
+                    int postfixLength = pattern.getPostfix().length();
+                    int bestPostfixLength = best.getPostfix().length();
+                    if (postfixLength < bestPostfixLength){
+                        continue;
+                    }
+                    if (postfixLength == bestPostfixLength &&
+                            DataSourceMetaDataProvidor.compare(best.getSysCode(), pattern.getSysCode()) < 0){
+                        continue;
+                    }
+                }
+                String id = extractId(uri, pattern);
+                if (pattern.getRegex() == null || pattern.getRegex().matcher(id).matches()){
+                    best = pattern;
+                    bestId = id;
+                }
+            }
+            if (best != null){
+                return new IdSysCodePair(bestId, best.getSysCode());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The pattern arrays of all nodes on the path of the uri that have patterns, shortest prefix first.
+     */
+    private List<RegexUriPattern[]> matchingLevels(String uri){
+        ArrayList<RegexUriPattern[]> levels = new ArrayList<RegexUriPattern[]>();
+        Node node = root;
+        for (int i = 0; i < uri.length(); i++){
+            node = node.child(uri.charAt(i));
+            if (node == null){
+                break;
+            }
+            RegexUriPattern[] patterns = node.patterns;
+            if (patterns.length > 0){
+                levels.add(patterns);
+            }
+        }
+        return levels;
+    }
+
+    private static boolean fits(String uri, RegexUriPattern pattern){
+        String postfix = pattern.getPostfix();
+        return uri.length() >= pattern.getPrefix().length() + postfix.length() && uri.endsWith(postfix);
+    }
+
+    private static String extractId(String uri, RegexUriPattern pattern){
+        return uri.substring(pattern.getPrefix().length(), uri.length() - pattern.getPostfix().length());
+    }
+}
@@ -19,6 +19,9 @@
 //
 package org.bridgedb.mysql.transative;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import org.bridgedb.DataSource;
 import org.bridgedb.pairs.IdSysCodePair;
@@ -26,7 +29,11 @@ import org.bridgedb.rdf.UriPattern;
 import org.bridgedb.rdf.UriPatternType;
 import org.bridgedb.sql.SQLUriMapper;
 import org.bridgedb.sql.TestSqlFactory;
+import org.bridgedb.sql.justification.OpsJustificationMaker;
+import org.bridgedb.sql.predicate.LoosePredicateMaker;
+import org.bridgedb.sql.transative.ClaimedMapping;
 import org.bridgedb.sql.transative.DirectMapping;
+import org.bridgedb.sql.transative.MappingsHandlers;
 import static org.bridgedb.uri.UriListenerTest.SYMETRIC;
 import org.bridgedb.uri.api.Mapping;
 import org.bridgedb.uri.lens.Lens;
@@ -955,6 +962,83 @@ public class TransitiveTest {
         assertEquals(0, mappings.size());  //None due to Lens
     }
 
-
-
+    /**
+     * Compares the level by level lookup of getTransitiveMappings 
+     * with looking up the direct mappings of one pair at a time.
+     */
+    @Test
+    public void testTransitiveRoundTrips() throws Exception{
+        Reporter.println("TransitiveRoundTrips");
+        String[] ids = {"1", "2", "3a", "4", "5", "6a", "7a", "8", "9a", "10", "11", "12a", "13a", "14a", "15a", 
+            "16a", "17", "18", "19", "20", "21", "22", "23", "24", "25"};
+        String[] lensIds = {Lens.TEST_LENS_NAME, Lens.ALL_LENS_NAME, Lens.DEFAULT_LENS_NAME};
+        for (String lensId:lensIds){
+            Lens lens = LensTools.byId(lensId);
+            long singleTrips = 0;
+            long start = System.currentTimeMillis();
+            for (String id:ids){
+                IdSysCodePair source = new IdSysCodePair(id, sysCodeA);
+                MappingsHandlers handler = new MappingsHandlers(source, LoosePredicateMaker.getInstance(), 
+                        OpsJustificationMaker.getInstance());
+                handler.addMappings(sqlUriMapper.getDirectMappings(source, lensId));
+                singleTrips++;
+                while (handler.moreToCheck()){
+                    ClaimedMapping toCheck = handler.nextToCheck();
+                    if (lens.getAllowedMiddleSysCodes().contains(toCheck.getTargetSysCode())){
+                        handler.addMappings(toCheck, sqlUriMapper.getDirectMappings(toCheck.getTargetPair(), lensId));
+                        singleTrips++;
+                    }
+                }
+            }
+            long singleTime = System.currentTimeMillis() - start;
+
+            long before = sqlUriMapper.getDirectMappingRoundTrips();
+            start = System.currentTimeMillis();
+            for (String id:ids){
+                sqlUriMapper.getTransitiveMappings(new IdSysCodePair(id, sysCodeA), lensId);
+            }
+            long batchTime = System.currentTimeMillis() - start;
+            long batchTrips = sqlUriMapper.getDirectMappingRoundTrips() - before;
+            Reporter.println("Lens " + lensId + " " + ids.length + " sources: one pair per query " + singleTrips 
+                    + " round trips in " + singleTime + " msec, one query per level " + batchTrips 
+                    + " round trips in " + batchTime + " msec");
+            assertTrue(batchTrips <= singleTrips);
+        }
+    }
+
+    @Test
+    public void testMaterializedClosure() throws Exception{
+        Reporter.println("MaterializedClosure");
+        String[] ids = {"1", "2", "3a", "4", "5", "6a", "7a", "8", "9a", "10", "11", "12a", "13a", "14a", "15a", 
+            "16a", "17", "18", "19", "20", "21", "22", "23", "24", "25"};
+        String[] lensIds = {Lens.TEST_LENS_NAME, Lens.ALL_LENS_NAME};
+        for (String lensId:lensIds){
+            Map<IdSysCodePair, Set<IdSysCodePair>> expected = new HashMap<IdSysCodePair, Set<IdSysCodePair>>();
+            for (String id:ids){
+                IdSysCodePair source = new IdSysCodePair(id, sysCodeA);
+                expected.put(source, targets(sqlUriMapper.getTransitiveMappings(source, lensId)));
+            }
+            sqlUriMapper.materializeTransitiveClosure(lensId);
+            try {
+                assertTrue(sqlUriMapper.isTransitiveClosureMaterialized(lensId));
+                for (IdSysCodePair source:expected.keySet()){
+                    long before = sqlUriMapper.getDirectMappingRoundTrips();
+                    Set<ClaimedMapping> mappings = sqlUriMapper.getTransitiveMappings(source, lensId);
+                    assertEquals(1, sqlUriMapper.getDirectMappingRoundTrips() - before);
+                    assertEquals(expected.get(source), targets(mappings));
+                }
+            } finally {
+                sqlUriMapper.dropTransitiveClosure(lensId);
+            }
+            assertFalse(sqlUriMapper.isTransitiveClosureMaterialized(lensId));
+        }
+    }
+
+    private Set<IdSysCodePair> targets(Set<ClaimedMapping> mappings){
+        Set<IdSysCodePair> results = new HashSet<IdSysCodePair>();
+        for (ClaimedMapping mapping:mappings){
+            results.add(mapping.getTargetPair());
+        }
+        return results;
+    }
 }
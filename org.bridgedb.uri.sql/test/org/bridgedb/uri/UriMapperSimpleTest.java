@@ -4,7 +4,10 @@
  */
 package org.bridgedb.uri;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import org.bridgedb.DataSource;
 import org.bridgedb.Xref;
@@ -91,6 +94,50 @@ public abstract class UriMapperSimpleTest extends UriListenerTest{
     
     
 
+    /**
+     * Test of mapID method with several sources, of class UriMapper.
+     */
+    @Test
+    public void testMapID_sourceXrefs_lensId_tgtDataSources() throws Exception {
+        report("MapID_sourceXrefs_lensId_tgtDataSources");
+        List<Xref> sourceXrefs = new ArrayList<Xref>();
+        sourceXrefs.add(map2xref2);
+        sourceXrefs.add(map1xref1);
+        String lensId = Lens.DEFAULT_LENS_NAME;
+        Set<DataSource> targets = new HashSet<DataSource>();
+        targets.add(DataSource2);
+        targets.add(DataSource3);
+        Map<Xref, Set<Xref>> results = uriMapper.mapID(sourceXrefs, lensId, targets);
+        assertEquals(2, results.size());
+        assertEquals(uriMapper.mapID(map2xref2, lensId, targets), results.get(map2xref2));
+        assertEquals(uriMapper.mapID(map1xref1, lensId, targets), results.get(map1xref1));
+        assertTrue(results.get(map2xref2).contains(map2xref3));
+        assertFalse(results.get(map2xref2).contains(map1xref2));
+    }
+
+    /**
+     * Test of mapUri method with several sources, of class UriMapper.
+     */
+    @Test
+    public void testMapUri_sourceUris_lensId_tgtUriPatterns() throws Exception {
+        report("MapUri_sourceUris_lensId_tgtUriPatterns");
+        List<String> sourceUris = new ArrayList<String>();
+        sourceUris.add(map3Uri3);
+        sourceUris.add(map1Uri1);
+        sourceUris.add(mapBadUri1);
+        String lensId = Lens.DEFAULT_LENS_NAME;
+        Set<String> targets = new HashSet<String>();
+        targets.add(stringPattern2);
+        targets.add(stringPattern3);
+        Map<String, Set<String>> results = uriMapper.mapUri(sourceUris, lensId, NULL_GRAPH, targets);
+        assertEquals(uriMapper.mapUri(map3Uri3, lensId, NULL_GRAPH, targets), results.get(map3Uri3));
+        assertEquals(uriMapper.mapUri(map1Uri1, lensId, NULL_GRAPH, targets), results.get(map1Uri1));
+        assertTrue(results.get(map3Uri3).contains(map3Uri2));
+        assertFalse(results.get(map3Uri3).contains(map1Uri3));
+        assertTrue(results.get(map1Uri1).contains(map1Uri3));
+        assertFalse(results.containsKey(mapBadUri1));
+    }
+
     /**
      * Test of mapUri method, of class UriMapper.
      */
@@ -0,0 +1,65 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.uri.tools;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    @Test
+    public void testSmallSetsExact() {
+        HyperLogLog sketch = new HyperLogLog();
+        assertEquals(0, sketch.estimate());
+        for (int i = 0; i < HyperLogLog.SPARSE_LIMIT; i++){
+            sketch.add("id" + i);
+            sketch.add("id" + i);
+        }
+        assertEquals(HyperLogLog.SPARSE_LIMIT, sketch.estimate());
+    }
+
+    @Test
+    public void testLargeSetsWithinError() {
+        int[] sizes = {5000, 50000, 1000000};
+        for (int size:sizes){
+            HyperLogLog sketch = new HyperLogLog();
+            for (int i = 0; i < size; i++){
+                sketch.add("http://example.com/" + i);
+            }
+            //Repeats must not change the estimate.
+            for (int i = 0; i < size; i += 7){
+                sketch.add("http://example.com/" + i);
+            }
+            double error = Math.abs(sketch.estimate() - size) / (double)size;
+            assertTrue("Error " + error + " for " + size, error < 0.03);
+        }
+    }
+
+    @Test
+    public void testLinkStatistics() {
+        LinkStatistics statistics = new LinkStatistics();
+        statistics.add("a", "x");
+        statistics.add("a", "y");
+        statistics.add("b", "y");
+        assertEquals(3, statistics.getLinks());
+        assertEquals(2, statistics.getSources());
+        assertEquals(2, statistics.getTargets());
+    }
+}
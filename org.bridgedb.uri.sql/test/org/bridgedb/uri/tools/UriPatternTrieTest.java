@@ -0,0 +1,108 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.uri.tools;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import org.bridgedb.pairs.IdSysCodePair;
+import org.bridgedb.rdf.DataSourceMetaDataProvidor;
+import org.bridgedb.utils.BridgeDBException;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class UriPatternTrieTest {
+
+    private static final String BIO_CODE = "UriPatternTrieTest_Bio";
+    private static final String RDF_CODE = "UriPatternTrieTest_Rdf";
+    private static final String OTHER_CODE = "UriPatternTrieTest_Other";
+
+    @BeforeClass
+    public static void setUpClass() throws BridgeDBException {
+        DataSourceMetaDataProvidor.setProvidor(BIO_CODE, DataSourceMetaDataProvidor.BIO);
+        DataSourceMetaDataProvidor.setProvidor(RDF_CODE, DataSourceMetaDataProvidor.RDF);
+        DataSourceMetaDataProvidor.setProvidor(OTHER_CODE, DataSourceMetaDataProvidor.BIO);
+    }
+
+    @Test
+    public void testLongestPrefix() throws BridgeDBException {
+        UriPatternTrie trie = new UriPatternTrie();
+        trie.add(RegexUriPattern.factory("http://example.com/", "", OTHER_CODE));
+        trie.add(RegexUriPattern.factory("http://example.com/gene/", "", BIO_CODE));
+        assertEquals(new IdSysCodePair("123", BIO_CODE), trie.toIdSysCodePair("http://example.com/gene/123"));
+        assertEquals(new IdSysCodePair("protein/123", OTHER_CODE), trie.toIdSysCodePair("http://example.com/protein/123"));
+        assertNull(trie.toIdSysCodePair("http://example.org/gene/123"));
+        assertNull(trie.toIdSysCodePair(""));
+        assertNull(trie.toIdSysCodePair(null));
+        assertEquals(2, trie.size());
+    }
+
+    @Test
+    public void testRegexFallsBackToShorterPrefix() throws BridgeDBException {
+        UriPatternTrie trie = new UriPatternTrie();
+        trie.add(RegexUriPattern.factory("http://example.com/", "", OTHER_CODE));
+        trie.add(RegexUriPattern.factory("http://example.com/gene/", "", BIO_CODE, Pattern.compile("\\d+")));
+        assertEquals(new IdSysCodePair("123", BIO_CODE), trie.toIdSysCodePair("http://example.com/gene/123"));
+        assertEquals(new IdSysCodePair("gene/abc", OTHER_CODE), trie.toIdSysCodePair("http://example.com/gene/abc"));
+    }
+
+    @Test
+    public void testLongestPostfix() throws BridgeDBException {
+        UriPatternTrie trie = new UriPatternTrie();
+        trie.add(RegexUriPattern.factory("http://example.com/", ".html", OTHER_CODE));
+        trie.add(RegexUriPattern.factory("http://example.com/", "", BIO_CODE));
+        assertEquals(new IdSysCodePair("123", OTHER_CODE), trie.toIdSysCodePair("http://example.com/123.html"));
+        assertEquals(new IdSysCodePair("123", BIO_CODE), trie.toIdSysCodePair("http://example.com/123"));
+    }
+
+    @Test
+    public void testProvidorOrder() throws BridgeDBException {
+        UriPatternTrie trie = new UriPatternTrie();
+        trie.add(RegexUriPattern.factory("http://example.com/", "", RDF_CODE));
+        trie.add(RegexUriPattern.factory("http://example.com/", "", BIO_CODE));
+        assertEquals(new IdSysCodePair("123", BIO_CODE), trie.toIdSysCodePair("http://example.com/123"));
+        trie = new UriPatternTrie();
+        trie.add(RegexUriPattern.factory("http://example.com/", "", BIO_CODE));
+        trie.add(RegexUriPattern.factory("http://example.com/", "", RDF_CODE));
+        assertEquals(new IdSysCodePair("123", BIO_CODE), trie.toIdSysCodePair("http://example.com/123"));
+    }
+
+    @Test
+    public void testCandidates() throws BridgeDBException {
+        UriPatternTrie trie = new UriPatternTrie();
+        RegexUriPattern shortPrefix = RegexUriPattern.factory("http://example.com/", "", OTHER_CODE);
+        RegexUriPattern longPrefix = RegexUriPattern.factory("http://example.com/gene/", "", BIO_CODE);
+        RegexUriPattern withPostfix = RegexUriPattern.factory("http://example.com/gene/", ".html", RDF_CODE);
+        trie.add(shortPrefix);
+        trie.add(longPrefix);
+        trie.add(withPostfix);
+        trie.add(longPrefix);
+        assertEquals(3, trie.size());
+        List<RegexUriPattern> candidates = trie.getCandidates("http://example.com/gene/1");
+        assertEquals(2, candidates.size());
+        assertEquals(longPrefix, candidates.get(0));
+        assertEquals(shortPrefix, candidates.get(1));
+        assertEquals(3, trie.getCandidates("http://example.com/gene/1.html").size());
+        //prefix and postfix may not overlap
+        assertEquals(1, trie.getCandidates("http://example.com/gene.html").size());
+        trie.clear();
+        assertTrue(trie.getCandidates("http://example.com/gene/1").isEmpty());
+    }
+}
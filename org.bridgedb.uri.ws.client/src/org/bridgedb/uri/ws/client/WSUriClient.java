@@ -22,6 +22,7 @@ package org.bridgedb.uri.ws.client;
 import com.sun.jersey.api.client.GenericType;
 import com.sun.jersey.api.client.UniformInterfaceException;
 import com.sun.jersey.core.util.MultivaluedMapImpl;
+import java.util.Collection;
 import java.util.List;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
@@ -59,6 +60,11 @@ public class WSUriClient extends WSCoreClient implements WSUriInterface{
     public final String NO_REPORT = null;
     public final String NO_EXCEPTION = null;
     
+    /**
+     * Most uris mapBySet puts in the url before switching to mapBySetPost.
+     */
+    static final int MAX_GET_URIS = 100;
+    
     public WSUriClient(String serviceAddress) throws BridgeDBException {
         super(serviceAddress);
     }
@@ -115,6 +121,9 @@ public class WSUriClient extends WSCoreClient implements WSUriInterface{
 
     @Override
     public Response mapBySet(List<String> uris, String lensUri, String graph, List<String> targetUriPattern) throws BridgeDBException {
+        if (uris.size() > MAX_GET_URIS){
+            return mapBySetPost(uris, lensUri, graph, targetUriPattern);
+        }
         MultivaluedMap<String, String> params = new MultivaluedMapImpl();
         for (String uri:uris){
             if (uri != null){
@@ -144,6 +153,46 @@ public class WSUriClient extends WSCoreClient implements WSUriInterface{
         }
     }
 
+    /**
+     * Maps the uris as mapBySet does but posts them in the body, so there is no limit from the length of the url.
+     * 
+     * The server maps the uris in chunks so the same mapping set may be in the result more than once.
+     * 
+     * @return A MappingsBySetBean wrapped in a Response
+     * @throws BridgeDBException 
+     */
+    public Response mapBySetPost(Collection<String> uris, String lensUri, String graph, List<String> targetUriPattern) throws BridgeDBException {
+        StringBuilder body = new StringBuilder();
+        for (String uri:uris){
+            if (uri != null){
+                body.append(uri).append('\n');
+            }
+        }
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl();
+        if (lensUri != null){
+            params.add(WsUriConstants.LENS_URI, lensUri);        
+        }
+        if (graph != null){
+            params.add(WsUriConstants.GRAPH, graph); 
+        }
+        if (targetUriPattern != null){
+            for (String target:targetUriPattern){
+                params.add(WsUriConstants.TARGET_URI_PATTERN, target);
+            }
+        }
+        try {
+            MappingsBySetBean result = 
+                webResource.path(WsUriConstants.MAP_BY_SET)
+                .queryParams(params)
+                .type(MediaType.TEXT_PLAIN_TYPE)
+                .accept(MediaType.APPLICATION_XML_TYPE)
+                .post(new GenericType<MappingsBySetBean>() {}, body.toString());
+            return Response.ok(result, MediaType.APPLICATION_XML_TYPE).build();
+        } catch (UniformInterfaceException ex){
+            return Response.noContent().build();
+        }
+    }
+
 
     @Override
     public Response UriExists(String uri) throws BridgeDBException {
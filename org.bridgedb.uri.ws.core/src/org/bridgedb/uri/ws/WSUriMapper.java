@@ -21,9 +21,11 @@ package org.bridgedb.uri.ws;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import javax.ws.rs.core.Response;
 import org.bridgedb.DataSource;
@@ -109,6 +111,54 @@ public class WSUriMapper extends WSCoreMapper implements UriMapper{
         return extractUris(beans);
     }
 
+    @Override
+    public Map<Xref, Set<Xref>> mapID(Collection<Xref> sourceXrefs, String lensUri, 
+            Collection<DataSource> tgtDataSources) throws BridgeDBException {
+        //The service has no call for several Xrefs so these are mapped one at a time.
+        Map<Xref, Set<Xref>> results = new HashMap<Xref, Set<Xref>>();
+        if (sourceXrefs == null){
+            return results;
+        }
+        for (Xref sourceXref:sourceXrefs){
+            Set<Xref> targets = mapID(sourceXref, lensUri, tgtDataSources);
+            if (!targets.isEmpty()){
+                results.put(sourceXref, targets);
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Set<String>> mapUri(Collection<String> sourceUris, String lensUri, String graph, 
+            Collection<String> tgtUriPatterns) throws BridgeDBException {
+        Map<String, Set<String>> results = new HashMap<String, Set<String>>();
+        if (sourceUris == null || sourceUris.isEmpty()){
+            return results;
+        }
+        List<String> targetUriPatterns = toList(tgtUriPatterns);
+        Response response = uriService.mapBySet(toList(sourceUris), lensUri, graph, targetUriPatterns);
+        if (response.getStatus() == Response.Status.NO_CONTENT.getStatusCode()){
+            return results;
+        } 
+        MappingsBySetBean bean = (MappingsBySetBean)response.getEntity();
+        addUriMappings(results, bean.getMapping());
+        for (SetMappingBean setMapping:bean.getMappingSet()){
+            addUriMappings(results, setMapping.getMapping());
+        }
+        return results;
+    }
+
+    private void addUriMappings(Map<String, Set<String>> results, Collection<UriMappingBean> beans){
+        for (UriMappingBean bean:beans){
+            Set<String> targets = results.get(bean.getSourceUri());
+            if (targets == null){
+                targets = new HashSet<String>();
+                results.put(bean.getSourceUri(), targets);
+            }
+            targets.add(bean.getTargetUri());
+        }
+    }
+
     @Override
     public MappingsBySet mapBySet(Collection<String> sourceUris, String lensUri, String graph, Collection<String> tgtUriPatterns) throws BridgeDBException {
         Set<Mapping> mappings = new HashSet<Mapping>();
@@ -49,6 +49,7 @@ public class WsUriConstants extends WsConstants{
     public static final String RDF = UriConstants.RDF;
     public static final String RDF_FORMAT = "rdfFormat";
     public static final String SQL_COMPAT_VERSION = "SqlCompatVersion";
+    public static final String STREAM = "stream";
     public static final String TARGET_URI_PATTERN = "targetUriPattern";
 
     public static final String TO_XREF = "toXref";
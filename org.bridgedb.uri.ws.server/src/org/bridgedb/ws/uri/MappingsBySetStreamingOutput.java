@@ -0,0 +1,207 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.ws.uri;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import org.apache.log4j.Logger;
+import org.bridgedb.uri.api.MappingsBySet;
+import org.bridgedb.uri.api.SetMappings;
+import org.bridgedb.uri.api.UriMapper;
+import org.bridgedb.uri.api.UriMapping;
+import org.bridgedb.uri.ws.bean.SetMappingBean;
+import org.bridgedb.uri.ws.bean.UriMappingBean;
+import org.bridgedb.utils.BridgeDBException;
+import org.codehaus.jettison.json.JSONObject;
+import org.codehaus.jettison.mapped.Configuration;
+import org.codehaus.jettison.mapped.MappedNamespaceConvention;
+
+/**
+ * Writes the mappings of many source uris as a MappingsBySetBean would be written,
+ * mapping CHUNK_SIZE uris at a time with the bulk mapBySet 
+ * and writing the sets of each chunk before the next is mapped.
+ * <p>
+ * The first chunk is passed in already mapped,
+ * so the caller can decide on no content before the response starts.
+ * As each chunk is grouped on its own the same mapping set can appear more than once.
+ * Mappings without a set are held back until the end as they come after the sets.
+ * <p>
+ * Json uses the same mapped convention as the default provider,
+ * except that "mappingSet" and "mapping" are always arrays.
+ *
+ * @author Christian
+ */
+public class MappingsBySetStreamingOutput implements StreamingOutput {
+
+    static final Logger logger = Logger.getLogger(MappingsBySetStreamingOutput.class);
+    
+    /**
+     * Number of source uris passed to each mapBySet call.
+     */
+    static final int CHUNK_SIZE = 1000;
+    
+    private static final QName MAPPING_SET = new QName("mappingSet");
+    private static final QName MAPPING = new QName("mapping");
+    private static JAXBContext context = null;
+
+    private final MappingsBySet firstResults;
+    private final UriMapper uriMapper;
+    private final List<String> otherUris;
+    private final String lensUri;
+    private final String graph;
+    private final List<String> targetUriPatterns;
+    private final boolean json;
+    private final List<UriMapping> unsetMappings = new ArrayList<UriMapping>();
+    private boolean firstSet = true;
+
+    /**
+     * @param firstResults Result of mapping the first chunk of uris
+     * @param otherUris Source uris still to be mapped
+     * @param json True to write json, false for xml
+     */
+    public MappingsBySetStreamingOutput(MappingsBySet firstResults, UriMapper uriMapper, List<String> otherUris,
+            String lensUri, String graph, List<String> targetUriPatterns, boolean json){
+        this.firstResults = firstResults;
+        this.uriMapper = uriMapper;
+        this.otherUris = otherUris;
+        this.lensUri = lensUri;
+        this.graph = graph;
+        this.targetUriPatterns = targetUriPatterns;
+        this.json = json;
+    }
+
+    private static synchronized JAXBContext getContext() throws JAXBException{
+        if (context == null){
+            context = JAXBContext.newInstance(SetMappingBean.class, UriMappingBean.class);
+        }
+        return context;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        try {
+            Marshaller marshaller = getContext().createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            Writer writer = new OutputStreamWriter(output, "UTF-8");
+            MappedNamespaceConvention convention = new MappedNamespaceConvention(new Configuration());
+            writeStart(writer);
+            writeSets(writer, marshaller, convention, firstResults);
+            for (int start = 0; start < otherUris.size(); start+= CHUNK_SIZE){
+                List<String> chunk = otherUris.subList(start, Math.min(start + CHUNK_SIZE, otherUris.size()));
+                MappingsBySet mappingsBySet;
+                try {
+                    mappingsBySet = uriMapper.mapBySet(chunk, lensUri, graph, targetUriPatterns);
+                } catch (BridgeDBException ex) {
+                    //The status has already been sent so all that can be done is to stop the response.
+                    logger.error("Error mapping uris " + start + " to " + (start + chunk.size()) + " while streaming", ex);
+                    throw new WebApplicationException(ex);
+                }
+                writeSets(writer, marshaller, convention, mappingsBySet);
+            }
+            writeEnd(writer, marshaller, convention);
+            writer.flush();
+        } catch (JAXBException ex) {
+            throw new WebApplicationException(ex);
+        } catch (XMLStreamException ex) {
+            throw new WebApplicationException(ex);
+        }
+    }
+
+    private void writeStart(Writer writer) throws IOException{
+        String lens = firstResults.getLens();
+        if (json){
+            writer.write("{\"MappingBySet\":{");
+            if (lens != null){
+                writer.write("\"lens\":");
+                writer.write(JSONObject.quote(lens));
+                writer.write(",");
+            }
+            writer.write("\"mappingSet\":[");
+        } else {
+            writer.write(MappingsStreamingOutput.XML_HEADER);
+            writer.write("<MappingBySet>");
+            if (lens != null){
+                writer.write("<lens>");
+                writer.write(UriMappingsStreamingOutput.escapeXml(lens));
+                writer.write("</lens>");
+            }
+        }
+    }
+    
+    private void writeSets(Writer writer, Marshaller marshaller, MappedNamespaceConvention convention, 
+            MappingsBySet mappingsBySet) throws IOException, JAXBException, XMLStreamException{
+        for (SetMappings setMappings:mappingsBySet.getSetMappings()){
+            JAXBElement<SetMappingBean> element = new JAXBElement<SetMappingBean>(
+                    MAPPING_SET, SetMappingBean.class, new SetMappingBean(setMappings));
+            if (json){
+                if (firstSet){
+                    firstSet = false;
+                } else {
+                    writer.write(",");
+                }
+                MappingsStreamingOutput.writeJsonBean(writer, marshaller, convention, element, MAPPING_SET.getLocalPart());
+            } else {
+                marshaller.marshal(element, writer);
+            }
+        }
+        unsetMappings.addAll(mappingsBySet.getMappings());
+        writer.flush();
+    }
+    
+    private void writeEnd(Writer writer, Marshaller marshaller, MappedNamespaceConvention convention) 
+            throws IOException, JAXBException, XMLStreamException{
+        if (json){
+            writer.write("],\"mapping\":[");
+        }
+        boolean first = true;
+        for (UriMapping uriMapping:unsetMappings){
+            JAXBElement<UriMappingBean> element = new JAXBElement<UriMappingBean>(
+                    MAPPING, UriMappingBean.class, new UriMappingBean(uriMapping));
+            if (json){
+                if (first){
+                    first = false;
+                } else {
+                    writer.write(",");
+                }
+                MappingsStreamingOutput.writeJsonBean(writer, marshaller, convention, element, MAPPING.getLocalPart());
+            } else {
+                marshaller.marshal(element, writer);
+            }
+        }
+        if (json){
+            writer.write("]}}");
+        } else {
+            writer.write("</MappingBySet>");
+        }
+    }
+
+}
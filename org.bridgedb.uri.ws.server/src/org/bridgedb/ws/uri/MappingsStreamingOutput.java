@@ -0,0 +1,144 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.ws.uri;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Collection;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import org.bridgedb.uri.api.Mapping;
+import org.bridgedb.uri.ws.bean.MappingBean;
+import org.codehaus.jettison.mapped.Configuration;
+import org.codehaus.jettison.mapped.MappedNamespaceConvention;
+import org.codehaus.jettison.mapped.MappedXMLStreamWriter;
+
+/**
+ * Writes mappings as a MappingsBean would be written, but one MappingBean at a time,
+ * so the bean for the whole result and the serialised document are never held in memory.
+ * <p>
+ * Xml is identical to the MappingsBean output.
+ * Json uses the same mapped convention as the default provider,
+ * except that "mapping" is always an array even if there is only one.
+ *
+ * @author Christian
+ */
+public class MappingsStreamingOutput implements StreamingOutput {
+
+    static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>";
+    private static JAXBContext context = null;
+
+    private final Collection<Mapping> mappings;
+    private final boolean json;
+
+    /**
+     * @param mappings Mappings to write.
+     * @param json True to write json, false for xml
+     */
+    public MappingsStreamingOutput(Collection<Mapping> mappings, boolean json){
+        this.mappings = mappings;
+        this.json = json;
+    }
+
+    private static synchronized JAXBContext getContext() throws JAXBException{
+        if (context == null){
+            context = JAXBContext.newInstance(MappingBean.class);
+        }
+        return context;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        try {
+            Marshaller marshaller = getContext().createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            if (json){
+                writeJson(output, marshaller);
+            } else {
+                writeXml(output, marshaller);
+            }
+        } catch (JAXBException ex) {
+            throw new WebApplicationException(ex);
+        } catch (XMLStreamException ex) {
+            throw new WebApplicationException(ex);
+        }
+    }
+
+    private void writeXml(OutputStream output, Marshaller marshaller) throws IOException, JAXBException {
+        Writer writer = new OutputStreamWriter(output, "UTF-8");
+        writer.write(XML_HEADER);
+        writer.write("<mappings>");
+        for (Mapping mapping:mappings){
+            marshaller.marshal(MappingBean.asBean(mapping), writer);
+            writer.flush();
+        }
+        writer.write("</mappings>");
+        writer.flush();
+    }
+
+    private void writeJson(OutputStream output, Marshaller marshaller)
+            throws IOException, JAXBException, XMLStreamException {
+        Writer writer = new OutputStreamWriter(output, "UTF-8");
+        MappedNamespaceConvention convention = new MappedNamespaceConvention(new Configuration());
+        writer.write("{\"mappings\":{\"mapping\":[");
+        boolean first = true;
+        for (Mapping mapping:mappings){
+            if (first){
+                first = false;
+            } else {
+                writer.write(",");
+            }
+            writeJsonBean(writer, marshaller, convention, MappingBean.asBean(mapping), "mapping");
+            writer.flush();
+        }
+        writer.write("]}}");
+        writer.flush();
+    }
+
+    /**
+     * Writes the json of a single bean without the name of its root element,
+     * ready to be put in an array.
+     * 
+     * @param bean A bean or JAXBElement whose root element is called name
+     */
+    static void writeJsonBean(Writer writer, Marshaller marshaller, MappedNamespaceConvention convention, 
+            Object bean, String name) throws IOException, JAXBException, XMLStreamException {
+        //Jettison only writes once the document ends so each bean is its own small document
+        StringWriter beanWriter = new StringWriter();
+        XMLStreamWriter xmlStreamWriter = new MappedXMLStreamWriter(convention, beanWriter);
+        xmlStreamWriter.writeStartDocument();
+        marshaller.marshal(bean, xmlStreamWriter);
+        xmlStreamWriter.writeEndDocument();
+        xmlStreamWriter.close();
+        String json = beanWriter.toString();
+        //Strip {"name": ... } 
+        int start = name.length() + 4;
+        writer.write(json, start, json.length() - start - 1);
+    }
+
+}
@@ -0,0 +1,137 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.ws.uri;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import org.apache.log4j.Logger;
+import org.bridgedb.uri.api.UriMapper;
+import org.bridgedb.utils.BridgeDBException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Writes the target uris of several source uris as a UriMappings bean would be written,
+ * mapping each source uri only when the previous ones have been written.
+ * <p>
+ * The first results are passed in already mapped,
+ * so the caller can decide on no content before the response starts.
+ * <p>
+ * Json uses the same mapped convention as the default provider,
+ * except that "targetUri" is always an array even if there is only one.
+ *
+ * @author Christian
+ */
+public class UriMappingsStreamingOutput implements StreamingOutput {
+
+    static final Logger logger = Logger.getLogger(UriMappingsStreamingOutput.class);
+
+    private final Collection<String> firstResults;
+    private final UriMapper uriMapper;
+    private final List<String> otherUris;
+    private final String lensUri;
+    private final String graph;
+    private final Collection<String> targetUriPatterns;
+    private final boolean json;
+
+    /**
+     * @param firstResults Target uris already found
+     * @param otherUris Source uris still to be mapped
+     * @param json True to write json, false for xml
+     */
+    public UriMappingsStreamingOutput(Collection<String> firstResults, UriMapper uriMapper, List<String> otherUris,
+            String lensUri, String graph, Collection<String> targetUriPatterns, boolean json){
+        this.firstResults = firstResults;
+        this.uriMapper = uriMapper;
+        this.otherUris = otherUris;
+        this.lensUri = lensUri;
+        this.graph = graph;
+        this.targetUriPatterns = targetUriPatterns;
+        this.json = json;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException, WebApplicationException {
+        Writer writer = new OutputStreamWriter(output, "UTF-8");
+        if (json){
+            writer.write("{\"Mapping\":{\"targetUri\":[");
+        } else {
+            writer.write(MappingsStreamingOutput.XML_HEADER);
+            writer.write("<Mapping>");
+        }
+        //Different source uris can map to the same target which is only written once.
+        Set<String> written = new HashSet<String>();
+        writeTargets(writer, firstResults, written);
+        for (String uri:otherUris){
+            try {
+                writeTargets(writer, uriMapper.mapUri(uri, lensUri, graph, targetUriPatterns), written);
+            } catch (BridgeDBException ex) {
+                //The status has already been sent so all that can be done is to stop the response.
+                logger.error("Error mapping " + uri + " while streaming", ex);
+                throw new WebApplicationException(ex);
+            }
+        }
+        if (json){
+            writer.write("]}}");
+        } else {
+            writer.write("</Mapping>");
+        }
+        writer.flush();
+    }
+
+    private void writeTargets(Writer writer, Collection<String> targets, Set<String> written) throws IOException {
+        for (String target:targets){
+            if (written.add(target)){
+                if (json){
+                    if (written.size() > 1){
+                        writer.write(",");
+                    }
+                    writer.write(JSONObject.quote(target));
+                } else {
+                    writer.write("<targetUri>");
+                    writer.write(escapeXml(target));
+                    writer.write("</targetUri>");
+                }
+            }
+        }
+        writer.flush();
+    }
+
+    static String escapeXml(String text){
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            switch (c){
+                case '&': result.append("&amp;"); break;
+                case '<': result.append("&lt;"); break;
+                case '>': result.append("&gt;"); break;
+                default: result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -19,7 +19,10 @@
 //
 package org.bridgedb.ws.uri;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
@@ -27,9 +30,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
@@ -37,9 +42,12 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
 import org.apache.log4j.Logger;
 import org.apache.velocity.VelocityContext;
 import org.bridgedb.DataSource;
@@ -75,6 +83,9 @@ import org.bridgedb.ws.WSCoreService;
 import org.bridgedb.ws.WsConstants;
 import org.bridgedb.ws.bean.XrefBean;
 import org.bridgedb.ws.templates.WebTemplates;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
 
 @Path("/")
 public class WSUriInterfaceService extends WSCoreService implements WSUriInterface {
@@ -90,7 +101,25 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
     public final String NO_RESULT = null;
     
     protected final NumberFormat formatter;
+    
+    @Context
+    private UriInfo uriInfo;
+    @Context
+    private HttpHeaders httpHeaders;
     static final Logger logger = Logger.getLogger(WSUriInterfaceService.class);
+    
+    /**
+     * Most uris that can be posted to mapBySet in a single request.
+     */
+    static final int MAX_POSTED_URIS = 500000;
+    
+    /**
+     * Most characters of json that can be posted to mapBySet, as json has to be held in memory to be parsed.
+     */
+    static final int MAX_POSTED_JSON_LENGTH = 50000000;
+    
+    //Not in the JAX-RS 1.1 Response.Status enum
+    private static final int REQUEST_ENTITY_TOO_LARGE = 413;
 
     public WSUriInterfaceService(UriMapper uriMapper) throws BridgeDBException {
         super(uriMapper);
@@ -110,7 +139,7 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
     }
         
 
-    private MappingsBean mapFull(String id, String scrCode, String uri, String lensUri, 
+    private Set<Mapping> mapFull(String id, String scrCode, String uri, String lensUri, 
             Boolean includeXrefResults, Boolean includeUriResults,
             List<String> targetCodes, String graph, List<String> targetUriPatterns) throws BridgeDBException {
         if (logger.isDebugEnabled()){
@@ -170,13 +199,16 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
             @QueryParam(WsConstants.TARGET_DATASOURCE_SYSTEM_CODE) List<String> targetCodes,
             @QueryParam(WsUriConstants.GRAPH) String graph,
             @QueryParam(WsUriConstants.TARGET_URI_PATTERN) List<String> targetUriPatterns) throws BridgeDBException {
-        MappingsBean result = mapFull(id, scrCode, uri, lensUri, 
+        Set<Mapping> mappings = mapFull(id, scrCode, uri, lensUri, 
                 includeXrefResults, includeUriResults, 
                 targetCodes, graph, targetUriPatterns);
-        if (noContentOnEmpty & result.asMappings().isEmpty()){
+        if (noContentOnEmpty & mappings.isEmpty()){
             return Response.status(Response.Status.NO_CONTENT).build();
         } 
-        return Response.ok(result, MediaType.APPLICATION_XML_TYPE).build();
+        if (isStreamingRequested()){
+            return Response.ok(new MappingsStreamingOutput(mappings, false), MediaType.APPLICATION_XML_TYPE).build();
+        }
+        return Response.ok(new MappingsBean(mappings), MediaType.APPLICATION_XML_TYPE).build();
     }
     
     @GET
@@ -192,13 +224,16 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
             @QueryParam(WsConstants.TARGET_DATASOURCE_SYSTEM_CODE) List<String> targetCodes,
             @QueryParam(WsUriConstants.GRAPH) String graph,
             @QueryParam(WsUriConstants.TARGET_URI_PATTERN) List<String> targetUriPatterns) throws BridgeDBException {
-        MappingsBean result = mapFull(id, scrCode, uri, lensUri, 
+        Set<Mapping> mappings = mapFull(id, scrCode, uri, lensUri, 
                  includeXrefResults, includeUriResults, 
                 targetCodes, graph, targetUriPatterns);
-        if (noContentOnEmpty & result.asMappings().isEmpty()){
+        if (noContentOnEmpty & mappings.isEmpty()){
             return Response.noContent().build();
         } 
-        return Response.ok(result, MediaType.APPLICATION_JSON_TYPE).build();
+        if (isStreamingRequested()){
+            return Response.ok(new MappingsStreamingOutput(mappings, true), MediaType.APPLICATION_JSON_TYPE).build();
+        }
+        return Response.ok(new MappingsBean(mappings), MediaType.APPLICATION_JSON_TYPE).build();
     }
  
     @GET
@@ -215,9 +250,9 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
             @QueryParam(WsUriConstants.GRAPH) String graph,
             @QueryParam(WsUriConstants.TARGET_URI_PATTERN) List<String> targetUriPatterns,
             @Context HttpServletRequest httpServletRequest) throws BridgeDBException {
-        MappingsBean result = mapFull (id, scrCode, uri, lensUri, 
+        MappingsBean result = new MappingsBean(mapFull (id, scrCode, uri, lensUri, 
                 includeXrefResults, includeUriResults, 
-                targetCodes, graph, targetUriPatterns);
+                targetCodes, graph, targetUriPatterns));
         if (noContentOnEmpty & result.asMappings().isEmpty()){
             return noContentWrapper(httpServletRequest);
         } 
@@ -241,6 +276,53 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
        return UriMappings.asBean(results);
     }
 
+    /**
+     * Maps the uris as mapUriInner does but writes the targets of each uri as soon as they are found.
+     * 
+     * Uris are only mapped up to the first that has results before the response is started,
+     * which is enough to decide on no content.
+     */
+    private Response mapUriStreamed(List<String> uris, String lensUri, String graph, List<String> targetUriPatterns,
+            boolean json) throws BridgeDBException {
+        Set<String> firstResults = Collections.emptySet();
+        int next = 0;
+        while (firstResults.isEmpty() && next < uris.size()){
+            firstResults = uriMapper.mapUri(uris.get(next), lensUri, graph, targetUriPatterns);
+            next++;
+        }
+        if (noContentOnEmpty & firstResults.isEmpty()){
+            return Response.noContent().build();
+        } 
+        UriMappingsStreamingOutput output = new UriMappingsStreamingOutput(firstResults, uriMapper, 
+                uris.subList(next, uris.size()), lensUri, graph, targetUriPatterns, json);
+        return Response.ok(output, json ? MediaType.APPLICATION_JSON_TYPE : MediaType.APPLICATION_XML_TYPE).build();
+    }
+    
+    /**
+     * Checks if the client asked for a streamed response, 
+     * either with a stream=true query parameter or an Accept header such as application/json;stream=true
+     * 
+     * Streamed responses are written as the mappings are converted
+     * rather than first building the bean for the whole result.
+     */
+    private boolean isStreamingRequested(){
+        //Only injected when running in a container
+        if (uriInfo != null){
+            String stream = uriInfo.getQueryParameters().getFirst(WsUriConstants.STREAM);
+            if (stream != null){
+                return Boolean.parseBoolean(stream);
+            }
+        }
+        if (httpHeaders != null){
+            for (MediaType type:httpHeaders.getAcceptableMediaTypes()){
+                if (Boolean.parseBoolean(type.getParameters().get(WsUriConstants.STREAM))){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private MappingsBySysCodeId mapUriBySysCodeId(List<String> uris, String lensUri, String graph, List<String> targetUriPatterns) 
             throws BridgeDBException {
        if (logger.isDebugEnabled()){
@@ -264,6 +346,9 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
      		@QueryParam(WsUriConstants.LENS_URI) String lensUri,
             @QueryParam(WsUriConstants.GRAPH) String graph,
             @QueryParam(WsUriConstants.TARGET_URI_PATTERN) List<String> targetUriPatterns) throws BridgeDBException {
+        if (isStreamingRequested()){
+            return mapUriStreamed(uris, lensUri, graph, targetUriPatterns, false);
+        }
         UriMappings result = mapUriInner(uris, lensUri, graph, targetUriPatterns);
         if (noContentOnEmpty & result.isEmpty()){
             return Response.noContent().build();
@@ -279,6 +364,9 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
      		@QueryParam(WsUriConstants.LENS_URI) String lensUri,
             @QueryParam(WsUriConstants.GRAPH) String graph,
             @QueryParam(WsUriConstants.TARGET_URI_PATTERN) List<String> targetUriPatterns) throws BridgeDBException {
+        if (isStreamingRequested()){
+            return mapUriStreamed(uris, lensUri, graph, targetUriPatterns, true);
+        }
         UriMappings result = mapUriInner(uris, lensUri, graph, targetUriPatterns);
         if (noContentOnEmpty & result.isEmpty()){
             return Response.noContent().build();
@@ -404,6 +492,147 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
         return Response.ok(result, MediaType.APPLICATION_JSON_TYPE).build();
     }
 
+    /**
+     * Maps the uris posted in the body, for batches too large to fit in a url.
+     * 
+     * The body is either one uri per line or a json array of uris,
+     * which may be wrapped in an object as {"Uri":[...]}.
+     * The other parameters stay in the query.
+     * 
+     * The uris are mapped in chunks using the bulk mapBySet and each chunk is written as soon as it is mapped.
+     */
+    @POST
+    @Consumes({MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_XML})
+    @Path("/" + WsUriConstants.MAP_BY_SET)
+    public Response mapBySetPost(InputStream body,
+     		@QueryParam(WsUriConstants.LENS_URI) String lensUri,
+            @QueryParam(WsUriConstants.GRAPH) String graph,
+            @QueryParam(WsUriConstants.TARGET_URI_PATTERN) List<String> targetUriPatterns) throws BridgeDBException {
+        return mapBySetStreamed(readPostedUris(body), lensUri, graph, targetUriPatterns, false);
+    }
+
+    @POST
+    @Consumes({MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON})
+    @Path("/" + WsUriConstants.MAP_BY_SET)
+    public Response mapBySetPostJson(InputStream body,
+     		@QueryParam(WsUriConstants.LENS_URI) String lensUri,
+            @QueryParam(WsUriConstants.GRAPH) String graph,
+            @QueryParam(WsUriConstants.TARGET_URI_PATTERN) List<String> targetUriPatterns) throws BridgeDBException {
+        return mapBySetStreamed(readPostedUris(body), lensUri, graph, targetUriPatterns, true);
+    }
+
+    private Response mapBySetStreamed(List<String> uris, String lensUri, String graph, List<String> targetUriPatterns,
+            boolean json) throws BridgeDBException {
+        //Map chunks up to the first with results, which is enough to decide on no content.
+        MappingsBySet firstResults = null;
+        int next = 0;
+        do {
+            int end = Math.min(next + MappingsBySetStreamingOutput.CHUNK_SIZE, uris.size());
+            firstResults = uriMapper.mapBySet(uris.subList(next, end), lensUri, graph, targetUriPatterns);
+            next = end;
+        } while (firstResults.isEmpty() && next < uris.size());
+        if (noContentOnEmpty & firstResults.isEmpty()){
+            return Response.noContent().build();
+        } 
+        MappingsBySetStreamingOutput output = new MappingsBySetStreamingOutput(firstResults, uriMapper, 
+                uris.subList(next, uris.size()), lensUri, graph, targetUriPatterns, json);
+        return Response.ok(output, json ? MediaType.APPLICATION_JSON_TYPE : MediaType.APPLICATION_XML_TYPE).build();
+    }
+    
+    /**
+     * Reads the uris from a posted body, dropping blank lines and repeats but keeping the order.
+     * 
+     * Lines are added as they are read so reading stops as soon as there are too many uris.
+     * Only json is held in memory to be parsed, up to MAX_POSTED_JSON_LENGTH characters.
+     * 
+     * Errors in the body are the client's so are thrown as a WebApplicationException 
+     * with status 413 if the body is too large and 400 if it is empty or not valid json.
+     */
+    public static List<String> readPostedUris(InputStream body) throws BridgeDBException {
+        if (body == null) {
+            throw postedError(Response.Status.BAD_REQUEST.getStatusCode(), "No " + WsUriConstants.URI + "s posted.");
+        }
+        Set<String> uris = new LinkedHashSet<String>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(body, "UTF-8"));
+            int first = skipWhitespace(reader);
+            if (first == '[' || first == '{'){
+                readPostedJson(reader, uris);
+            } else {
+                String line;
+                while ((line = reader.readLine()) != null){
+                    addPostedUri(uris, line);
+                }
+            }
+        } catch (IOException ex) {
+            throw new BridgeDBException("Unable to read the posted " + WsUriConstants.URI + "s.", ex);
+        }
+        if (uris.isEmpty()){
+            throw postedError(Response.Status.BAD_REQUEST.getStatusCode(), "No " + WsUriConstants.URI + "s posted.");
+        }
+        return new ArrayList<String>(uris);
+    }
+
+    /**
+     * Skips any leading whitespace leaving the reader at the first other character.
+     * @return The first other character or -1 at the end of the body.
+     */
+    private static int skipWhitespace(BufferedReader reader) throws IOException{
+        while (true){
+            reader.mark(1);
+            int c = reader.read();
+            if (c == -1 || !Character.isWhitespace(c)){
+                reader.reset();
+                return c;
+            }
+        }
+    }
+
+    private static void readPostedJson(BufferedReader reader, Set<String> uris) throws IOException{
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1){
+            if (text.length() + read > MAX_POSTED_JSON_LENGTH){
+                throw postedError(REQUEST_ENTITY_TOO_LARGE, "Posted json may not be longer than " 
+                        + MAX_POSTED_JSON_LENGTH + " characters. Post one " + WsUriConstants.URI + " per line instead.");
+            }
+            text.append(buffer, 0, read);
+        }
+        try {
+            JSONArray array;
+            if (text.charAt(0) == '['){
+                array = new JSONArray(text.toString());
+            } else {
+                array = new JSONObject(text.toString()).getJSONArray(WsUriConstants.URI);
+            }
+            for (int i = 0; i < array.length(); i++){
+                addPostedUri(uris, array.getString(i));
+            }
+        } catch (JSONException ex) {
+            throw postedError(Response.Status.BAD_REQUEST.getStatusCode(), "Posted json should be an array of " 
+                    + WsUriConstants.URI + "s or an object with a " + WsUriConstants.URI + " array. " + ex.getMessage());
+        }
+    }
+
+    private static void addPostedUri(Set<String> uris, String uri){
+        uri = uri.trim();
+        if (!uri.isEmpty()){
+            uris.add(uri);
+            if (uris.size() > MAX_POSTED_URIS){
+                throw postedError(REQUEST_ENTITY_TOO_LARGE, "No more than " + MAX_POSTED_URIS + " " 
+                        + WsUriConstants.URI + "s may be posted at once.");
+            }
+        }
+    }
+
+    private static WebApplicationException postedError(int status, String message){
+        return new WebApplicationException(
+                Response.status(status).entity(message).type(MediaType.TEXT_PLAIN_TYPE).build());
+    }
+
     @GET
     @Produces({MediaType.TEXT_HTML})
     @Path("/" + WsUriConstants.MAP_BY_SET)
@@ -917,7 +1146,7 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
 
     //****** Support functions *****
    
-    private MappingsBean mapFull(String uri, String lensUri, Boolean includeXrefResults, 
+    private Set<Mapping> mapFull(String uri, String lensUri, Boolean includeXrefResults, 
             Collection<DataSource> targetDataSources, String graph, Collection<String> targetPatterns) 
             throws BridgeDBException {
         if (includeXrefResults == null){
@@ -937,7 +1166,7 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
                 mappings.addAll(mapFull(uri, lensUri, true, graph, targetPatterns));                
             } 
         }
-        return new MappingsBean(mappings); 
+        return mappings; 
     }
     
     /**
@@ -953,7 +1182,7 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
      * @throws BridgeDBException
      * @throws IllegalStateException if targetCode is not known
      */
-    private MappingsBean mapFull(String id, String scrCode, String lensUri, 
+    private Set<Mapping> mapFull(String id, String scrCode, String lensUri, 
             Boolean includeUriResults, 
             Collection<DataSource> targetDataSources, String graph, Collection<String> targetPatterns) 
             throws BridgeDBException {
@@ -972,7 +1201,7 @@ public class WSUriInterfaceService extends WSCoreService implements WSUriInterfa
                 mappings.addAll(mapFull(sourceXref, lensUri, true, targetDataSources));
            }
         }
-        return new MappingsBean(mappings); 
+        return mappings; 
     }
 
     /**
@@ -0,0 +1,210 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+//
+// Copyright 2006-2009  BridgeDb developers
+// Copyright 2012-2013  Christian Y. A. Brenninkmeijer
+// Copyright 2012-2013  OpenPhacts
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.uri.ws.uri;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import javax.ws.rs.WebApplicationException;
+import javax.xml.bind.JAXBContext;
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+import org.bridgedb.uri.api.Mapping;
+import org.bridgedb.uri.api.MappingsBySet;
+import org.bridgedb.uri.ws.bean.MappingsBean;
+import org.bridgedb.uri.ws.bean.MappingsBySetBean;
+import org.bridgedb.uri.ws.bean.SetMappingBean;
+import org.bridgedb.uri.ws.bean.UriMappings;
+import org.bridgedb.utils.BridgeDBException;
+import org.bridgedb.ws.uri.MappingsBySetStreamingOutput;
+import org.bridgedb.ws.uri.MappingsStreamingOutput;
+import org.bridgedb.ws.uri.UriMappingsStreamingOutput;
+import org.bridgedb.ws.uri.WSUriInterfaceService;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that streamed output can be read back as the beans it stands in for.
+ * No database is needed.
+ *
+ * @author Christian
+ */
+public class StreamingOutputTest {
+
+    private Set<Mapping> mappings(){
+        DataSource dataSource = DataSource.register("StreamTest", "StreamTest").asDataSource();
+        Set<Mapping> mappings = new HashSet<Mapping>();
+        for (int i = 0; i < 3; i++){
+            Set<String> targetUris = new HashSet<String>(Arrays.asList("http://example.com/" + i + "?a=1&b=<2>"));
+            mappings.add(new Mapping(new Xref("source", dataSource), new Xref("target" + i, dataSource), 
+                    new HashSet<String>(), targetUris, "justification", "predicate", "lens", 
+                    "resource", "source", "" + i, new ArrayList<Mapping>()));
+        }
+        return mappings;
+    }
+
+    @Test
+    public void testMappingsXml() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new MappingsStreamingOutput(mappings(), false).write(output);
+        MappingsBean bean = (MappingsBean)JAXBContext.newInstance(MappingsBean.class).createUnmarshaller()
+                .unmarshal(new ByteArrayInputStream(output.toByteArray()));
+        Set<String> targets = new HashSet<String>();
+        for (Mapping mapping:bean.asMappings()){
+            targets.add(mapping.getTarget().getId() + " " + mapping.getTargetUri());
+        }
+        assertEquals(3, targets.size());
+        assertTrue(targets.contains("target1 [http://example.com/1?a=1&b=<2>]"));
+    }
+
+    @Test
+    public void testMappingsJson() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new MappingsStreamingOutput(mappings(), true).write(output);
+        JSONArray array = new JSONObject(output.toString("UTF-8")).getJSONObject("mappings").getJSONArray("mapping");
+        assertEquals(3, array.length());
+        Set<String> targets = new HashSet<String>();
+        for (int i = 0; i < array.length(); i++){
+            targets.add(array.getJSONObject(i).getString("targetUri"));
+        }
+        assertTrue(targets.contains("http://example.com/1?a=1&b=<2>"));
+    }
+
+    @Test
+    public void testUriMappings() throws Exception {
+        Set<String> first = new LinkedHashSet<String>(Arrays.asList("http://example.com/a&b", "http://example.com/<c>"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UriMappingsStreamingOutput(first, null, Collections.<String>emptyList(), null, null, null, false).write(output);
+        UriMappings bean = (UriMappings)JAXBContext.newInstance(UriMappings.class).createUnmarshaller()
+                .unmarshal(new ByteArrayInputStream(output.toByteArray()));
+        assertEquals(first, bean.getTargetUri());
+
+        output = new ByteArrayOutputStream();
+        new UriMappingsStreamingOutput(first, null, Collections.<String>emptyList(), null, null, null, true).write(output);
+        JSONArray array = new JSONObject(output.toString("UTF-8")).getJSONObject("Mapping").getJSONArray("targetUri");
+        assertEquals(2, array.length());
+        assertEquals("http://example.com/<c>", array.getString(1));
+    }
+
+    private MappingsBySet mappingsBySet(){
+        DataSource dataSource = DataSource.register("StreamTest", "StreamTest").asDataSource();
+        Set<String> sourceUris = new HashSet<String>(Arrays.asList("http://example.com/a"));
+        Set<Mapping> mappings = new HashSet<Mapping>();
+        mappings.add(new Mapping(new Xref("a", dataSource), new Xref("b", dataSource), sourceUris, 
+                new HashSet<String>(Arrays.asList("http://example.com/b?x=1&y=<2>")), "justification", "predicate", 
+                "lens", "resource", "source", "1", new ArrayList<Mapping>()));
+        //Mappings without a justification are not in a set.
+        mappings.add(new Mapping(new Xref("a", dataSource), new Xref("a", dataSource), sourceUris, 
+                sourceUris, null, "predicate", "lens", "resource", "source", null, new ArrayList<Mapping>()));
+        return new MappingsBySet("http://example.com/lens", mappings);
+    }
+
+    @Test
+    public void testMappingsBySetXml() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new MappingsBySetStreamingOutput(mappingsBySet(), null, Collections.<String>emptyList(), null, null, null, false)
+                .write(output);
+        MappingsBySetBean bean = (MappingsBySetBean)JAXBContext.newInstance(MappingsBySetBean.class)
+                .createUnmarshaller().unmarshal(new ByteArrayInputStream(output.toByteArray()));
+        assertEquals("http://example.com/lens", bean.getLens());
+        assertEquals(1, bean.getMappingSet().size());
+        SetMappingBean setMapping = bean.getMappingSet().iterator().next();
+        assertEquals("1", setMapping.getId());
+        assertEquals("http://example.com/b?x=1&y=<2>", setMapping.getMapping().iterator().next().getTargetUri());
+        assertEquals(1, bean.getMapping().size());
+    }
+
+    @Test
+    public void testMappingsBySetJson() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new MappingsBySetStreamingOutput(mappingsBySet(), null, Collections.<String>emptyList(), null, null, null, true)
+                .write(output);
+        JSONObject json = new JSONObject(output.toString("UTF-8")).getJSONObject("MappingBySet");
+        assertEquals("http://example.com/lens", json.getString("lens"));
+        JSONArray sets = json.getJSONArray("mappingSet");
+        assertEquals(1, sets.length());
+        assertEquals("1", sets.getJSONObject(0).getString("id"));
+        assertEquals("http://example.com/a", json.getJSONArray("mapping").getJSONObject(0).getString("targetUri"));
+    }
+
+    private List<String> readPosted(String body) throws BridgeDBException, Exception {
+        return WSUriInterfaceService.readPostedUris(new ByteArrayInputStream(body.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testReadPostedUris() throws Exception {
+        List<String> expected = Arrays.asList("http://example.com/1", "http://example.com/2");
+        assertEquals(expected, readPosted("http://example.com/1\r\n\n http://example.com/2\nhttp://example.com/1\n"));
+        assertEquals(expected, readPosted("[\"http://example.com/1\", \"http://example.com/2\"]"));
+        assertEquals(expected, readPosted("{\"Uri\":[\"http://example.com/1\", \"http://example.com/2\"]}"));
+    }
+
+    private void assertPostedStatus(int status, String body) throws Exception {
+        try {
+            readPosted(body);
+            fail("Expected status " + status);
+        } catch (WebApplicationException ex) {
+            assertEquals(status, ex.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void testReadPostedUrisBadRequest() throws Exception {
+        assertPostedStatus(400, " \n");
+        assertPostedStatus(400, "[\"http://example.com/1\"");
+        assertPostedStatus(400, "{\"other\":[]}");
+    }
+
+    /**
+     * The body never ends so this only returns if reading stops at the limit.
+     */
+    @Test
+    public void testReadPostedUrisTooMany() throws Exception {
+        InputStream endless = new InputStream() {
+            private byte[] line = new byte[0];
+            private int pos = 0;
+            private int count = 0;
+
+            @Override
+            public int read() {
+                if (pos == line.length){
+                    line = ("http://example.com/" + count++ + "\n").getBytes();
+                    pos = 0;
+                }
+                return line[pos++];
+            }
+        };
+        try {
+            WSUriInterfaceService.readPostedUris(endless);
+            fail("Expected too many uris");
+        } catch (WebApplicationException ex) {
+            assertEquals(413, ex.getResponse().getStatus());
+        }
+    }
+}
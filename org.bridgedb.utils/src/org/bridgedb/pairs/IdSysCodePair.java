@@ -43,6 +43,8 @@ public class IdSysCodePair {
     private final String id;
     private final String sysCode;
     private Xref original;
+    // cached hashCode, 0 means not computed yet
+    private int hash;
     
     public IdSysCodePair(String id, String dataSourceCode){
         this.id = id;
@@ -78,7 +80,20 @@ public class IdSysCodePair {
         return "id: " + id + " sysCode: " + sysCode;
     }
     
+    /**
+     * Same value as (id + sysCode).hashCode(), but without building the String.
+     */
     public int hashCode(){
-        return (id + sysCode).hashCode();
+        int h = hash;
+        if (h == 0){
+            String code = String.valueOf(sysCode);
+            h = String.valueOf(id).hashCode();
+            for (int i = 0; i < code.length(); i++){
+                h *= 31;
+            }
+            h += code.hashCode();
+            hash = h;
+        }
+        return h;
     }
 }
@@ -0,0 +1,438 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decorator that caches the results of another {@link IDMapper}.
+ * <p>
+ * mapID, xrefExists and getAttributes results are kept in a least-recently-used
+ * cache of bounded size, and expire after a fixed time to live. Empty results are cached as well
+ * (negative caching), unless switched off. Free searches are always passed on to the
+ * wrapped IDMapper.
+ * <p>
+ * A cached IDMapper can be configured with a connection string such as
+ * <pre>
+ * idmapper-cache:idmapper-pgdb:/data/Hs_Derby.bridge
+ * idmapper-cache:maxsize=100000,ttl=3600,negative=false@idmapper-pgdb:/data/Hs_Derby.bridge
+ * </pre>
+ * where the part after the optional options@ is the connection string of the wrapped IDMapper.
+ * ttl is given in seconds, 0 means entries don't expire.
+ * <p>
+ * Thread safe, provided the wrapped IDMapper is.
+ */
+public class CachingIDMapper implements IDMapper, AttributeMapper
+{
+	static
+	{
+		BridgeDb.register ("idmapper-cache", new Driver());
+	}
+
+	/** Default maximum number of cached results */
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	/** Default time to live of a cached result */
+	public static final long DEFAULT_TTL = 3600; // seconds
+
+	/** Knows how to instantiate CachingIDMapper. */
+	private static final class Driver implements org.bridgedb.Driver
+	{
+		/** prevent outside instantiation. */
+		private Driver() {}
+
+		/** {@inheritDoc} */
+		public IDMapper connect(String location) throws IDMapperException
+		{
+			int maxSize = DEFAULT_MAX_SIZE;
+			long ttl = DEFAULT_TTL;
+			boolean negative = true;
+
+			String inner = location;
+			int idx = location.indexOf("@");
+			// options never contain ':', the wrapped connection string always does.
+			if (idx > 0 && location.lastIndexOf(":", idx) < 0)
+			{
+				inner = location.substring(idx + 1);
+				for (String option : location.substring(0, idx).split(","))
+				{
+					int eq = option.indexOf("=");
+					if (eq < 0) throw new IDMapperException ("Expected key=value in cache option '" + option + "'");
+					String key = option.substring(0, eq);
+					String value = option.substring(eq + 1);
+					try
+					{
+						if ("maxsize".equals(key)) maxSize = Integer.parseInt(value);
+						else if ("ttl".equals(key)) ttl = Long.parseLong(value);
+						else if ("negative".equals(key)) negative = Boolean.parseBoolean(value);
+						else throw new IDMapperException ("Unexpected cache option '" + key + "'");
+					}
+					catch (NumberFormatException ex)
+					{
+						throw new IDMapperException ("Could not parse cache option '" + option + "'", ex);
+					}
+				}
+			}
+
+			return new CachingIDMapper(BridgeDb.connect(inner), maxSize, ttl * 1000, negative);
+		}
+	}
+
+	/** The kind of query a cache entry belongs to */
+	private static enum Kind { MAP, EXISTS, ATTRIBUTE, ALL_ATTRIBUTES }
+
+	/** Cache key: the query kind, the Xref and any further arguments */
+	private static final class Key
+	{
+		private final Kind kind;
+		private final Xref ref;
+		private final Object arg;
+
+		Key (Kind kind, Xref ref, Object arg)
+		{
+			this.kind = kind;
+			this.ref = ref;
+			this.arg = arg;
+		}
+
+		@Override public int hashCode()
+		{
+			return 31 * (31 * kind.hashCode() + ref.hashCode()) + (arg == null ? 0 : arg.hashCode());
+		}
+
+		@Override public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key other = (Key)o;
+			return kind == other.kind && ref.equals(other.ref) &&
+				(arg == null ? other.arg == null : arg.equals(other.arg));
+		}
+	}
+
+	/** A cached value with its expiry time */
+	private static final class Entry
+	{
+		private final Object value;
+		private final long expires;
+
+		Entry (Object value, long expires)
+		{
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	private final IDMapper mapper;
+	private final int maxSize;
+	private final long ttl;
+	private final boolean negative;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/** access ordered, so the eldest entry is the least recently used one. Guarded by itself. */
+	private final LinkedHashMap<Key, Entry> cache;
+
+	/**
+	 * Wrap an IDMapper with the default cache settings.
+	 * @param mapper IDMapper to cache results for
+	 */
+	public CachingIDMapper(IDMapper mapper)
+	{
+		this (mapper, DEFAULT_MAX_SIZE, DEFAULT_TTL * 1000, true);
+	}
+
+	/**
+	 * @param mapper IDMapper to cache results for
+	 * @param maxSize maximum number of cached results
+	 * @param ttl time to live of a cached result in milliseconds, 0 for no expiry
+	 * @param negative if true, empty results are cached as well
+	 */
+	public CachingIDMapper(IDMapper mapper, final int maxSize, long ttl, boolean negative)
+	{
+		if (mapper == null) throw new NullPointerException();
+		if (maxSize < 1) throw new IllegalArgumentException("maxSize must be at least 1, was " + maxSize);
+		this.mapper = mapper;
+		this.maxSize = maxSize;
+		this.ttl = ttl;
+		this.negative = negative;
+		cache = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+			@Override protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest)
+			{
+				if (size() > CachingIDMapper.this.maxSize)
+				{
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/** @return the wrapped IDMapper */
+	public IDMapper getMapper()
+	{
+		return mapper;
+	}
+
+	/**
+	 * @return cached value for the key, or null if there is none or if it expired.
+	 */
+	private Object get(Key key)
+	{
+		synchronized (cache)
+		{
+			Entry entry = cache.get(key);
+			if (entry != null && ttl > 0 && entry.expires < System.currentTimeMillis())
+			{
+				cache.remove(key);
+				evictions++;
+				entry = null;
+			}
+			if (entry == null)
+			{
+				misses++;
+				return null;
+			}
+			hits++;
+			return entry.value;
+		}
+	}
+
+	private void put(Key key, Object value, boolean empty)
+	{
+		if (empty && !negative) return;
+		synchronized (cache)
+		{
+			cache.put (key, new Entry (value, System.currentTimeMillis() + ttl));
+		}
+	}
+
+	/** @return targets as a set that can be used as part of a cache key */
+	private static Set<DataSource> targetKey(DataSource... tgtDataSources)
+	{
+		return new HashSet<DataSource>(Arrays.asList(tgtDataSources));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Xrefs that are not cached are passed on to the wrapped IDMapper in a single call.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException
+	{
+		Set<DataSource> targets = targetKey(tgtDataSources);
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		List<Xref> todo = new ArrayList<Xref>();
+		for (Xref ref : srcXrefs)
+		{
+			Set<Xref> cached = (Set<Xref>)get(new Key (Kind.MAP, ref, targets));
+			if (cached == null) todo.add (ref);
+			else if (!cached.isEmpty()) result.put (ref, new HashSet<Xref>(cached));
+		}
+		if (todo.isEmpty()) return result;
+
+		Map<Xref, Set<Xref>> mapped = mapper.mapID(todo, tgtDataSources);
+		for (Xref ref : todo)
+		{
+			Set<Xref> value = mapped.get(ref);
+			if (value == null) value = Collections.emptySet();
+			put (new Key (Kind.MAP, ref, targets), Collections.unmodifiableSet(new HashSet<Xref>(value)), value.isEmpty());
+			if (!value.isEmpty()) result.put (ref, value);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	public Set<Xref> mapID(Xref ref, DataSource... tgtDataSources) throws IDMapperException
+	{
+		Key key = new Key (Kind.MAP, ref, targetKey(tgtDataSources));
+		Set<Xref> cached = (Set<Xref>)get(key);
+		if (cached != null) return new HashSet<Xref>(cached);
+
+		Set<Xref> result = mapper.mapID(ref, tgtDataSources);
+		put (key, Collections.unmodifiableSet(new HashSet<Xref>(result)), result.isEmpty());
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public boolean xrefExists(Xref xref) throws IDMapperException
+	{
+		Key key = new Key (Kind.EXISTS, xref, null);
+		Boolean cached = (Boolean)get(key);
+		if (cached != null) return cached;
+
+		boolean result = mapper.xrefExists(xref);
+		put (key, result, !result);
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException
+	{
+		return mapper.freeSearch(text, limit);
+	}
+
+	/** {@inheritDoc} */
+	public IDMapperCapabilities getCapabilities()
+	{
+		return mapper.getCapabilities();
+	}
+
+	/** Closes the wrapped IDMapper and empties the cache. */
+	public void close() throws IDMapperException
+	{
+		clear();
+		mapper.close();
+	}
+
+	/** {@inheritDoc} */
+	public boolean isConnected()
+	{
+		return mapper.isConnected();
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	public Set<String> getAttributes(Xref ref, String attrType) throws IDMapperException
+	{
+		if (!(mapper instanceof AttributeMapper)) return new HashSet<String>();
+		Key key = new Key (Kind.ATTRIBUTE, ref, attrType);
+		Set<String> cached = (Set<String>)get(key);
+		if (cached != null) return new HashSet<String>(cached);
+
+		Set<String> result = ((AttributeMapper)mapper).getAttributes(ref, attrType);
+		put (key, Collections.unmodifiableSet(new HashSet<String>(result)), result.isEmpty());
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@SuppressWarnings("unchecked")
+	public Map<String, Set<String>> getAttributes(Xref ref) throws IDMapperException
+	{
+		if (!(mapper instanceof AttributeMapper)) return new HashMap<String, Set<String>>();
+		Key key = new Key (Kind.ALL_ATTRIBUTES, ref, null);
+		Map<String, Set<String>> cached = (Map<String, Set<String>>)get(key);
+		if (cached != null) return copy(cached);
+
+		Map<String, Set<String>> result = ((AttributeMapper)mapper).getAttributes(ref);
+		put (key, copy(result), result.isEmpty());
+		return result;
+	}
+
+	/** @return deep copy of an attribute map */
+	private static Map<String, Set<String>> copy(Map<String, Set<String>> attributes)
+	{
+		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> entry : attributes.entrySet())
+		{
+			result.put (entry.getKey(), new HashSet<String>(entry.getValue()));
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	public boolean isFreeAttributeSearchSupported()
+	{
+		return mapper instanceof AttributeMapper && ((AttributeMapper)mapper).isFreeAttributeSearchSupported();
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, String> freeAttributeSearch(String query, String attrType, int limit) throws IDMapperException
+	{
+		if (!(mapper instanceof AttributeMapper)) return new HashMap<Xref, String>();
+		return ((AttributeMapper)mapper).freeAttributeSearch(query, attrType, limit);
+	}
+
+	/** {@inheritDoc} */
+	public Map<Xref, Set<String>> freeAttributeSearchEx(String query, String attrType, int limit) throws IDMapperException
+	{
+		if (!(mapper instanceof AttributeMapper)) return new HashMap<Xref, Set<String>>();
+		return ((AttributeMapper)mapper).freeAttributeSearchEx(query, attrType, limit);
+	}
+
+	/** {@inheritDoc} */
+	public Set<String> getAttributeSet() throws IDMapperException
+	{
+		if (!(mapper instanceof AttributeMapper)) return new HashSet<String>();
+		return ((AttributeMapper)mapper).getAttributeSet();
+	}
+
+	/** Remove all cached results. Statistics are kept. */
+	public void clear()
+	{
+		synchronized (cache)
+		{
+			cache.clear();
+		}
+	}
+
+	/** @return number of cached results */
+	public int getSize()
+	{
+		synchronized (cache)
+		{
+			return cache.size();
+		}
+	}
+
+	/** @return number of lookups answered from the cache */
+	public long getHitCount()
+	{
+		synchronized (cache)
+		{
+			return hits;
+		}
+	}
+
+	/** @return number of lookups passed on to the wrapped IDMapper */
+	public long getMissCount()
+	{
+		synchronized (cache)
+		{
+			return misses;
+		}
+	}
+
+	/** @return number of results removed because the cache was full or they had expired */
+	public long getEvictionCount()
+	{
+		synchronized (cache)
+		{
+			return evictions;
+		}
+	}
+
+	/** @return cache settings and statistics */
+	@Override public String toString()
+	{
+		return "cache(" + mapper + ", size=" + getSize() + "/" + maxSize +
+			", hits=" + getHitCount() + ", misses=" + getMissCount() +
+			", evictions=" + getEvictionCount() + ")";
+	}
+}
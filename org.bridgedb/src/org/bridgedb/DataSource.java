@@ -19,11 +19,13 @@ package org.bridgedb;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
 Contains information about a certain DataSource. This includes:
@@ -59,12 +61,48 @@ public final class DataSource
     private static final String IDENTIFIERS_ORG_PREFIX = "http://identifiers.org/";
     public static final String UNKOWN = "unknown";
 
-    private static Map<String, DataSource> bySysCode = new HashMap<String, DataSource>();
-	private static Map<String, DataSource> byFullName = new HashMap<String, DataSource>();
-	private static Set<DataSource> registry = new HashSet<DataSource>();
-	private static Map<String, DataSource> byAlias = new HashMap<String, DataSource>();
-	private static Map<String, DataSource> byMiriamBase = new HashMap<String, DataSource>();
+    /**
+     * Immutable snapshot of all lookup tables.
+     * <p>
+     * Readers take the current snapshot without locking. 
+     * Writers copy the snapshot while holding {@link #WRITE_LOCK}, 
+     * change the copy and then publish it, so a reader never sees a half finished registration.
+     */
+    private static final class Registry
+    {
+        private final Map<String, DataSource> bySysCode;
+        private final Map<String, DataSource> byFullName;
+        private final Set<DataSource> all;
+        private final Map<String, DataSource> byAlias;
+        private final Map<String, DataSource> byMiriamBase;
+
+        private Registry()
+        {
+            bySysCode = new HashMap<String, DataSource>();
+            byFullName = new HashMap<String, DataSource>();
+            all = new HashSet<DataSource>();
+            byAlias = new HashMap<String, DataSource>();
+            byMiriamBase = new HashMap<String, DataSource>();
+        }
+
+        private Registry(Registry other)
+        {
+            bySysCode = new HashMap<String, DataSource>(other.bySysCode);
+            byFullName = new HashMap<String, DataSource>(other.byFullName);
+            all = new HashSet<DataSource>(other.all);
+            byAlias = new HashMap<String, DataSource>(other.byAlias);
+            byMiriamBase = new HashMap<String, DataSource>(other.byMiriamBase);
+        }
+    }
+
+    private static volatile Registry registry = new Registry();
+    private static final ReentrantLock WRITE_LOCK = new ReentrantLock();
+    /** Copy being filled by a bulk registration, only used by the bulkOwner thread. */
+    private static Registry bulk = null;
+    private static volatile Thread bulkOwner = null;
+    private static int bulkDepth = 0;
 	
+
 	private String sysCode = null;
 	private String fullName = null;
 	private String mainUrl = null;
@@ -80,7 +118,7 @@ public final class DataSource
     private String alternative = null;
     private String description = null;
 
-    private static boolean strictDataSourceChecking = true;
+    private static volatile boolean strictDataSourceChecking = true;
     static {
     	strictDataSourceChecking =
     		"true".equalsIgnoreCase(System.getProperty("strictDataSourceChecking", "true"));
@@ -96,12 +134,90 @@ public final class DataSource
     private DataSource (String sysCode, String fullName) {
         this.sysCode = sysCode;
         this.fullName = fullName;
-		if (isSuitableKey(sysCode)) {
-            bySysCode.put(sysCode, this);
+    }
+
+    /**
+     * @return the lookup tables to read from. 
+     *    This is the published snapshot, except for the thread doing a bulk registration,
+     *    which sees its own unpublished registrations.
+     */
+    private static Registry current()
+    {
+        Thread owner = bulkOwner;
+        if (owner != null && owner == Thread.currentThread()) 
+        {
+            return bulk;
+        }
+        return registry;
+    }
+
+    /**
+     * Must be called while holding WRITE_LOCK.
+     * @return lookup tables that may be changed and then passed to {@link #publish}.
+     */
+    private static Registry writable()
+    {
+        if (bulk != null)
+        {
+            return bulk;
         }
-		if (isSuitableKey(fullName)) {
-            byFullName.put(fullName, this);
+        return new Registry(registry);
+    }
+
+    /**
+     * Must be called while holding WRITE_LOCK.
+     * Makes the changes visible to other threads, unless a bulk registration is in progress.
+     */
+    private static void publish(Registry next)
+    {
+        if (next != bulk)
+        {
+            registry = next;
+        }
+    }
+
+    /**
+     * Starts a bulk registration, for example when loading a DataSource file.
+     * <p>
+     * Until the matching {@link #finishBulkRegistration()} the registrations
+     * are only visible to the calling thread. Other threads keep seeing the registry as it was,
+     * without having to wait, and then see all new DataSources at once.
+     * Other threads that try to register DataSources will wait until the bulk registration is finished.
+     * <p>
+     * Calls may be nested. Always call finishBulkRegistration in a finally block.
+     * Read and parse any file before starting, so other threads only wait for the registration itself.
+     * @since 2.0.0
+     */
+    public static void startBulkRegistration()
+    {
+        WRITE_LOCK.lock();
+        if (bulkDepth == 0)
+        {
+            bulk = new Registry(registry);
+            bulkOwner = Thread.currentThread();
         }
+        bulkDepth++;
+    }
+
+    /**
+     * Publishes all registrations made since the matching {@link #startBulkRegistration()}.
+     * @throws IllegalMonitorStateException if the calling thread did not start a bulk registration
+     * @since 2.0.0
+     */
+    public static void finishBulkRegistration()
+    {
+        if (bulkOwner != Thread.currentThread())
+        {
+            throw new IllegalMonitorStateException("No bulk registration started by this thread");
+        }
+        bulkDepth--;
+        if (bulkDepth == 0)
+        {
+            registry = bulk;
+            bulk = null;
+            bulkOwner = null;
+        }
+        WRITE_LOCK.unlock();
     }
 
     /**
@@ -544,7 +660,7 @@ public final class DataSource
         private Builder miriamBase(String base){
             if (current.miriamBase == null){
                 current.miriamBase = base;
-                byMiriamBase.put(base, current);
+                putMiriamBase(base, current);
             } else {
                 if (!current.miriamBase.equals(base)){
                     throw new IllegalArgumentException("Illegal attempt to change miriam base for " + current 
@@ -622,12 +738,48 @@ public final class DataSource
             
     private static Builder findOrRegister(String sysCode, String fullName)
 	{
- 		DataSource current = null;
 		if (fullName == null && sysCode == null) throw new NullPointerException();
-		
-		if (byFullName.containsKey(fullName))
+		Builder result = find(current(), sysCode, fullName);
+		if (result != null) 
+		{
+			return result;
+		}
+		WRITE_LOCK.lock();
+		try
+		{
+			// check again, another thread may have registered it in the meantime
+			Registry next = writable();
+			result = find(next, sysCode, fullName);
+			if (result != null) 
+			{
+				return result;
+			}
+			DataSource current = new DataSource (sysCode, fullName);
+			if (isSuitableKey(sysCode)) {
+				next.bySysCode.put(sysCode, current);
+			}
+			if (isSuitableKey(fullName)) {
+				next.byFullName.put(fullName, current);
+			}
+			next.all.add (current);
+			publish(next);
+			return new Builder(current);
+		}
+		finally
+		{
+			WRITE_LOCK.unlock();
+		}
+	}
+
+	/**
+	 * @return a Builder for the existing DataSource, or null if neither the fullName nor the sysCode is known.
+	 * @throws IllegalArgumentException if the existing DataSource does not match and strictDataSourceChecking is on
+	 */
+	private static Builder find(Registry tables, String sysCode, String fullName)
+	{
+ 		DataSource current = fullName == null ? null : tables.byFullName.get(fullName);
+		if (current != null)
 		{
-			current = byFullName.get(fullName);
 			if (strictDataSourceChecking) {
 				if (sysCode ==null){
 					if (current.getSystemCode() != null){
@@ -643,9 +795,13 @@ public final class DataSource
 				}
 			}
 		}
-		else if (bySysCode.containsKey(sysCode))
+		else
 		{
-            current = bySysCode.get(sysCode);
+			current = sysCode == null ? null : tables.bySysCode.get(sysCode);
+			if (current == null)
+			{
+				return null;
+			}
             if (strictDataSourceChecking) {
             	if (fullName ==null){
             		if (current.getFullName() != null){
@@ -660,18 +816,37 @@ public final class DataSource
             	}
             }
 		}
-		else
-		{
-			current = new DataSource (sysCode, fullName);
-			registry.add (current);
-		}
-		
 		return new Builder(current);
 	}
     
 	public void registerAlias(String alias)
 	{
-		byAlias.put (alias, this);
+		WRITE_LOCK.lock();
+		try
+		{
+			Registry next = writable();
+			next.byAlias.put (alias, this);
+			publish(next);
+		}
+		finally
+		{
+			WRITE_LOCK.unlock();
+		}
+	}
+
+	private static void putMiriamBase(String base, DataSource dataSource)
+	{
+		WRITE_LOCK.lock();
+		try
+		{
+			Registry next = writable();
+			next.byMiriamBase.put (base, dataSource);
+			publish(next);
+		}
+		finally
+		{
+			WRITE_LOCK.unlock();
+		}
 	}
 	
 	/**
@@ -694,13 +869,14 @@ public final class DataSource
 	 */
 	public static DataSource getBySystemCode(String systemCode)
 	{
-		if (!bySysCode.containsKey(systemCode) && isSuitableKey(systemCode))
+		DataSource result = current().bySysCode.get(systemCode);
+		if (result == null && isSuitableKey(systemCode))
 		{
             System.err.println("Warning creating a new DataSource with systemCode " + systemCode 
                     + " and null fullName!");
-			findOrRegister (systemCode, null);
+			result = findOrRegister (systemCode, null).asDataSource();
 		}
-		return bySysCode.get(systemCode);
+		return result;
 	}
 	
 	/** 
@@ -710,8 +886,9 @@ public final class DataSource
 	 */
 	public static DataSource getExistingBySystemCode(String systemCode)
 	{
-		if (bySysCode.containsKey(systemCode)){
-    		return bySysCode.get(systemCode);
+		DataSource result = current().bySysCode.get(systemCode);
+		if (result != null){
+    		return result;
 		}
         throw new IllegalArgumentException("No DataSource known for " + systemCode);
 	}
@@ -724,7 +901,7 @@ public final class DataSource
      * @Since Version 2.0.0
      */
     public static boolean systemCodeExists(String systemCode){
-        return bySysCode.containsKey(systemCode);
+        return current().bySysCode.containsKey(systemCode);
     }
     
     /** 
@@ -737,13 +914,14 @@ public final class DataSource
 	 */
 	public static DataSource getByFullName(String fullName)
 	{
-		if (!byFullName.containsKey(fullName) && isSuitableKey(fullName))
+		DataSource result = current().byFullName.get(fullName);
+		if (result == null && isSuitableKey(fullName))
 		{
             System.err.println("Warning creating a new DataSource with fullName " + fullName 
                     + " and null systemCode!");
-			findOrRegister (null, fullName);
+			result = findOrRegister (null, fullName).asDataSource();
 		}
-		return byFullName.get(fullName);
+		return result;
 	}
 	
 	/** 
@@ -754,8 +932,9 @@ public final class DataSource
 	 */
 	public static DataSource getExistingByFullName(String fullName)
 	{
-		if (byFullName.containsKey(fullName)){
-    		return byFullName.get(fullName);
+		DataSource result = current().byFullName.get(fullName);
+		if (result != null){
+    		return result;
         }
         throw new IllegalArgumentException ("No DataSource known for " + fullName);
 	}
@@ -768,21 +947,22 @@ public final class DataSource
      * @Since Version 2.0.0
      */
     public static boolean fullNameExists(String fullName){
-        return byFullName.containsKey(fullName);
+        return current().byFullName.containsKey(fullName);
     }
     
 	public static DataSource getByAlias(String alias)
 	{
-		return byAlias.get(alias);
+		return current().byAlias.get(alias);
 	}
 
 	/**
 		get all registered datasoures as a set.
-		@return set of all registered DataSources
+		@return unmodifiable snapshot of all registered DataSources. 
+		   DataSources registered later are not added to it.
 	*/ 
 	static public Set<DataSource> getDataSources()
 	{
-		return registry;
+		return Collections.unmodifiableSet(current().all);
 	}
 	
 	/**
@@ -795,7 +975,7 @@ public final class DataSource
 	static public Set<DataSource> getFilteredSet (Boolean primary, Boolean metabolite, Object o)
 	{
 		final Set<DataSource> result = new HashSet<DataSource>();
-		for (DataSource ds : registry)
+		for (DataSource ds : current().all)
 		{
 			if (
 					(primary == null || ds.isPrimary() == primary) &&
@@ -818,7 +998,7 @@ public final class DataSource
 	static public List<String> getFullNames()
 	{
 		final List<String> result = new ArrayList<String>();
-		result.addAll (byFullName.keySet());
+		result.addAll (current().byFullName.keySet());
 		return result;
 	}
 	/**
@@ -905,12 +1085,13 @@ public final class DataSource
 			return null;
 		}
         String key = base.substring(URN_PREFIX.length());      
-        if (byMiriamBase.containsKey(key)){
-            return byMiriamBase.get(key);
+        DataSource current = current().byMiriamBase.get(key);
+        if (current != null){
+            return current;
         }
-        DataSource current = getByFullName(key);
+        current = getByFullName(key);
         current.miriamBase = key;
-        byMiriamBase.put (key, current);
+        putMiriamBase(key, current);
         return current;
 	}
 
@@ -926,7 +1107,7 @@ public final class DataSource
 			return null;
 		}
         String key = base.substring(URN_PREFIX.length());      
-        return byMiriamBase.get(key);
+        return current().byMiriamBase.get(key);
 	}
 
     /**
@@ -945,7 +1126,7 @@ public final class DataSource
         if (key.endsWith("/")){
             key = key.substring(0, key.length()-1);
         }
-        return byMiriamBase.get(key);
+        return current().byMiriamBase.get(key);
     }
 	
 }
@@ -16,6 +16,7 @@
 //
 package org.bridgedb;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -24,7 +25,15 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.bridgedb.impl.TransitiveGraph;
 
@@ -52,23 +61,44 @@ import org.bridgedb.impl.TransitiveGraph;
  * loop free paths in this graph. We consider a path p to be loop free 
  * if no data source in p is reached twice by the same IDMapper.
  * <p>
- * The mapping graph for transitive maps is retained and re-calculated
- * whenever an IDMapper is added or removed from this IDMapperStack.
- * 
+ * The mapping graph for transitive maps is calculated on first use, and 
+ * updated incrementally whenever an IDMapper is added or removed from this IDMapperStack.
+ * <p>
+ * In parallel mode, methods that combine the results of all children
+ * (mapID, freeSearch, freeAttributeSearch, getAttributes) query the children
+ * at the same time on an executor. Each child gets at most 
+ * {@link #getChildTimeout()} milliseconds. As in sequential mode, 
+ * a child that fails, or times out, makes the whole query fail with an IDMapperException, 
+ * and the queries still running on the other children are cancelled.
+ * Parallel mode is off by default.
  */
 public class IDMapperStack implements IDMapper, AttributeMapper
 {
 	// reference shared with TransitiveGraph
 	private final List<IDMapper> gdbs = new CopyOnWriteArrayList<IDMapper>();
 
-	/** Helper class for calculating transitive paths */
-	private TransitiveGraph transitiveGraph = null;
+	/** 
+	 * Helper class for calculating transitive paths. 
+	 * Immutable, replaced as a whole when the stack changes. 
+	 */
+	private volatile TransitiveGraph transitiveGraph = null;
+	
+	/** guards updates of transitiveGraph, reads don't need it */
+	private final Object graphLock = new Object();
 	
 	private TransitiveGraph getTransitiveGraph() throws IDMapperException
 	{
-		if (transitiveGraph == null)
-			transitiveGraph = new TransitiveGraph(gdbs);
-		return transitiveGraph;
+		TransitiveGraph result = transitiveGraph;
+		if (result == null)
+		{
+			synchronized (graphLock)
+			{
+				if (transitiveGraph == null)
+					transitiveGraph = new TransitiveGraph(gdbs);
+				result = transitiveGraph;
+			}
+		}
+		return result;
 	}
 
 	/**
@@ -91,8 +121,21 @@ public class IDMapperStack implements IDMapper, AttributeMapper
     public void addIDMapper(IDMapper idMapper)
     {
         if (idMapper!=null) {
-            gdbs.add(idMapper);
-            transitiveGraph = null; // trigger rebuild.
+        	synchronized (graphLock)
+        	{
+        		gdbs.add(idMapper);
+        		if (transitiveGraph != null)
+        		{
+        			try
+        			{
+        				transitiveGraph = transitiveGraph.addMapper(idMapper);
+        			}
+        			catch (IDMapperException ex)
+        			{
+        				transitiveGraph = null; // trigger rebuild, which will report the problem.
+        			}
+        		}
+        	}
         }
     }
     
@@ -116,16 +159,189 @@ public class IDMapperStack implements IDMapper, AttributeMapper
     	return isTransitive;
     }
     
+    /** Default time a child may take in parallel mode */
+    public static final long DEFAULT_CHILD_TIMEOUT = 30000; // msec
+    
+    private volatile ExecutorService executor = null;
+    private volatile long childTimeout = DEFAULT_CHILD_TIMEOUT;
+    
+    private static ExecutorService sharedExecutor = null;
+    
+    /**
+     * @return executor shared by all stacks in parallel mode, with daemon threads
+     * 	that are created on demand.
+     */
+    private static synchronized ExecutorService getSharedExecutor()
+    {
+    	if (sharedExecutor == null)
+    	{
+    		sharedExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) 
+				{
+					Thread t = new Thread (r, "IDMapperStack-child");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+    	}
+    	return sharedExecutor;
+    }
+    
+    /**
+     * Set parallel mode, where all children are queried at the same
+     * time, using an executor that is shared between stacks.
+     * @param value true or false
+     */
+    public void setParallel(boolean value)
+    {
+    	executor = value ? getSharedExecutor() : null;
+    }
+    
+    /**
+     * Set parallel mode, querying children with the given executor.
+     * @param value executor to run child queries on, or null to switch parallel mode off.
+     */
+    public void setExecutor(ExecutorService value)
+    {
+    	executor = value;
+    }
+    
+    /**
+     * @return true if the stack is in parallel mode
+     */
+    public boolean getParallel()
+    {
+    	return executor != null;
+    }
+    
+    /**
+     * @param msec maximum time a single child may take in parallel mode
+     */
+    public void setChildTimeout(long msec)
+    {
+    	childTimeout = msec;
+    }
+    
+    /**
+     * @return maximum time in milliseconds a single child may take in parallel mode 
+     */
+    public long getChildTimeout()
+    {
+    	return childTimeout;
+    }
+    
+    /**
+     * A query that is run against each connected child. 
+     * @param <T> type of the result of a single child
+     */
+    private abstract static class ChildQuery<T>
+    {
+    	/** @return true if this query applies to the given child */
+    	boolean accepts(IDMapper child) { return true; }
+    	
+    	abstract T query(IDMapper child) throws IDMapperException;
+    }
+
+    /**
+     * Helper for querying AttributeMappers only.
+     */
+    private abstract static class AttributeQuery<T> extends ChildQuery<T>
+    {
+    	@Override boolean accepts(IDMapper child) { return child instanceof AttributeMapper; }
+    	
+    	@Override T query(IDMapper child) throws IDMapperException
+    	{
+    		return query((AttributeMapper)child);
+    	}
+    	
+    	abstract T query(AttributeMapper child) throws IDMapperException;
+    }
+
+    /**
+     * Run a query against each connected child, in stack order or in parallel. 
+     * @param q query to run
+     * @return results of the children, in the order of the stack. 
+     * @throws IDMapperException if a child failed, or timed out in parallel mode.
+     */
+    private <T> List<T> queryChildren(final ChildQuery<T> q) throws IDMapperException
+    {
+    	List<T> result = new ArrayList<T>();
+    	List<IDMapper> children = new ArrayList<IDMapper>();
+    	for (IDMapper child : gdbs)
+		{
+			if (child != null && q.accepts(child) && child.isConnected())
+			{
+				children.add (child);
+			}
+		}
+    	
+    	ExecutorService exec = executor;
+    	if (exec == null || children.size() < 2)
+    	{
+    		for (IDMapper child : children) result.add (q.query(child));
+    		return result;
+    	}
+    	
+    	List<Future<T>> futures = new ArrayList<Future<T>>();
+    	for (final IDMapper child : children)
+    	{
+    		futures.add (exec.submit(new Callable<T>() {
+				public T call() throws IDMapperException 
+				{
+					return q.query(child);
+				}
+			}));
+    	}
+    	
+    	// all children share the same deadline.
+    	long deadline = System.currentTimeMillis() + childTimeout;
+    	for (int i = 0; i < futures.size(); ++i)
+    	{
+    		Future<T> future = futures.get(i);
+    		try
+    		{
+    			long remaining = Math.max(0, deadline - System.currentTimeMillis());
+    			result.add (future.get(remaining, TimeUnit.MILLISECONDS));
+    		}
+    		catch (TimeoutException ex)
+    		{
+    			for (Future<T> f : futures) f.cancel(true);
+    			throw new IDMapperException ("Timed out waiting for " + children.get(i), ex);
+    		}
+    		catch (ExecutionException ex)
+    		{
+    			// fail like the sequential path does, rather than return partial results.
+    			for (Future<T> f : futures) f.cancel(true);
+    			throw (ex.getCause() instanceof IDMapperException) ? 
+    					(IDMapperException)ex.getCause() : new IDMapperException (ex.getCause());
+    		}
+    		catch (InterruptedException ex)
+    		{
+    			for (Future<T> f : futures) f.cancel(true);
+    			Thread.currentThread().interrupt();
+    			throw new IDMapperException ("Interrupted while waiting for " + children.get(i), ex);
+    		}
+    	}
+    	return result;
+    }
+    
 	/**
 	 * Remove an idMapper from the stack.
-	 * Automatically rebuilds the mapping graph.
+	 * Automatically updates the mapping graph.
 	 * 
 	 * @param idMapper IDMapper to be removed.
 	 */
     public void removeIDMapper(IDMapper idMapper)
     {
-    	gdbs.remove(idMapper);
-    	transitiveGraph = null; // trigger rebuild
+    	synchronized (graphLock)
+    	{
+    		gdbs.remove(idMapper);
+    		// the same IDMapper may have been added more than once.
+    		if (transitiveGraph != null && !gdbs.contains(idMapper))
+    		{
+    			transitiveGraph = transitiveGraph.removeMapper(idMapper);
+    		}
+    	}
     }
 
 	/**
@@ -285,17 +501,19 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	}
 
 	/** {@inheritDoc} */
-	public Set<Xref> freeSearch(String text, int limit)
+	public Set<Xref> freeSearch(final String text, final int limit)
 			throws IDMapperException 
 	{
 		Set<Xref> result = new HashSet<Xref>();
 		
-		for (IDMapper child : gdbs)
-		{
-			if (child != null && child.isConnected())
+		for (Set<Xref> childResult : queryChildren(new ChildQuery<Set<Xref>>() {
+			Set<Xref> query(IDMapper child) throws IDMapperException 
 			{
-				result.addAll (child.freeSearch(text, limit));
+				return child.freeSearch(text, limit);
 			}
+		}))
+		{
+			result.addAll (childResult);
 		}
 		return result;
 	}
@@ -322,25 +540,27 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	 * @return mapping result
 	 * @throws IDMapperException if one of the children fail
 	 */
-	private Map<Xref, Set<Xref>> mapIDnormal(Collection<Xref> srcXrefs,
-			DataSource... tgtDataSources) throws IDMapperException 
+	private Map<Xref, Set<Xref>> mapIDnormal(final Collection<Xref> srcXrefs,
+			final DataSource... tgtDataSources) throws IDMapperException 
 	{
 		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
 		
-		for (IDMapper child : gdbs)
+		for (Map<Xref, Set<Xref>> childResult : queryChildren(new ChildQuery<Map<Xref, Set<Xref>>>() {
+			Map<Xref, Set<Xref>> query(IDMapper child) throws IDMapperException 
+			{
+				return child.mapID(srcXrefs, tgtDataSources);
+			}
+		}))
 		{
-			if (child != null && child.isConnected())
+			for (Map.Entry<Xref, Set<Xref>> entry : childResult.entrySet())
 			{
-				for (Map.Entry<Xref, Set<Xref>> entry : child.mapID(srcXrefs, tgtDataSources).entrySet())
+				Set<Xref> resultSet = result.get (entry.getKey());
+				if (resultSet == null) 
 				{
-					Set<Xref> resultSet = result.get (entry.getKey());
-					if (resultSet == null) 
-					{
-						resultSet = new HashSet<Xref>();
-						result.put (entry.getKey(), resultSet);
-					}
-					resultSet.addAll (entry.getValue());
+					resultSet = new HashSet<Xref>();
+					result.put (entry.getKey(), resultSet);
 				}
+				resultSet.addAll (entry.getValue());
 			}
 		}
 		return result;
@@ -357,28 +577,39 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	private Map<Xref, Set<Xref>> mapIDtransitive(Collection<Xref> srcXrefs,
 			DataSource... tgtDataSources) throws IDMapperException 
 	{
-		// Current implementation just repeatedly calls mapIDTransitive (Xref, Set<Ds>) 
-		// It may be possible to rearrange loops to optimize for fewer database calls.
-		
-		Map <Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		// Each path in the transitive graph is walked once for all srcXrefs,
+		// so the number of child calls does not depend on the number of srcXrefs.
+		Map <Xref, Set<Xref>> result;
+		if (tgtDataSources.length == 0)
+		{
+			result = getTransitiveGraph().mapIDtransitiveUntargetted(srcXrefs);
+		}
+		else
+		{
+			Set<DataSource> dsFilter = new HashSet<DataSource>(Arrays.asList(tgtDataSources));
+			result = getTransitiveGraph().mapIDtransitiveTargetted(srcXrefs, dsFilter);
+		}
+		// like the single Xref version, return an empty set for unmapped Xrefs.
 		for (Xref ref: srcXrefs)
 		{
-			result.put (ref, mapIDtransitive(ref, tgtDataSources));
+			if (!result.containsKey(ref)) result.put (ref, new HashSet<Xref>());
 		}
 		return result;
 	}
 
 	/** {@inheritDoc} */
-	public Set<String> getAttributes(Xref ref, String attrname)
+	public Set<String> getAttributes(final Xref ref, final String attrname)
 			throws IDMapperException 
 	{
 		Set<String> result = new HashSet<String>();
-		for (IDMapper child : gdbs)
-		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected())
+		for (Set<String> childResult : queryChildren(new AttributeQuery<Set<String>>() {
+			Set<String> query(AttributeMapper child) throws IDMapperException 
 			{
-				result.addAll (((AttributeMapper)child).getAttributes(ref, attrname));
+				return child.getAttributes(ref, attrname);
 			}
+		}))
+		{
+			result.addAll (childResult);
 		}
 		return result;
 	}
@@ -415,51 +646,57 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	}
 
 	/** {@inheritDoc} */
-	public Map<Xref, String> freeAttributeSearch (String query, String attrType, int limit) throws IDMapperException
+	public Map<Xref, String> freeAttributeSearch (final String query, final String attrType, final int limit) throws IDMapperException
 	{
 		Map<Xref, String> result = null;
-		for (IDMapper child : gdbs)
+		for (Map<Xref, String> childResult : queryChildren(new FreeAttributeQuery<Map<Xref, String>>() {
+			Map<Xref, String> query(AttributeMapper child) throws IDMapperException 
+			{
+				return child.freeAttributeSearch(query, attrType, limit);
+			}
+		}))
 		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected()
-				&& ((AttributeMapper)child).isFreeAttributeSearchSupported())
+			if (result == null) 
+				result = childResult;
+			else
 			{
-				Map<Xref, String> childResult = 
-					((AttributeMapper)child).freeAttributeSearch(query, attrType, limit);
-				if (result == null) 
-					result = childResult;
-				else
+				for (Xref ref : childResult.keySet())
 				{
-					for (Xref ref : childResult.keySet())
-					{
-						if (!result.containsKey(ref))
-							result.put (ref, childResult.get(ref));
-					}
+					if (!result.containsKey(ref))
+						result.put (ref, childResult.get(ref));
 				}
 			}
 		}
 		return result;
 	}
 	
+	/** Helper for querying AttributeMappers that support free attribute search. */
+	private abstract static class FreeAttributeQuery<T> extends AttributeQuery<T>
+	{
+		@Override boolean accepts(IDMapper child) 
+		{ 
+			return super.accepts(child) && ((AttributeMapper)child).isFreeAttributeSearchSupported(); 
+		}
+	}
 	
-	public Map<Xref, Set<String>> freeAttributeSearchEx (String query, String attrType, int limit) throws IDMapperException
+	public Map<Xref, Set<String>> freeAttributeSearchEx (final String query, final String attrType, final int limit) throws IDMapperException
 	{
 		Map<Xref, Set<String>> result = new HashMap<Xref, Set<String>>();
-		for (IDMapper child : gdbs)
+		for (Map<Xref, Set<String>> childResult : queryChildren(new FreeAttributeQuery<Map<Xref, Set<String>>>() {
+			Map<Xref, Set<String>> query(AttributeMapper child) throws IDMapperException 
+			{
+				return child.freeAttributeSearchEx(query, attrType, limit);
+			}
+		}))
 		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected()
-				&& ((AttributeMapper)child).isFreeAttributeSearchSupported())
+			if (result == null) 
+				result = childResult;
+			else
 			{
-				Map<Xref, Set<String>> childResult = 
-					((AttributeMapper)child).freeAttributeSearchEx(query, attrType, limit);
-				if (result == null) 
-					result = childResult;
-				else
+				for (Xref ref : childResult.keySet())
 				{
-					for (Xref ref : childResult.keySet())
-					{
-						if (!result.containsKey(ref))
-							result.put (ref, childResult.get(ref));
-					}
+					if (!result.containsKey(ref))
+						result.put (ref, childResult.get(ref));
 				}
 			}
 		}
@@ -541,15 +778,17 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	 * @return mapping result
 	 * @throws IDMapperException if one of the children fail
 	 */
-	private Set<Xref> mapIDnormal(Xref ref, DataSource... resultDs) throws IDMapperException 
+	private Set<Xref> mapIDnormal(final Xref ref, final DataSource... resultDs) throws IDMapperException 
 	{
 		Set<Xref> result = new HashSet<Xref>();
-		for (IDMapper child : gdbs)
-		{
-			if (child != null && child.isConnected())
+		for (Set<Xref> childResult : queryChildren(new ChildQuery<Set<Xref>>() {
+			Set<Xref> query(IDMapper child) throws IDMapperException 
 			{
-				result.addAll (child.mapID(ref, resultDs));
+				return child.mapID(ref, resultDs);
 			}
+		}))
+		{
+			result.addAll (childResult);
 		}
 		return result;
 	}
@@ -558,41 +797,44 @@ public class IDMapperStack implements IDMapper, AttributeMapper
 	public Set<String> getAttributeSet() throws IDMapperException 
 	{
 		Set<String> result = new HashSet<String>();
-		for (IDMapper child : gdbs)
-		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected())
+		for (Set<String> childResult : queryChildren(new AttributeQuery<Set<String>>() {
+			Set<String> query(AttributeMapper child) throws IDMapperException 
 			{
-				result.addAll (((AttributeMapper)child).getAttributeSet());
+				return child.getAttributeSet();
 			}
+		}))
+		{
+			result.addAll (childResult);
 		}
 		return result;
 	}
 
 	
 	/** {@inheritDoc} */
-	public Map<String, Set<String>> getAttributes(Xref ref)
+	public Map<String, Set<String>> getAttributes(final Xref ref)
 			throws IDMapperException 
 	{
 		Map<String, Set<String>> result = new HashMap<String, Set<String>>();
-		for (IDMapper child : gdbs)
+		for (Map<String, Set<String>> childResult : queryChildren(new AttributeQuery<Map<String, Set<String>>>() {
+			Map<String, Set<String>> query(AttributeMapper child) throws IDMapperException 
+			{
+				return child.getAttributes(ref);
+			}
+		}))
 		{
-			if (child != null && child instanceof AttributeMapper && child.isConnected())
+			for (Map.Entry<String, Set<String>> entry : childResult.entrySet())
 			{
-				for (Map.Entry<String, Set<String>> entry :
-					((AttributeMapper)child).getAttributes(ref).entrySet())
+				Set<String> thisSet;
+				if (!result.containsKey(entry.getKey()))	
+				{
+					thisSet = new HashSet<String>();
+					result.put (entry.getKey(), thisSet); 
+				}
+				else
 				{
-					Set<String> thisSet;
-					if (!result.containsKey(entry.getKey()))	
-					{
-						thisSet = new HashSet<String>();
-						result.put (entry.getKey(), thisSet); 
-					}
-					else
-					{
-						thisSet = result.get(entry.getKey());
-					}
-					thisSet.addAll(entry.getValue());
+					thisSet = result.get(entry.getKey());
 				}
+				thisSet.addAll(entry.getValue());
 			}
 		}
 		return result;
@@ -30,8 +30,12 @@ public class Xref implements Comparable<Xref>
 	final private String id;
 	final private DataSource ds;
 	
-	// String representation of this xref
-	final private String rep;
+	// String representation of this xref, computed on first use.
+	// Races are harmless: every thread computes the same value.
+	private String rep;
+	
+	// cached hashCode, 0 means not computed yet
+	private int hash;
 	
 	/**
 	 * @param id the Id part of this Xref
@@ -40,7 +44,12 @@ public class Xref implements Comparable<Xref>
 	public Xref(String id, DataSource ds) {
 		this.id = id;
 		this.ds = ds;
-		rep = (ds == null ? "" : (ds.getSystemCode() == null ? ds.getFullName() : ds.getSystemCode())) + ":" + id; 
+	}
+	
+	/** @return the part of toString() before the colon */
+	private String prefix()
+	{
+		return ds == null ? "" : (ds.getSystemCode() == null ? ds.getFullName() : ds.getSystemCode());
 	}
 	
 	/**
@@ -58,15 +67,35 @@ public class Xref implements Comparable<Xref>
 	 *   This string representation is not meant to be stored or parsed, it is there mostly for
 	 *   debugging purposes.
 	 */
-	public String toString() { return rep;  }
+	public String toString() 
+	{
+		String result = rep;
+		if (result == null)
+		{
+			result = prefix() + ":" + id;
+			rep = result;
+		}
+		return result;
+	}
 	
 	/**
 	 * hashCode calculated from id and datasource combined.
+	 * This is equal to toString().hashCode(), but computed
+	 * without building the string.
 	 * @return the hashCode
 	 */
 	public int hashCode() 
 	{
-		return rep.hashCode();
+		int h = hash;
+		if (h == 0)
+		{
+			String idPart = String.valueOf(id);
+			h = 31 * prefix().hashCode() + ':';
+			for (int i = 0; i < idPart.length(); i++) h *= 31;
+			h += idPart.hashCode();
+			hash = h;
+		}
+		return h;
 	}
 	
 	/**
@@ -90,7 +119,7 @@ public class Xref implements Comparable<Xref>
 	 */
 	public int compareTo (Xref idc) 
 	{
-		return rep.compareTo(idc.rep);
+		return toString().compareTo(idc.toString());
 	}
 	
 	/**
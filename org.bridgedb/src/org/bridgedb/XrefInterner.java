@@ -0,0 +1,129 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands out a single shared Xref instance for each id + DataSource combination.
+ * <p>
+ * Meant for decoding large query results, where the same target Xref
+ * occurs for many source Xrefs and the same system code occurs on every row.
+ * Identifiers are kept in one table per DataSource, and the last used
+ * system code is remembered, so that consecutive rows with the same code
+ * don't need a registry lookup.
+ * <p>
+ * Not thread safe. Use one instance per query or response, so that
+ * the tables are discarded together with the result.
+ */
+public final class XrefInterner
+{
+	private final Map<DataSource, Map<String, Xref>> tables = new HashMap<DataSource, Map<String, Xref>>();
+	private final Map<String, DataSource> byCode = new HashMap<String, DataSource>();
+
+	private DataSource lastDataSource = null;
+	private Map<String, Xref> lastTable = null;
+	private String lastCode = null;
+	private DataSource lastCodeDataSource = null;
+	private int size = 0;
+
+	/**
+	 * @param systemCode system code of a registered DataSource
+	 * @return the DataSource for this system code
+	 * @throws IllegalArgumentException if no DataSource is known with this systemCode
+	 */
+	public DataSource getDataSource(String systemCode)
+	{
+		if (systemCode != null && systemCode.equals(lastCode)) return lastCodeDataSource;
+		DataSource result = byCode.get(systemCode);
+		if (result == null)
+		{
+			result = DataSource.getExistingBySystemCode(systemCode);
+			byCode.put(systemCode, result);
+		}
+		lastCode = systemCode;
+		lastCodeDataSource = result;
+		return result;
+	}
+
+	/**
+	 * @param id identifier
+	 * @param ds DataSource of the identifier, may be null
+	 * @return the shared Xref for this id and DataSource
+	 */
+	public Xref intern(String id, DataSource ds)
+	{
+		Map<String, Xref> table = tableFor(ds);
+		Xref result = table.get(id);
+		if (result == null)
+		{
+			result = new Xref(id, ds);
+			table.put(id, result);
+			size++;
+		}
+		return result;
+	}
+
+	/**
+	 * @param id identifier
+	 * @param systemCode system code of a registered DataSource
+	 * @return the shared Xref for this id and DataSource
+	 * @throws IllegalArgumentException if no DataSource is known with this systemCode
+	 */
+	public Xref intern(String id, String systemCode)
+	{
+		return intern(id, getDataSource(systemCode));
+	}
+
+	/**
+	 * @param ref Xref to intern
+	 * @return the shared Xref equal to ref, which is ref itself if it was not seen before.
+	 */
+	public Xref intern(Xref ref)
+	{
+		Map<String, Xref> table = tableFor(ref.getDataSource());
+		Xref result = table.get(ref.getId());
+		if (result == null)
+		{
+			result = ref;
+			table.put(ref.getId(), ref);
+			size++;
+		}
+		return result;
+	}
+
+	/** @return number of distinct Xrefs handed out so far */
+	public int size()
+	{
+		return size;
+	}
+
+	private Map<String, Xref> tableFor(DataSource ds)
+	{
+		if (lastTable != null && ds == lastDataSource) return lastTable;
+		Map<String, Xref> table = tables.get(ds);
+		if (table == null)
+		{
+			table = new HashMap<String, Xref>();
+			tables.put(ds, table);
+		}
+		lastDataSource = ds;
+		lastTable = table;
+		return table;
+	}
+}
@@ -0,0 +1,205 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.file;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.bridgedb.BridgeDb;
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+
+/**
+ * Maps IDs from a delimited text file, like {@link IDMapperText},
+ * but using a {@link StreamingIDMappingReader} so that large files
+ * can be used without holding all mappings as Xref objects in memory.
+ * <p>
+ * Connection string, with the same options as idmapper-text plus persist:
+ * <pre>
+ * idmapper-indexedtext:dssep=\t,idsep=;,transitivity=false,persist=true@file:/localfile.txt
+ * </pre>
+ * With persist=true the index is saved next to the file, see
+ * {@link StreamingIDMappingReader#getIndexFile()}.
+ */
+public class IDMapperIndexedText extends IDMapperFile
+{
+	static
+	{
+		BridgeDb.register ("idmapper-indexedtext", new Driver());
+	}
+
+	/** Knows how to instantiate IDMapperIndexedText. */
+	private static final class Driver implements org.bridgedb.Driver
+	{
+		/** prevent outside instantiation. */
+		private Driver() {}
+
+		/** {@inheritDoc} */
+		public IDMapper connect(String location) throws IDMapperException
+		{
+			String path = location;
+			char[] dssep = new char[] { '\t' };
+			char[] idsep = new char[] { ',' };
+			boolean transitivity = false;
+			boolean persist = false;
+
+			int idx = location.indexOf("@");
+			int urlStart = location.indexOf(":/");
+			if (idx > 0 && (urlStart < 0 || idx < urlStart))
+			{
+				path = location.substring(idx + 1);
+				String config = location.substring(0, idx) + ",";
+				transitivity = parseFlag(config, "transitivity", transitivity);
+				persist = parseFlag(config, "persist", persist);
+				char[] value = IDMapperText.parseConfig(config, "dssep");
+				if (value != null) dssep = value;
+				idsep = IDMapperText.parseConfig(config, "idsep");
+			}
+
+			try
+			{
+				return new IDMapperIndexedText(new URL(path), dssep, idsep, transitivity, persist);
+			}
+			catch (MalformedURLException ex)
+			{
+				throw new IDMapperException(ex);
+			}
+		}
+
+		private boolean parseFlag(String config, String head, boolean defaultValue) throws IDMapperException
+		{
+			Matcher m = Pattern.compile(head + "=([^,]*),", Pattern.CASE_INSENSITIVE).matcher(config);
+			if (!m.find()) return defaultValue;
+			String value = m.group(1).toLowerCase();
+			if ("true".equals(value)) return true;
+			if ("false".equals(value)) return false;
+			throw new IDMapperException(head + " can only be true or false");
+		}
+	}
+
+	private final StreamingIDMappingReader streamingReader;
+
+	/**
+	 * @param url url {@link URL} of the file
+	 * @param dataSourceDelimiters delimiters between data sources
+	 * @param idDelimiters delimiters between IDs, may be null
+	 * @param transitivity support transitivity if true
+	 * @param persistIndex save the index next to the file, if it is a local file
+	 * @throws IDMapperException if failed to read file
+	 */
+	public IDMapperIndexedText(final URL url,
+			final char[] dataSourceDelimiters,
+			final char[] idDelimiters,
+			final boolean transitivity,
+			final boolean persistIndex) throws IDMapperException
+	{
+		super(new StreamingIDMappingReader(url,
+				IDMappingReaderFromText.strs2regex(dataSourceDelimiters),
+				IDMappingReaderFromText.strs2regex(idDelimiters),
+				transitivity, persistIndex));
+		streamingReader = (StreamingIDMappingReader)reader;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Map<Xref, Set<Xref>> mapID(final Collection<Xref> srcXrefs,
+			final DataSource... tgtDataSources) throws IDMapperException
+	{
+		if (srcXrefs==null) {
+			throw new NullPointerException("argument srcXrefs cannot be null");
+		}
+		Set<DataSource> tgtDss = tgtDataSources.length == 0 ? null :
+			new HashSet<DataSource>(Arrays.asList(tgtDataSources));
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for (Xref srcXref : srcXrefs)
+		{
+			Set<Xref> refs = streamingReader.mapID(srcXref, tgtDss);
+			if (!refs.isEmpty()) result.put (srcXref, refs);
+		}
+		return result;
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public Set<Xref> mapID(Xref srcXref, DataSource... tgtDataSources) throws IDMapperException
+	{
+		return streamingReader.mapID(srcXref, tgtDataSources.length == 0 ? null :
+			new HashSet<DataSource>(Arrays.asList(tgtDataSources)));
+	}
+
+	/** {@inheritDoc} */
+	@Override
+	public boolean xrefExists(final Xref xref) throws IDMapperException
+	{
+		if (xref==null) {
+			throw new NullPointerException();
+		}
+		return streamingReader.xrefExists(xref);
+	}
+
+	/**
+	 * Free search is not supported for delimiter-text file.
+	 * This will throw UnsupportedOperationException
+	 * @param text ignored
+	 * @param limit ignored
+	 * @return does not return
+	 * @throws IDMapperException will not be thrown
+	 */
+	public Set<Xref> freeSearch (String text, int limit) throws IDMapperException
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Set transitivity support.
+	 * @param transitivity support transitivity if true.
+	 */
+	public void setTransitivity(final boolean transitivity)
+	{
+		streamingReader.setTransitivity(transitivity);
+	}
+
+	/**
+	 * Get transitivity support.
+	 * @return true if support transitivity; false otherwise.
+	 */
+	public boolean getTransitivity()
+	{
+		return streamingReader.getTransitivity();
+	}
+
+	/** @return the {@link URL} of the file */
+	public URL getURL()
+	{
+		return streamingReader.getURL();
+	}
+
+	public String toString()
+	{
+		return getURL().toString();
+	}
+}
@@ -111,45 +111,44 @@ public class IDMapperText extends IDMapperFile
                         throw new IDMapperException(ex);
                 }
             }
+	}
 
-            /** 
-             * parse the separator list part of the connection string.
-             * \@ or \t will be unescaped.
-             * @param config the connection string to parse
-             * @param head the section to look for, either dssep or idsep
-             * @return separators
-             */
-            private char[] parseConfig(String config, String head) {
-                Set<Character> delimiters = new HashSet<Character>();
-                Pattern p = Pattern.compile(head+"=(.|\\t|\\@),",
-                        Pattern.CASE_INSENSITIVE);
-                Matcher m = p.matcher(config);
-                while (m.find()) {
-                    String sep = m.group(1);
-                    if (sep.equalsIgnoreCase("\\t")) {
-                        sep = "\t";
-                    } else if (sep.equalsIgnoreCase("\\@")) {
-                        sep = "@";
-                    }
+    /** 
+     * parse the separator list part of the connection string.
+     * \@ or \t will be unescaped.
+     * @param config the connection string to parse
+     * @param head the section to look for, either dssep or idsep
+     * @return separators
+     */
+    static char[] parseConfig(String config, String head) {
+        Set<Character> delimiters = new HashSet<Character>();
+        Pattern p = Pattern.compile(head+"=(.|\\t|\\@),",
+                Pattern.CASE_INSENSITIVE);
+        Matcher m = p.matcher(config);
+        while (m.find()) {
+            String sep = m.group(1);
+            if (sep.equalsIgnoreCase("\\t")) {
+                sep = "\t";
+            } else if (sep.equalsIgnoreCase("\\@")) {
+                sep = "@";
+            }
 
-                    delimiters.add(sep.charAt(0));
-                }
+            delimiters.add(sep.charAt(0));
+        }
 
-                int nsep = delimiters.size();
-                if (nsep==0) {
-                    return null;
-                }
+        int nsep = delimiters.size();
+        if (nsep==0) {
+            return null;
+        }
 
-                char[] ret = new char[nsep];
-                int isep = 0;
-                for (char c : delimiters) {
-                    ret[isep++] = c;
-                }
+        char[] ret = new char[nsep];
+        int isep = 0;
+        for (char c : delimiters) {
+            ret[isep++] = c;
+        }
 
-                return ret;
-            }
-        
-	}
+        return ret;
+    }
 
     private final URL url;
     private char[] dataSourceDelimiters;
@@ -0,0 +1,566 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.bridgedb.impl.InternalUtils;
+
+/**
+ * Reads ID mapping data from a delimited text file in a single pass,
+ * without keeping the lines or a map of Xrefs in memory.
+ * <p>
+ * The file has the same layout as for {@link IDMappingReaderFromText}:
+ * a header line with data source names, followed by one line per group of
+ * matching identifiers. Identifiers are stored once per data source, in
+ * sorted String arrays, and each line is stored as a run of int node numbers.
+ * Mapping an Xref is a binary search followed by a walk over the lines that
+ * contain it. Empty identifiers are skipped.
+ * <p>
+ * The index is built on first use. For local files it can optionally be
+ * saved next to the file, with the extension .idx, so that the next
+ * time the file is opened the text does not need to be parsed again.
+ * The saved index is ignored when the file size, modification time or
+ * the delimiters have changed.
+ */
+public class StreamingIDMappingReader implements IDMappingReader
+{
+	private static final int INDEX_MAGIC = 0x42444958; // "BDIX"
+	private static final int INDEX_VERSION = 1;
+
+	/** Growable list of ints, so that lines don't need boxed Integers. */
+	private static final class IntList
+	{
+		private int[] data = new int[1024];
+		private int size = 0;
+
+		void add(int value)
+		{
+			if (size == data.length) data = Arrays.copyOf(data, size * 2);
+			data[size++] = value;
+		}
+
+		int get(int i) { return data[i]; }
+		int size() { return size; }
+		int[] toArray() { return Arrays.copyOf(data, size); }
+	}
+
+	private final URL url;
+	private final Pattern dataSourceDelimiter;
+	private final Pattern idDelimiter;
+	private final boolean persistIndex;
+	private volatile boolean transitivity;
+
+	// the index, set once by buildIndex() or loadIndex()
+	private volatile boolean indexed = false;
+	private DataSource[] dataSources;
+	private Map<DataSource, Integer> slotOf;
+	private String[][] ids;
+	/** first node number of each data source slot, plus the total node count */
+	private int[] slotStart;
+	private int[] lineStart;
+	private int[] lineNodes;
+	private int[] nodeLineStart;
+	private int[] nodeLines;
+
+	// connected components, only computed when transitivity is used
+	private int[] componentStart;
+	private int[] componentNodes;
+	private int[] componentOf;
+
+	/**
+	 * @param url the {@link URL} of the delimited text file
+	 * @param regExDataSourceDelimiter regular expression of delimiter between
+	 *        data sources
+	 * @param regExIDDelimiter regular expression of delimiter between IDs, may be null
+	 * @param transitivity transitivity support
+	 * @param persistIndex if true and url is a local file, save the index next to
+	 *        the file and reuse it when the file is opened again.
+	 */
+	public StreamingIDMappingReader(final URL url,
+			final String regExDataSourceDelimiter,
+			final String regExIDDelimiter,
+			final boolean transitivity,
+			final boolean persistIndex)
+	{
+		if (url==null || regExDataSourceDelimiter==null) {
+			throw new IllegalArgumentException("url and regExDataSourceDelimiter cannot be null");
+		}
+		this.url = url;
+		this.dataSourceDelimiter = Pattern.compile(regExDataSourceDelimiter);
+		this.idDelimiter = regExIDDelimiter == null ? null : Pattern.compile(regExIDDelimiter);
+		this.transitivity = transitivity;
+		this.persistIndex = persistIndex;
+	}
+
+	/**
+	 * Set transitivity support.
+	 * @param transitivity support transitivity if true.
+	 */
+	public void setTransitivity(final boolean transitivity) {
+		this.transitivity = transitivity;
+	}
+
+	/**
+	 * Get transitivity support.
+	 * @return true if support transitivity; false otherwise.
+	 */
+	public boolean getTransitivity() {
+		return transitivity;
+	}
+
+	/** @return the {@link URL} of the file */
+	public URL getURL()
+	{
+		return url;
+	}
+
+	/**
+	 * @return the file the index is saved to, or null if url is not a local file.
+	 */
+	public File getIndexFile()
+	{
+		File source = getLocalFile();
+		return source == null ? null : new File(source.getPath() + ".idx");
+	}
+
+	private File getLocalFile()
+	{
+		if (!"file".equals(url.getProtocol())) return null;
+		try
+		{
+			return new File(url.toURI());
+		}
+		catch (URISyntaxException ex)
+		{
+			return new File(url.getPath());
+		}
+		catch (IllegalArgumentException ex)
+		{
+			return null;
+		}
+	}
+
+	/** {@inheritDoc} */
+	public Set<DataSource> getDataSources() throws IDMapperException
+	{
+		ensureIndex();
+		return new HashSet<DataSource>(Arrays.asList(dataSources));
+	}
+
+	/**
+	 * Builds a map with all mappings in the file.
+	 * This defeats the purpose of this reader and is only provided
+	 * to implement {@link IDMappingReader}. Use {@link #mapID} instead.
+	 * {@inheritDoc}
+	 */
+	public Map<Xref, Set<Xref>> getIDMappings() throws IDMapperException
+	{
+		ensureIndex();
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for (int node = 0; node < slotStart[dataSources.length]; ++node)
+		{
+			Set<Xref> refs = mapNode(node, null);
+			if (!refs.isEmpty()) result.put (xrefOf(node), refs);
+		}
+		return result;
+	}
+
+	/**
+	 * @param ref Xref to look up
+	 * @return true if the Xref occurs in the file
+	 * @throws IDMapperException if the file could not be read
+	 */
+	public boolean xrefExists(Xref ref) throws IDMapperException
+	{
+		ensureIndex();
+		return lookup(ref) >= 0;
+	}
+
+	/**
+	 * Map an Xref using the lines of the file.
+	 * @param ref Xref to map
+	 * @param tgtDataSources target data sources, or null for all data sources
+	 * @return all Xrefs on the same lines as ref, or in the same connected group
+	 * 	of lines if transitivity is on. Includes ref itself. Empty if ref is not in the file.
+	 * @throws IDMapperException if the file could not be read
+	 */
+	public Set<Xref> mapID(Xref ref, Set<DataSource> tgtDataSources) throws IDMapperException
+	{
+		ensureIndex();
+		int node = lookup(ref);
+		if (node < 0) return new HashSet<Xref>();
+		return mapNode(node, tgtDataSources);
+	}
+
+	private Set<Xref> mapNode(int node, Set<DataSource> tgtDataSources)
+	{
+		boolean[] accept = null;
+		if (tgtDataSources != null)
+		{
+			accept = new boolean[dataSources.length];
+			for (int slot = 0; slot < dataSources.length; ++slot)
+			{
+				accept[slot] = tgtDataSources.contains(dataSources[slot]);
+			}
+		}
+
+		Set<Xref> result = new HashSet<Xref>();
+		if (transitivity)
+		{
+			ensureComponents();
+			int component = componentOf[node];
+			for (int i = componentStart[component]; i < componentStart[component + 1]; ++i)
+			{
+				addNode(result, componentNodes[i], accept);
+			}
+		}
+		else
+		{
+			for (int i = nodeLineStart[node]; i < nodeLineStart[node + 1]; ++i)
+			{
+				int line = nodeLines[i];
+				for (int j = lineStart[line]; j < lineStart[line + 1]; ++j)
+				{
+					addNode(result, lineNodes[j], accept);
+				}
+			}
+		}
+		return result;
+	}
+
+	private void addNode(Set<Xref> result, int node, boolean[] accept)
+	{
+		int slot = slotOf(node);
+		if (accept == null || accept[slot])
+		{
+			result.add (new Xref (ids[slot][node - slotStart[slot]], dataSources[slot]));
+		}
+	}
+
+	private int lookup(Xref ref)
+	{
+		if (ref.getId() == null) return -1;
+		Integer slot = slotOf.get(ref.getDataSource());
+		if (slot == null) return -1;
+		int pos = Arrays.binarySearch(ids[slot], ref.getId());
+		return pos < 0 ? -1 : slotStart[slot] + pos;
+	}
+
+	private int slotOf(int node)
+	{
+		int slot = Arrays.binarySearch(slotStart, node);
+		if (slot < 0) return -slot - 2;
+		// data sources without identifiers share a start with the next slot
+		while (slotStart[slot + 1] == node) slot++;
+		return slot;
+	}
+
+	private Xref xrefOf(int node)
+	{
+		int slot = slotOf(node);
+		return new Xref (ids[slot][node - slotStart[slot]], dataSources[slot]);
+	}
+
+	private synchronized void ensureIndex() throws IDMapperException
+	{
+		if (indexed) return;
+		File indexFile = persistIndex ? getIndexFile() : null;
+		try
+		{
+			if (indexFile == null || !loadIndex(indexFile))
+			{
+				buildIndex();
+				if (indexFile != null) saveIndex(indexFile);
+			}
+		}
+		catch (IOException ex)
+		{
+			throw new IDMapperException(ex);
+		}
+		indexNodes();
+		indexed = true;
+	}
+
+	/** single pass over the text, interning identifiers per data source */
+	private void buildIndex() throws IOException
+	{
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(InternalUtils.getInputStream(url)));
+		List<Map<String, Integer>> interned = new ArrayList<Map<String, Integer>>();
+		List<DataSource> dsList = new ArrayList<DataSource>();
+		slotOf = new HashMap<DataSource, Integer>();
+		IntList lineSlots = new IntList();
+		IntList lineLocals = new IntList();
+		IntList starts = new IntList();
+		try
+		{
+			String line = reader.readLine();
+			String[] types = new String[0];
+			if (line == null)
+			{
+				System.err.println("Empty file");
+			}
+			else
+			{
+				types = dataSourceDelimiter.split(line);
+			}
+			int[] columnSlot = new int[types.length];
+			for (int col = 0; col < types.length; ++col)
+			{
+				DataSource ds = DataSource.getByFullName(types[col]);
+				Integer slot = slotOf.get(ds);
+				if (slot == null)
+				{
+					slot = dsList.size();
+					dsList.add(ds);
+					slotOf.put(ds, slot);
+					interned.add(new HashMap<String, Integer>());
+				}
+				columnSlot[col] = slot;
+			}
+
+			while ((line = reader.readLine()) != null)
+			{
+				starts.add(lineSlots.size());
+				String[] columns = dataSourceDelimiter.split(line);
+				int n = Math.min(columns.length, types.length);
+				for (int col = 0; col < n; ++col)
+				{
+					String[] values = idDelimiter == null ?
+							new String[] { columns[col] } : idDelimiter.split(columns[col]);
+					Map<String, Integer> slotIds = interned.get(columnSlot[col]);
+					for (String id : values)
+					{
+						if (id.length() == 0) continue;
+						Integer local = slotIds.get(id);
+						if (local == null)
+						{
+							local = slotIds.size();
+							slotIds.put(id, local);
+						}
+						lineSlots.add(columnSlot[col]);
+						lineLocals.add(local);
+					}
+				}
+			}
+			starts.add(lineSlots.size());
+		}
+		finally
+		{
+			reader.close();
+		}
+
+		// sort the identifiers of each data source and renumber the nodes
+		dataSources = dsList.toArray(new DataSource[dsList.size()]);
+		ids = new String[dataSources.length][];
+		slotStart = new int[dataSources.length + 1];
+		int[][] renumber = new int[dataSources.length][];
+		for (int slot = 0; slot < dataSources.length; ++slot)
+		{
+			Map<String, Integer> slotIds = interned.get(slot);
+			ids[slot] = slotIds.keySet().toArray(new String[slotIds.size()]);
+			Arrays.sort(ids[slot]);
+			renumber[slot] = new int[ids[slot].length];
+			for (int i = 0; i < ids[slot].length; ++i)
+			{
+				renumber[slot][slotIds.get(ids[slot][i])] = i;
+			}
+			interned.set(slot, null);
+			slotStart[slot + 1] = slotStart[slot] + ids[slot].length;
+		}
+		lineStart = starts.toArray();
+		lineNodes = new int[lineSlots.size()];
+		for (int i = 0; i < lineNodes.length; ++i)
+		{
+			int slot = lineSlots.get(i);
+			lineNodes[i] = slotStart[slot] + renumber[slot][lineLocals.get(i)];
+		}
+	}
+
+	/** build the inverse of the lines: for each node, the lines it occurs on */
+	private void indexNodes()
+	{
+		int nodeCount = slotStart[dataSources.length];
+		nodeLineStart = new int[nodeCount + 1];
+		for (int node : lineNodes) nodeLineStart[node + 1]++;
+		for (int i = 0; i < nodeCount; ++i) nodeLineStart[i + 1] += nodeLineStart[i];
+		nodeLines = new int[lineNodes.length];
+		int[] fill = Arrays.copyOf(nodeLineStart, nodeCount);
+		for (int line = 0; line + 1 < lineStart.length; ++line)
+		{
+			for (int j = lineStart[line]; j < lineStart[line + 1]; ++j)
+			{
+				nodeLines[fill[lineNodes[j]]++] = line;
+			}
+		}
+	}
+
+	/** union-find over the lines, for transitive mapping */
+	private synchronized void ensureComponents()
+	{
+		if (componentOf != null) return;
+		int nodeCount = slotStart[dataSources.length];
+		int[] parent = new int[nodeCount];
+		for (int i = 0; i < nodeCount; ++i) parent[i] = i;
+		for (int line = 0; line + 1 < lineStart.length; ++line)
+		{
+			for (int j = lineStart[line] + 1; j < lineStart[line + 1]; ++j)
+			{
+				int a = find(parent, lineNodes[lineStart[line]]);
+				int b = find(parent, lineNodes[j]);
+				if (a != b) parent[b] = a;
+			}
+		}
+
+		int[] root = new int[nodeCount];
+		int[] start = new int[nodeCount + 1];
+		for (int i = 0; i < nodeCount; ++i)
+		{
+			root[i] = find(parent, i);
+			start[root[i] + 1]++;
+		}
+		for (int i = 0; i < nodeCount; ++i) start[i + 1] += start[i];
+		int[] nodes = new int[nodeCount];
+		int[] fill = Arrays.copyOf(start, nodeCount);
+		for (int i = 0; i < nodeCount; ++i) nodes[fill[root[i]]++] = i;
+
+		componentStart = start;
+		componentNodes = nodes;
+		componentOf = root;
+	}
+
+	private static int find(int[] parent, int node)
+	{
+		while (parent[node] != node)
+		{
+			parent[node] = parent[parent[node]];
+			node = parent[node];
+		}
+		return node;
+	}
+
+	/** @return true if the index file was up to date and has been read */
+	private boolean loadIndex(File indexFile) throws IOException
+	{
+		File source = getLocalFile();
+		if (!indexFile.exists() || indexFile.lastModified() < source.lastModified()) return false;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16));
+		try
+		{
+			if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) return false;
+			if (in.readLong() != source.length() || in.readLong() != source.lastModified()) return false;
+			if (!in.readUTF().equals(dataSourceDelimiter.pattern())) return false;
+			String idRegex = in.readBoolean() ? in.readUTF() : null;
+			if (idRegex == null ? idDelimiter != null : (idDelimiter == null || !idRegex.equals(idDelimiter.pattern())))
+				return false;
+
+			dataSources = new DataSource[in.readInt()];
+			slotOf = new HashMap<DataSource, Integer>();
+			ids = new String[dataSources.length][];
+			slotStart = new int[dataSources.length + 1];
+			for (int slot = 0; slot < dataSources.length; ++slot)
+			{
+				dataSources[slot] = DataSource.getByFullName(in.readUTF());
+				slotOf.put(dataSources[slot], slot);
+				ids[slot] = new String[in.readInt()];
+				for (int i = 0; i < ids[slot].length; ++i) ids[slot][i] = in.readUTF();
+				slotStart[slot + 1] = slotStart[slot] + ids[slot].length;
+			}
+			lineStart = readInts(in);
+			lineNodes = readInts(in);
+			return true;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private void saveIndex(File indexFile)
+	{
+		File source = getLocalFile();
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 16));
+			try
+			{
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(INDEX_VERSION);
+				out.writeLong(source.length());
+				out.writeLong(source.lastModified());
+				out.writeUTF(dataSourceDelimiter.pattern());
+				out.writeBoolean(idDelimiter != null);
+				if (idDelimiter != null) out.writeUTF(idDelimiter.pattern());
+				out.writeInt(dataSources.length);
+				for (int slot = 0; slot < dataSources.length; ++slot)
+				{
+					out.writeUTF(dataSources[slot].getFullName());
+					out.writeInt(ids[slot].length);
+					for (String id : ids[slot]) out.writeUTF(id);
+				}
+				writeInts(out, lineStart);
+				writeInts(out, lineNodes);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException ex)
+		{
+			// the index is only an optimization, the mapper works without it.
+			System.err.println("Could not save index " + indexFile + ": " + ex.getMessage());
+			indexFile.delete();
+		}
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException
+	{
+		int[] result = new int[in.readInt()];
+		for (int i = 0; i < result.length; ++i) result[i] = in.readInt();
+		return result;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException
+	{
+		out.writeInt(values.length);
+		for (int value : values) out.writeInt(value);
+	}
+}
@@ -26,6 +26,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -319,19 +320,55 @@ public final class InternalUtils
 
 	/** read a configuration file in the bridgedb xml format */
 	public static void readXmlConfig(InputSource is) throws ParserConfigurationException, SAXException, IOException
+	{	
+		registerXmlAliases(readXmlAliases(is));
+	}
+
+	/** 
+	 * Parse a configuration file in the bridgedb xml format, without registering anything.
+	 * @return the aliases of each DataSource, by full name, in file order 
+	 */
+	public static Map<String, List<String>> readXmlAliases(InputSource is) throws ParserConfigurationException, SAXException, IOException
 	{	
 		SAXParserFactory spf = SAXParserFactory.newInstance();
         spf.setNamespaceAware(true);
         SAXParser saxParser = spf.newSAXParser();
 
         XMLReader xmlReader = saxParser.getXMLReader();
-        xmlReader.setContentHandler(new ConfigXmlHandler());
+        ConfigXmlHandler handler = new ConfigXmlHandler();
+        xmlReader.setContentHandler(handler);
         xmlReader.parse(is);
+        return handler.aliases;
+	}
+
+	/** 
+	 * Register the DataSources and aliases returned by {@link #readXmlAliases}.
+	 * Other threads see either none or all of them.
+	 */
+	public static void registerXmlAliases(Map<String, List<String>> aliases)
+	{
+		DataSource.startBulkRegistration();
+		try
+		{
+			for (Map.Entry<String, List<String>> entry : aliases.entrySet())
+			{
+				DataSource current = DataSource.getByFullName(entry.getKey());
+				for (String alias : entry.getValue())
+				{
+					current.registerAlias(alias);
+				}
+			}
+		}
+		finally
+		{
+			DataSource.finishBulkRegistration();
+		}
 	}
 	
 	private static class ConfigXmlHandler extends DefaultHandler
 	{
-		DataSource current = null;
+		final Map<String, List<String>> aliases = new LinkedHashMap<String, List<String>>();
+		List<String> current = null;
 		
 		@Override
 		public void startElement(String namespaceURI, String localName,
@@ -342,14 +379,19 @@ public final class InternalUtils
 			{
 				String fullname = atts.getValue("fullname");
 				if (fullname == null) throw new SAXException ("missing attribute fullname");
-				current = DataSource.getByFullName(fullname);
+				current = aliases.get(fullname);
+				if (current == null)
+				{
+					current = new ArrayList<String>();
+					aliases.put(fullname, current);
+				}
 			}
 			
 			if ("alias".equals (localName))
 			{
 				String alias = atts.getValue ("name");
 				if (alias != null && current != null)
-					current.registerAlias(alias);
+					current.add(alias);
 			}
 		}
 		
@@ -17,9 +17,9 @@
 package org.bridgedb.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,49 +32,77 @@ import org.bridgedb.Xref;
 
 /**
  * Helper for calculating paths in {@link IDMapperStack} in transitive mode.
+ * <p>
+ * A TransitiveGraph is immutable once constructed, so it can be queried
+ * by many threads at the same time without locking. When an IDMapper is added to 
+ * or removed from the stack, {@link #addMapper(IDMapper)} and {@link #removeMapper(IDMapper)}
+ * derive a new graph from this one, without recalculating the paths that are not affected.
  */
 public class TransitiveGraph
 {
 	/** all possible paths indexed by their source (starting node) */
-	private Map<DataSource, Set<Path> > sourceMap = new HashMap<DataSource, Set<Path>>();
+	private final Map<DataSource, Set<Path> > sourceMap = new HashMap<DataSource, Set<Path>>();
 	
 	/** all possible paths indexed by their target (end node) */
-	private Map<DataSource, Set<Path> > targetMap = new HashMap<DataSource, Set<Path>>(); 
+	private final Map<DataSource, Set<Path> > targetMap = new HashMap<DataSource, Set<Path>>(); 
+	
+	/** for each source, the targets that can be reached by at least one path */
+	private final Map<DataSource, Set<DataSource> > reachable = new HashMap<DataSource, Set<DataSource>>();
 	
 	/** Constructor: immediately starts calculating paths. */
 	public TransitiveGraph(List<IDMapper> gdbs) throws IDMapperException
 	{
-		Set<Path> openSet = getDirectPaths(gdbs); // initialize map
+		Set<Path> directPaths = new HashSet<Path>();
+		for (IDMapper idm : gdbs)
+		{
+			directPaths.addAll (getDirectPaths(idm));
+		}
+		
+		Map<DataSource, Set<Path>> directBySource = new HashMap<DataSource, Set<Path>>();
+		for (Path p : directPaths)
+		{
+			InternalUtils.multiMapPut(directBySource, p.getSource(), p);
+		}
+		
+		Set<Path> openSet = directPaths;
 		indexPaths(openSet);
 		while (openSet.size() > 0)
 		{ // keep adding paths while there are new Edges for the
 							// graph
-			openSet = getPathExtensions(openSet);
+			openSet = getPathExtensions(openSet, directBySource);
 		}		
 	}
 	
+	/** 
+	 * Create a graph with the given set of paths.
+	 * @param paths all possible paths of the graph 
+	 */
+	private TransitiveGraph(Set<Path> paths)
+	{
+		indexPaths(paths);
+	}
+	
 	/** 
 	 * Calculates a new set of paths that consists of non-cyclic extensions 
-	 * of the input set.
+	 * of the input set by a single edge.
 	 * @param openSet input set to extend
+	 * @param directBySource all direct paths, indexed by their source
 	 * @returns all valid extensions of the input set. Returns an empty set if there are no valid extensions.
 	 */
-	private Set<Path> getPathExtensions(Set<Path> openSet) 
+	private Set<Path> getPathExtensions(Set<Path> openSet, Map<DataSource, Set<Path>> directBySource) 
 	{		
 		Set<Path> result = new HashSet<Path>();
 
-		// create extended paths for every DataSource
-		Iterator<Path> i = openSet.iterator();
-
-		// take items one by one from the open set ...
-		while (i.hasNext())
-		{			
-			Path path = i.next();
-			i.remove();
-			
-			// ... and find valid extensions for it
-			Set<Path> extensions = findValidExtensions(path);			
-			result.addAll(extensions);
+		// take items one by one from the open set and find valid extensions for it
+		for (Path path : openSet)
+		{
+			Set<Path> extensions = directBySource.get(path.getTarget());
+			if (extensions == null) continue;
+			for (Path extension : extensions) {
+				if (extension.isLoopFreeExtension(path)) {
+					result.add(new Path(path, extension));
+				}
+			}
 		}
 
 		// index the new paths by source and target
@@ -87,7 +115,7 @@ public class TransitiveGraph
 	/**
 	 * Update the target and source maps with the given set of new, valid paths.
 	 */
-	private void indexPaths(Set<Path> set)
+	private void indexPaths(Collection<Path> set)
 	{
 		for (Path p : set)
 		{
@@ -96,29 +124,71 @@ public class TransitiveGraph
 			
 			InternalUtils.multiMapPut(sourceMap, source, p);
 			InternalUtils.multiMapPut(targetMap, target, p);
+			InternalUtils.multiMapPut(reachable, source, target);
 		}
 	}
-
+	
+	/** @return all paths of this graph */
+	private Set<Path> getPaths()
+	{
+		Set<Path> result = new HashSet<Path>();
+		for (Set<Path> paths : sourceMap.values())
+		{
+			result.addAll (paths);
+		}
+		return result;
+	}
+	
 	/**
-	 * Find valid extensions of a given path. This looks up 
-	 * all paths that have a source that matches the current target,
-	 * and filters out the ones that introduce a cycle. 
+	 * Derive the graph for a stack with one more IDMapper. 
+	 * Only paths that go through the new IDMapper are calculated. These consist of an 
+	 * existing path leading to the new edge (or nothing), the new edge, and an existing 
+	 * path leaving from it (or nothing).
+	 * @param idm IDMapper that was added to the stack
+	 * @return a new graph, this graph is not modified.
+	 * @throws IDMapperException when the capabilities of idm could not be determined.
 	 */
-	private Set<Path> findValidExtensions(Path path)
+	public TransitiveGraph addMapper(IDMapper idm) throws IDMapperException
 	{
-		Set<Path> result = new HashSet<Path>();
-		DataSource lastElement = path.getTarget();
-		
-		for( Path extension : sourceMap.get(lastElement) ) {
-			if (extension.isLoopFreeExtension(path) ) {
-				Path newPath = new Path( path, extension );
-				result.add(newPath);
+		Set<Path> paths = getPaths();
+		for (Path edge : getDirectPaths(idm))
+		{
+			List<Path> prefixes = new ArrayList<Path>();
+			prefixes.add (null);
+			if (targetMap.containsKey(edge.getSource())) prefixes.addAll (targetMap.get(edge.getSource()));
+			List<Path> suffixes = new ArrayList<Path>();
+			suffixes.add (null);
+			if (sourceMap.containsKey(edge.getTarget())) suffixes.addAll (sourceMap.get(edge.getTarget()));
+			
+			for (Path prefix : prefixes)
+			{
+				if (prefix != null && !edge.isLoopFreeExtension(prefix)) continue;
+				Path head = prefix == null ? edge : new Path(prefix, edge); 
+				for (Path suffix : suffixes)
+				{
+					if (suffix != null && !suffix.isLoopFreeExtension(head)) continue;
+					paths.add (suffix == null ? head : new Path(head, suffix));
+				}
 			}
 		}
-		
-		return result;
+		return new TransitiveGraph(paths);
 	}
 
+	/**
+	 * Derive the graph for a stack without the given IDMapper,
+	 * by dropping the paths that go through it.
+	 * @param idm IDMapper that was removed from the stack
+	 * @return a new graph, this graph is not modified.
+	 */
+	public TransitiveGraph removeMapper(IDMapper idm)
+	{
+		Set<Path> paths = new HashSet<Path>();
+		for (Path p : getPaths())
+		{
+			if (!p.mappers.contains(idm)) paths.add (p);
+		}
+		return new TransitiveGraph(paths);
+	}
 
 	/** 
 	 * This is for testing. May be removed in the future.
@@ -141,7 +211,7 @@ public class TransitiveGraph
 	 * if they connect the same DataSources irrespective of the direction
 	 * of the Edge. 
 	 */
-	private class Edge 
+	private static class Edge 
 	{
 		public DataSource source;
 		public DataSource target;
@@ -186,7 +256,7 @@ public class TransitiveGraph
 	 *  A Path is a vector of {@link Edge}s in the graph that describe the relationships between the
 	 *  (transitive) maps supported by the IDMapperStack. 
 	 */
-	private class Path
+	private static class Path
 	{	
 		private final List<Edge> delegate = new ArrayList<Edge>();
 		private final Set<IDMapper> mappers = new HashSet<IDMapper>();
@@ -300,31 +370,28 @@ public class TransitiveGraph
 	}
 
 	/**
-	 * Create a list of all direct (i.e. one-step) paths. 
+	 * Create a list of all direct (i.e. one-step) paths of a single IDMapper. 
 	 * 
 	 * @return Hash that contains all relevant information on maps between
-	 *         DataSources of all IDMappers in this IDMapperStack. Reflexive
+	 *         DataSources of the IDMapper. Reflexive
 	 *         maps (DataSourced X -> DataSource X) are ignored. The map will
-	 *         contain only DataSources that are connected.
+	 *         be empty if the IDMapper is not connected.
 	 *         
 	 * @throws IDMapperException
 	 */
-	private Set<Path> getDirectPaths(List<IDMapper> gdbs)
+	private static Set<Path> getDirectPaths(IDMapper idm)
 			throws IDMapperException {
 
 		Set<Path> result = new HashSet<Path>();
 		
-		// add each DataSource to a PathCollection
-		for (IDMapper idm : gdbs) {
-			if (idm != null && idm.isConnected()) {
-				IDMapperCapabilities capas = idm.getCapabilities();
-				for (DataSource src : capas.getSupportedSrcDataSources()) {
-					for (DataSource tgt : capas.getSupportedTgtDataSources()) {
-						if (capas.isMappingSupported(src, tgt) && src != tgt) {
-							Edge edge = new Edge(src, tgt, idm);
-							Path path = new Path(edge);
-							result.add(path);
-						}
+		if (idm != null && idm.isConnected()) {
+			IDMapperCapabilities capas = idm.getCapabilities();
+			for (DataSource src : capas.getSupportedSrcDataSources()) {
+				for (DataSource tgt : capas.getSupportedTgtDataSources()) {
+					if (capas.isMappingSupported(src, tgt) && src != tgt) {
+						Edge edge = new Edge(src, tgt, idm);
+						Path path = new Path(edge);
+						result.add(path);
 					}
 				}
 			}
@@ -334,16 +401,8 @@ public class TransitiveGraph
 
 	public boolean isTransitiveMappingSupported(DataSource src, DataSource tgt) throws IDMapperException
 	{
-		if (!(sourceMap.containsKey(src) && targetMap.containsKey(tgt))) 
-			return false; 
-		
-		for (Path path : sourceMap.get(src)) 
-		{
-			if (path.getTarget() == tgt)
-				return true;
-		}
-		
-		return false;
+		Set<DataSource> targets = reachable.get(src);
+		return targets != null && targets.contains(tgt);
 	}
 
 	public Set<Xref> mapIDtransitiveTargetted(Xref ref, Set<DataSource> dsFilter)
@@ -387,6 +446,111 @@ public class TransitiveGraph
 		return result;
 	}
 
+	/**
+	 * Batch version of {@link #mapIDtransitiveTargetted(Xref, Set)}.
+	 * Each path is walked once for all input Xrefs with the same source DataSource. 
+	 * @param refs Xrefs to map
+	 * @param dsFilter target DataSources
+	 * @return mapping result. Input Xrefs without result are left out.
+	 * @throws IDMapperException if one of the mappers on the path fails
+	 */
+	public Map<Xref, Set<Xref>> mapIDtransitiveTargetted(Collection<Xref> refs, Set<DataSource> dsFilter)
+			throws IDMapperException
+	{
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for (Map.Entry<DataSource, Set<Xref>> group : InternalUtils.groupByDataSource(refs).entrySet())
+		{
+			if (!sourceMap.containsKey(group.getKey())) continue;
+			for (Path path : sourceMap.get(group.getKey())) 
+			{
+				if (!dsFilter.contains(path.getTarget())) continue;
+				for (Map.Entry<Xref, Set<Xref>> entry : mapID(group.getValue(), path).entrySet())
+				{
+					for (Xref j : entry.getValue())
+					{
+						if (dsFilter.contains(j.getDataSource())) 
+							InternalUtils.multiMapPut(result, entry.getKey(), j);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Batch version of {@link #mapIDtransitiveUntargetted(Xref)}.
+	 * Each path is walked once for all input Xrefs with the same source DataSource. 
+	 * @param refs Xrefs to map
+	 * @return mapping result. Input Xrefs without result are left out.
+	 * @throws IDMapperException if one of the mappers on the path fails
+	 */
+	public Map<Xref, Set<Xref>> mapIDtransitiveUntargetted(Collection<Xref> refs) throws IDMapperException
+	{
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		for (Map.Entry<DataSource, Set<Xref>> group : InternalUtils.groupByDataSource(refs).entrySet())
+		{
+			if (!sourceMap.containsKey(group.getKey())) continue;
+			for (Path path : sourceMap.get(group.getKey())) 
+			{
+				for (Map.Entry<Xref, Set<Xref>> entry : mapID(group.getValue(), path).entrySet())
+				{
+					InternalUtils.multiMapPutAll(result, entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Map a collection of Xrefs transitively along a path. The whole frontier of
+	 * Xrefs is pushed through each edge with a single mapID (Collection, ...) call,
+	 * so the number of calls depends on the path length only.
+	 * 
+	 * @param refs Xrefs to be mapped, all with the source DataSource of the path
+	 * @param path Sequence of DataSources to be mapped, given as a Path.
+	 * @return for each input Xref, the Xrefs reached at the end of the path. 
+	 * 	Input Xrefs without result are left out.
+	 */
+	private Map<Xref, Set<Xref>> mapID(Collection<Xref> refs, Path path) throws IDMapperException {
+		Map<Xref, Set<Xref>> frontier = new HashMap<Xref, Set<Xref>>();
+		
+		if (path == null || path.size() <= 0) {
+			return frontier;
+		}
+		
+		Edge e = path.get(0);
+		frontier = e.label.mapID(refs, e.target);
+
+		for (int i = 1; i < path.size() && !frontier.isEmpty(); i++) {
+			e = path.get(i);
+			if( e == null || e.source == null || e.target == null || e.label == null ) {
+				throw new IDMapperException();
+			}
+			if( ! e.label.isConnected() ) {
+				return new HashMap<Xref, Set<Xref>>();
+			}
+			Set<Xref> current = new HashSet<Xref>();
+			for (Set<Xref> reached : frontier.values()) {
+				current.addAll(reached);
+			}
+			Map<Xref, Set<Xref>> step = e.label.mapID(current, e.target);
+			
+			// follow each input Xref through this step
+			Map<Xref, Set<Xref>> next = new HashMap<Xref, Set<Xref>>();
+			for (Map.Entry<Xref, Set<Xref>> entry : frontier.entrySet()) {
+				Set<Xref> reached = new HashSet<Xref>();
+				for (Xref x : entry.getValue()) {
+					Set<Xref> mapped = step.get(x);
+					if (mapped != null) reached.addAll(mapped);
+				}
+				if (!reached.isEmpty()) next.put(entry.getKey(), reached);
+			}
+			frontier = next;
+		}
+		
+		return frontier;
+	}
+
 	/**
 	 * 
 	 * Map ID transitively using specified sequence of DataSources given by path.
@@ -0,0 +1,110 @@
+// BridgeDb,
+// An abstraction layer for identifier mapping services, both local and online.
+// Copyright 2006-2009 BridgeDb developers
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+package org.bridgedb;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class CachingIDMapperTest extends TestCase
+{
+	private URL url;
+	private DataSource dsX, dsY;
+
+	protected void setUp() throws ClassNotFoundException
+	{
+		Class.forName("org.bridgedb.file.IDMapperText");
+		Class.forName("org.bridgedb.CachingIDMapper");
+		url = getClass().getClassLoader().getResource("XY.csv");
+		assertNotNull (url);
+		dsX = DataSource.getByFullName("X");
+		dsY = DataSource.getByFullName("Y");
+	}
+
+	public void testConnect() throws IDMapperException
+	{
+		IDMapper mapper = BridgeDb.connect("idmapper-cache:idmapper-text:" + url);
+		assertTrue (mapper instanceof CachingIDMapper);
+
+		mapper = BridgeDb.connect("idmapper-cache:maxsize=2,ttl=0,negative=false@idmapper-text:" + url);
+		assertTrue (mapper instanceof CachingIDMapper);
+
+		try
+		{
+			BridgeDb.connect("idmapper-cache:colour=blue@idmapper-text:" + url);
+			fail ("Expected IDMapperException for unknown option");
+		}
+		catch (IDMapperException expected) {}
+	}
+
+	public void testHitsAndMisses() throws IDMapperException
+	{
+		CachingIDMapper mapper = (CachingIDMapper)BridgeDb.connect(
+				"idmapper-cache:maxsize=3,ttl=0@idmapper-text:" + url);
+		Xref x1 = new Xref ("x1", dsX);
+		Xref unknown = new Xref ("x9", dsX);
+
+		Set<Xref> first = mapper.mapID(x1, dsY);
+		assertTrue (first.contains(new Xref ("y1", dsY)));
+		assertEquals (0, mapper.getHitCount());
+		assertEquals (1, mapper.getMissCount());
+
+		// modifying a result must not change the cache
+		first.clear();
+		assertEquals (1, mapper.mapID(x1, dsY).size());
+		assertEquals (1, mapper.getHitCount());
+
+		// different targets are cached separately
+		mapper.mapID(x1);
+		assertEquals (2, mapper.getMissCount());
+
+		// misses are cached as well
+		assertTrue (mapper.mapID(unknown, dsY).isEmpty());
+		assertTrue (mapper.mapID(unknown, dsY).isEmpty());
+		assertEquals (2, mapper.getHitCount());
+		assertEquals (3, mapper.getSize());
+
+		// collection lookup: x1 is a hit, x2 goes to the wrapped mapper and evicts the eldest entry
+		Map<Xref, Set<Xref>> result = mapper.mapID(Arrays.asList(x1, new Xref ("x2", dsX)), dsY);
+		assertEquals (2, result.size());
+		assertEquals (3, mapper.getHitCount());
+		assertEquals (1, mapper.getEvictionCount());
+		assertEquals (3, mapper.getSize());
+	}
+
+	public void testTtl() throws IDMapperException, InterruptedException
+	{
+		CachingIDMapper mapper = new CachingIDMapper(
+				BridgeDb.connect("idmapper-text:" + url), 100, 50, false);
+		Xref x1 = new Xref ("x1", dsX);
+		assertTrue (mapper.xrefExists(x1));
+		assertTrue (mapper.xrefExists(x1));
+		assertEquals (1, mapper.getHitCount());
+
+		Thread.sleep (100);
+		assertTrue (mapper.xrefExists(x1));
+		assertEquals (2, mapper.getMissCount());
+		assertEquals (1, mapper.getEvictionCount());
+
+		// negative caching is off
+		assertFalse (mapper.xrefExists(new Xref ("x9", dsX)));
+		assertEquals (1, mapper.getSize());
+	}
+}
@@ -18,8 +18,11 @@
 //
 package org.bridgedb;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -113,4 +116,77 @@ public class DataSourceRegisterTest {
         DataSource ds2 = DataSource.register(sysCode2, fullName).asDataSource();
     }
 
+    @Test
+    public void testBulkRegistration() throws Exception{
+        final String sysCode = "DataSourceRegistryTest_Bulk";
+        final String fullName = "DataSourceRegistryTest_testBulk";
+        DataSource.startBulkRegistration();
+        try {
+            DataSource ds = DataSource.register(sysCode, fullName).asDataSource();
+            ds.registerAlias(fullName + "_alias");
+            //visible to this thread
+            Assert.assertSame(ds, DataSource.getExistingBySystemCode(sysCode));
+            Assert.assertSame(ds, DataSource.getByAlias(fullName + "_alias"));
+            Assert.assertTrue(DataSource.getDataSources().contains(ds));
+            //but not yet to others
+            final AtomicReference<Boolean> seen = new AtomicReference<Boolean>();
+            Thread reader = new Thread(){
+                public void run(){
+                    seen.set(DataSource.systemCodeExists(sysCode) || DataSource.fullNameExists(fullName));
+                }
+            };
+            reader.start();
+            reader.join();
+            Assert.assertEquals(Boolean.FALSE, seen.get());
+        } finally {
+            DataSource.finishBulkRegistration();
+        }
+        Assert.assertTrue(DataSource.systemCodeExists(sysCode));
+        Assert.assertEquals(sysCode, DataSource.getExistingByFullName(fullName).getSystemCode());
+    }
+
+    @Test (expected =  IllegalMonitorStateException.class)
+    public void testFinishWithoutStart() {
+        DataSource.finishBulkRegistration();
+    }
+
+    @Test
+    public void testConcurrentRegister() throws Exception{
+        final int threadCount = 8;
+        final int count = 200;
+        final List<Thread> threads = new ArrayList<Thread>();
+        final DataSource[][] found = new DataSource[threadCount][count];
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        for (int t = 0; t < threadCount; t++){
+            final int thread = t;
+            threads.add(new Thread(){
+                public void run(){
+                    try {
+                        for (int i = 0; i < count; i++){
+                            found[thread][i] = DataSource.register("DataSourceRegistryTest_Concurrent" + i, 
+                                    "DataSourceRegistryTest_testConcurrent" + i).asDataSource();
+                            Assert.assertNotNull(DataSource.getExistingBySystemCode("DataSourceRegistryTest_Concurrent" + i));
+                        }
+                    } catch (Throwable ex){
+                        error.set(ex);
+                    }
+                }
+            });
+        }
+        for (Thread thread:threads){
+            thread.start();
+        }
+        for (Thread thread:threads){
+            thread.join();
+        }
+        Assert.assertNull(error.get());
+        for (int i = 0; i < count; i++){
+            //Every thread must have got the same instance
+            for (int t = 1; t < threadCount; t++){
+                Assert.assertSame(found[0][i], found[t][i]);
+            }
+            Assert.assertTrue(DataSource.getDataSources().contains(found[0][i]));
+        }
+    }
+
 }
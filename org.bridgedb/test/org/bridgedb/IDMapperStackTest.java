@@ -18,7 +18,10 @@ package org.bridgedb;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -122,4 +125,128 @@ public class IDMapperStackTest extends TestCase
 		assertTrue (results.contains (new Xref("w2", dsW )));
 	}
 
+	/** mapping a collection transitively should give the same result as mapping one by one */
+	public void testMapIDTransitiveBatch() throws IDMapperException
+	{
+		Set<Xref> srcs = new HashSet<Xref>();
+		for (String id : new String[] { "x1", "x2", "x3", "x9" }) srcs.add (new Xref (id, dsX));
+		for (String id : new String[] { "a1", "a2", "a3" }) srcs.add (new Xref (id, dsA));
+		srcs.add (new Xref ("e1", dsE));
+		
+		Map<Xref, Set<Xref>> untargetted = stack.mapID(srcs);
+		Map<Xref, Set<Xref>> targetted = stack.mapID(srcs, dsW, dsE);
+		assertEquals (srcs, untargetted.keySet());
+		assertEquals (srcs, targetted.keySet());
+		for (Xref src : srcs)
+		{
+			assertEquals (stack.mapID(src), untargetted.get(src));
+			assertEquals (stack.mapID(src, dsW, dsE), targetted.get(src));
+		}
+		assertTrue (untargetted.get(new Xref ("x9", dsX)).isEmpty());
+		assertTrue (targetted.get(new Xref ("a1", dsA)).contains (new Xref ("e1", dsE)));
+	}
+	
+	/** a graph that is updated when mappers are added and removed should match a freshly built one */
+	public void testIncrementalGraph() throws IDMapperException
+	{
+		IDMapperStack incremental = new IDMapperStack();
+		incremental.setTransitive(true);
+		incremental.addIDMapper(mappers.get("XY"));
+		incremental.addIDMapper(mappers.get("AB"));
+		// build the graph now, so later changes are incremental
+		assertFalse (incremental.getCapabilities().isMappingSupported(dsX, dsW));
+		incremental.addIDMapper(mappers.get("YW"));
+		incremental.addIDMapper(mappers.get("BC"));
+		incremental.addIDMapper(mappers.get("XZ"));
+		incremental.addIDMapper(mappers.get("YZ"));
+		incremental.removeIDMapper(mappers.get("AB"));
+		assertTrue (incremental.getCapabilities().isMappingSupported(dsX, dsW));
+		assertFalse (incremental.getCapabilities().isMappingSupported(dsA, dsC));
+		
+		IDMapperStack fresh = new IDMapperStack();
+		fresh.setTransitive(true);
+		for (String name : new String[] { "XY", "YW", "BC", "XZ", "YZ" })
+			fresh.addIDMapper(mappers.get(name));
+		
+		DataSource[] all = { dsW, dsX, dsY, dsZ, dsA, dsB, dsC };
+		for (DataSource src : all)
+		{
+			for (DataSource tgt : all)
+			{
+				assertEquals (fresh.getCapabilities().isMappingSupported(src, tgt), 
+						incremental.getCapabilities().isMappingSupported(src, tgt));
+			}
+		}
+		for (String id : new String[] { "x1", "x2", "x3" })
+		{
+			Xref src = new Xref (id, dsX);
+			assertEquals (fresh.mapID(src), incremental.mapID(src));
+			assertEquals (fresh.mapID(src, dsW), incremental.mapID(src, dsW));
+		}
+	}
+	
+	/** IDMapper that takes a long time to answer, or fails. */
+	private static class BrokenIDMapper extends AbstractIDMapper
+	{
+		private final boolean fail;
+		BrokenIDMapper(boolean fail) { this.fail = fail; }
+		
+		public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException 
+		{
+			if (fail) throw new IDMapperException ("Broken");
+			try { Thread.sleep (5000); } catch (InterruptedException ex) { }
+			return Collections.emptyMap();
+		}
+		public boolean xrefExists(Xref xref) { return false; }
+		public Set<Xref> freeSearch(String text, int limit) { return Collections.emptySet(); }
+		public IDMapperCapabilities getCapabilities() { return null; }
+		public void close() { }
+		public boolean isConnected() { return true; }
+	}
+	
+	public void testParallel() throws IDMapperException
+	{
+		IDMapperStack parallel = new IDMapperStack();
+		parallel.addIDMapper(mappers.get("XY"));
+		parallel.addIDMapper(mappers.get("YW"));
+		parallel.setParallel(true);
+		assertTrue (parallel.getParallel());
+		Set<Xref> results = parallel.mapID(new Xref ("y2", dsY));
+		assertTrue (results.contains (new Xref("x2", dsX )));
+		assertTrue (results.contains (new Xref("w2", dsW )));
+		
+		// a slow child fails the query, as a failing child does in sequential mode.
+		IDMapperStack slow = new IDMapperStack();
+		slow.addIDMapper(new BrokenIDMapper(false));
+		slow.addIDMapper(mappers.get("XY"));
+		slow.setParallel(true);
+		slow.setChildTimeout(500);
+		long start = System.currentTimeMillis();
+		try
+		{
+			slow.mapID(new Xref ("y2", dsY));
+			fail ("Expected IDMapperException when a child times out");
+		}
+		catch (IDMapperException expected) {}
+		assertTrue (System.currentTimeMillis() - start < 5000);
+		
+		IDMapperStack failing = new IDMapperStack();
+		failing.addIDMapper(mappers.get("XY"));
+		failing.addIDMapper(new BrokenIDMapper(true));
+		failing.setParallel(true);
+		try
+		{
+			failing.mapID(new Xref ("y2", dsY));
+			fail ("Expected IDMapperException when a child fails");
+		}
+		catch (IDMapperException expected) {}
+		failing.setParallel(false);
+		try
+		{
+			failing.mapID(new Xref ("y2", dsY));
+			fail ("Expected IDMapperException when a child fails");
+		}
+		catch (IDMapperException expected) {}
+	}
+
 }
@@ -19,16 +19,24 @@ package org.bridgedb;
 //import buildsystem.Measure;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.bridgedb.file.IDMapperFile;
+import org.bridgedb.file.IDMapperIndexedText;
 import org.bridgedb.file.IDMapperText;
+import org.bridgedb.file.StreamingIDMappingReader;
 import org.junit.Before;
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -96,6 +104,89 @@ public class TestFile {
 
 	}
 
+	@Test public void testIndexedText() throws IDMapperException, IOException
+	{
+		IDMapperFile expected = new IDMapperText (YEAST_IDS.toURL(), new char[] { '\t' }, new char[] { ',' }, false);
+		IDMapperIndexedText indexed = new IDMapperIndexedText (YEAST_IDS.toURL(), new char[] { '\t' }, new char[] { ',' }, false, false);
+		Assert.assertEquals (expected.getCapabilities().getSupportedSrcDataSources(),
+				indexed.getCapabilities().getSupportedSrcDataSources());
+
+		List<Xref> srcXrefs = new ArrayList<Xref>();
+		for (Xref ref : expected.mapID(XREF1))
+		{
+			// empty identifiers are skipped by the indexed reader
+			if (ref.getId().length() > 0) srcXrefs.add (ref);
+		}
+		srcXrefs.add (new Xref ("YAL001C", ENS_YEAST));
+		srcXrefs.add (new Xref ("Humbug", ENS_YEAST));
+		for (Xref ref : srcXrefs)
+		{
+			Assert.assertEquals (withoutEmptyIds(expected.mapID(ref)), indexed.mapID(ref));
+			Assert.assertEquals (withoutEmptyIds(expected.mapID(ref, EMBL)), indexed.mapID(ref, EMBL));
+			Assert.assertEquals (expected.xrefExists(ref), indexed.xrefExists(ref));
+		}
+		Map<Xref, Set<Xref>> expectedMap = expected.mapID(srcXrefs, ENTREZ, EMBL);
+		for (Set<Xref> refs : expectedMap.values()) withoutEmptyIds(refs);
+		Assert.assertEquals (expectedMap, indexed.mapID(srcXrefs, ENTREZ, EMBL));
+
+		// transitive: connected groups of lines
+		indexed.setTransitivity(true);
+		Set<Xref> group = indexed.mapID(XREF1);
+		Assert.assertTrue (group.containsAll(withoutEmptyIds(expected.mapID(XREF1))));
+		Assert.assertTrue (group.size() > expected.mapID(XREF1).size());
+		for (Xref ref : group)
+		{
+			Assert.assertEquals (group, indexed.mapID(ref));
+		}
+	}
+
+	/** empty identifiers are skipped by the indexed reader */
+	private static Set<Xref> withoutEmptyIds(Set<Xref> refs)
+	{
+		refs.remove (new Xref ("", ENTREZ));
+		refs.remove (new Xref ("", EMBL));
+		return refs;
+	}
+
+	@Test public void testPersistedIndex() throws IDMapperException, IOException, ClassNotFoundException
+	{
+		File copy = File.createTempFile("yeast_id_mapping", ".txt");
+		InputStream in = new FileInputStream(YEAST_IDS);
+		OutputStream out = new FileOutputStream(copy);
+		byte[] buf = new byte[8192];
+		int len;
+		while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
+		in.close();
+		out.close();
+
+		StreamingIDMappingReader reader = new StreamingIDMappingReader(copy.toURL(), "\t", ",", false, true);
+		File indexFile = reader.getIndexFile();
+		try
+		{
+			Class.forName("org.bridgedb.file.IDMapperIndexedText");
+			IDMapper first = BridgeDb.connect("idmapper-indexedtext:persist=true@" + copy.toURL());
+			Set<Xref> expected = new IDMapperText (copy.toURL(), new char[] { '\t' }, new char[] { ',' }).mapID(XREF1);
+			Assert.assertEquals (expected, first.mapID(XREF1));
+			Assert.assertTrue (indexFile.exists());
+
+			// the second time, the index is read instead of the text
+			long indexModified = indexFile.lastModified();
+			IDMapper second = BridgeDb.connect("idmapper-indexedtext:persist=true@" + copy.toURL());
+			Assert.assertEquals (expected, second.mapID(XREF1));
+			Assert.assertEquals (indexModified, indexFile.lastModified());
+			Assert.assertEquals (expected, reader.mapID(XREF1, null));
+
+			// different delimiters can't reuse the index
+			StreamingIDMappingReader noIdSep = new StreamingIDMappingReader(copy.toURL(), "\t", null, false, true);
+			Assert.assertFalse (noIdSep.mapID(XREF1, null).isEmpty());
+		}
+		finally
+		{
+			copy.delete();
+			indexFile.delete();
+		}
+	}
+
 	public void _testTransitive() throws MalformedURLException, IDMapperException
 	{
 		IDMapperFile idMapper = new IDMapperText (YEAST_IDS.toURL(),
@@ -87,4 +87,29 @@ public class XrefTest {
 		Assert.assertTrue(xref.equals(xref2));
 		Assert.assertTrue(xref2.equals(xref)); // and symmetric
 	}
+	@Test
+	public void testHashCode() {
+		Xref[] xrefs = {
+			new Xref("ENSG000001", EN),
+			new Xref("", EN),
+			new Xref(null, EN),
+			new Xref("ENSG000001", null),
+			new Xref("P12345", DataSource.getByFullName("Uniprot-TrEMBL")),
+		};
+		for (Xref xref : xrefs) {
+			Assert.assertEquals(xref.toString().hashCode(), xref.hashCode());
+		}
+	}
+
+	@Test
+	public void testInterner() {
+		XrefInterner interner = new XrefInterner();
+		Xref xref = interner.intern("ENSG000001", "En");
+		Assert.assertEquals(new Xref("ENSG000001", EN), xref);
+		Assert.assertSame(xref, interner.intern("ENSG000001", EN));
+		Assert.assertSame(xref, interner.intern(new Xref("ENSG000001", EN)));
+		Assert.assertNotSame(xref, interner.intern("ENSG000001", UNIPROT));
+		Assert.assertSame(EN, interner.getDataSource("En"));
+		Assert.assertEquals(2, interner.size());
+	}
 }